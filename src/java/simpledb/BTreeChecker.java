@@ -55,6 +55,7 @@ public class BTreeChecker {
      * 3) range invariants.
      * 4) record to page pointers.
      * 5) occupancy invariants. (if enabled)
+     * 6) fence keys matching the range invariants. (in B-link mode)
      */
     public static void checkRep(BTreeFile bt, TransactionId tid, HashMap<PageId, Page> dirtypages,
                                 boolean checkOccupancy) throws
@@ -77,6 +78,11 @@ public class BTreeChecker {
             TransactionAbortedException, DbException {
         BTreePage page = (BTreePage )bt.getPage(tid, dirtypages, pageId, Permissions.READ_ONLY);
         assert(page.getParentId().equals(parentId));
+        if (bt.isBLink()) {
+            assert(page.isFenced());
+            assert(sameKey(page.getLowKey(), lowerBound));
+            assert(sameKey(page.getHighKey(), upperBound));
+        }
 
         if (page.getId().pgcateg() == BTreePageId.LEAF) {
             BTreeLeafPage bpage = (BTreeLeafPage) page;
@@ -121,4 +127,8 @@ public class BTreeChecker {
             return null;
         }
     }
-}
\ No newline at end of file
+
+    private static boolean sameKey(Field a, Field b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
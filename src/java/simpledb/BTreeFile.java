@@ -4,9 +4,13 @@ import simpledb.Predicate.Op;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.TreeSet;
 
 /**
  * BTreeFile is an implementation of a DbFile that stores a B+ tree.
@@ -27,6 +31,7 @@ public class BTreeFile implements DbFile {
     private final TupleDesc td;
     private final int tableid;
     private int keyField;
+    private final boolean blink;
 
     /**
      * Constructs a B+ tree file backed by the specified file.
@@ -37,10 +42,40 @@ public class BTreeFile implements DbFile {
      * @param td  - the tuple descriptor of tuples in the file
      */
     public BTreeFile(File f, int key, TupleDesc td) {
+        this(f, key, td, false);
+    }
+
+    /**
+     * Constructs a B+ tree file backed by the specified file, optionally in
+     * B-link mode.  In B-link mode every page also records the range of keys
+     * it covers (its fence keys), and internal pages get a right link to the
+     * next internal page on the same level, like the right sibling pointers
+     * of the leaves.  A search can then follow the path down without holding
+     * a latch on the parent while it moves to the child: if a concurrent
+     * split has moved the key out of the page it lands on, it moves right.
+     * The page format depends on the mode, so a file must always be opened
+     * in the mode it was created in.
+     *
+     * @param f     - the file that stores the on-disk backing store for this B+ tree
+     *              file.
+     * @param key   - the field which index is keyed on
+     * @param td    - the tuple descriptor of tuples in the file
+     * @param blink - whether the file is a B-link tree
+     */
+    public BTreeFile(File f, int key, TupleDesc td, boolean blink) {
         this.f = f;
         this.tableid = f.getAbsoluteFile().hashCode();
         this.keyField = key;
         this.td = td;
+        this.blink = blink;
+    }
+
+    /**
+     * @return true if this file is a B-link tree
+     * @see #BTreeFile(File, int, TupleDesc, boolean)
+     */
+    public boolean isBLink() {
+        return blink;
     }
 
     /**
@@ -175,50 +210,31 @@ public class BTreeFile implements DbFile {
     }
 
     /**
-     * Recursive function which finds and locks the leaf page in the B+ tree corresponding to
-     * the left-most page possibly containing the key field f. It locks all internal
-     * nodes along the path to the leaf node with READ_ONLY permission, and locks the
-     * leaf node with permission perm.
+     * Finds and locks the leaf page in the B+ tree corresponding to the left-most
+     * page possibly containing the key field f, and locks it with permission perm.
+     * The root pointer and internal pages on the path are not locked: they are
+     * read under shared latches taken hand-over-hand (latch crabbing), each
+     * released as soon as the latch on the next page is granted.
+     * <p>
+     * No latch is held while the transaction waits for the leaf lock, so by the
+     * time it is granted the leaf may have been split, or freed by a rolled back
+     * split.  The path is therefore followed again once the leaf is locked.  A
+     * locked leaf cannot be split or merged by anyone else, so if the path still
+     * ends at the same leaf, it is the right one; otherwise a lock that was just
+     * acquired is released and the search starts over.
      * <p>
      * If f is null, it finds the left-most leaf page -- used for the iterator
      *
      * @param tid        - the transaction id
      * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
-     * @param pid        - the current page being searched
      * @param perm       - the permissions with which to lock the leaf page
      * @param f          - the field to search for
-     * @return the left-most leaf page possibly containing the key field f
+     * @return the left-most leaf page possibly containing the key field f, or null if
+     * the tree has no root yet
      */
-    private BTreeLeafPage findLeafPage(TransactionId tid, HashMap<PageId, Page> dirtypages, BTreePageId pid, Permissions perm,
+    private BTreeLeafPage findLeafPage(TransactionId tid, HashMap<PageId, Page> dirtypages, Permissions perm,
                                        Field f) throws DbException, TransactionAbortedException {
-        switch (pid.pgcateg())
-        {
-            case BTreePageId.LEAF:
-                return (BTreeLeafPage) getPage(tid, dirtypages, pid, perm);
-            case BTreePageId.INTERNAL:
-                //得到该节点entry的迭代器
-                BTreeInternalPage page = (BTreeInternalPage) this.getPage(tid, dirtypages, pid, perm);
-                Iterator<BTreeEntry> entries = page.iterator();
-                if(entries == null || !entries.hasNext())//进行检测
-                    throw new DbException("No that Entry!");
-
-                if (f == null)//查找空值时返回最左边的叶节点
-                    return findLeafPage(tid, dirtypages, entries.next().getLeftChild(), perm, f);
-
-                BTreeEntry entry=null;
-                while (entries.hasNext()) {
-                    entry = entries.next();
-                    if (entry.getKey().compare(Op.GREATER_THAN_OR_EQ, f)) {
-                        //当前节点键值大于等于查找键值时在左子节点继续查找
-                        return findLeafPage(tid, dirtypages, entry.getLeftChild(), perm, f);
-                    }
-                }
-                return findLeafPage(tid, dirtypages, entry.getRightChild(), perm, f);
-            case BTreePageId.HEADER:
-            case BTreePageId.ROOT_PTR:
-            default:
-                throw new DbException("not valid page");
-        }
+        return lockLeafPage(tid, dirtypages, perm, f, false);
     }
 
     /**
@@ -226,80 +242,308 @@ public class BTreeFile implements DbFile {
      * Used by the BTreeFile iterator.
      *
      * @param tid  - the transaction id
-     * @param pid  - the current page being searched
      * @param perm - the permissions with which to lock the leaf page
      * @param f    - the field to search for
      * @return the left-most leaf page possibly containing the key field f
-     * @see #findLeafPage(TransactionId, HashMap, BTreePageId, Permissions, Field)
+     * @see #findLeafPage(TransactionId, HashMap, Permissions, Field)
+     */
+    BTreeLeafPage findLeafPage(TransactionId tid, Permissions perm, Field f)
+            throws DbException, TransactionAbortedException {
+        return findLeafPage(tid, new HashMap<PageId, Page>(), perm, f);
+    }
+
+    /**
+     * Like {@link #findLeafPage(TransactionId, HashMap, Permissions, Field)}, but
+     * finds the right-most leaf page possibly containing the key field f, or the
+     * right-most leaf page if f is null -- used for the reverse iterator
+     *
+     * @param tid  - the transaction id
+     * @param perm - the permissions with which to lock the leaf page
+     * @param f    - the field to search for
+     * @return the right-most leaf page possibly containing the key field f
      */
-    BTreeLeafPage findLeafPage(TransactionId tid, BTreePageId pid, Permissions perm,
-                               Field f)
+    BTreeLeafPage findReverseLeafPage(TransactionId tid, Permissions perm, Field f)
             throws DbException, TransactionAbortedException {
-        return findLeafPage(tid, new HashMap<PageId, Page>(), pid, perm, f);
+        return lockLeafPage(tid, new HashMap<PageId, Page>(), perm, f, true);
+    }
+
+    private BTreeLeafPage lockLeafPage(TransactionId tid, HashMap<PageId, Page> dirtypages, Permissions perm,
+                                       Field f, boolean reverse) throws DbException, TransactionAbortedException {
+        BufferPool pool = Database.getBufferPool();
+        if (blink) {
+            BTreePageId rootId = getLatchedRootId(dirtypages);
+            if (rootId == null) {
+                return null;
+            }
+            BTreeLeafPage leaf = moveRightLeafPage(tid, dirtypages, perm, f, reverse, rootId);
+            if (leaf != null) {
+                return leaf;
+            }
+            //B-link查找失败（页面被合并或回滚）时退回到加锁爬行的查找方式
+        }
+        while (true) {
+            BTreePageId leafId = descend(dirtypages, f, reverse);
+            if (leafId == null) {
+                return null;
+            }
+            boolean held = pool.holdsLock(tid, leafId);
+            BTreeLeafPage leaf = (BTreeLeafPage) getPage(tid, dirtypages, leafId, perm);
+            if (leafId.equals(descend(dirtypages, f, reverse))) {
+                return leaf;
+            }
+            //加锁期间搜索路径发生了变化，放弃刚加的锁后重新查找
+            if (!held) {
+                dirtypages.remove(leafId);
+                pool.releasePage(tid, leafId);
+            }
+        }
     }
 
     /**
-     * Recursive function which finds and locks the leaf page in the B+ tree corresponding to
-     * the left-most page possibly containing the key field f. It locks all internal
-     * nodes along the path to the leaf node with READ_ONLY permission, and locks the
-     * leaf node with permission perm.
+     * Follow the search path for f from the root pointer down to a leaf,
+     * crabbing shared latches: the latch on a page is released only once the
+     * latch on its child has been granted.
+     *
+     * @return the id of the leaf at the end of the path, or null if the tree has no root
+     */
+    private BTreePageId descend(HashMap<PageId, Page> dirtypages, Field f, boolean reverse)
+            throws DbException, TransactionAbortedException {
+        createIfEmpty();
+        BufferPool pool = Database.getBufferPool();
+        BTreePageId pid = BTreeRootPtrPage.getId(tableid);
+        pool.latchPage(pid, false);
+        try {
+            BTreePageId child = ((BTreeRootPtrPage) getLatchedPage(dirtypages, pid)).getRootId();
+            while (child != null && child.pgcateg() == BTreePageId.INTERNAL) {
+                pool.latchPage(child, false);
+                pool.unlatchPage(pid, false);
+                pid = child;
+                BTreeInternalPage page = (BTreeInternalPage) getLatchedPage(dirtypages, pid);
+                child = reverse ? reverseChildFor(page, f) : childFor(page, f);
+            }
+            return child;
+        } finally {
+            pool.unlatchPage(pid, false);
+        }
+    }
+
+    /**
+     * B-link search: follow the search path for f from the given root holding
+     * one latch at a time, and lock the leaf at its end.  Wherever f is above
+     * the high key of a page, because the page was split after its parent was
+     * read, the search moves right along the right links, and likewise along
+     * the leaf level once the leaf is locked.  The fence keys of a locked leaf
+     * cannot change, so a leaf whose range holds f is the right one.
      * <p>
-     * If f is null, it finds the left-most leaf page -- used for the iterator
+     * A page may also have been merged into its left sibling, freed by a
+     * rolled back split, or reused elsewhere in the tree.  Then f is at or
+     * below its low key, or the page has no valid fences; the search cannot
+     * move left, so it gives up.
      *
-     * @param tid        - the transaction id
-     * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
-     * @param pid        - the current page being searched
-     * @param perm       - the permissions with which to lock the leaf page
-     * @param f          - the field to search for
-     * @return the left-most leaf page possibly containing the key field f
+     * @return the locked leaf page, or null if the search gave up
      */
-    private BTreeLeafPage findReverseLeafPage(TransactionId tid, HashMap<PageId, Page> dirtypages, BTreePageId pid, Permissions perm,
-                                              Field f) throws DbException, TransactionAbortedException {
-        switch (pid.pgcateg())
-        {
-            case BTreePageId.LEAF:
-                return (BTreeLeafPage) this.getPage(tid, dirtypages, pid, perm);
-            case BTreePageId.INTERNAL:
-                //得到该节点entry的迭代器
-                BTreeInternalPage page = (BTreeInternalPage) this.getPage(tid, dirtypages, pid, perm);
-                Iterator<BTreeEntry> entries = page.reverseIterator();
-                if(entries == null || !entries.hasNext())//进行检测
-                    throw new DbException("No that Entry!");
-
-                if (f == null)//查找空值时返回最左边的叶节点
-                    return findReverseLeafPage(tid, dirtypages, entries.next().getRightChild(), perm, f);
-
-                BTreeEntry entry=null;
-                while (entries.hasNext()) {
-                    entry = entries.next();
-                    if (entry.getKey().compare(Op.LESS_THAN_OR_EQ, f)) {
-                        //当前节点键值小于等于查找键值时在右子节点继续查找
-                        return findReverseLeafPage(tid, dirtypages, entry.getRightChild(), perm, f);
-                    }
+    private BTreeLeafPage moveRightLeafPage(TransactionId tid, HashMap<PageId, Page> dirtypages, Permissions perm,
+                                            Field f, boolean reverse, BTreePageId rootId)
+            throws DbException, TransactionAbortedException {
+        BufferPool pool = Database.getBufferPool();
+        BTreePageId pid = rootId;
+        while (pid.pgcateg() == BTreePageId.INTERNAL) {
+            BTreePageId next;
+            pool.latchPage(pid, false);
+            try {
+                BTreeInternalPage page = (BTreeInternalPage) getLatchedPage(dirtypages, pid);
+                int side = coverage(page, f, reverse);
+                if (side < 0) {
+                    return null;
                 }
-                return findReverseLeafPage(tid, dirtypages, entry.getLeftChild(), perm, f);
-            case BTreePageId.HEADER:
-            case BTreePageId.ROOT_PTR:
-            default:
-                throw new DbException("not valid page");
+                next = side > 0 ? page.getRightLinkId()
+                        : reverse ? reverseChildFor(page, f) : childFor(page, f);
+            } finally {
+                pool.unlatchPage(pid, false);
+            }
+            pid = next;
+        }
+
+        while (true) {
+            boolean held = pool.holdsLock(tid, pid);
+            BTreeLeafPage leaf = (BTreeLeafPage) getPage(tid, dirtypages, pid, perm);
+            int side = coverage(leaf, f, reverse);
+            if (side == 0) {
+                return leaf;
+            }
+            BTreePageId next = side > 0 ? leaf.getRightSiblingId() : null;
+            //不是要找的叶节点，放弃刚加的锁
+            if (!held) {
+                dirtypages.remove(pid);
+                pool.releasePage(tid, pid);
+            }
+            if (next == null) {
+                return null;
+            }
+            pid = next;
         }
     }
 
     /**
-     * Convenience method to find a leaf page when there is no dirtypages HashMap.
-     * Used by the BTreeFile iterator.
+     * Find and lock the left-most leaf page possibly containing the key field f, for a
+     * search that already has a leaf locked and has passed all the keys on it, so that
+     * f is greater than every key on that leaf.  Used to look up many keys in order.
+     * <p>
+     * In B-link mode the search climbs from the parent of the leaf to the lowest
+     * ancestor whose fence keys cover f and goes down from there, reading each internal
+     * page under a shared latch; a stale parent pointer is caught by its fence keys.
+     * Without fence keys an ancestor cannot be checked, so the parent is only used to
+     * tell whether f is likely on the right sibling, which is then checked against the
+     * keys on it.  Otherwise the search starts at the root as
+     * {@link #findLeafPage(TransactionId, Permissions, Field)} does.
      *
      * @param tid  - the transaction id
-     * @param pid  - the current page being searched
      * @param perm - the permissions with which to lock the leaf page
-     * @param f    - the field to search for
+     * @param from - the leaf page the search has passed, locked by tid
+     * @param f    - the field to search for, greater than every key on from
      * @return the left-most leaf page possibly containing the key field f
-     * @see #findLeafPage(TransactionId, HashMap, BTreePageId, Permissions, Field)
      */
-    BTreeLeafPage findReverseLeafPage(TransactionId tid, BTreePageId pid, Permissions perm,
-                                      Field f)
+    BTreeLeafPage findNextLeafPage(TransactionId tid, Permissions perm, BTreeLeafPage from, Field f)
+            throws DbException, TransactionAbortedException {
+        BufferPool pool = Database.getBufferPool();
+        HashMap<PageId, Page> dirtypages = new HashMap<PageId, Page>();
+        BTreePageId rightId = from.getRightSiblingId();
+        if (rightId == null) {
+            return from;
+        }
+        if (blink) {
+            //从父节点向上找到键值范围覆盖f的祖先，再从它向下查找
+            BTreePageId pid = from.getParentId();
+            while (pid.pgcateg() == BTreePageId.INTERNAL) {
+                int side;
+                BTreePageId parentId;
+                pool.latchPage(pid, false);
+                try {
+                    BTreeInternalPage page = (BTreeInternalPage) getLatchedPage(dirtypages, pid);
+                    side = coverage(page, f, false);
+                    parentId = page.getParentId();
+                } finally {
+                    pool.unlatchPage(pid, false);
+                }
+                if (side < 0) {
+                    return findLeafPage(tid, dirtypages, perm, f);
+                }
+                if (side == 0) {
+                    break;
+                }
+                pid = parentId;
+            }
+            if (pid.pgcateg() == BTreePageId.ROOT_PTR) {
+                pid = getLatchedRootId(dirtypages);
+            }
+            BTreeLeafPage leaf = moveRightLeafPage(tid, dirtypages, perm, f, false, pid);
+            return leaf != null ? leaf : findLeafPage(tid, dirtypages, perm, f);
+        }
+
+        //父节点指向右兄弟时f多半在右兄弟中；父指针可能已过时，只作为提示，由右兄弟中的键确认
+        BTreePageId parentId = from.getParentId();
+        BTreePageId hint = null;
+        if (parentId.pgcateg() == BTreePageId.INTERNAL) {
+            pool.latchPage(parentId, false);
+            try {
+                hint = ((BTreeInternalPage) getLatchedPage(dirtypages, parentId)).getChildFor(f);
+            } finally {
+                pool.unlatchPage(parentId, false);
+            }
+        }
+        if (rightId.equals(hint)) {
+            boolean held = pool.holdsLock(tid, rightId);
+            BTreeLeafPage right = (BTreeLeafPage) getPage(tid, dirtypages, rightId, perm);
+            Iterator<Tuple> last = right.reverseIterator();
+            if (right.getRightSiblingId() == null
+                    || (last.hasNext() && last.next().getField(keyField).compare(Op.GREATER_THAN_OR_EQ, f))) {
+                return right;
+            }
+            //右兄弟中没有f，放弃刚加的锁
+            if (!held) {
+                dirtypages.remove(rightId);
+                pool.releasePage(tid, rightId);
+            }
+        }
+        return findLeafPage(tid, dirtypages, perm, f);
+    }
+
+    /**
+     * Compare f with the range of keys covered by a page in B-link mode.  A
+     * forward search wants the left-most page that may hold f, so a page
+     * covers the keys above its low key up to and including its high key; a
+     * reverse search wants the right-most one, so a page covers its low key
+     * up to, but excluding, its high key.  A null f stands for the left-most
+     * (or right-most) key.
+     *
+     * @return 0 if the page covers f, 1 if f is to the right of the page, and
+     * -1 if f is to its left or the page is not part of the tree
+     */
+    private int coverage(BTreePage page, Field f, boolean reverse) {
+        if (!page.isFenced()) {
+            return -1;
+        }
+        Field low = page.getLowKey();
+        Field high = page.getHighKey();
+        if (!reverse) {
+            if (f == null) {
+                return low == null ? 0 : -1;
+            }
+            if (low != null && f.compare(Op.LESS_THAN_OR_EQ, low)) {
+                return -1;
+            }
+            return high != null && f.compare(Op.GREATER_THAN, high) ? 1 : 0;
+        }
+        if (f == null) {
+            return high == null ? 0 : 1;
+        }
+        if (low != null && f.compare(Op.LESS_THAN, low)) {
+            return -1;
+        }
+        return high != null && f.compare(Op.GREATER_THAN_OR_EQ, high) ? 1 : 0;
+    }
+
+    //在共享latch下读取根节点的id
+    private BTreePageId getLatchedRootId(HashMap<PageId, Page> dirtypages)
             throws DbException, TransactionAbortedException {
-        return findReverseLeafPage(tid, new HashMap<PageId, Page>(), pid, perm, f);
+        createIfEmpty();
+        BufferPool pool = Database.getBufferPool();
+        BTreePageId pid = BTreeRootPtrPage.getId(tableid);
+        pool.latchPage(pid, false);
+        try {
+            return ((BTreeRootPtrPage) getLatchedPage(dirtypages, pid)).getRootId();
+        } finally {
+            pool.unlatchPage(pid, false);
+        }
+    }
+
+    //B-link模式下记录页面覆盖的键值范围
+    private void setFences(BTreePage page, Field low, Field high) throws DbException {
+        if (blink) {
+            page.setFences(low, high);
+        }
+    }
+
+    //本次操作已修改的页面以dirtypages中的为准
+    private Page getLatchedPage(HashMap<PageId, Page> dirtypages, BTreePageId pid) throws DbException {
+        Page p = dirtypages.get(pid);
+        return p != null ? p : Database.getBufferPool().getLatchedPage(pid);
+    }
+
+    //返回左数第一个可能包含f的子节点，在页面内二分查找
+    private BTreePageId childFor(BTreeInternalPage page, Field f) throws DbException {
+        BTreePageId child = page.getChildFor(f);
+        if (child == null)//进行检测
+            throw new DbException("No that Entry!");
+        return child;
+    }
+
+    //返回右数第一个可能包含f的子节点
+    private BTreePageId reverseChildFor(BTreeInternalPage page, Field f) throws DbException {
+        BTreePageId child = page.getReverseChildFor(f);
+        if (child == null)//进行检测
+            throw new DbException("No that Entry!");
+        return child;
     }
 
     /**
@@ -356,8 +600,11 @@ public class BTreeFile implements DbFile {
         rightPage.setRightSiblingId(page.getRightSiblingId());
         page.setRightSiblingId(rightPage.getId());
 
-        //根据右边页面的第一个tuple的key生成entry并加入父节点
-        Field index = rightPage.iterator().next().getField(keyField);
+        //根据两个页面之间最短的分隔键生成entry并加入父节点
+        Field index = separator(page.reverseIterator().next().getField(keyField),
+                rightPage.iterator().next().getField(keyField));
+        setFences(rightPage, index, page.getHighKey());
+        setFences(page, page.getLowKey(), index);
         BTreeEntry entry = new BTreeEntry(index, page.getId(), rightPage.getId());
         BTreeInternalPage parentPage = getParentWithEmptySlots(tid, dirtypages, page.getParentId(), index);
         parentPage.insertEntry(entry);
@@ -418,6 +665,13 @@ public class BTreeFile implements DbFile {
         BTreeEntry entry = entrys.next();
         Field index = entry.getKey();
         page.deleteKeyAndRightChild(entry);
+        if (blink) {
+            //新页面接在原页面的右边
+            setFences(rightPage, index, page.getHighKey());
+            setFences(page, page.getLowKey(), index);
+            rightPage.setRightLinkId(page.getRightLinkId());
+            page.setRightLinkId(rightPage.getId());
+        }
         BTreeEntry newEntry = new BTreeEntry(index, page.getId(), rightPage.getId());
         BTreeInternalPage parentPage = getParentWithEmptySlots(tid, dirtypages, page.getParentId(), index);
         parentPage.insertEntry(newEntry);
@@ -454,6 +708,7 @@ public class BTreeFile implements DbFile {
         // this will be the new root of the tree
         if (parentId.pgcateg() == BTreePageId.ROOT_PTR) {
             parent = (BTreeInternalPage) getEmptyPage(tid, dirtypages, BTreePageId.INTERNAL);
+            setFences(parent, null, null);
 
             // update the root pointer
             BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages,
@@ -479,6 +734,45 @@ public class BTreeFile implements DbFile {
 
     }
 
+    /**
+     * Split an internal page whose keys have grown past its maximum number of entries, after
+     * one of its keys was replaced by a longer one while redistributing tuples or entries
+     * between its children.
+     *
+     * @see BTreeInternalPage#isOverfull()
+     */
+    private void splitIfOverfull(TransactionId tid, HashMap<PageId, Page> dirtypages,
+                                 BTreeInternalPage page, Field field)
+            throws DbException, IOException, TransactionAbortedException {
+        if (page.isOverfull()) {
+            splitInternalPage(tid, dirtypages, page, field);
+        }
+    }
+
+    /**
+     * Compute the shortest key that separates two adjacent leaf pages, so that internal pages
+     * keyed on a string store short keys (suffix truncation).  The result is greater than the
+     * last key on the left page and no greater than the first key on the right page.  Other
+     * key types are not truncated.
+     *
+     * @param left  - the last key on the left page
+     * @param right - the first key on the right page
+     * @return the key for the entry between the two pages
+     */
+    static Field separator(Field left, Field right) {
+        if (right.getType() != Type.STRING_TYPE || !left.compare(Op.LESS_THAN, right)) {
+            return right;
+        }
+        String l = ((StringField) left).getValue();
+        String r = ((StringField) right).getValue();
+        int i = 0;
+        while (i < l.length() && l.charAt(i) == r.charAt(i)) {
+            i++;
+        }
+        // 左边的键是右边的键的前缀，或者两者在第i个字符处不同
+        return new StringField(r.substring(0, i + 1), Type.STRING_LEN);
+    }
+
     /**
      * Helper function to update the parent pointer of a node.
      *
@@ -536,6 +830,12 @@ public class BTreeFile implements DbFile {
      * <p>
      * This method is needed to ensure that page updates are not lost if the same pages are
      * accessed multiple times.
+     * <p>
+     * The root pointer and internal pages are only locked when they are changed.  Reading them
+     * takes a shared latch for the duration of the read instead of a transaction lock, and pages
+     * fetched with read-write permission are also latched exclusively until
+     * {@link #releaseLatches} is called at the end of the operation, so that concurrent traversals
+     * never see a half-changed page.
      *
      * @param tid        - the transaction id
      * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
@@ -551,14 +851,44 @@ public class BTreeFile implements DbFile {
         if (dirtypages.containsKey(pid)) {
             return dirtypages.get(pid);
         } else {
-            Page p = Database.getBufferPool().getPage(tid, pid, perm);
+            BufferPool pool = Database.getBufferPool();
+            boolean latched = pid.pgcateg() == BTreePageId.INTERNAL || pid.pgcateg() == BTreePageId.ROOT_PTR;
+            if (latched && perm == Permissions.READ_ONLY) {
+                pool.latchPage(pid, false);
+                try {
+                    return pool.getLatchedPage(pid);
+                } finally {
+                    pool.unlatchPage(pid, false);
+                }
+            }
+            Page p = pool.getPage(tid, pid, perm);
             if (perm == Permissions.READ_WRITE) {
+                if (latched) {
+                    pool.latchPage(pid, true);
+                }
+                //页面会被原地修改，先标记为脏页，操作中途中止时回滚才能恢复它
+                p.markDirty(true, tid);
                 dirtypages.put(pid, p);
             }
             return p;
         }
     }
 
+    /**
+     * Release the exclusive latches taken by {@link #getPage} on the pages in dirtypages.
+     *
+     * @param dirtypages - the pages dirtied by the operation
+     */
+    void releaseLatches(HashMap<PageId, Page> dirtypages) {
+        BufferPool pool = Database.getBufferPool();
+        for (PageId pid : dirtypages.keySet()) {
+            //页面可能在同一操作中被重新获取过，因此释放全部重入次数
+            while (pool.holdsExclusiveLatch(pid)) {
+                pool.unlatchPage(pid, true);
+            }
+        }
+    }
+
     /**
      * Insert a tuple into this BTreeFile, keeping the tuples in sorted order.
      * May cause pages to split if the page where tuple t belongs is full.
@@ -572,32 +902,63 @@ public class BTreeFile implements DbFile {
     public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
         HashMap<PageId, Page> dirtypages = new HashMap<PageId, Page>();
+        try {
+            // read the root pointer page and check that the tree has a root
+            BTreeRootPtrPage rootPtr = getRootPtrPage(tid, dirtypages);
+
+            if (rootPtr.getRootId() == null) {
+                rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages, BTreeRootPtrPage.getId(tableid), Permissions.READ_WRITE);
+                // the root has just been created, so set the root pointer to point to it,
+                // unless another transaction did so while we waited for the lock
+                if (rootPtr.getRootId() == null) {
+                    rootPtr.setRootId(new BTreePageId(tableid, numPages(), BTreePageId.LEAF));
+                    if (blink) {
+                        //根节点覆盖全部键值
+                        setFences((BTreePage) getPage(tid, dirtypages, rootPtr.getRootId(), Permissions.READ_WRITE),
+                                null, null);
+                    }
+                }
+            }
 
-        // get a read lock on the root pointer page and use it to locate the root page
-        BTreeRootPtrPage rootPtr = getRootPtrPage(tid, dirtypages);
-        BTreePageId rootId = rootPtr.getRootId();
-
-        if (rootId == null) { // the root has just been created, so set the root pointer to point to it
-            rootId = new BTreePageId(tableid, numPages(), BTreePageId.LEAF);
-            rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages, BTreeRootPtrPage.getId(tableid), Permissions.READ_WRITE);
-            rootPtr.setRootId(rootId);
-        }
+            // find and lock the left-most leaf page corresponding to the key field,
+            // and split the leaf page if there are no more slots available
+            BTreeLeafPage leafPage = findLeafPage(tid, dirtypages, Permissions.READ_WRITE, t.getField(keyField));
+            if (leafPage.getNumEmptySlots() == 0) {
+                leafPage = splitLeafPage(tid, dirtypages, leafPage, t.getField(keyField));
+            }
 
-        // find and lock the left-most leaf page corresponding to the key field,
-        // and split the leaf page if there are no more slots available
-        BTreeLeafPage leafPage = findLeafPage(tid, dirtypages, rootId, Permissions.READ_WRITE, t.getField(keyField));
-        if (leafPage.getNumEmptySlots() == 0) {
-            leafPage = splitLeafPage(tid, dirtypages, leafPage, t.getField(keyField));
+            // insert the tuple into the leaf page
+            leafPage.insertTuple(t);
+        } finally {
+            releaseLatches(dirtypages);
         }
 
-        // insert the tuple into the leaf page
-        leafPage.insertTuple(t);
-
         ArrayList<Page> dirtyPagesArr = new ArrayList<Page>();
         dirtyPagesArr.addAll(dirtypages.values());
         return dirtyPagesArr;
     }
 
+    /**
+     * Insert many tuples into this BTreeFile, one at a time in the order
+     * given.  Each page modified is returned once.  To load an empty tree
+     * from sorted tuples, use {@link #bulkLoad} instead.
+     *
+     * @param tid    - the transaction id
+     * @param tuples - the tuples to insert
+     * @return a list of all pages that were dirtied
+     * @see #insertTuple(TransactionId, Tuple)
+     */
+    public ArrayList<Page> insertTuples(TransactionId tid, List<Tuple> tuples)
+            throws DbException, IOException, TransactionAbortedException {
+        LinkedHashMap<PageId, Page> dirtypages = new LinkedHashMap<PageId, Page>();
+        for (Tuple t : tuples) {
+            for (Page p : insertTuple(tid, t)) {
+                dirtypages.put(p.getId(), p);
+            }
+        }
+        return new ArrayList<Page>(dirtypages.values());
+    }
+
     /**
      * Handle the case when a B+ tree page becomes less than half full due to deletions.
      * If one of its siblings has extra tuples/entries, redistribute those tuples/entries.
@@ -677,6 +1038,7 @@ public class BTreeFile implements DbFile {
                 mergeLeafPages(tid, dirtypages, leftSibling, page, parent, leftEntry);
             } else {
                 stealFromLeafPage(page, leftSibling, parent, leftEntry, false);
+                splitIfOverfull(tid, dirtypages, parent, leftEntry.getKey());
             }
         } else if (rightSiblingId != null) {
             BTreeLeafPage rightSibling = (BTreeLeafPage) getPage(tid, dirtypages, rightSiblingId, Permissions.READ_WRITE);
@@ -686,6 +1048,7 @@ public class BTreeFile implements DbFile {
                 mergeLeafPages(tid, dirtypages, page, rightSibling, parent, rightEntry);
             } else {
                 stealFromLeafPage(page, rightSibling, parent, rightEntry, true);
+                splitIfOverfull(tid, dirtypages, parent, rightEntry.getKey());
             }
         }
     }
@@ -722,10 +1085,15 @@ public class BTreeFile implements DbFile {
             page.insertTuple(tempTuple);
         }
 
-        //将新的键值更新到父节点对应的entry中
+        //将两个页面之间的分隔键更新到父节点对应的entry中
         assert tempTuple != null;
-        entry.setKey(tempTuple.getField(keyField));
+        BTreeLeafPage left = isRightSibling ? page : sibling;
+        BTreeLeafPage right = isRightSibling ? sibling : page;
+        entry.setKey(separator(left.reverseIterator().next().getField(keyField),
+                right.iterator().next().getField(keyField)));
         parent.updateEntry(entry);
+        setFences(left, left.getLowKey(), entry.getKey());
+        setFences(right, entry.getKey(), right.getHighKey());
     }
 
     /**
@@ -759,19 +1127,21 @@ public class BTreeFile implements DbFile {
             BTreeInternalPage leftSibling = (BTreeInternalPage) getPage(tid, dirtypages, leftSiblingId, Permissions.READ_WRITE);
             // if the left sibling is at minimum occupancy, merge with it. Otherwise
             // steal some entries from it
-            if (leftSibling.getNumEmptySlots() >= maxEmptySlots) {
+            if (leftSibling.getNumEmptySlots() >= maxEmptySlots && leftSibling.canMerge(page, leftEntry.getKey())) {
                 mergeInternalPages(tid, dirtypages, leftSibling, page, parent, leftEntry);
             } else {
                 stealFromLeftInternalPage(tid, dirtypages, page, leftSibling, parent, leftEntry);
+                splitIfOverfull(tid, dirtypages, parent, leftEntry.getKey());
             }
         } else if (rightSiblingId != null) {
             BTreeInternalPage rightSibling = (BTreeInternalPage) getPage(tid, dirtypages, rightSiblingId, Permissions.READ_WRITE);
             // if the right sibling is at minimum occupancy, merge with it. Otherwise
             // steal some entries from it
-            if (rightSibling.getNumEmptySlots() >= maxEmptySlots) {
+            if (rightSibling.getNumEmptySlots() >= maxEmptySlots && page.canMerge(rightSibling, rightEntry.getKey())) {
                 mergeInternalPages(tid, dirtypages, page, rightSibling, parent, rightEntry);
             } else {
                 stealFromRightInternalPage(tid, dirtypages, page, rightSibling, parent, rightEntry);
+                splitIfOverfull(tid, dirtypages, parent, rightEntry.getKey());
             }
         }
     }
@@ -804,7 +1174,7 @@ public class BTreeFile implements DbFile {
         Iterator<BTreeEntry> entryIterator = leftSibling.reverseIterator();
         if(entryIterator==null || !entryIterator.hasNext())
             throw new DbException("left sibling has no entry");
-        int numSteal = (leftSibling.getNumEntries() - page.getNumEntries())/2;//使偷取之后两者元组数相同
+        int numSteal = (page.getNumEmptySlots() - leftSibling.getNumEmptySlots())/2;//使偷取之后两者元组数相同
 
         //将parent的entry移动到page，并接上两个子节点
         BTreeEntry moveEntry = entryIterator.next();
@@ -812,7 +1182,7 @@ public class BTreeFile implements DbFile {
         page.insertEntry(center);
 
         //将sibling的entry取出，插入page
-        for(int i=0; i<numSteal-1; ++i)
+        for(int i=0; i<numSteal-1 && page.getNumEmptySlots() > 0; ++i)
         {
             leftSibling.deleteKeyAndRightChild(moveEntry);
             page.insertEntry(moveEntry);
@@ -823,6 +1193,8 @@ public class BTreeFile implements DbFile {
         leftSibling.deleteKeyAndRightChild(moveEntry);
         parentEntry.setKey(moveEntry.getKey());
         parent.updateEntry(parentEntry);
+        setFences(leftSibling, leftSibling.getLowKey(), parentEntry.getKey());
+        setFences(page, parentEntry.getKey(), page.getHighKey());
         updateParentPointers(tid, dirtypages, page);//更新page的子页面的父节点指针
     }
 
@@ -854,7 +1226,7 @@ public class BTreeFile implements DbFile {
         Iterator<BTreeEntry> entryIterator = rightSibling.iterator();
         if(entryIterator==null || !entryIterator.hasNext())
             throw new DbException("left sibling has no entry");
-        int numSteal = (rightSibling.getNumEntries() - page.getNumEntries())/2;//使偷取之后两者元组数相同
+        int numSteal = (page.getNumEmptySlots() - rightSibling.getNumEmptySlots())/2;//使偷取之后两者元组数相同
 
         //将parent的entry移动到page，并接上两个子节点
         BTreeEntry moveEntry = entryIterator.next();
@@ -862,7 +1234,7 @@ public class BTreeFile implements DbFile {
         page.insertEntry(center);
 
         //将sibling的entry取出，插入page
-        for(int i=0; i<numSteal-1; ++i)
+        for(int i=0; i<numSteal-1 && page.getNumEmptySlots() > 0; ++i)
         {
             rightSibling.deleteKeyAndRightChild(moveEntry);
             page.insertEntry(moveEntry);
@@ -873,6 +1245,8 @@ public class BTreeFile implements DbFile {
         rightSibling.deleteKeyAndLeftChild(moveEntry);
         parentEntry.setKey(moveEntry.getKey());
         parent.updateEntry(parentEntry);
+        setFences(page, page.getLowKey(), parentEntry.getKey());
+        setFences(rightSibling, parentEntry.getKey(), rightSibling.getHighKey());
         updateParentPointers(tid, dirtypages, page);//更新page的子页面的父节点指针
     }
 
@@ -922,6 +1296,11 @@ public class BTreeFile implements DbFile {
             rightSibling.setLeftSiblingId(leftPage.getId());
         }
         leftPage.setRightSiblingId(rightPage.getRightSiblingId());
+        if (blink) {
+            //右页面不再属于树，停在它上面的查找会重新开始
+            setFences(leftPage, leftPage.getLowKey(), rightPage.getHighKey());
+            rightPage.clearFences();
+        }
 
         //将右节点对应的页面设置为空，并在父节点中删除这一entry
         setEmptyPage(tid, dirtypages, rightPage.getId().getPageNumber());
@@ -974,6 +1353,12 @@ public class BTreeFile implements DbFile {
             leftPage.insertEntry(entry);
         }
 
+        if (blink) {
+            setFences(leftPage, leftPage.getLowKey(), rightPage.getHighKey());
+            leftPage.setRightLinkId(rightPage.getRightLinkId());
+            rightPage.clearFences();
+        }
+
         //将右节点对应的页面设置为空，父节点并在父节点中删除这一entry
         setEmptyPage(tid, dirtypages, rightPage.getId().getPageNumber());
         updateParentPointers(tid, dirtypages, leftPage);
@@ -1017,6 +1402,10 @@ public class BTreeFile implements DbFile {
             BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages, rootPtrId, Permissions.READ_WRITE);
             leftPage.setParentId(rootPtrId);
             rootPtr.setRootId(leftPage.getId());
+            if (blink) {
+                setFences(leftPage, null, null);
+                parent.clearFences();
+            }
 
             // release the parent page for reuse
             setEmptyPage(tid, dirtypages, parent.getId().getPageNumber());
@@ -1042,14 +1431,18 @@ public class BTreeFile implements DbFile {
 
         BTreePageId pageId = new BTreePageId(tableid, t.getRecordId().getPageId().getPageNumber(),
                 BTreePageId.LEAF);
-        BTreeLeafPage page = (BTreeLeafPage) getPage(tid, dirtypages, pageId, Permissions.READ_WRITE);
-        page.deleteTuple(t);
-
-        // if the page is below minimum occupancy, get some tuples from its siblings
-        // or merge with one of the siblings
-        int maxEmptySlots = page.getMaxTuples() - page.getMaxTuples() / 2; // ceiling
-        if (page.getNumEmptySlots() > maxEmptySlots) {
-            handleMinOccupancyPage(tid, dirtypages, page);
+        try {
+            BTreeLeafPage page = (BTreeLeafPage) getPage(tid, dirtypages, pageId, Permissions.READ_WRITE);
+            page.deleteTuple(t);
+
+            // if the page is below minimum occupancy, get some tuples from its siblings
+            // or merge with one of the siblings
+            int maxEmptySlots = page.getMaxTuples() - page.getMaxTuples() / 2; // ceiling
+            if (page.getNumEmptySlots() > maxEmptySlots) {
+                handleMinOccupancyPage(tid, dirtypages, page);
+            }
+        } finally {
+            releaseLatches(dirtypages);
         }
 
         ArrayList<Page> dirtyPagesArr = new ArrayList<Page>();
@@ -1058,8 +1451,8 @@ public class BTreeFile implements DbFile {
     }
 
     /**
-     * Get a read lock on the root pointer page. Create the root pointer page and root page
-     * if necessary.
+     * Read the root pointer page, under a latch rather than a lock (see {@link #getPage}).
+     * Create the root pointer page and root page if necessary.
      *
      * @param tid        - the transaction id
      * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
@@ -1069,9 +1462,17 @@ public class BTreeFile implements DbFile {
      * @throws TransactionAbortedException
      */
     BTreeRootPtrPage getRootPtrPage(TransactionId tid, HashMap<PageId, Page> dirtypages) throws DbException, IOException, TransactionAbortedException {
-        synchronized (this) {
-            if (f.length() == 0) {
-                // create the root pointer page and the root page
+        createIfEmpty();
+
+        // read the root pointer page
+        return (BTreeRootPtrPage) getPage(tid, dirtypages, BTreeRootPtrPage.getId(tableid), Permissions.READ_ONLY);
+    }
+
+    //文件为空时写入根指针页面和根页面
+    private synchronized void createIfEmpty() throws DbException {
+        if (f.length() == 0) {
+            // create the root pointer page and the root page
+            try {
                 BufferedOutputStream bw = new BufferedOutputStream(
                         new FileOutputStream(f, true));
                 byte[] emptyRootPtrData = BTreeRootPtrPage.createEmptyPageData();
@@ -1079,11 +1480,10 @@ public class BTreeFile implements DbFile {
                 bw.write(emptyRootPtrData);
                 bw.write(emptyLeafData);
                 bw.close();
+            } catch (IOException e) {
+                throw new DbException("could not create the root pointer page: " + e);
             }
         }
-
-        // get a read lock on the root pointer page
-        return (BTreeRootPtrPage) getPage(tid, dirtypages, BTreeRootPtrPage.getId(tableid), Permissions.READ_ONLY);
     }
 
     /**
@@ -1099,7 +1499,7 @@ public class BTreeFile implements DbFile {
      */
     protected int getEmptyPageNo(TransactionId tid, HashMap<PageId, Page> dirtypages)
             throws DbException, IOException, TransactionAbortedException {
-        // get a read lock on the root pointer page and use it to locate the first header page
+        // read the root pointer page and use it to locate the first header page
         BTreeRootPtrPage rootPtr = getRootPtrPage(tid, dirtypages);
         BTreePageId headerId = rootPtr.getHeaderId();
         int emptyPageNo = 0;
@@ -1213,7 +1613,7 @@ public class BTreeFile implements DbFile {
 //			}
 //		}
 
-        // otherwise, get a read lock on the root pointer page and use it to locate
+        // otherwise, read the root pointer page and use it to locate
         // the first header page
         BTreeRootPtrPage rootPtr = getRootPtrPage(tid, dirtypages);
         BTreePageId headerId = rootPtr.getHeaderId();
@@ -1225,10 +1625,14 @@ public class BTreeFile implements DbFile {
         if (headerId == null) {
             rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages, BTreeRootPtrPage.getId(tableid), Permissions.READ_WRITE);
 
-            BTreeHeaderPage headerPage = (BTreeHeaderPage) getEmptyPage(tid, dirtypages, BTreePageId.HEADER);
-            headerId = headerPage.getId();
-            headerPage.init();
-            rootPtr.setHeaderId(headerId);
+            // another transaction may have created it while we waited for the lock
+            headerId = rootPtr.getHeaderId();
+            if (headerId == null) {
+                BTreeHeaderPage headerPage = (BTreeHeaderPage) getEmptyPage(tid, dirtypages, BTreePageId.HEADER);
+                headerId = headerPage.getId();
+                headerPage.init();
+                rootPtr.setHeaderId(headerId);
+            }
         }
 
         // iterate through all the existing header pages to find the one containing the slot
@@ -1263,6 +1667,216 @@ public class BTreeFile implements DbFile {
         headerPage.markSlotUsed(emptySlot, false);
     }
 
+    /**
+     * Load the tuples of a stream sorted on the key field into this B+ tree,
+     * which must be empty, building the tree bottom-up instead of inserting the
+     * tuples one at a time.  Leaves are filled to the given fill factor in key
+     * order, and each internal level is filled in the same pass as the level
+     * below it produces pages, so no page is ever split and every page is
+     * written exactly once, to new pages appended to the end of the file.
+     * <p>
+     * The new pages are not reachable from the tree until the root pointer is
+     * set, so they bypass the buffer pool and the log: they are written straight
+     * to the file and forced to disk before the root pointer changes.  Only the
+     * root pointer page goes through the buffer pool and the log, under an
+     * exclusive lock held by tid until it completes.  If tid aborts, or the
+     * system crashes before it commits, the root pointer is rolled back to null
+     * and the tree is empty again; the pages it wrote are left unused in the file.
+     *
+     * @param tid        - the transaction id
+     * @param sorted     - the tuples to load, sorted on the key field.  It is opened
+     *                   and closed by the caller
+     * @param fillFactor - the fraction of each page to fill, in (0, 1]
+     * @return the number of tuples loaded
+     * @throws DbException if the tree is not empty, or the tuples are not sorted
+     */
+    public int bulkLoad(TransactionId tid, OpIterator sorted, double fillFactor)
+            throws DbException, IOException, TransactionAbortedException {
+        if (fillFactor <= 0 || fillFactor > 1)
+            throw new DbException("fill factor must be in (0, 1]");
+
+        // 先对根指针页面加排他锁，阻止其他事务在加载期间插入
+        createIfEmpty();
+        BTreePageId rootPtrId = BTreeRootPtrPage.getId(tableid);
+        BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(tid, rootPtrId,
+                Permissions.READ_WRITE);
+        if (rootPtr.getRootId() != null || rootPtr.getHeaderId() != null)
+            throw new DbException("bulk load into a B+ tree that is not empty");
+
+        BTreePageId rootId;
+        BulkLoader loader = new BulkLoader(fillFactor);
+        try {
+            while (sorted.hasNext()) {
+                loader.add(sorted.next());
+            }
+            rootId = loader.finish();
+        } finally {
+            loader.close();
+        }
+        if (rootId == null) {
+            return 0;
+        }
+
+        HashMap<PageId, Page> dirtypages = new HashMap<PageId, Page>();
+        try {
+            rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages, rootPtrId, Permissions.READ_WRITE);
+            rootPtr.setRootId(rootId);
+        } finally {
+            releaseLatches(dirtypages);
+        }
+        return loader.tuples;
+    }
+
+    //批量加载时每一层的状态：正在填充的页面和还未确定父节点的子节点
+    private class BulkLevel {
+        BTreeInternalPage open;
+        Field openLow;
+        BTreePageId lastChild;
+        BTreePage held;
+        Field heldLow;
+    }
+
+    //自底向上构建B+树，页面在确定父节点后写入文件末尾之后的新页面
+    private class BulkLoader {
+        final RandomAccessFile rf;
+        final int leafTarget;
+        final int entryTarget;
+        final ArrayList<BulkLevel> levels = new ArrayList<BulkLevel>();
+        int nextPageNo;
+        BTreeLeafPage leaf;
+        Field leafLow;
+        Field lastKey;
+        int tuples;
+
+        BulkLoader(double fillFactor) throws IOException {
+            BTreeLeafPage l = new BTreeLeafPage(new BTreePageId(tableid, 0, BTreePageId.LEAF),
+                    BTreeLeafPage.createEmptyPageData(), keyField);
+            BTreeInternalPage i = new BTreeInternalPage(new BTreePageId(tableid, 0, BTreePageId.INTERNAL),
+                    BTreeInternalPage.createEmptyPageData(), keyField);
+            leafTarget = Math.max(1, (int) (fillFactor * l.getMaxTuples()));
+            // 内部页面至少留一个空位，最后一个子节点总能放入前一个页面
+            entryTarget = Math.max(1, Math.min((int) (fillFactor * i.getMaxEntries()), i.getMaxEntries() - 1));
+            // 不复用文件中已有的页面：日志中可能还有它们的记录，恢复时会被重做
+            nextPageNo = numPages() + 1;
+            rf = new RandomAccessFile(f, "rw");
+        }
+
+        void add(Tuple t) throws DbException, IOException {
+            Field key = t.getField(keyField);
+            if (lastKey != null && lastKey.compare(Op.GREATER_THAN, key))
+                throw new DbException("bulk load input is not sorted on the key field");
+            if (leaf == null) {
+                leaf = newLeaf();
+            } else if (leaf.getNumTuples() == leafTarget) {
+                BTreeLeafPage full = leaf;
+                Field fullLow = leafLow;
+                leaf = newLeaf();
+                leafLow = separator(lastKey, key);
+                full.setRightSiblingId(leaf.getId());
+                leaf.setLeftSiblingId(full.getId());
+                setFences(full, fullLow, leafLow);
+                addChild(0, full, fullLow);
+            }
+            leaf.insertTuple(t);
+            lastKey = key;
+            tuples++;
+        }
+
+        /**
+         * Write out the pages that are still being filled, level by level
+         * @return the id of the root page, or null if no tuples were loaded
+         */
+        BTreePageId finish() throws DbException, IOException {
+            if (leaf == null) {
+                return null;
+            }
+            setFences(leaf, leafLow, null);
+            addChild(0, leaf, leafLow);
+            for (int i = 0; ; i++) {
+                BulkLevel level = levels.get(i);
+                if (level.open == null) {
+                    // 该层只有一个页面，即根节点
+                    write(level.held, BTreeRootPtrPage.getId(tableid));
+                    rf.getFD().sync();
+                    return level.held.getId();
+                }
+                if (level.held != null) {
+                    adopt(level, level.heldLow, level.held);
+                    level.held = null;
+                }
+                setFences(level.open, level.openLow, null);
+                addChild(i + 1, level.open, level.openLow);
+            }
+        }
+
+        void close() throws IOException {
+            rf.close();
+        }
+
+        private BTreeLeafPage newLeaf() throws IOException {
+            return new BTreeLeafPage(new BTreePageId(tableid, nextPageNo++, BTreePageId.LEAF),
+                    BTreeLeafPage.createEmptyPageData(), keyField);
+        }
+
+        private BTreeInternalPage newInternal() throws IOException {
+            return new BTreeInternalPage(new BTreePageId(tableid, nextPageNo++, BTreePageId.INTERNAL),
+                    BTreeInternalPage.createEmptyPageData(), keyField);
+        }
+
+        //child是该层的下一个页面，low是它与前一个页面之间的键
+        private void addChild(int depth, BTreePage child, Field low) throws DbException, IOException {
+            if (levels.size() == depth) {
+                levels.add(new BulkLevel());
+            }
+            BulkLevel level = levels.get(depth);
+            if (level.open == null && level.held == null) {
+                level.held = child;
+            } else if (level.open == null) {
+                level.open = newInternal();
+                start(level, child, low);
+            } else if (level.open.getMaxEntries() - level.open.getNumEmptySlots() < entryTarget) {
+                adopt(level, low, child);
+            } else if (level.held == null) {
+                // 页面已满，但还不确定后面是否有足够的子节点组成新页面
+                level.held = child;
+                level.heldLow = low;
+            } else {
+                // 暂存的子节点和child组成新页面，它们之间的键上移到父节点
+                BTreeInternalPage full = level.open;
+                Field fullLow = level.openLow;
+                level.open = newInternal();
+                level.openLow = level.heldLow;
+                if (blink) {
+                    full.setRightLinkId(level.open.getId());
+                }
+                setFences(full, fullLow, level.heldLow);
+                start(level, child, low);
+                addChild(depth + 1, full, fullLow);
+            }
+        }
+
+        private void start(BulkLevel level, BTreePage child, Field low) throws DbException, IOException {
+            level.open.insertEntry(new BTreeEntry(low, level.held.getId(), child.getId()));
+            write(level.held, level.open.getId());
+            write(child, level.open.getId());
+            level.lastChild = child.getId();
+            level.held = null;
+        }
+
+        private void adopt(BulkLevel level, Field low, BTreePage child) throws DbException, IOException {
+            level.open.insertEntry(new BTreeEntry(low, level.lastChild, child.getId()));
+            write(child, level.open.getId());
+            level.lastChild = child.getId();
+        }
+
+        private void write(BTreePage page, BTreePageId parentId) throws DbException, IOException {
+            page.setParentId(parentId);
+            Database.getBufferPool().discardPage(page.getId());
+            rf.seek(BTreeRootPtrPage.getPageSize() + (long) (page.getId().getPageNumber() - 1) * BufferPool.getPageSize());
+            rf.write(page.getPageData());
+        }
+    }
+
     /**
      * get the specified tuples from the file based on its IndexPredicate value on
      * behalf of the specified transaction. This method will acquire a read lock on
@@ -1277,6 +1891,23 @@ public class BTreeFile implements DbFile {
         return new BTreeSearchIterator(this, tid, ipred);
     }
 
+    /**
+     * Return an iterator over all tuples whose key field equals one of the given keys, in
+     * key order.  The keys are sorted and looked up in a single pass over the leaf pages:
+     * a key on the current leaf is found by binary search, and the next leaf is reached
+     * along the sibling pointers or, for a key further away, by a search that starts below
+     * the root where possible.  This method will acquire a read lock on the leaf pages it
+     * reads, and may block until the lock can be acquired.
+     *
+     * @param tid  - the transaction id
+     * @param keys - the keys to look up, in any order and possibly with duplicates
+     * @return an iterator for the tuples with one of the keys
+     * @see #findNextLeafPage(TransactionId, Permissions, BTreeLeafPage, Field)
+     */
+    public DbFileIterator indexIterator(TransactionId tid, Collection<? extends Field> keys) {
+        return new BTreeMultiSearchIterator(this, tid, keys);
+    }
+
     /**
      * Get an iterator for all tuples in this B+ tree file in sorted order. This method
      * will acquire a read lock on the affected pages of the file, and may block until
@@ -1327,11 +1958,8 @@ class BTreeFileIterator extends AbstractDbFileIterator {
      * Open this iterator by getting an iterator on the first leaf page
      */
     public void open() throws DbException, TransactionAbortedException {
-        BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
-                tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
-        BTreePageId root = rootPtr.getRootId();
-        curp = f.findLeafPage(tid, root, Permissions.READ_ONLY, null);
-        it = curp.iterator();
+        curp = f.findLeafPage(tid, Permissions.READ_ONLY, null);
+        it = curp == null ? null : curp.iterator();
     }
 
     /**
@@ -1408,16 +2036,15 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
      * for the given predicate operation
      */
     public void open() throws DbException, TransactionAbortedException {
-        BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
-                tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
-        BTreePageId root = rootPtr.getRootId();
         if (ipred.getOp() == Op.EQUALS || ipred.getOp() == Op.GREATER_THAN
                 || ipred.getOp() == Op.GREATER_THAN_OR_EQ) {
-            curp = f.findLeafPage(tid, root, Permissions.READ_ONLY, ipred.getField());
+            curp = f.findLeafPage(tid, Permissions.READ_ONLY, ipred.getField());
+            // skip the smaller keys on the first page by binary search
+            it = curp == null ? null : curp.iterator(ipred.getField());
         } else {
-            curp = f.findLeafPage(tid, root, Permissions.READ_ONLY, null);
+            curp = f.findLeafPage(tid, Permissions.READ_ONLY, null);
+            it = curp == null ? null : curp.iterator();
         }
-        it = curp.iterator();
     }
 
     /**
@@ -1478,6 +2105,120 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
     }
 }
 
+/**
+ * Helper class that implements the DbFileIterator for the tuples with one of a set of keys.
+ */
+class BTreeMultiSearchIterator extends AbstractDbFileIterator {
+
+    Iterator<Tuple> it = null;
+    BTreeLeafPage curp = null;
+    Tuple pending = null;
+    int next;
+
+    TransactionId tid;
+    BTreeFile f;
+    Field[] keys;
+
+    /**
+     * Constructor for this iterator
+     *
+     * @param f    - the BTreeFile containing the tuples
+     * @param tid  - the transaction id
+     * @param keys - the keys to look up
+     */
+    public BTreeMultiSearchIterator(BTreeFile f, TransactionId tid, Collection<? extends Field> keys) {
+        this.f = f;
+        this.tid = tid;
+        //排序并去掉重复的键
+        TreeSet<Field> sorted = new TreeSet<Field>((a, b) ->
+                a.compare(Op.LESS_THAN, b) ? -1 : a.compare(Op.GREATER_THAN, b) ? 1 : 0);
+        sorted.addAll(keys);
+        this.keys = sorted.toArray(new Field[0]);
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        next = 0;
+        curp = null;
+        it = null;
+        pending = null;
+    }
+
+    /**
+     * Read the next tuple with the current key.  Once a tuple with a greater key is read,
+     * the search moves on to the next key: if that key is not on the current page, the
+     * leaf page possibly containing it is found first.
+     *
+     * @return the next tuple with one of the keys, or null if none exists
+     */
+    @Override
+    protected Tuple readNext() throws TransactionAbortedException, DbException {
+        while (next < keys.length) {
+            Field k = keys[next];
+            if (curp == null) {
+                curp = f.findLeafPage(tid, Permissions.READ_ONLY, k);
+                if (curp == null) {
+                    return null;
+                }
+                it = curp.iterator(k);
+            }
+            Tuple t = pending != null ? pending : nextTuple();
+            pending = null;
+            if (t == null) {
+                return null;
+            }
+            Field tk = t.getField(f.keyField());
+            if (tk.compare(Op.EQUALS, k)) {
+                return t;
+            }
+            if (tk.compare(Op.LESS_THAN, k)) {
+                continue;
+            }
+            //当前的键已经查完，t可能属于后面的键
+            pending = t;
+            next++;
+            if (next < keys.length && tk.compare(Op.LESS_THAN, keys[next])) {
+                seek(keys[next]);
+            }
+        }
+        return null;
+    }
+
+    //返回当前位置的下一个元组，当前页面读完后沿右兄弟指针移动
+    private Tuple nextTuple() throws TransactionAbortedException, DbException {
+        while (!it.hasNext()) {
+            BTreePageId nextp = curp.getRightSiblingId();
+            if (nextp == null) {
+                return null;
+            }
+            curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid, nextp, Permissions.READ_ONLY);
+            it = curp.iterator();
+        }
+        return it.next();
+    }
+
+    //定位到第一个不小于k的元组，已读过的元组都小于k
+    private void seek(Field k) throws TransactionAbortedException, DbException {
+        pending = null;
+        Iterator<Tuple> last = curp.reverseIterator();
+        if (!last.hasNext() || last.next().getField(f.keyField()).compare(Op.LESS_THAN, k)) {
+            curp = f.findNextLeafPage(tid, Permissions.READ_ONLY, curp, k);
+        }
+        it = curp.iterator(k);
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    public void close() {
+        super.close();
+        it = null;
+        curp = null;
+        pending = null;
+    }
+}
+
 //反向迭代器类
 class BTreeFileReverseIterator extends AbstractDbFileIterator {
 
@@ -1495,11 +2236,8 @@ class BTreeFileReverseIterator extends AbstractDbFileIterator {
 
     //通过给迭代器it赋值为最后一个叶节点的反向迭代器来初始化迭代器
     public void open() throws DbException, TransactionAbortedException {
-        BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
-                tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
-        BTreePageId root = rootPtr.getRootId();
-        curp = f.findReverseLeafPage(tid, root, Permissions.READ_ONLY, null);
-        it = curp.reverseIterator();
+        curp = f.findReverseLeafPage(tid, Permissions.READ_ONLY, null);
+        it = curp == null ? null : curp.reverseIterator();
     }
 
     @Override
@@ -1563,16 +2301,15 @@ class BTreeSearchReverseIterator extends AbstractDbFileIterator {
 
     //通过给迭代器it赋值为最后一个叶节点的反向迭代器来初始化迭代器
     public void open() throws DbException, TransactionAbortedException {
-        BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
-                tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
-        BTreePageId root = rootPtr.getRootId();
         if (ipred.getOp() == Op.EQUALS || ipred.getOp() == Op.LESS_THAN
                 || ipred.getOp() == Op.LESS_THAN_OR_EQ) {
-            curp = f.findReverseLeafPage(tid, root, Permissions.READ_ONLY, ipred.getField());
+            curp = f.findReverseLeafPage(tid, Permissions.READ_ONLY, ipred.getField());
+            //在第一个页面内二分查找，跳过更大的键值
+            it = curp == null ? null : curp.reverseIterator(ipred.getField());
         } else {
-            curp = f.findReverseLeafPage(tid, root, Permissions.READ_ONLY, null);
+            curp = f.findReverseLeafPage(tid, Permissions.READ_ONLY, null);
+            it = curp == null ? null : curp.reverseIterator();
         }
-        it = curp.reverseIterator();
     }
 
     //读取下一个元组
@@ -200,8 +200,10 @@ public class BTreeFileEncoder {
 			int numFields, Type[] typeAr, char fieldSeparator, int keyField) 
 					throws IOException, DbException, TransactionAbortedException {
 		// convert the inFile to HeapFile first.
-		HeapFileEncoder.convert(inFile, hFile, BufferPool.getPageSize(), numFields);
-		HeapFile heapf = Utility.openHeapFile(numFields, hFile);
+		HeapFileEncoder.convert(inFile, hFile, BufferPool.getPageSize(), numFields, typeAr, fieldSeparator);
+		TupleDesc td = new TupleDesc(typeAr);
+		HeapFile heapf = new HeapFile(hFile, td);
+		Database.getCatalog().addTable(heapf, UUID.randomUUID().toString());
 
 		// read all the tuples from the heap file and sort them on the keyField
 		ArrayList<Tuple> tuples = new ArrayList<Tuple>();
@@ -216,7 +218,8 @@ public class BTreeFileEncoder {
 		Collections.sort(tuples, new TupleComparator(keyField));
 
 		// add the tuples to B+ tree file
-		BTreeFile bf = BTreeUtility.openBTreeFile(numFields, bFile, keyField);
+		BTreeFile bf = new BTreeFile(bFile, keyField, td);
+		Database.getCatalog().addTable(bf, UUID.randomUUID().toString());
 		Type keyType = typeAr[keyField];
 		int tableid = bf.getId();
 
@@ -232,6 +235,20 @@ public class BTreeFileEncoder {
 		// pointerbytes: one extra child pointer, parent pointer, child page category
 		int internalpointerbytes = 2 * BTreeLeafPage.INDEX_SIZE + 1; 
 		int nentries = (npagebytes * 8 - internalpointerbytes * 8 - 1) /  (nentrybytes * 8 + 1);  //floor comes for free
+		if (keyType == Type.STRING_TYPE) {
+			// internal pages keyed on a string are written in the compact format, where the
+			// room taken by an entry depends on the length of its key. Every key copied up
+			// is a separator between two adjacent tuples, so pages are sized for the longest one.
+			int maxkeylen = 0;
+			for (int i = 1; i < tuples.size(); i++) {
+				Field sep = BTreeFile.separator(tuples.get(i - 1).getField(keyField), tuples.get(i).getField(keyField));
+				maxkeylen = Math.max(maxkeylen, ((StringField) sep).getValue().length());
+			}
+			BTreeInternalPage empty = new BTreeInternalPage(new BTreePageId(tableid, 0, BTreePageId.INTERNAL),
+					BTreeInternalPage.createEmptyPageData(), keyField);
+			int maxentrybytes = 1 + Type.STRING_LEN + BTreeInternalPage.INDEX_SIZE;
+			nentries = empty.getMaxEntries() * maxentrybytes / (1 + maxkeylen + BTreeInternalPage.INDEX_SIZE);
+		}
 
 		ArrayList<ArrayList<BTreeEntry>> entries = new ArrayList<ArrayList<BTreeEntry>>();
 
@@ -264,7 +281,8 @@ public class BTreeFileEncoder {
 				leftSiblingId = leafPid;
 
 				// update the parent by "copying up" the next key
-				BTreeEntry copyUpEntry = new BTreeEntry(page2.get(0).getField(keyField), leafPid, null);
+				Field sep = BTreeFile.separator(page1.get(page1.size() - 1).getField(keyField), page2.get(0).getField(keyField));
+				BTreeEntry copyUpEntry = new BTreeEntry(sep, leafPid, null);
 				updateEntries(entries, bf, copyUpEntry, 0, nentries, npagebytes, 
 						keyType, tableid, keyField);
 
@@ -313,7 +331,9 @@ public class BTreeFileEncoder {
 			bf.writePage(lastPage);
 
 			// update the parent by "copying up" the next key
-			BTreeEntry copyUpEntry = new BTreeEntry(lastPg.get(0).getField(keyField), secondToLastPid, lastPid);
+			Field sep = BTreeFile.separator(secondToLastPg.get(secondToLastPg.size() - 1).getField(keyField),
+					lastPg.get(0).getField(keyField));
+			BTreeEntry copyUpEntry = new BTreeEntry(sep, secondToLastPid, lastPid);
 			updateEntries(entries, bf, copyUpEntry, 0, nentries, npagebytes, 
 					keyType, tableid, keyField);
 		}
@@ -612,7 +632,8 @@ public class BTreeFileEncoder {
 	}
 
 	/**
-	 * Convert a set of entries to a byte array in the format of a BTreeInternalPage
+	 * Convert a set of entries to a byte array in the format of a BTreeInternalPage.
+	 * Pages keyed on a string are written in the compact format.
 	 * 
 	 * @param entries - the set of entries
 	 * @param npagebytes - number of bytes per page
@@ -624,6 +645,9 @@ public class BTreeFileEncoder {
 	public static byte[] convertToInternalPage(ArrayList<BTreeEntry> entries, int npagebytes,
 			Type keyType, int childPageCategory)
 					throws IOException {
+		if (keyType == Type.STRING_TYPE) {
+			return convertToCompactInternalPage(entries, npagebytes, childPageCategory);
+		}
 		int nentrybytes = keyType.getLen() + BTreeInternalPage.INDEX_SIZE;
 		// pointerbytes: one extra child pointer, parent pointer, child page category
 		int pointerbytes = 2 * BTreeLeafPage.INDEX_SIZE + 1; 
@@ -697,6 +721,40 @@ public class BTreeFileEncoder {
 
 	}
 
+	/**
+	 * Convert a set of entries with string keys to a byte array in the compact
+	 * format of a BTreeInternalPage: the number of child pointers and the first
+	 * child pointer, then the length, bytes and right child pointer of each entry.
+	 * 
+	 * @see #convertToInternalPage(ArrayList, int, Type, int)
+	 */
+	private static byte[] convertToCompactInternalPage(ArrayList<BTreeEntry> entries, int npagebytes,
+			int childPageCategory)
+					throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream(npagebytes);
+		DataOutputStream dos = new DataOutputStream(baos);
+
+		dos.writeInt(0); // parent pointer
+		dos.writeByte((byte) childPageCategory);
+		dos.writeShort(entries.size() + 1);
+
+		Collections.sort(entries, new EntryComparator());
+		dos.writeInt(entries.get(0).getLeftChild().getPageNumber());
+		for (BTreeEntry e : entries) {
+			String key = ((StringField) e.getKey()).getValue();
+			dos.writeByte(key.length());
+			dos.writeBytes(key);
+			dos.writeInt(e.getRightChild().getPageNumber());
+		}
+		if (dos.size() > npagebytes)
+			throw new IOException("entries do not fit on an internal page");
+
+		// pad the rest of the page with zeroes
+		dos.write(new byte[npagebytes - dos.size()]);
+
+		return baos.toByteArray();
+	}
+
 	/**
 	 * Create a byte array in the format of a BTreeRootPtrPage
 	 * 
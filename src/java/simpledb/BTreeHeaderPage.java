@@ -13,6 +13,7 @@ import java.io.*;
 public class BTreeHeaderPage implements Page {
 	private volatile boolean dirty = false;
 	private volatile TransactionId dirtier = null;
+	private volatile long pageLSN = 0;
 	
 	final static int INDEX_SIZE = Type.INT_TYPE.getLen();
 
@@ -264,6 +265,20 @@ public class BTreeHeaderPage implements Page {
 			return null;
 	}
 
+	/**
+	 * Returns the LSN of the last log record written for this page
+	 */
+	public long getLSN() {
+		return pageLSN;
+	}
+
+	/**
+	 * Records the LSN of a log record just written for this page
+	 */
+	public void setLSN(long lsn) {
+		this.pageLSN = lsn;
+	}
+
 	/**
 	 * Returns true if the page of the BTreeFile associated with slot i is used
 	 */
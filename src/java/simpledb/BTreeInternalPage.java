@@ -20,6 +20,16 @@ public class BTreeInternalPage extends BTreePage {
 	private final int numSlots;
 	
 	private int childCategory; // either leaf or internal
+	private int rightLink; // B-link mode: the internal page to the right, or 0
+
+	// string keys are stored in the compact, variable-length format
+	private final boolean compact;
+
+	// compact format: parent pointer, child page category, number of children, first child
+	private final static int COMPACT_HEADER_SIZE = 2 * INDEX_SIZE + 1 + 2;
+	// compact format: key length byte, key bytes, child pointer
+	private final static int COMPACT_MIN_ENTRY_SIZE = 1 + INDEX_SIZE;
+	private final static int COMPACT_MAX_ENTRY_SIZE = 1 + Type.STRING_LEN + INDEX_SIZE;
 
 	public void checkRep(Field lowerBound, Field upperBound, boolean checkOccupancy, int depth) {
 		Field prev = lowerBound;
@@ -37,7 +47,7 @@ public class BTreeInternalPage extends BTreePage {
 		}
 
 		if (checkOccupancy && depth > 0) {
-			assert (getNumEntries() >= getMaxEntries() / 2);
+			assert (getNumEmptySlots() <= getMaxEntries() - getMaxEntries() / 2);
 		}
 	}
 	
@@ -47,7 +57,8 @@ public class BTreeInternalPage extends BTreePage {
 	 * the slots of the page that are in use, some number of entry slots, and extra
 	 * bytes for the parent pointer, one extra child pointer (a node with m entries 
 	 * has m+1 pointers to children), and the category of all child pages (either 
-	 * leaf or internal).
+	 * leaf or internal).  In B-link mode the page ends with a pointer to the
+	 * internal page on its right and its fence keys (see {@link BTreePage#getFenceSize}).
 	 *  Specifically, the number of entries is equal to: <p>
 	 *          floor((BufferPool.getPageSize()*8 - extra bytes*8) / (entry size * 8 + 1))
 	 * <p> where entry size is the size of entries in this index node
@@ -57,6 +68,12 @@ public class BTreeInternalPage extends BTreePage {
 	 * <p>
 	 *      ceiling((no. entry slots + 1) / 8)
 	 * <p>
+	 * Pages keyed on a string use a compact format instead, because a fixed
+	 * size slot would hold the longest possible string: after the parent
+	 * pointer and the child page category come the number of child pointers,
+	 * the first child pointer, and for each entry the length of its key, the
+	 * key itself and its right child pointer.  The number of entries such a
+	 * page holds depends on the length of its keys; see {@link #getMaxEntries}.
 	 * @see Database#getCatalog
 	 * @see Catalog#getTupleDesc
 	 * @see BufferPool#getPageSize()
@@ -67,7 +84,8 @@ public class BTreeInternalPage extends BTreePage {
 	 */
 	public BTreeInternalPage(BTreePageId id, byte[] data, int key) throws IOException {
 		super(id, key);
-		this.numSlots = getMaxEntries() + 1;
+		this.compact = td.getFieldType(keyField) == Type.STRING_TYPE;
+		this.numSlots = compact ? getCompactCapacity() / COMPACT_MIN_ENTRY_SIZE + 1 : getMaxEntries() + 1;
 		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
 
 		// Read the parent pointer
@@ -81,55 +99,138 @@ public class BTreeInternalPage extends BTreePage {
 		// read the child page category
 		childCategory = (int) dis.readByte();
 
-		// allocate and read the header slots of this page
-		header = new byte[getHeaderSize()];
-		for (int i=0; i<header.length; i++)
-			header[i] = dis.readByte();
-
-		keys = new Field[numSlots];
-		try{
-			// allocate and read the keys of this page
-			// start from 1 because the first key slot is not used
-			// since a node with m keys has m+1 pointers
-			keys[0] = null;
-			for (int i=1; i<keys.length; i++)
-				keys[i] = readNextKey(dis,i);
-		}catch(NoSuchElementException e){
-			e.printStackTrace();
-		}
+		if (compact) {
+			header = new byte[getHeaderSize()];
+			keys = new Field[numSlots];
+			children = new int[numSlots];
+			readCompactEntries(dis);
+		} else {
+			// allocate and read the header slots of this page
+			header = new byte[getHeaderSize()];
+			for (int i=0; i<header.length; i++)
+				header[i] = dis.readByte();
+
+			keys = new Field[numSlots];
+			try{
+				// allocate and read the keys of this page
+				// start from 1 because the first key slot is not used
+				// since a node with m keys has m+1 pointers
+				keys[0] = null;
+				for (int i=1; i<keys.length; i++)
+					keys[i] = readNextKey(dis,i);
+			}catch(NoSuchElementException e){
+				e.printStackTrace();
+			}
 
-		children = new int[numSlots];
-		try{
-			// allocate and read the child pointers of this page
-			for (int i=0; i<children.length; i++)
-				children[i] = readNextChild(dis,i);
-		}catch(NoSuchElementException e){
-			e.printStackTrace();
+			children = new int[numSlots];
+			try{
+				// allocate and read the child pointers of this page
+				for (int i=0; i<children.length; i++)
+					children[i] = readNextChild(dis,i);
+			}catch(NoSuchElementException e){
+				e.printStackTrace();
+			}
 		}
 		dis.close();
 
+		// read the right link and fence keys at the end of the page
+		if (blink) {
+			int off = data.length - getFenceSize();
+			rightLink = ((data[off] & 0xff) << 24) | ((data[off + 1] & 0xff) << 16)
+					| ((data[off + 2] & 0xff) << 8) | (data[off + 3] & 0xff);
+		}
+		readFences(data);
+
 		setBeforeImage();
 	}
 
 	/** 
 	 * Retrieve the maximum number of entries this page can hold. (The number of keys)
+	 * <p>
+	 * For a page in the compact format this is the number of entries with
+	 * keys of the longest possible length that fit, less one that is kept
+	 * in reserve: a separator updated in place by a redistribution may grow
+	 * the page past this limit before it is split.  The page holds more
+	 * entries when its keys are shorter, and {@link #getNumEmptySlots}
+	 * counts how many more entries it can certainly take.
  	 */
 	public int getMaxEntries() {        
+		if (compact) {
+			return getCompactCapacity() / COMPACT_MAX_ENTRY_SIZE - 1;
+		}
 		int keySize = td.getFieldType(keyField).getLen();
 		int bitsPerEntryIncludingHeader = keySize * 8 + INDEX_SIZE * 8 + 1;
 		// extraBits are: one parent pointer, 1 byte for child page category, 
-		// one extra child pointer (node with m entries has m+1 pointers to children), 1 bit for extra header
-		int extraBits = 2 * INDEX_SIZE * 8 + 8 + 1; 
+		// one extra child pointer (node with m entries has m+1 pointers to children), 1 bit for extra header,
+		// and the right link and fence keys in B-link mode
+		int extraBits = 2 * INDEX_SIZE * 8 + 8 + 1 + getFenceSize() * 8; 
 		int entriesPerPage = (BufferPool.getPageSize()*8 - extraBits) / bitsPerEntryIncludingHeader; //round down
 		return entriesPerPage;
 	}
 
+	/**
+	 * In B-link mode the fence keys are preceded by the right link.
+	 */
+	@Override
+	protected int getFenceSize() {
+		return blink ? INDEX_SIZE + super.getFenceSize() : 0;
+	}
+
+	/**
+	 * @return the number of bytes available for entries on a page in the compact format
+	 */
+	private int getCompactCapacity() {
+		return BufferPool.getPageSize() - COMPACT_HEADER_SIZE - getFenceSize();
+	}
+
+	/**
+	 * @return the number of bytes taken by the entries on a page in the compact format
+	 */
+	private int getCompactEntryBytes() {
+		int bytes = 0;
+		for (int i=1; i<numSlots; i++) {
+			if (isSlotUsed(i))
+				bytes += getCompactEntrySize(keys[i]);
+		}
+		return bytes;
+	}
+
+	private static int getCompactEntrySize(Field key) {
+		return COMPACT_MIN_ENTRY_SIZE + Math.min(((StringField) key).getValue().length(), Type.STRING_LEN);
+	}
+
+	/**
+	 * Whether the keys on this page take more room than its maximum number of
+	 * entries allows, after a key was replaced by a longer one.  Such a page
+	 * must be split; this can only happen to pages in the compact format.
+	 * @return true if the page should be split
+	 */
+	public boolean isOverfull() {
+		return compact && getCompactEntryBytes() > getMaxEntries() * COMPACT_MAX_ENTRY_SIZE;
+	}
+
+	/**
+	 * Whether the entries of this page, the entries of its right sibling and
+	 * the key between them fit on one page without exceeding its maximum
+	 * number of entries.
+	 * @param rightSibling the page to the right of this page
+	 * @param key the key of the parent entry between the two pages
+	 * @return true if the two pages can be merged
+	 */
+	public boolean canMerge(BTreeInternalPage rightSibling, Field key) {
+		if (compact) {
+			return getCompactEntryBytes() + rightSibling.getCompactEntryBytes() + getCompactEntrySize(key)
+					<= getMaxEntries() * COMPACT_MAX_ENTRY_SIZE;
+		}
+		return getNumEntries() + rightSibling.getNumEntries() + 1 <= getMaxEntries();
+	}
+
 	/**
 	 * Computes the number of bytes in the header of a B+ internal page with each entry occupying entrySize bytes
 	 * @return the number of bytes in the header
 	 */
 	private int getHeaderSize() {        
-		int slotsPerPage = getMaxEntries() + 1;
+		int slotsPerPage = numSlots;
 		int hb = (slotsPerPage / 8);
 		if (hb * 8 < slotsPerPage) hb++;
 
@@ -161,6 +262,47 @@ public class BTreeInternalPage extends BTreePage {
 		}
 	}
 
+	/**
+	 * Read the entries of a page in the compact format, filling the first slots.
+	 */
+	private void readCompactEntries(DataInputStream dis) throws IOException {
+		int numChildren = dis.readUnsignedShort();
+		children[0] = dis.readInt();
+		if (numChildren == 0)
+			return;
+		markSlotUsed(0, true);
+		for (int i=1; i<numChildren; i++) {
+			byte[] bs = new byte[dis.readUnsignedByte()];
+			dis.readFully(bs);
+			keys[i] = new StringField(new String(bs), Type.STRING_LEN);
+			children[i] = dis.readInt();
+			markSlotUsed(i, true);
+		}
+	}
+
+	/**
+	 * Write the entries of a page in the compact format, leaving out the empty slots.
+	 */
+	private void writeCompactEntries(DataOutputStream dos) throws IOException {
+		int numChildren = 0;
+		for (int i=0; i<numSlots; i++) {
+			if (isSlotUsed(i))
+				numChildren++;
+		}
+		dos.writeShort(numChildren);
+		dos.writeInt(isSlotUsed(0) ? children[0] : 0);
+		for (int i=1; i<numSlots; i++) {
+			if (!isSlotUsed(i))
+				continue;
+			String key = ((StringField) keys[i]).getValue();
+			if (key.length() > Type.STRING_LEN)
+				key = key.substring(0, Type.STRING_LEN);
+			dos.writeByte(key.length());
+			dos.writeBytes(key);
+			dos.writeInt(children[i]);
+		}
+	}
+
 	/**
 	 * Read keys from the source file.
 	 */
@@ -252,6 +394,21 @@ public class BTreeInternalPage extends BTreePage {
 			e.printStackTrace();
 		}
 
+		if (compact) {
+			try {
+				writeCompactEntries(dos);
+				dos.write(new byte[BufferPool.getPageSize() - getFenceSize() - dos.size()]);
+				if (blink) {
+					dos.writeInt(rightLink);
+				}
+				writeFences(dos);
+				dos.flush();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			return baos.toByteArray();
+		}
+
 		// create the header of the page
 		for (int i=0; i<header.length; i++) {
 			try {
@@ -316,10 +473,15 @@ public class BTreeInternalPage extends BTreePage {
 
 		// padding
 		int zerolen = BufferPool.getPageSize() - (INDEX_SIZE + 1 + header.length + 
-				td.getFieldType(keyField).getLen() * (keys.length - 1) + INDEX_SIZE * children.length); 
+				td.getFieldType(keyField).getLen() * (keys.length - 1) + INDEX_SIZE * children.length
+				+ getFenceSize()); 
 		byte[] zeroes = new byte[zerolen];
 		try {
 			dos.write(zeroes, 0, zerolen);
+			if (blink) {
+				dos.writeInt(rightLink);
+			}
+			writeFences(dos);
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
@@ -409,6 +571,9 @@ public class BTreeInternalPage extends BTreePage {
 			throw new DbException("tried to update entry on invalid page or table");
 		if (!isSlotUsed(rid.getTupleNumber()))
 			throw new DbException("tried to update null entry.");
+		if (compact && getCompactEntryBytes() - getCompactEntrySize(keys[rid.getTupleNumber()])
+				+ getCompactEntrySize(e.getKey()) > getCompactCapacity())
+			throw new DbException("no room on the page for the updated key");
 		
 		for(int i = rid.getTupleNumber() + 1; i < numSlots; i++) {
 			if(isSlotUsed(i)) {
@@ -431,6 +596,7 @@ public class BTreeInternalPage extends BTreePage {
 		}
 		children[rid.getTupleNumber()] = e.getRightChild().getPageNumber();
 		keys[rid.getTupleNumber()] = e.getKey();
+		invalidateSlotIndex();
 	}
 
 	/**
@@ -476,7 +642,7 @@ public class BTreeInternalPage extends BTreePage {
 			}
 		}
 
-		if (emptySlot == -1)
+		if (emptySlot == -1 || (compact && getCompactEntryBytes() + getCompactEntrySize(e.getKey()) > getCompactCapacity()))
 			throw new DbException("called insertEntry on page with no empty slots.");        
 
 		// find the child pointer matching the left or right child in this entry
@@ -558,17 +724,61 @@ public class BTreeInternalPage extends BTreePage {
 		}
 	}
 
+	/**
+	 * Get the id of the internal page to the right of this one on the same
+	 * level (B-link mode only)
+	 * @return the id of the right link, or null if this is the right-most page
+	 */
+	public BTreePageId getRightLinkId() {
+		if(rightLink == 0) {
+			return null;
+		}
+		return new BTreePageId(pid.getTableId(), rightLink, BTreePageId.INTERNAL);
+	}
+
+	/**
+	 * Set the id of the internal page to the right of this one (B-link mode only)
+	 * @param id - the new right link, or null for none
+	 * @throws DbException if the id is not valid or the page is not in B-link mode
+	 */
+	public void setRightLinkId(BTreePageId id) throws DbException {
+		if(!blink) {
+			throw new DbException("right links are only kept in B-link mode");
+		}
+		if(id == null) {
+			rightLink = 0;
+		}
+		else {
+			if(id.getTableId() != pid.getTableId()) {
+				throw new DbException("table id mismatch in setRightLinkId");
+			}
+			if(id.pgcateg() != BTreePageId.INTERNAL) {
+				throw new DbException("right link must be an internal node");
+			}
+			rightLink = id.getPageNumber();
+		}
+	}
+
 	/**
 	 * Returns the number of entries (keys) currently stored on this page
 	 */
 	public int getNumEntries() {
-		return numSlots - getNumEmptySlots() - 1;
+		int cnt = 0;
+		for(int i=1; i<numSlots; i++)
+			if(isSlotUsed(i))
+				cnt++;
+		return cnt;
 	}
 	
 	/**
 	 * Returns the number of empty slots on this page.
 	 */
 	public int getNumEmptySlots() {
+		if (compact) {
+			// 按最长的键计算还能放入的条目数
+			int free = getMaxEntries() * COMPACT_MAX_ENTRY_SIZE - getCompactEntryBytes();
+			return Math.max(0, Math.min(free / COMPACT_MAX_ENTRY_SIZE, numSlots - 1 - getNumEntries()));
+		}
 		int cnt = 0;
 		// start from 1 because the first key slot is not used
 		// since a node with m keys has m+1 pointers
@@ -595,12 +805,63 @@ public class BTreeInternalPage extends BTreePage {
 		int headerbyte = (i - headerbit) / 8;
 
 		Debug.log(1, "BTreeInternalPage.setSlot: setting slot %d to %b", i, value);
+		invalidateSlotIndex();
 		if(value)
 			header[headerbyte] |= 1 << headerbit;
 		else
 			header[headerbyte] &= (0xFF ^ (1 << headerbit));
 	}
 
+	protected int getNumSlots() {
+		return numSlots;
+	}
+
+	protected Field getSlotKey(int i) {
+		return i > 0 && isSlotUsed(i) ? keys[i] : null;
+	}
+
+	/**
+	 * Find the left-most child that may contain tuples with key f, by binary
+	 * search over the keys on this page: the left child of the first entry
+	 * whose key is greater than or equal to f, or the right-most child if
+	 * there is no such entry.
+	 * @param f - the key, or null for the left-most child
+	 * @return the id of the child, or null if the page has no entries
+	 */
+	public BTreePageId getChildFor(Field f) {
+		SlotIndex idx = getSlotIndex();
+		int n = idx.size();
+		if(n == 0)
+			return null;
+		int child;
+		if(f == null)
+			child = 0;
+		else {
+			int i = idx.search(f, false);
+			// 第i个键的左子节点存放在前一个已用槽位中
+			child = i == n ? idx.slots[n - 1] : (i == 0 ? 0 : idx.slots[i - 1]);
+		}
+		return new BTreePageId(pid.getTableId(), children[child], childCategory);
+	}
+
+	/**
+	 * Find the right-most child that may contain tuples with key f, by binary
+	 * search over the keys on this page: the right child of the last entry
+	 * whose key is less than or equal to f, or the left-most child if there is
+	 * no such entry.
+	 * @param f - the key, or null for the right-most child
+	 * @return the id of the child, or null if the page has no entries
+	 */
+	public BTreePageId getReverseChildFor(Field f) {
+		SlotIndex idx = getSlotIndex();
+		int n = idx.size();
+		if(n == 0)
+			return null;
+		int i = f == null ? n : idx.search(f, true);
+		int child = i == 0 ? 0 : idx.slots[i - 1];
+		return new BTreePageId(pid.getTableId(), children[child], childCategory);
+	}
+
 	/**
 	 * @return an iterator over all entries on this page (calling remove on this iterator throws an UnsupportedOperationException)
 	 * (note that this iterator shouldn't return entries in empty slots!)
@@ -741,7 +1002,7 @@ class BTreeInternalPageReverseIterator implements Iterator<BTreeEntry> {
 
 	public BTreeInternalPageReverseIterator(BTreeInternalPage p) {
 		this.p = p;
-		this.curEntry = p.getMaxEntries();
+		this.curEntry = p.getNumSlots() - 1;
 		while(!p.isSlotUsed(curEntry) && curEntry > 0) {
 			--curEntry;
 		}
@@ -761,8 +1022,14 @@ class BTreeInternalPageReverseIterator implements Iterator<BTreeEntry> {
 			while (true) {
 				int entry = curEntry--;
 				Field key = p.getKey(entry);
-				BTreePageId childId = p.getChildId(entry - 1);
-				if(key != null && childId != null) {
+				if(key == null)
+					continue;
+				// the left child is in the previous used slot, which need not be entry - 1
+				int prev = entry - 1;
+				while(prev > 0 && !p.isSlotUsed(prev))
+					prev--;
+				BTreePageId childId = p.getChildId(prev);
+				if(childId != null) {
 					nextToReturn = new BTreeEntry(key, childId, nextChildId);
 					nextToReturn.setRecordId(new RecordId(p.pid, entry));
 					nextChildId = childId;
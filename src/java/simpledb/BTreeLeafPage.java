@@ -44,7 +44,8 @@ public class BTreeLeafPage extends BTreePage {
 	 * Create a BTreeLeafPage from a set of bytes of data read from disk.
 	 * The format of a BTreeLeafPage is a set of header bytes indicating
 	 * the slots of the page that are in use, and some number of tuple slots, 
-	 * as well as some extra bytes for the parent and sibling pointers.
+	 * as well as some extra bytes for the parent and sibling pointers.  In
+	 * B-link mode the page ends with its fence keys (see {@link BTreePage#getFenceSize}).
 	 *  Specifically, the number of tuples is equal to: <p>
 	 *          floor((BufferPool.getPageSize()*8 - extra bytes*8) / (tuple size * 8 + 1))
 	 * <p> where tuple size is the size of tuples in this
@@ -102,6 +103,7 @@ public class BTreeLeafPage extends BTreePage {
 			e.printStackTrace();
 		}
 		dis.close();
+		readFences(data);
 
 		setBeforeImage();
 	}
@@ -111,8 +113,9 @@ public class BTreeLeafPage extends BTreePage {
 	 */
 	public int getMaxTuples() {        
 		int bitsPerTupleIncludingHeader = td.getSize() * 8 + 1;
-		// extraBits are: left sibling pointer, right sibling pointer, parent pointer
-		int extraBits = 3 * INDEX_SIZE * 8; 
+		// extraBits are: left sibling pointer, right sibling pointer, parent pointer,
+		// and the fence keys in B-link mode
+		int extraBits = 3 * INDEX_SIZE * 8 + getFenceSize() * 8; 
 		int tuplesPerPage = (BufferPool.getPageSize()*8 - extraBits) / bitsPerTupleIncludingHeader; //round down
 		return tuplesPerPage;
 	}
@@ -262,10 +265,12 @@ public class BTreeLeafPage extends BTreePage {
 		}
 
 		// padding
-		int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length + 3 * INDEX_SIZE); //- numSlots * td.getSize();
+		int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length + 3 * INDEX_SIZE
+				+ getFenceSize()); //- numSlots * td.getSize();
 		byte[] zeroes = new byte[zerolen];
 		try {
 			dos.write(zeroes, 0, zerolen);
+			writeFences(dos);
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
@@ -323,16 +328,9 @@ public class BTreeLeafPage extends BTreePage {
 			throw new DbException("called addTuple on page with no empty slots.");
 
 		// find the last key less than or equal to the key being inserted
-		int lessOrEqKey = -1;
-		Field key = t.getField(keyField);
-		for (int i=0; i<numSlots; i++) {
-			if(isSlotUsed(i)) {
-				if(tuples[i].getField(keyField).compare(Predicate.Op.LESS_THAN_OR_EQ, key))
-					lessOrEqKey = i;
-				else
-					break;	
-			}
-		}
+		SlotIndex idx = getSlotIndex();
+		int lessOrEqPos = idx.search(t.getField(keyField), true) - 1;
+		int lessOrEqKey = lessOrEqPos < 0 ? -1 : idx.slots[lessOrEqPos];
 
 		// shift records back or forward to fill empty slot and make room for new record
 		// while keeping records in sorted order
@@ -469,6 +467,7 @@ public class BTreeLeafPage extends BTreePage {
 		int headerbyte = (i - headerbit) / 8;
 
 		Debug.log(1, "BTreeLeafPage.setSlot: setting slot %d to %b", i, value);
+		invalidateSlotIndex();
 		if(value)
 			header[headerbyte] |= 1 << headerbit;
 		else
@@ -491,6 +490,36 @@ public class BTreeLeafPage extends BTreePage {
 		return new BTreeLeafPageReverseIterator(this);
 	}
 
+	/**
+	 * @param f - the key to start from
+	 * @return an iterator over the tuples on this page whose key is greater
+	 * than or equal to f, starting at the first of them found by binary search
+	 */
+	public Iterator<Tuple> iterator(Field f) {
+		SlotIndex idx = getSlotIndex();
+		int i = idx.search(f, false);
+		return new BTreeLeafPageIterator(this, i == idx.size() ? numSlots : idx.slots[i]);
+	}
+
+	/**
+	 * @param f - the key to start from
+	 * @return a reverse iterator over the tuples on this page whose key is less
+	 * than or equal to f, starting at the last of them found by binary search
+	 */
+	public Iterator<Tuple> reverseIterator(Field f) {
+		SlotIndex idx = getSlotIndex();
+		int i = idx.search(f, true);
+		return new BTreeLeafPageReverseIterator(this, i == 0 ? -1 : idx.slots[i - 1]);
+	}
+
+	protected int getNumSlots() {
+		return numSlots;
+	}
+
+	protected Field getSlotKey(int i) {
+		return isSlotUsed(i) ? tuples[i].getField(keyField) : null;
+	}
+
 	/**
 	 * protected method used by the iterator to get the ith tuple out of this page
 	 * @param i - the index of the tuple
@@ -529,6 +558,11 @@ class BTreeLeafPageIterator implements Iterator<Tuple> {
 		this.p = p;
 	}
 
+	public BTreeLeafPageIterator(BTreeLeafPage p, int start) {
+		this.p = p;
+		this.curTuple = start;
+	}
+
 	public boolean hasNext() {
 		if (nextToReturn != null)
 			return true;
@@ -578,6 +612,11 @@ class BTreeLeafPageReverseIterator implements Iterator<Tuple> {
 		this.curTuple = p.getMaxTuples() - 1;
 	}
 
+	public BTreeLeafPageReverseIterator(BTreeLeafPage p, int start) {
+		this.p = p;
+		this.curTuple = start;
+	}
+
 	public boolean hasNext() {
 		if (nextToReturn != null)
 			return true;
@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.io.*;
+import java.util.Arrays;
 
 /**
  * Each instance of BTreeInternalPage stores data for one page of a BTreeFile and 
@@ -13,6 +14,7 @@ import java.io.*;
 public abstract class BTreePage implements Page {
 	protected volatile boolean dirty = false;
 	protected volatile TransactionId dirtier = null;
+	protected volatile long pageLSN = 0;
 
 	protected final static int INDEX_SIZE = Type.INT_TYPE.getLen();
 
@@ -24,6 +26,20 @@ public abstract class BTreePage implements Page {
 	protected byte[] oldData;
 	protected final Byte oldDataLock=new Byte((byte)0);
 
+	// B-link mode: the range of keys this page covers (null for -infinity and
+	// +infinity), valid only while the page is part of the tree
+	protected final boolean blink;
+	protected boolean fenced;
+	protected Field lowKey;
+	protected Field highKey;
+
+	// sorted index of the slots holding keys, rebuilt lazily after the page changes
+	private volatile SlotIndex slotIndex;
+
+	private final static int FENCED = 1;
+	private final static int HAS_LOW_KEY = 2;
+	private final static int HAS_HIGH_KEY = 4;
+
 	/**
 	 * Create a BTreeInternalPage from a set of bytes of data read from disk.
 	 * The format of a BTreeInternalPage is a set of header bytes indicating
@@ -52,6 +68,8 @@ public abstract class BTreePage implements Page {
 		this.pid = id;
 		this.keyField = key;
 		this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+		DbFile file = Database.getCatalog().getDatabaseFile(id.getTableId());
+		this.blink = file instanceof BTreeFile && ((BTreeFile) file).isBLink();
 	}
 
 	/**
@@ -128,6 +146,137 @@ public abstract class BTreePage implements Page {
 			return null;
 	}
 
+	/**
+	 * Returns the LSN of the last log record written for this page
+	 */
+	public long getLSN() {
+		return pageLSN;
+	}
+
+	/**
+	 * Records the LSN of a log record just written for this page
+	 */
+	public void setLSN(long lsn) {
+		this.pageLSN = lsn;
+	}
+
+	/**
+	 * Returns the number of bytes at the end of the page used for the fence
+	 * keys: in B-link mode, the low key, the high key and a flags byte, which
+	 * also records the category of the page; otherwise none.
+	 */
+	protected int getFenceSize() {
+		return blink ? 2 * td.getFieldType(keyField).getLen() + 1 : 0;
+	}
+
+	/**
+	 * Read the fence keys from the end of the page data.  A page whose flags
+	 * are clear, or were written for another category of page, is not fenced.
+	 */
+	protected void readFences(byte[] data) throws IOException {
+		if (!blink) {
+			return;
+		}
+		int keyLen = td.getFieldType(keyField).getLen();
+		int flags = data[data.length - 1];
+		fenced = (flags & FENCED) != 0 && (flags >> 4) == pid.pgcateg();
+		lowKey = null;
+		highKey = null;
+		if (!fenced) {
+			return;
+		}
+		DataInputStream dis = new DataInputStream(
+				new ByteArrayInputStream(data, data.length - 1 - 2 * keyLen, 2 * keyLen));
+		try {
+			Field low = td.getFieldType(keyField).parse(dis);
+			Field high = td.getFieldType(keyField).parse(dis);
+			lowKey = (flags & HAS_LOW_KEY) != 0 ? low : null;
+			highKey = (flags & HAS_HIGH_KEY) != 0 ? high : null;
+		} catch (java.text.ParseException e) {
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * Write the fence keys, which must be the last bytes of the page data.
+	 */
+	protected void writeFences(DataOutputStream dos) throws IOException {
+		if (!blink) {
+			return;
+		}
+		int keyLen = td.getFieldType(keyField).getLen();
+		int flags = 0;
+		for (Field key : new Field[]{lowKey, highKey}) {
+			if (fenced && key != null) {
+				key.serialize(dos);
+			} else {
+				dos.write(new byte[keyLen]);
+			}
+		}
+		if (fenced) {
+			flags = FENCED | (pid.pgcateg() << 4);
+			if (lowKey != null) flags |= HAS_LOW_KEY;
+			if (highKey != null) flags |= HAS_HIGH_KEY;
+		}
+		dos.writeByte(flags);
+	}
+
+	/**
+	 * @return true if this page belongs to a B+ tree in B-link mode
+	 * @see BTreeFile#isBLink
+	 */
+	public boolean isBLink() {
+		return blink;
+	}
+
+	/**
+	 * @return true if the fence keys of this page are valid, that is, if the
+	 * page is in use in a B-link tree
+	 */
+	public boolean isFenced() {
+		return fenced;
+	}
+
+	/**
+	 * @return the key all keys on this page are greater than or equal to, or
+	 * null if there is no lower bound
+	 */
+	public Field getLowKey() {
+		return lowKey;
+	}
+
+	/**
+	 * @return the key all keys on this page are less than or equal to, or
+	 * null if there is no upper bound
+	 */
+	public Field getHighKey() {
+		return highKey;
+	}
+
+	/**
+	 * Set the range of keys covered by this page and mark its fences valid.
+	 * @param low - the low key, or null for no lower bound
+	 * @param high - the high key, or null for no upper bound
+	 * @throws DbException if the page is not in B-link mode
+	 */
+	public void setFences(Field low, Field high) throws DbException {
+		if (!blink) {
+			throw new DbException("fence keys are only kept in B-link mode");
+		}
+		fenced = true;
+		lowKey = low;
+		highKey = high;
+	}
+
+	/**
+	 * Mark the fences of this page invalid, when it is removed from the tree
+	 */
+	public void clearFences() {
+		fenced = false;
+		lowKey = null;
+		highKey = null;
+	}
+
 	/**
 	 * Returns the number of empty slots on this page.
 	 */
@@ -138,5 +287,109 @@ public abstract class BTreePage implements Page {
 	 */
 	public abstract boolean isSlotUsed(int i);
 
+	/**
+	 * @return the number of slots on this page
+	 */
+	protected abstract int getNumSlots();
+
+	/**
+	 * @param i - the slot
+	 * @return the key stored in slot i, or null if the slot holds no key
+	 */
+	protected abstract Field getSlotKey(int i);
+
+	/**
+	 * Discard the slot index after the keys or the occupied slots change.
+	 * Subclasses must call this from every method that modifies them.
+	 */
+	protected void invalidateSlotIndex() {
+		slotIndex = null;
+	}
+
+	/**
+	 * @return the index of the occupied key slots in key order, which is also
+	 * slot order on a B+ tree page
+	 */
+	protected SlotIndex getSlotIndex() {
+		SlotIndex idx = slotIndex;
+		if (idx == null) {
+			// 同一页面可能被多个持有共享锁存器的线程同时读取，各自构建的索引相同
+			idx = new SlotIndex(this);
+			slotIndex = idx;
+		}
+		return idx;
+	}
+
+	/**
+	 * The occupied key slots of a page in key order, for binary search.  Integer
+	 * keys are also copied into an int array so that the search compares
+	 * primitives instead of calling Field.compare.
+	 */
+	protected static final class SlotIndex {
+		final int[] slots;
+		final Field[] keys;
+		final int[] intKeys;
+
+		SlotIndex(BTreePage page) {
+			int n = page.getNumSlots();
+			int[] s = new int[n];
+			Field[] k = new Field[n];
+			int count = 0;
+			for (int i = 0; i < n; i++) {
+				Field key = page.getSlotKey(i);
+				if (key != null) {
+					s[count] = i;
+					k[count++] = key;
+				}
+			}
+			slots = Arrays.copyOf(s, count);
+			keys = Arrays.copyOf(k, count);
+			if (page.td.getFieldType(page.keyField) == Type.INT_TYPE) {
+				intKeys = new int[count];
+				for (int i = 0; i < count; i++) {
+					intKeys[i] = ((IntField) keys[i]).getValue();
+				}
+			} else {
+				intKeys = null;
+			}
+		}
+
+		int size() {
+			return slots.length;
+		}
+
+		/**
+		 * @param f - the key to look for
+		 * @param strict - whether to look for keys greater than f, rather than
+		 *               greater than or equal to f
+		 * @return the position in key order of the first key greater than (or
+		 * equal to) f, or size() if there is none
+		 */
+		int search(Field f, boolean strict) {
+			int lo = 0;
+			int hi = slots.length;
+			if (intKeys != null && f instanceof IntField) {
+				int v = ((IntField) f).getValue();
+				while (lo < hi) {
+					int mid = (lo + hi) >>> 1;
+					if (intKeys[mid] < v || (strict && intKeys[mid] == v))
+						lo = mid + 1;
+					else
+						hi = mid;
+				}
+			} else {
+				Predicate.Op op = strict ? Predicate.Op.LESS_THAN_OR_EQ : Predicate.Op.LESS_THAN;
+				while (lo < hi) {
+					int mid = (lo + hi) >>> 1;
+					if (keys[mid].compare(op, f))
+						lo = mid + 1;
+					else
+						hi = mid;
+				}
+			}
+			return lo;
+		}
+	}
+
 }
 
@@ -30,6 +30,11 @@ public class BTreeReverseScan implements OpIterator {
         return this.alias;
     }
 
+    //扫描的元组所满足的索引谓词，为null时扫描所有元组
+    public IndexPredicate getIndexPredicate() {
+        return this.ipred;
+    }
+
     //构造时调用，进行初始化
     public void reset(int tableid, String tableAlias) {
         this.isOpen = false;
@@ -14,6 +14,7 @@ public class BTreeRootPtrPage implements Page {
 
 	private boolean dirty = false;
 	private TransactionId dirtier = null;
+	private long pageLSN = 0;
 
 	private BTreePageId pid;
 	private DataInputStream dis;
@@ -138,6 +139,20 @@ public class BTreeRootPtrPage implements Page {
 			return null;
 	}
 
+	/**
+	 * Returns the LSN of the last log record written for this page
+	 */
+	public long getLSN() {
+		return pageLSN;
+	}
+
+	/**
+	 * Records the LSN of a log record just written for this page
+	 */
+	public void setLSN(long lsn) {
+		this.pageLSN = lsn;
+	}
+
 	/** Return a view of this page before it was modified
         -- used by recovery */
 	public BTreeRootPtrPage getBeforeImage(){
@@ -60,6 +60,14 @@ public class BTreeScan implements OpIterator {
 		return this.alias;
 	}
 
+	/**
+	 * @return the index predicate the scanned tuples match, or null if all
+	 *         tuples are scanned
+	 */
+	public IndexPredicate getIndexPredicate() {
+		return this.ipred;
+	}
+
 	/**
 	 * Reset the tableid, and tableAlias of this operator.
 	 * @param tableid
@@ -7,6 +7,8 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.UUID;
@@ -429,6 +431,18 @@ public class BTreeUtility {
 		return bf;
 	}
 
+	/**
+	 * Open a BTreeFile and add it to the catalog, in B-link mode if blink is set.
+	 *
+	 * @see BTreeFile#BTreeFile(File, int, TupleDesc, boolean)
+	 */
+	public static BTreeFile openBTreeFile(int cols, File f, int keyField, boolean blink) {
+		TupleDesc td = Utility.getTupleDesc(cols);
+		BTreeFile bf = new BTreeFile(f, keyField, td, blink);
+		Database.getCatalog().addTable(bf, UUID.randomUUID().toString());
+		return bf;
+	}
+
 	public static BTreeFile openBTreeFile(int cols, String colPrefix, File f, int keyField) {
 		// create the BTreeFile and add it to the catalog
 		TupleDesc td = Utility.getTupleDesc(cols, colPrefix);
@@ -456,6 +470,21 @@ public class BTreeUtility {
 		return bf;
 	}
 
+	/**
+	 * Like {@link #createEmptyBTreeFile(String, int, int)}, but the new file is
+	 * a B-link tree.
+	 */
+	public static BTreeFile createEmptyBLinkTreeFile(String path, int cols, int keyField)
+			throws IOException {
+		File f = new File(path);
+		// touch the file
+		FileOutputStream fos = new FileOutputStream(f);
+		fos.write(new byte[0]);
+		fos.close();
+
+		return openBTreeFile(cols, f, keyField, true);
+	}
+
 	/**
 	 * A utility method to create a new BTreeFile with no data, with the specified
 	 * number of pages, assuming the path does not already exist. If the path exists, 
@@ -480,6 +509,76 @@ public class BTreeUtility {
 		return bf;
 	}
 
+	/**
+	 * Sets a page size small enough that a few thousand tuples give a tree of
+	 * three levels, and resets the database.  Tests that call this in their
+	 * setUp should call {@link #resetSmallPages()} in their tearDown.
+	 */
+	public static void useSmallPages() {
+		BufferPool.setPageSize(1024);
+		Database.reset();
+	}
+
+	/** Restores the default page size and resets the database. */
+	public static void resetSmallPages() {
+		BufferPool.resetPageSize();
+		Database.reset();
+	}
+
+	/** Inserts the tuples into the tree on behalf of transaction tid. */
+	public static void insertTuples(TransactionId tid, BTreeFile bf, List<Tuple> tuples)
+			throws DbException, IOException, TransactionAbortedException {
+		for (Tuple t : tuples) {
+			Database.getBufferPool().insertTuple(tid, bf.getId(), t);
+		}
+	}
+
+	/**
+	 * Looks a tuple up through the index of the tree.
+	 *
+	 * @return the stored copy of the tuple, with its current record id, or null
+	 */
+	public static Tuple lookupTuple(TransactionId tid, BTreeFile bf, Tuple tuple)
+			throws DbException, TransactionAbortedException {
+		DbFileIterator it = bf.indexIterator(tid, new IndexPredicate(Op.EQUALS, tuple.getField(bf.keyField())));
+		it.open();
+		try {
+			while (it.hasNext()) {
+				Tuple t = it.next();
+				if (sameFields(t, tuple))
+					return t;
+			}
+			return null;
+		} finally {
+			it.close();
+		}
+	}
+
+	private static boolean sameFields(Tuple a, Tuple b) {
+		for (int i = 0; i < a.getTupleDesc().numFields(); i++) {
+			if (!a.getField(i).equals(b.getField(i)))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Checks the invariants of the tree with {@link BTreeChecker}, and that each
+	 * of the tuples can be found through its index, in a transaction of its own.
+	 *
+	 * @throws AssertionError if the tree is invalid or a tuple is missing
+	 */
+	public static void checkTree(BTreeFile bf, List<Tuple> tuples, boolean checkOccupancy)
+			throws DbException, IOException, TransactionAbortedException {
+		TransactionId tid = new TransactionId();
+		BTreeChecker.checkRep(bf, tid, new HashMap<PageId, Page>(), checkOccupancy);
+		for (Tuple t : tuples) {
+			if (lookupTuple(tid, bf, t) == null)
+				throw new AssertionError("tuple not found: " + t);
+		}
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
 	/**
 	 * Helper class that attempts to insert a tuple in a new thread
 	 *
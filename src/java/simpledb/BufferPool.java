@@ -2,8 +2,14 @@ package simpledb;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -13,6 +19,19 @@ import java.util.concurrent.ConcurrentHashMap;
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
+ * <p>
+ * Pages are managed STEAL/NO-FORCE: a page dirtied by a running transaction
+ * may be written out when it is evicted, and committing only logs the
+ * transaction's pages (see {@link #logPages}).  Pages whose logged changes
+ * have not reached disk yet are tracked in a dirty page table and are
+ * written out when they are evicted or on a checkpoint.  Either way the
+ * log is flushed up to the page's LSN first; {@link LogFile#recover} redoes
+ * and undoes whatever was not written.
+ * <p>
+ * Besides transaction locks, pages can be protected by short-term latches
+ * (see {@link #latchPage}), which guard the physical consistency of a page
+ * only while it is being read or changed.  BTreeFile traverses its internal
+ * pages under latches instead of locks.
  *
  * @Threadsafe, all fields are final
  */
@@ -32,7 +51,26 @@ public class BufferPool {
     private final long WAIT_TIME = 2;
     private final long MAX_WAIT_TIME = 200;
     private ConcurrentHashMap<PageId,Page> pid2page;
+    //已记录日志但尚未写回磁盘的页面，值为使页面变脏的第一条日志记录的LSN(recLSN)
+    private ConcurrentHashMap<PageId,Long> dirtyPageTable;
     private LockManager lockManager;
+    //页面的短期latch，只在读取或修改页面期间持有，与事务锁分开
+    //只有B+树的非叶节点会被latch，因此不回收
+    private final ConcurrentHashMap<PageId, ReentrantReadWriteLock> latches = new ConcurrentHashMap<>();
+    //各事务插入和删除的元组，按发生顺序，提交时计入表的统计信息，中止时丢弃
+    private final ConcurrentHashMap<TransactionId, List<TableChange>> tableChanges = new ConcurrentHashMap<>();
+
+    //一个事务对一个表连续的插入或删除
+    private static class TableChange {
+        final int tableId;
+        final boolean inserted;
+        final ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+
+        TableChange(int tableId, boolean inserted) {
+            this.tableId = tableId;
+            this.inserted = inserted;
+        }
+    }
 
     /**
      * Creates a BufferPool that caches up to numPages pages.
@@ -43,6 +81,7 @@ public class BufferPool {
         // some code goes here
         this.NUM_PAGES = numPages;
         pid2page=new ConcurrentHashMap<>(numPages);
+        dirtyPageTable = new ConcurrentHashMap<>();
         this.lockManager = new LockManager();
     }
 
@@ -106,9 +145,25 @@ public class BufferPool {
             }
         }
 
+        return fetchPage(pid);
+    }
+
+    /**
+     * Retrieve the specified page without acquiring a transaction lock.
+     * The caller must hold a latch on the page (see {@link #latchPage}) while
+     * it reads the page.
+     *
+     * @param pid the ID of the requested page
+     */
+    public Page getLatchedPage(PageId pid) throws DbException {
+        return fetchPage(pid);
+    }
+
+    private Page fetchPage(PageId pid) throws DbException {
         //当存在该页面时直接返回
-        if(pid2page.containsKey(pid)){
-            return pid2page.get(pid);
+        Page page = pid2page.get(pid);
+        if (page != null) {
+            return page;
         }
 
         //当缓存达到最大值时先驱逐一个页面
@@ -116,9 +171,60 @@ public class BufferPool {
             evictPage();
         }
 
-        Page page = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
-        pid2page.put(pid, page);
-        return page;
+        page = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+        Page cached = pid2page.putIfAbsent(pid, page);
+        return cached != null ? cached : page;
+    }
+
+    /**
+     * Acquire a short-term latch on a page.  Latches keep a page physically
+     * consistent while it is read (shared) or changed (exclusive); unlike
+     * locks they are not tied to a transaction and are released as soon as
+     * the access is over.  Latches are reentrant, and a thread holding the
+     * exclusive latch may also take the shared one.
+     * <p>
+     * A thread waiting for a latch is invisible to deadlock detection, so
+     * the wait is bounded: if the latch is not granted within MAX_WAIT_TIME
+     * milliseconds the transaction is aborted.
+     *
+     * @param pid       the page to latch
+     * @param exclusive whether to latch the page exclusively
+     */
+    public void latchPage(PageId pid, boolean exclusive) throws TransactionAbortedException {
+        ReentrantReadWriteLock latch = latches.computeIfAbsent(pid, k -> new ReentrantReadWriteLock());
+        try {
+            boolean granted = exclusive
+                    ? latch.writeLock().tryLock(MAX_WAIT_TIME, TimeUnit.MILLISECONDS)
+                    : latch.readLock().tryLock(MAX_WAIT_TIME, TimeUnit.MILLISECONDS);
+            if (!granted) {
+                throw new TransactionAbortedException();
+            }
+        } catch (InterruptedException e) {
+            throw new TransactionAbortedException();
+        }
+    }
+
+    /**
+     * Release a latch acquired with {@link #latchPage}.
+     *
+     * @param pid       the latched page
+     * @param exclusive whether the latch was exclusive
+     */
+    public void unlatchPage(PageId pid, boolean exclusive) {
+        ReentrantReadWriteLock latch = latches.get(pid);
+        if (exclusive) {
+            latch.writeLock().unlock();
+        } else {
+            latch.readLock().unlock();
+        }
+    }
+
+    /**
+     * Return true if the current thread holds the exclusive latch on the page
+     */
+    public boolean holdsExclusiveLatch(PageId pid) {
+        ReentrantReadWriteLock latch = latches.get(pid);
+        return latch != null && latch.isWriteLockedByCurrentThread();
     }
 
     /**
@@ -169,24 +275,70 @@ public class BufferPool {
             throws IOException {
         // some code goes here
         // not necessary for lab1|lab2
-        lockManager.transactionComplete(tid);
+        LogFile log = Database.getLogFile();
         if (commit) {
+            //正常提交时页面已由logPages记录；未通过Transaction提交的事务仍直接写回
             flushPages(tid);
+            //未通过Transaction提交的事务在这里补写COMMIT记录，否则恢复时会被当作失败事务撤销
+            if (log.isActive(tid)) {
+                log.logCommit(tid);
+            }
+            //提交后当前内容成为之后事务的before image
+            for (Page page : pid2page.values()) {
+                if (holdsLock(tid, page.getId())) {
+                    page.setBeforeImage();
+                }
+            }
         } else {
+            //未通过Transaction回滚的事务可能已有页面被换出到磁盘，需要先按日志撤销
+            if (log.isActive(tid)) {
+                log.logAbort(tid);
+            }
             rollBackPages(tid);
         }
+        //页面落盘或回滚之后再释放锁，避免其他事务看到尚未完成的页面
+        lockManager.transactionComplete(tid);
+
+        //提交的修改才计入统计信息
+        List<TableChange> changes = tableChanges.remove(tid);
+        if (commit && changes != null) {
+            for (TableChange change : changes) {
+                if (change.inserted) {
+                    TableStats.tuplesInserted(change.tableId, change.tuples);
+                } else {
+                    TableStats.tuplesDeleted(change.tableId, change.tuples);
+                }
+            }
+        }
+    }
+
+    //记下事务tid对表的修改，与上一次修改是同一表的同一种修改时并入其中
+    private void recordChange(TransactionId tid, int tableId, List<Tuple> tuples, boolean inserted) {
+        List<TableChange> changes = tableChanges.computeIfAbsent(tid, k -> new ArrayList<TableChange>());
+        synchronized (changes) {
+            TableChange last = changes.isEmpty() ? null : changes.get(changes.size() - 1);
+            if (last == null || last.tableId != tableId || last.inserted != inserted) {
+                last = new TableChange(tableId, inserted);
+                changes.add(last);
+            }
+            last.tuples.addAll(tuples);
+        }
     }
 
     //在需要回滚时，将页面恢复到原本的image
-    public synchronized void rollBackPages(TransactionId tid) {
+    //已写入日志的修改由LogFile.rollback撤销，这里只处理仍在内存中的修改
+    public synchronized void rollBackPages(TransactionId tid) throws IOException {
         for(Page page:pid2page.values()){
             if (page.isDirty() != null && page.isDirty().equals(tid)) {
-//                PageId pid=page.getId();
-//                DbFile df = Database.getCatalog().getDatabaseFile(pid.getTableId());
-//                Page originalPage = df.readPage(pid);
-//                originalPage.markDirty(false,null);
-//                pid2page.put(pid,originalPage);
-                discardPage(page.getId());
+                //before image即最近一次提交后的内容，可能还未写回磁盘，因此不能直接丢弃页面
+                Page originalPage = page.getBeforeImage();
+                originalPage.setLSN(page.getLSN());
+                pid2page.put(page.getId(), originalPage);
+                //回滚的页面既不会写回也不一定再有删除，由HeapFile据此更正空闲空间位图
+                DbFile file = Database.getCatalog().getDatabaseFile(page.getId().getTableId());
+                if (file instanceof HeapFile) {
+                    ((HeapFile) file).pageRolledBack((HeapPage) originalPage);
+                }
             }
         }
     }
@@ -201,6 +353,9 @@ public class BufferPool {
      * their markDirty bit, and adds versions of any pages that have
      * been dirtied to the cache (replacing any existing versions of those pages) so
      * that future requests see up-to-date pages.
+     * <p>
+     * The tuple is also recorded in the statistics of the table (see
+     * {@link TableStats}) once the transaction commits.
      *
      * @param tid     the transaction adding the tuple
      * @param tableId the table to add the tuple to
@@ -215,11 +370,39 @@ public class BufferPool {
         DbFile hf = Database.getCatalog().getDatabaseFile(tableId);
         ArrayList<Page> affectedPages = hf.insertTuple(tid, t);
         for (Page page : affectedPages) {
-            if (!pid2page.containsKey(page.getId())) {
+            //页面可能在操作过程中被驱逐，始终以修改后的版本替换缓存
+            pid2page.put(page.getId(), page);
+            page.markDirty(true, tid);
+        }
+        recordChange(tid, tableId, Collections.singletonList(t), true);
+    }
+
+    /**
+     * Add many tuples to the specified table on behalf of transaction tid,
+     * as {@link #insertTuple} does for one.  The file fills each page it
+     * locks with as many of the tuples as fit (see {@link DbFile#insertTuples}).
+     * <p>
+     * A batch may dirty more pages than the buffer pool holds.  Pages that
+     * were evicted after the file finished with them have already been
+     * logged and written, so only pages still cached or still dirty are put
+     * back into the cache.
+     *
+     * @param tid     the transaction adding the tuples
+     * @param tableId the table to add the tuples to
+     * @param tuples  the tuples to add
+     */
+    public void insertTuples(TransactionId tid, int tableId, List<Tuple> tuples)
+            throws DbException, IOException, TransactionAbortedException {
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        ArrayList<Page> affectedPages = file.insertTuples(tid, tuples);
+        for (Page page : affectedPages) {
+            //被驱逐的页面已经写回，不再放回缓存，以免批量插入撑满缓存
+            if (pid2page.containsKey(page.getId()) || page.isDirty() != null) {
                 pid2page.put(page.getId(), page);
+                page.markDirty(true, tid);
             }
-            page.markDirty(true, tid);
         }
+        recordChange(tid, tableId, tuples, true);
     }
 
     /**
@@ -231,6 +414,9 @@ public class BufferPool {
      * their markDirty bit, and adds versions of any pages that have
      * been dirtied to the cache (replacing any existing versions of those pages) so
      * that future requests see up-to-date pages.
+     * <p>
+     * The tuple is also recorded in the statistics of the table (see
+     * {@link TableStats}) once the transaction commits.
      *
      * @param tid the transaction deleting the tuple.
      * @param t   the tuple to delete
@@ -244,12 +430,15 @@ public class BufferPool {
         DbFile hf =  Database.getCatalog().getDatabaseFile(tableId);
         ArrayList<Page> affectedPages = hf.deleteTuple(tid, t);
         for (Page page : affectedPages) {
+            pid2page.put(page.getId(), page);
             page.markDirty(true, tid);
         }
+        recordChange(tid, tableId, Collections.singletonList(t), false);
     }
 
     /**
-     * Flush all dirty pages to disk.
+     * Flush all dirty pages to disk, including pages of committed
+     * transactions that have only been logged so far.
      * NB: Be careful using this routine -- it writes dirty data to disk so will
      * break simpledb if running in NO STEAL mode.
      */
@@ -257,9 +446,7 @@ public class BufferPool {
         // some code goes here
         // not necessary for lab1
         for(Page page:pid2page.values()){
-            if (page.isDirty() != null) {
-                flushPage(page.getId());
-            }
+            flushPage(page.getId());
         }
     }
 
@@ -276,10 +463,14 @@ public class BufferPool {
         // some code goes here
         // not necessary for lab1
         pid2page.remove(pid);
+        dirtyPageTable.remove(pid);
     }
 
     /**
-     * Flushes a certain page to disk
+     * Flushes a certain page to disk.
+     * An UPDATE record for the page is logged first, and the log is made
+     * durable up to that record before the page is written (write-ahead
+     * logging).
      *
      * @param pid an ID indicating the page to flush
      */
@@ -291,47 +482,152 @@ public class BufferPool {
         }
 
         Page dirty_page = pid2page.get(pid);
-        if (dirty_page.isDirty() == null) {
+        if (dirty_page.isDirty() != null) {
+            logPage(dirty_page);
+        } else if (!dirtyPageTable.containsKey(pid)) {
             return;
         }
 
-        DbFile hf = Database.getCatalog().getDatabaseFile(pid.getTableId());
-        hf.writePage(dirty_page);
-        dirty_page.markDirty(false, null);
+        Database.getLogFile().flushTo(dirty_page.getLSN());
+        writePage(dirty_page);
+    }
+
+    /**
+     * Log UPDATE records for all pages dirtied by the specified transaction
+     * without writing the pages (NO-FORCE).  Called at commit, before the
+     * COMMIT record is written; the pages stay in the dirty page table
+     * until they are evicted or checkpointed.
+     */
+    public synchronized void logPages(TransactionId tid) throws IOException {
+        for (Page page : pid2page.values()) {
+            if (tid.equals(page.isDirty())) {
+                logPage(page);
+                page.markDirty(false, null);
+            }
+        }
     }
 
     /**
      * Write all pages of the specified transaction to disk.
+     * All of their UPDATE records are logged first so that a single log
+     * flush covers every page.  The buffer pool is not locked while waiting
+     * for that flush, so that concurrent committers can share it.
      */
-    public synchronized void flushPages(TransactionId tid) throws IOException {
+    public void flushPages(TransactionId tid) throws IOException {
         // some code goes here
         // not necessary for lab1|lab2
 
-        for(Page page:pid2page.values()){
-            if (page.isDirty() != null && page.isDirty().equals(tid)) {
-                flushPage(page.getId());
+        ArrayList<Page> dirtyPages = new ArrayList<>();
+        long maxLSN = 0;
+        synchronized (this) {
+            for (Page page : pid2page.values()) {
+                if (tid.equals(page.isDirty())) {
+                    dirtyPages.add(page);
+                    maxLSN = Math.max(maxLSN, logPage(page));
+                }
+            }
+        }
+        if (dirtyPages.isEmpty()) {
+            return;
+        }
+
+        //等待日志持久化时不持有BufferPool的锁；tid仍持有这些页面的写锁，其他事务不会修改它们
+        Database.getLogFile().flushTo(maxLSN);
+        synchronized (this) {
+            for (Page page : dirtyPages) {
+                //期间页面可能已被flushAllPages写回
+                if (tid.equals(page.isDirty())) {
+                    writePage(page);
+                }
             }
         }
     }
 
+    /**
+     * Return a copy of the dirty page table: every page whose logged
+     * changes have not been written to disk yet, with the LSN of the first
+     * log record that dirtied it (its recLSN).  Used by checkpoints.
+     */
+    public synchronized Map<PageId, Long> getDirtyPageTable() {
+        return new HashMap<>(dirtyPageTable);
+    }
+
+    /**
+     * Write out every page whose recLSN is older than the specified LSN.
+     * The buffer pool is only locked for one page at a time.
+     */
+    public void flushPagesDirtiedBefore(long lsn) throws IOException {
+        for (Map.Entry<PageId, Long> entry : dirtyPageTable.entrySet()) {
+            if (entry.getValue() < lsn) {
+                flushPage(entry.getKey());
+            }
+        }
+    }
+
+    //为脏页面写一条UPDATE/DELTA日志记录，并把记录的LSN记在页面上
+    //记录之后当前内容成为新的before image，下一条记录只描述之后的变化
+    private long logPage(Page page) throws IOException {
+        long lsn = Database.getLogFile().logWrite(page.isDirty(), page.getBeforeImage(), page);
+        page.setBeforeImage();
+        page.setLSN(lsn);
+        dirtyPageTable.putIfAbsent(page.getId(), lsn);
+        return lsn;
+    }
+
+    /**
+     * Returns the contents of the specified page as of its last log record
+     * (its before image), or null if the page is not cached.
+     */
+    public synchronized byte[] getLoggedPageData(PageId pid) {
+        Page page = pid2page.get(pid);
+        return page == null ? null : page.getBeforeImage().getPageData();
+    }
+
+    //将页面写回磁盘，调用前日志必须已经持久化到页面的LSN
+    private void writePage(Page page) throws IOException {
+        DbFile hf = Database.getCatalog().getDatabaseFile(page.getId().getTableId());
+        hf.writePage(page);
+        page.markDirty(false, null);
+        dirtyPageTable.remove(page.getId());
+    }
+
     /**
      * Discards a page from the buffer pool.
      * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * Clean pages are preferred, then pages of committed transactions, and
+     * only then pages dirtied by running transactions (STEAL).
      */
     private synchronized void evictPage() throws DbException {
         // some code goes here
         // not necessary for lab1
 
+        PageId victim = null;
+        int victimCost = Integer.MAX_VALUE;
         for(ConcurrentHashMap.Entry<PageId, Page> entry : pid2page.entrySet()) {
-            if(entry.getValue().isDirty() != null)continue;//若为脏页面则继续遍历
-            try{
-                flushPage(entry.getKey());
-            } catch (IOException e) {
-                throw new DbException("");
+            //正在被修改的页面还未放回缓存，不能驱逐
+            ReentrantReadWriteLock latch = latches.get(entry.getKey());
+            if (latch != null && latch.isWriteLocked()) {
+                continue;
             }
-            discardPage(entry.getKey());//因为此时为干净页面，直接删除缓存的页面即可
-            return;
+            //0:干净页面 1:已记录日志但未写回 2:未提交事务的脏页面，需要先写日志
+            int cost = entry.getValue().isDirty() != null ? 2
+                    : dirtyPageTable.containsKey(entry.getKey()) ? 1 : 0;
+            if (cost < victimCost) {
+                victim = entry.getKey();
+                victimCost = cost;
+                if (cost == 0) {
+                    break;
+                }
+            }
+        }
+        if (victim == null) {
+            throw new DbException("no page to evict");
+        }
+        try{
+            flushPage(victim);
+        } catch (IOException e) {
+            throw new DbException("failed to write page " + victim + ": " + e.getMessage());
         }
-        throw new DbException("All pages are dirty");//若前面没有return，则说明全部为脏页面
+        discardPage(victim);
     }
 }
\ No newline at end of file
@@ -0,0 +1,183 @@
+package simpledb;
+
+import java.io.*;
+import java.util.Properties;
+
+/**
+ * CostModel holds the constants of the optimizer's cost formulas and the
+ * formula for each physical join.  Costs are in units of one evaluation of a
+ * join predicate: reading a page sequentially costs seqPageCost, reading a
+ * page out of order (as an index lookup does) randomPageCost, passing a
+ * tuple from an operator to its parent tupleCost, adding a tuple to a hash
+ * table or probing it hashCost, and merging two tuples into a result tuple
+ * mergeCost.
+ * <p>
+ * The constants are measured on the host by
+ * simpledb.bench.CostCalibrationBenchmark and saved as a properties file,
+ * named by the system property simpledb.CostModel or costmodel.properties in
+ * the working directory, which {@link #getCostModel()} loads on first use.
+ * Without the file the defaults, measured on a typical machine, are used.
+ */
+public class CostModel {
+
+    /** The system property naming the file the constants are saved in */
+    public static final String FILE_PROPERTY = "simpledb.CostModel";
+
+    /** The file the constants are saved in when the property is not set */
+    public static final String DEFAULT_FILE = "costmodel.properties";
+
+    /** The constants used when none have been saved */
+    public static final CostModel DEFAULT = new CostModel(9750, 11000, 0.8, 7, 2.4);
+
+    private static volatile CostModel current;
+
+    private final double seqPageCost;
+    private final double randomPageCost;
+    private final double tupleCost;
+    private final double hashCost;
+    private final double mergeCost;
+
+    public CostModel(double seqPageCost, double randomPageCost, double tupleCost,
+            double hashCost, double mergeCost) {
+        this.seqPageCost = seqPageCost;
+        this.randomPageCost = randomPageCost;
+        this.tupleCost = tupleCost;
+        this.hashCost = hashCost;
+        this.mergeCost = mergeCost;
+    }
+
+    /**
+     * @return the cost model in use: the one last set, else the one saved
+     *         in {@link #getFile()}, else {@link #DEFAULT}
+     */
+    public static CostModel getCostModel() {
+        CostModel m = current;
+        if (m == null) {
+            synchronized (CostModel.class) {
+                if (current == null) {
+                    File f = getFile();
+                    try {
+                        current = f.exists() ? load(f) : DEFAULT;
+                    } catch (IOException e) {
+                        System.err.println("Cannot read cost model " + f + ": " + e.getMessage());
+                        current = DEFAULT;
+                    }
+                }
+                m = current;
+            }
+        }
+        return m;
+    }
+
+    /** Use the specified cost model from now on */
+    public static void setCostModel(CostModel m) {
+        current = m;
+    }
+
+    /** @return the file the constants are saved in and loaded from */
+    public static File getFile() {
+        return new File(System.getProperty(FILE_PROPERTY, DEFAULT_FILE));
+    }
+
+    /**
+     * Read a cost model saved by {@link #save(File)}; constants missing from
+     * the file take their default values.
+     */
+    public static CostModel load(File f) throws IOException {
+        Properties props = new Properties();
+        try (InputStream in = new FileInputStream(f)) {
+            props.load(in);
+        }
+        try {
+            return new CostModel(
+                    get(props, "seqPageCost", DEFAULT.seqPageCost),
+                    get(props, "randomPageCost", DEFAULT.randomPageCost),
+                    get(props, "tupleCost", DEFAULT.tupleCost),
+                    get(props, "hashCost", DEFAULT.hashCost),
+                    get(props, "mergeCost", DEFAULT.mergeCost));
+        } catch (NumberFormatException e) {
+            throw new IOException("bad cost in " + f + ": " + e.getMessage());
+        }
+    }
+
+    private static double get(Properties props, String name, double def) {
+        String v = props.getProperty(name);
+        return v == null ? def : Double.parseDouble(v.trim());
+    }
+
+    /** Save the constants of this cost model to f */
+    public void save(File f) throws IOException {
+        Properties props = new Properties();
+        props.setProperty("seqPageCost", Double.toString(seqPageCost));
+        props.setProperty("randomPageCost", Double.toString(randomPageCost));
+        props.setProperty("tupleCost", Double.toString(tupleCost));
+        props.setProperty("hashCost", Double.toString(hashCost));
+        props.setProperty("mergeCost", Double.toString(mergeCost));
+        try (OutputStream out = new FileOutputStream(f)) {
+            props.store(out, "SimpleDB cost model, in units of one predicate evaluation");
+        }
+    }
+
+    public double getSeqPageCost() {
+        return seqPageCost;
+    }
+
+    public double getRandomPageCost() {
+        return randomPageCost;
+    }
+
+    public double getTupleCost() {
+        return tupleCost;
+    }
+
+    public double getHashCost() {
+        return hashCost;
+    }
+
+    public double getMergeCost() {
+        return mergeCost;
+    }
+
+    /**
+     * The cost of a block nested-loops join, as {@link Join} runs it: the
+     * outer is read once, a block of outer tuples at a time, and for each
+     * block the inner is read again and every pair is compared.
+     *
+     * @param card1 the cardinality of the outer
+     * @param card2 the cardinality of the inner
+     * @param cost1 the cost of reading the outer once
+     * @param cost2 the cost of reading the inner once
+     * @param blockTuples the number of outer tuples in a block
+     */
+    public double blockNestedLoopJoinCost(int card1, int card2, double cost1,
+            double cost2, int blockTuples) {
+        double blocks = Math.ceil((double) card1 / Math.max(1, blockTuples));
+        return cost1 + blocks * cost2
+                + tupleCost * (card1 + blocks * card2)
+                + (double) card1 * card2;
+    }
+
+    /**
+     * The cost of a hash join, as {@link HashEquiJoin} runs it: the outer
+     * is read once and put into a hash table, tableTuples tuples at a time,
+     * and for each table the inner is read again and each of its tuples
+     * probes the table.
+     *
+     * @param card1 the cardinality of the outer
+     * @param card2 the cardinality of the inner
+     * @param cost1 the cost of reading the outer once
+     * @param cost2 the cost of reading the inner once
+     * @param tableTuples the number of outer tuples in a hash table
+     */
+    public double hashJoinCost(int card1, int card2, double cost1, double cost2,
+            int tableTuples) {
+        double tables = Math.ceil((double) card1 / Math.max(1, tableTuples));
+        return cost1 + tables * cost2
+                + (tupleCost + hashCost) * (card1 + tables * card2);
+    }
+
+    /** The cost of merging the tuples of a join's result */
+    public double outputCost(int card) {
+        return mergeCost * card;
+    }
+}
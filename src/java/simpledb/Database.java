@@ -5,8 +5,8 @@ import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Database is a class that initializes several static variables used by the
- * database system (the catalog, the buffer pool, and the log files, in
- * particular.)
+ * database system (the catalog, the buffer pool, the log files, and the cache
+ * of prepared statements, in particular.)
  * <p>
  * Provides a set of methods that can be used to access these variables from
  * anywhere.
@@ -20,10 +20,12 @@ public class Database {
 
     private final static String LOGFILENAME = "log";
     private final LogFile _logfile;
+    private final StatementCache _statements;
 
     private Database() {
         _catalog = new Catalog();
         _bufferpool = new BufferPool(BufferPool.DEFAULT_PAGES);
+        _statements = new StatementCache(StatementCache.DEFAULT_CAPACITY);
         LogFile tmp = null;
         try {
             tmp = new LogFile(new File(LOGFILENAME));
@@ -50,6 +52,11 @@ public class Database {
         return _instance.get()._catalog;
     }
 
+    /** Return the cache of prepared statements of the static Database instance */
+    public static StatementCache getStatementCache() {
+        return _instance.get()._statements;
+    }
+
     /**
      * Method used for testing -- create a new instance of the buffer pool and
      * return it
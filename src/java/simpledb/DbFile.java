@@ -28,6 +28,11 @@ public interface DbFile {
      */
     public void writePage(Page p) throws IOException;
 
+    /**
+     * Returns the number of pages in this file.
+     */
+    public int numPages();
+
     /**
      * Inserts the specified tuple to the file on behalf of transaction.
      * This method will acquire a lock on the affected pages of the file, and
@@ -43,6 +48,21 @@ public interface DbFile {
     public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
         throws DbException, IOException, TransactionAbortedException;
 
+    /**
+     * Inserts many tuples to the file on behalf of transaction, as
+     * {@link #insertTuple} does for one.  Files may fill each page with as
+     * many of the tuples as fit rather than inserting them one by one.
+     *
+     * @param tid The transaction performing the update
+     * @param tuples The tuples to add.  Each tuple should be updated to
+     *          reflect that it is now stored in this file.
+     * @return An ArrayList contain the pages that were modified
+     * @throws DbException if a tuple cannot be added
+     * @throws IOException if the needed file can't be read/written
+     */
+    public ArrayList<Page> insertTuples(TransactionId tid, List<Tuple> tuples)
+        throws DbException, IOException, TransactionAbortedException;
+
     /**
      * Removes the specified tuple from the file on behalf of the specified
      * transaction.
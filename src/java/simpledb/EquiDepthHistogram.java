@@ -0,0 +1,315 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A histogram over a single integer-based field for skewed columns: a list
+ * of the most common values with their frequencies, and equi-depth buckets,
+ * each holding about the same number of the remaining values.  It takes
+ * values and estimates selectivities like {@link IntHistogram}.
+ * <p>
+ * A value is most common if it makes up at least 1/buckets of the values,
+ * more than a bucket would hold; such values are found with a
+ * {@link FrequentValues} summary.  The buckets are cut from a fixed-width
+ * histogram FINE_BUCKETS times finer than the number of buckets, after the
+ * most common values are taken out of it, so bucket boundaries are as
+ * precise as the finer histogram.  Both are built when the histogram is
+ * first used after values were added.
+ * <p>
+ * Within a bucket, values are taken to be spread evenly over the distinct
+ * values of the bucket.  Unless the number of distinct values in the
+ * column is given (see {@link #setDistinctValues}), every integer in a
+ * bucket is taken to occur, as in a fixed-width histogram.
+ */
+public class EquiDepthHistogram {
+
+    /**
+     * How many times finer than the equi-depth buckets the fixed-width
+     * histogram they are cut from is.
+     */
+    static final int FINE_BUCKETS = 16;
+
+    /**
+     * The number of counters used to find the most common values.
+     */
+    static final int FREQUENT_COUNTERS = 256;
+
+    private final int buckets;
+    private final int min;
+    private final int max;
+    private final IntHistogram fine;
+    private final FrequentValues<Integer> frequent;
+    private int distinct;
+
+    //以下为构建出的直方图，加入新的值后需要重新构建；built在构建完成后才置为true
+    private volatile boolean built;
+    private int[] mcvValues;
+    private double[] mcvFracs;
+    private int[] lows;
+    private int[] highs;
+    private double[] fracs;
+    private double[] ndvs;
+    private double total;
+
+    /**
+     * Create a new EquiDepthHistogram.
+     *
+     * @param buckets The number of equi-depth buckets to split the values into.
+     * @param min The minimum integer value that will ever be passed to this class for histogramming
+     * @param max The maximum integer value that will ever be passed to this class for histogramming
+     */
+    public EquiDepthHistogram(int buckets, int min, int max) {
+        this(buckets, min, max, true);
+    }
+
+    /**
+     * Create a new EquiDepthHistogram, which keeps the most common values
+     * apart only if mostCommon is true.
+     */
+    EquiDepthHistogram(int buckets, int min, int max, boolean mostCommon) {
+        this.buckets = buckets;
+        this.min = min;
+        this.max = max;
+        this.fine = new IntHistogram(buckets * FINE_BUCKETS, min, max);
+        this.frequent = mostCommon ? new FrequentValues<Integer>(FREQUENT_COUNTERS) : null;
+    }
+
+    /**
+     * Add a value to the set of values that you are keeping a histogram of.
+     * @param v Value to add to the histogram
+     */
+    public void addValue(int v) {
+        if (v < min || v > max) {
+            return;
+        }
+        fine.addValue(v);
+        if (frequent != null) {
+            frequent.add(v);
+        }
+        built = false;
+    }
+
+    /** Remove a value that was added before */
+    void removeValue(int v) {
+        if (v < min || v > max) {
+            return;
+        }
+        fine.removeValue(v);
+        if (frequent != null) {
+            frequent.remove(v);
+        }
+        built = false;
+    }
+
+    /**
+     * Add n values spread evenly over the integers lo to hi to the finer
+     * histogram.  The most common among them must be given separately with
+     * {@link #addFrequentValues}.
+     */
+    void addValues(long lo, long hi, int n) {
+        fine.addValues(lo, hi, n);
+        built = false;
+    }
+
+    /** Add the values of a summary of the most common values */
+    void addFrequentValues(FrequentValues<Integer> values) {
+        if (frequent != null) {
+            frequent.merge(values);
+        }
+        built = false;
+    }
+
+    /** Add the values of another histogram with the same buckets to this one */
+    void merge(EquiDepthHistogram other) {
+        fine.merge(other.fine);
+        if (frequent != null) {
+            frequent.merge(other.frequent);
+        }
+        built = false;
+    }
+
+    /**
+     * Set the number of distinct values in the column, so that an equality
+     * with a value that is not among the most common is estimated from the
+     * number of distinct values per bucket rather than per integer.
+     */
+    public void setDistinctValues(int distinct) {
+        this.distinct = distinct;
+        built = false;
+    }
+
+    private synchronized void build() {
+        if (built) {
+            return;
+        }
+        long n = fine.numValues();
+
+        //出现次数不少于一个桶的深度的值作为常见值单独记录
+        List<Map.Entry<Integer, Long>> mcvs = new ArrayList<Map.Entry<Integer, Long>>();
+        if (frequent != null) {
+            mcvs.addAll(frequent.atLeast(Math.max(2, (n + buckets - 1) / buckets)).entrySet());
+        }
+        Collections.sort(mcvs, Map.Entry.comparingByKey());
+        mcvValues = new int[mcvs.size()];
+        mcvFracs = new double[mcvs.size()];
+        long[] rest = new long[fine.numBuckets()];
+        for (int b = 0; b < rest.length; b++) {
+            rest[b] = fine.count(b);
+        }
+        long mcvCount = 0;
+        for (int i = 0; i < mcvs.size(); i++) {
+            int v = mcvs.get(i).getKey();
+            long count = mcvs.get(i).getValue();
+            mcvValues[i] = v;
+            mcvFracs[i] = (double) count / n;
+            mcvCount += count;
+            int b = fine.bucket(v);
+            rest[b] = Math.max(0, rest[b] - count);
+        }
+
+        //按累计个数从细直方图切出深度相近的桶，空的细桶不计入桶的范围
+        long remaining = 0;
+        for (long c : rest) {
+            remaining += c;
+        }
+        List<long[]> cut = new ArrayList<long[]>(); // {low, high, count}
+        long cumulative = 0;
+        long[] current = null;
+        for (int b = 0; b < rest.length; b++) {
+            if (rest[b] == 0) {
+                continue;
+            }
+            if (current == null) {
+                current = new long[]{fine.bucketLow(b), 0, 0};
+            }
+            current[1] = (long) fine.bucketLow(b) + fine.bucketWidth(b) - 1;
+            current[2] += rest[b];
+            cumulative += rest[b];
+            if (cumulative * buckets >= remaining * (cut.size() + 1)) {
+                cut.add(current);
+                current = null;
+            }
+        }
+        if (current != null) {
+            cut.add(current);
+        }
+
+        lows = new int[cut.size()];
+        highs = new int[cut.size()];
+        fracs = new double[cut.size()];
+        ndvs = new double[cut.size()];
+        double restDistinct = distinct > 0 ? Math.max(1, distinct - mcvValues.length) : 0;
+        for (int i = 0; i < cut.size(); i++) {
+            long[] c = cut.get(i);
+            lows[i] = (int) c[0];
+            highs[i] = (int) c[1];
+            fracs[i] = (double) c[2] / n;
+            double width = c[1] - c[0] + 1;
+            ndvs[i] = distinct > 0 ? Math.max(1, Math.min(width, restDistinct * c[2] / remaining)) : width;
+        }
+        total = n == 0 ? 0 : (double) (mcvCount + remaining) / n;
+        built = true;
+    }
+
+    //包含v的桶，v不在任何桶中时返回-1
+    private int bucketOf(int v) {
+        int i = Arrays.binarySearch(lows, v);
+        if (i < 0) {
+            i = -i - 2;
+        }
+        return i >= 0 && v <= highs[i] ? i : -1;
+    }
+
+    private double fractionEqual(int v) {
+        int i = Arrays.binarySearch(mcvValues, v);
+        if (i >= 0) {
+            return mcvFracs[i];
+        }
+        int b = bucketOf(v);
+        return b < 0 ? 0 : fracs[b] / ndvs[b];
+    }
+
+    //小于v的值所占的比例，假设桶内的值均匀分布
+    private double fractionBelow(int v) {
+        double below = 0;
+        for (int i = 0; i < mcvValues.length && mcvValues[i] < v; i++) {
+            below += mcvFracs[i];
+        }
+        for (int b = 0; b < lows.length && lows[b] < v; b++) {
+            if (highs[b] < v) {
+                below += fracs[b];
+            } else {
+                below += fracs[b] * ((double) v - lows[b]) / ((double) highs[b] - lows[b] + 1);
+            }
+        }
+        return below;
+    }
+
+    /**
+     * Estimate the selectivity of a particular predicate and operand on this table.
+     *
+     * For example, if "op" is "GREATER_THAN" and "v" is 5,
+     * return your estimate of the fraction of elements that are greater than 5.
+     *
+     * @param op Operator
+     * @param v Value
+     * @return Predicted selectivity of this particular operator and value
+     */
+    public double estimateSelectivity(Predicate.Op op, int v) {
+        build();
+        switch (op) {
+            case EQUALS:
+            case LIKE:
+                return fractionEqual(v);
+            case NOT_EQUALS:
+                return Math.max(0, total - fractionEqual(v));
+            case LESS_THAN:
+                return fractionBelow(v);
+            case LESS_THAN_OR_EQ:
+                return fractionBelow(v) + fractionEqual(v);
+            case GREATER_THAN:
+                return Math.max(0, total - fractionBelow(v) - fractionEqual(v));
+            case GREATER_THAN_OR_EQ:
+                return Math.max(0, total - fractionBelow(v));
+            default:
+                throw new IllegalArgumentException("unsupported operator " + op);
+        }
+    }
+
+    /**
+     * @return the average selectivity of this histogram: the selectivity of
+     *     an equality predicate whose operand is drawn from the values in
+     *     the histogram.
+     */
+    public double avgSelectivity() {
+        build();
+        double avg = 0;
+        for (double f : mcvFracs) {
+            avg += f * f;
+        }
+        for (int b = 0; b < fracs.length; b++) {
+            avg += fracs[b] * fracs[b] / ndvs[b];
+        }
+        return avg;
+    }
+
+    /**
+     * @return A string describing this histogram, for debugging purposes
+     */
+    public String toString() {
+        build();
+        StringBuilder sb = new StringBuilder("EquiDepthHistogram(most common:");
+        for (int i = 0; i < mcvValues.length; i++) {
+            sb.append(' ').append(mcvValues[i]).append('=').append(String.format("%.4f", mcvFracs[i]));
+        }
+        sb.append("; buckets:");
+        for (int b = 0; b < lows.length; b++) {
+            sb.append(String.format(" [%d..%d]=%.4f", lows[b], highs[b], fracs[b]));
+        }
+        return sb.append(')').toString();
+    }
+}
@@ -0,0 +1,109 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.BitSet;
+
+/**
+ * FreeSpaceMap records which pages of a HeapFile are full, so that an insert
+ * goes straight to a page that may have an empty slot instead of locking and
+ * reading every page of the file in turn.
+ * <p>
+ * The map is kept in a file next to the heap file (the heap file's name with
+ * ".fsm" appended), one bit per page, set when the page is full.  Pages past
+ * the end of the map are taken to have free slots.  Changes to the map are
+ * written through at once but are not logged: the map is only a hint, so a
+ * page marked as having free slots is checked before it is used.  The bits
+ * of pages rolled back by an aborted transaction are set again from the
+ * restored pages, and a full bit left behind by a crash only means a page is
+ * skipped until the next deletion or write-back of that page clears it.
+ *
+ * @see HeapFile#insertTuple
+ */
+public class FreeSpaceMap {
+
+    private final File file;
+    private BitSet full;
+    //第一次修改时才打开（并创建）映射文件，之后一直使用同一个文件
+    private RandomAccessFile raf;
+
+    /**
+     * Open the free space map of a heap file.  The map file is read the
+     * first time it is used, and created the first time a bit is set.
+     *
+     * @param heapFile the file backing the heap file
+     */
+    public FreeSpaceMap(File heapFile) {
+        this.file = mapFile(heapFile);
+    }
+
+    /**
+     * @return the file holding the free space map of the given heap file
+     */
+    public static File mapFile(File heapFile) {
+        return new File(heapFile.getPath() + ".fsm");
+    }
+
+    /**
+     * Remove the free space map of a heap file whose contents were replaced
+     * without going through HeapFile, so that a stale map cannot hide pages
+     * with free slots.
+     *
+     * @param heapFile the file backing the heap file
+     */
+    public static void discard(File heapFile) {
+        mapFile(heapFile).delete();
+    }
+
+    //第一次使用时读入位图
+    private BitSet bits() throws IOException {
+        if (full == null) {
+            full = file.exists() ? BitSet.valueOf(Files.readAllBytes(file.toPath())) : new BitSet();
+        }
+        return full;
+    }
+
+    /**
+     * Find the first page at or after the given page that may have a free slot.
+     *
+     * @param from     the first page to consider
+     * @param numPages the number of pages in the heap file
+     * @return the page number, or numPages if every page from there on is full
+     * @throws IOException if the map file cannot be read
+     */
+    public synchronized int findPage(int from, int numPages) throws IOException {
+        return Math.min(bits().nextClearBit(from), numPages);
+    }
+
+    /**
+     * Record whether a page is full, writing the change to the map file if
+     * the bit changes.
+     *
+     * @param pgNo   the page number
+     * @param isFull true if the page has no empty slots
+     * @throws IOException if the map file cannot be read or written, in
+     *         which case the bit is left as it was
+     */
+    public synchronized void setFull(int pgNo, boolean isFull) throws IOException {
+        BitSet bits = bits();
+        if (bits.get(pgNo) == isFull) {
+            return;
+        }
+        //只写回该位所在的字节，写入成功后才修改内存中的位图，使二者保持一致
+        byte b = 0;
+        for (int i = 0; i < 8; i++) {
+            int bit = pgNo / 8 * 8 + i;
+            if (bit == pgNo ? isFull : bits.get(bit)) {
+                b |= (byte) (1 << i);
+            }
+        }
+        if (raf == null) {
+            raf = new RandomAccessFile(file, "rw");
+        }
+        raf.seek(pgNo / 8);
+        raf.write(b);
+        bits.set(pgNo, isFull);
+    }
+}
@@ -0,0 +1,118 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * FrequentValues finds the most common values of a stream in a fixed number
+ * of counters (the Misra-Gries summary).  When a value without a counter
+ * arrives and all counters are taken, every counter is decremented instead.
+ * The count kept for a value is therefore at most the number of times it
+ * was added, and at most total / (capacity + 1) less than that, so any
+ * value making up more than 1 / (capacity + 1) of the stream has a counter.
+ * <p>
+ * Summaries of separate parts of a stream can be merged into a summary of
+ * the whole with the same guarantee.
+ *
+ * @param <T> the type of the values
+ */
+class FrequentValues<T> {
+
+    private final int capacity;
+    private final HashMap<T, Long> counters = new HashMap<T, Long>();
+    private long total;
+
+    /**
+     * @param capacity the number of counters to keep
+     */
+    FrequentValues(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /** Add a value to the stream */
+    void add(T v) {
+        total++;
+        Long count = counters.get(v);
+        if (count != null) {
+            counters.put(v, count + 1);
+        } else if (counters.size() < capacity) {
+            counters.put(v, 1L);
+        } else {
+            //所有计数器各减1，计数为0的值让出位置
+            Iterator<Map.Entry<T, Long>> it = counters.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<T, Long> e = it.next();
+                if (e.getValue() == 1) {
+                    it.remove();
+                } else {
+                    e.setValue(e.getValue() - 1);
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove a value that was added before.  Its counter, if it has one, is
+     * decremented, so a count still never exceeds the number of times the
+     * value occurs.
+     */
+    void remove(T v) {
+        total--;
+        Long count = counters.get(v);
+        if (count == null) {
+            return;
+        }
+        if (count == 1) {
+            counters.remove(v);
+        } else {
+            counters.put(v, count - 1);
+        }
+    }
+
+    /** Add the values of another summary, with the same capacity, to this one */
+    void merge(FrequentValues<T> other) {
+        total += other.total;
+        for (Map.Entry<T, Long> e : other.counters.entrySet()) {
+            counters.merge(e.getKey(), e.getValue(), Long::sum);
+        }
+        if (counters.size() <= capacity) {
+            return;
+        }
+        //减去第capacity+1大的计数，只保留仍为正的计数器
+        List<Long> counts = new ArrayList<Long>(counters.values());
+        Collections.sort(counts, Collections.reverseOrder());
+        long cut = counts.get(capacity);
+        Iterator<Map.Entry<T, Long>> it = counters.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<T, Long> e = it.next();
+            if (e.getValue() <= cut) {
+                it.remove();
+            } else {
+                e.setValue(e.getValue() - cut);
+            }
+        }
+    }
+
+    /** @return the number of values added, including those of merged summaries */
+    long total() {
+        return total;
+    }
+
+    /**
+     * @param minCount the smallest count to return
+     * @return the values whose counts are at least minCount, with their counts
+     */
+    Map<T, Long> atLeast(long minCount) {
+        Map<T, Long> values = new HashMap<T, Long>();
+        for (Map.Entry<T, Long> e : counters.entrySet()) {
+            if (e.getValue() >= minCount) {
+                values.put(e.getKey(), e.getValue());
+            }
+        }
+        return values;
+    }
+}
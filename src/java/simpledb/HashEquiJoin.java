@@ -13,6 +13,7 @@ public class HashEquiJoin extends Operator {
     private TupleDesc comboTD;
     transient private Tuple t1 = null;
     transient private Tuple t2 = null;
+    private final boolean intKeys;
 
     /**
      * Constructor. Accepts to children to join and the predicate to join them
@@ -30,6 +31,9 @@ public class HashEquiJoin extends Operator {
         this.child1 = child1;
         this.child2 = child2;
         comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        // both join fields are ints: build into the primitive table instead of the HashMap
+        intKeys = child1.getTupleDesc().getFieldType(p.getField1()) == Type.INT_TYPE
+                && child2.getTupleDesc().getFieldType(p.getField2()) == Type.INT_TYPE;
     }
 
     public JoinPredicate getJoinPredicate() {
@@ -51,9 +55,12 @@ public class HashEquiJoin extends Operator {
     }
     
     HashMap<Object, ArrayList<Tuple>> map = new HashMap<Object, ArrayList<Tuple>>();
+    transient IntJoinHashTable intMap = null;
     public final static int MAP_SIZE = 20000;
 
     private boolean loadMap() throws DbException, TransactionAbortedException {
+        if (intKeys)
+            return loadIntMap();
         int cnt = 0;
         map.clear();
         while (child1.hasNext()) {
@@ -71,6 +78,20 @@ public class HashEquiJoin extends Operator {
 
     }
 
+    private boolean loadIntMap() throws DbException, TransactionAbortedException {
+        int cnt = 0;
+        if (intMap == null)
+            intMap = new IntJoinHashTable(MAP_SIZE + 1);
+        intMap.clear();
+        while (child1.hasNext()) {
+            t1 = child1.next();
+            intMap.add(((IntField) t1.getField(pred.getField1())).getValue(), t1);
+            if (cnt++ == MAP_SIZE)
+                return true;
+        }
+        return cnt > 0;
+    }
+
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child1.open();
@@ -86,15 +107,21 @@ public class HashEquiJoin extends Operator {
         this.t1=null;
         this.t2=null;
         this.listIt=null;
+        this.row = IntJoinHashTable.NO_ROW;
         this.map.clear();
+        this.intMap = null;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
         child1.rewind();
         child2.rewind();
+        this.listIt = null;
+        this.row = IntJoinHashTable.NO_ROW;
+        loadMap();
     }
 
     transient Iterator<Tuple> listIt = null;
+    transient int row = IntJoinHashTable.NO_ROW;
 
     /**
      * Returns the next tuple generated by the join, or null if there are no
@@ -116,7 +143,16 @@ public class HashEquiJoin extends Operator {
      */
     private Tuple processList() throws TransactionAbortedException, DbException {
         t1 = listIt.next();
+        return mergeTuples();
+    }
+
+    private Tuple processRow() {
+        t1 = intMap.getRow(row);
+        row = intMap.nextRow(row);
+        return mergeTuples();
+    }
 
+    private Tuple mergeTuples() {
         int td1n = t1.getTupleDesc().numFields();
         int td2n = t2.getTupleDesc().numFields();
 
@@ -131,7 +167,11 @@ public class HashEquiJoin extends Operator {
     }
 
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-        if (listIt != null && listIt.hasNext()) {
+        if (intKeys) {
+            if (row != IntJoinHashTable.NO_ROW) {
+                return processRow();
+            }
+        } else if (listIt != null && listIt.hasNext()) {
             return processList();
         }
 
@@ -139,6 +179,13 @@ public class HashEquiJoin extends Operator {
         while (child2.hasNext()) {
             t2 = child2.next();
 
+            if (intKeys) {
+                row = intMap.find(((IntField) t2.getField(pred.getField2())).getValue());
+                if (row == IntJoinHashTable.NO_ROW)
+                    continue;
+                return processRow();
+            }
+
             // if match, create a combined tuple and fill it with the values
             // from both tuples
             ArrayList<Tuple> l = map.get(t2.getField(pred.getField2()));
@@ -5,6 +5,7 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
 
 /**
@@ -13,16 +14,27 @@ import java.util.NoSuchElementException;
  * size, and the file is simply a collection of those pages. HeapFile works
  * closely with HeapPage. The format of HeapPages is described in the HeapPage
  * constructor.
+ * <p>
+ * Which pages have empty slots is recorded in a {@link FreeSpaceMap}, so
+ * that inserts do not have to try every page of the file.
  *
  * @author Sam Madden
  * @see simpledb.HeapPage#HeapPage
  */
 public class HeapFile implements DbFile {
 
+    /**
+     * The most pages {@link #insertTuples} adds to the end of the file with
+     * one write.
+     */
+    public static final int EXTENT_PAGES = 64;
+
     private TupleDesc tupleDesc;
 
     private File file;
 
+    private final FreeSpaceMap freeSpace;
+
     /**
      * Constructs a heap file backed by the specified file.
      *
@@ -33,6 +45,7 @@ public class HeapFile implements DbFile {
         // some code goes here
         file = f;
         tupleDesc = td;
+        freeSpace = new FreeSpaceMap(f);
     }
 
     /**
@@ -101,6 +114,8 @@ public class HeapFile implements DbFile {
         } catch (IOException e) {
             e.printStackTrace();
         }
+        //写回的页面（包括回滚和恢复时写回的页面）反映了它真实的空闲情况
+        freeSpace.setFull(page.getId().getPageNumber(), ((HeapPage) page).getNumEmptySlots() == 0);
     }
 
     /**
@@ -117,6 +132,9 @@ public class HeapFile implements DbFile {
      * Inserts the specified tuple to the file on behalf of transaction.
      * This method will acquire a lock on the affected pages of the file, and
      * may block until the lock can be acquired.
+     * <p>
+     * Only pages that the free space map does not mark as full are tried, and
+     * a page found to be full is marked so.
      *
      * @param tid The transaction performing the update
      * @param t   The tuple to add.  This tuple should be updated to reflect that
@@ -129,34 +147,134 @@ public class HeapFile implements DbFile {
             throws DbException, IOException, TransactionAbortedException {
         // some code goes here
         ArrayList<Page> modifiedPages = new ArrayList<>();
-        for (int i = 0; i < numPages(); i++) {
+        BufferPool pool = Database.getBufferPool();
+        int numPages = numPages();
+        for (int i = freeSpace.findPage(0, numPages); i < numPages; i = freeSpace.findPage(i + 1, numPages)) {
             HeapPageId pid = new HeapPageId(getId(), i);
-            HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+            boolean held = pool.holdsLock(tid, pid);
+            HeapPage page = (HeapPage) pool.getPage(tid, pid, Permissions.READ_WRITE);
             if (page.getNumEmptySlots() != 0) {
                 page.insertTuple(t);
                 page.markDirty(true, tid);
+                freeSpace.setFull(i, page.getNumEmptySlots() == 0);
                 modifiedPages.add(page);
                 break;
             }
-            Database.getBufferPool().releasePage(tid,pid);//此时已经可以释放锁了
+            freeSpace.setFull(i, true);
+            //此时已经可以释放锁了，但不能释放本事务之前已经持有的锁
+            if (!held) {
+                pool.releasePage(tid, pid);
+            }
         }
 
         //如果modifiedPages为空，则说明当前所有堆页已满，需要再增加一个堆页
         if (modifiedPages.isEmpty()) {
-            HeapPageId pid = new HeapPageId(getId(), numPages());
-            HeapPage newDiskPage = new HeapPage(pid, HeapPage.createEmptyPageData());
-            writePage(newDiskPage);
+            HeapPageId pid = new HeapPageId(getId(), allocatePages(1));
             HeapPage newPage = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
             newPage.insertTuple(t);
             newPage.markDirty(true, tid);
+            freeSpace.setFull(pid.getPageNumber(), newPage.getNumEmptySlots() == 0);
             modifiedPages.add(newPage);
         }
 
         return modifiedPages;
     }
 
+    /**
+     * Inserts the specified tuples to the file on behalf of transaction.
+     * Each page is locked and filled as far as the tuples go before moving
+     * on: first the pages the free space map gives as having empty slots,
+     * then new pages, which are added to the end of the file up to
+     * {@link #EXTENT_PAGES} at a time.
+     *
+     * @param tid    The transaction performing the update
+     * @param tuples The tuples to add
+     * @return An ArrayList contain the pages that were modified
+     * @throws DbException if a tuple cannot be added
+     * @throws IOException if the needed file can't be read/written
+     */
+    public ArrayList<Page> insertTuples(TransactionId tid, List<Tuple> tuples)
+            throws DbException, IOException, TransactionAbortedException {
+        for (Tuple t : tuples) {
+            if (!tupleDesc.equals(t.getTupleDesc())) {
+                throw new DbException("wrong tupleDesc!");
+            }
+        }
+        ArrayList<Page> modifiedPages = new ArrayList<>();
+        BufferPool pool = Database.getBufferPool();
+        int next = 0;
+        int numPages = numPages();
+        //先填满已有页面的空闲槽位
+        for (int i = freeSpace.findPage(0, numPages); i < numPages && next < tuples.size();
+             i = freeSpace.findPage(i + 1, numPages)) {
+            HeapPageId pid = new HeapPageId(getId(), i);
+            boolean held = pool.holdsLock(tid, pid);
+            HeapPage page = (HeapPage) pool.getPage(tid, pid, Permissions.READ_WRITE);
+            int filled = fillPage(tid, page, tuples, next);
+            if (filled > next) {
+                modifiedPages.add(page);
+            } else if (!held) {
+                pool.releasePage(tid, pid);
+            }
+            next = filled;
+        }
+
+        //剩余的元组写入新页面，新页面按区段一次性分配
+        int perPage = BufferPool.getPageSize() * 8 / (tupleDesc.getSize() * 8 + 1);
+        while (next < tuples.size()) {
+            int extent = Math.min(EXTENT_PAGES, (tuples.size() - next + perPage - 1) / perPage);
+            int first = allocatePages(extent);
+            for (int i = first; i < first + extent && next < tuples.size(); i++) {
+                HeapPageId pid = new HeapPageId(getId(), i);
+                HeapPage page = (HeapPage) pool.getPage(tid, pid, Permissions.READ_WRITE);
+                next = fillPage(tid, page, tuples, next);
+                modifiedPages.add(page);
+            }
+        }
+        return modifiedPages;
+    }
+
+    //从第next个元组开始向页面插入，直到页面已满或元组用完，返回下一个未插入元组的位置
+    private int fillPage(TransactionId tid, HeapPage page, List<Tuple> tuples, int next)
+            throws DbException, IOException {
+        int end = Math.min(tuples.size(), next + page.getNumEmptySlots());
+        for (int i = next; i < end; i++) {
+            page.insertTuple(tuples.get(i));
+        }
+        if (end > next) {
+            page.markDirty(true, tid);
+        }
+        freeSpace.setFull(page.getId().getPageNumber(), page.getNumEmptySlots() == 0);
+        return end;
+    }
+
+    /**
+     * Called by the BufferPool when a page of this file is rolled back to
+     * its before image, so that the free space map does not keep the page
+     * marked full by the aborted transaction.
+     *
+     * @param page the page as it was restored
+     * @throws IOException if the free space map cannot be written
+     */
+    void pageRolledBack(HeapPage page) throws IOException {
+        freeSpace.setFull(page.getId().getPageNumber(), page.getNumEmptySlots() == 0);
+    }
+
+    //在文件末尾一次写入n个空页面（空页面的数据全为0），返回其中第一个页面的页号
+    private synchronized int allocatePages(int n) throws IOException {
+        int first = numPages();
+        try (RandomAccessFile raf = new RandomAccessFile(getFile(), "rw")) {
+            raf.seek((long) first * BufferPool.getPageSize());
+            raf.write(new byte[n * BufferPool.getPageSize()]);
+        }
+        for (int i = first; i < first + n; i++) {
+            freeSpace.setFull(i, false);
+        }
+        return first;
+    }
+
     // see DbFile.java for javadocs
-    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException, IOException,
             TransactionAbortedException {
         // some code goes here
 
@@ -167,6 +285,7 @@ public class HeapFile implements DbFile {
             modifiedPage = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
             modifiedPage.deleteTuple(t);
             modifiedPage.markDirty(true, tid);
+            freeSpace.setFull(pid.getPageNumber(), false);
         }else{
             throw new DbException("this tuple is not in the page it's recorded");
         }
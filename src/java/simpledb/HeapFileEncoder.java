@@ -106,6 +106,8 @@ public class HeapFileEncoder {
 
     BufferedReader br = new BufferedReader(new FileReader(inFile));
     FileOutputStream os = new FileOutputStream(outFile);
+    // any free space map left from an old file at this path no longer applies
+    FreeSpaceMap.discard(outFile);
 
     // our numbers probably won't be much larger than 1024 digits
     char buf[] = new char[1024];
@@ -21,6 +21,7 @@ public class HeapPage implements Page {
     private final Byte oldDataLock = new Byte((byte) 0);
     byte[] oldData;
     private TransactionId tidMakeDirty;
+    private volatile long pageLSN = 0;
 
     /**
      * Create a HeapPage from a set of bytes of data read from disk.
@@ -275,9 +276,12 @@ public class HeapPage implements Page {
         // not necessary for lab1
         if (!td.equals(t.getTupleDesc())) throw new DbException("wrong tupleDesc!");
 
-        int headerIndex = -1;
+        int headerIndex = 0;
         int numTuples = getNumTuples();
-        while (header[++headerIndex] == (byte) 0x11111111) ;//以字节为单位快速定位空缺的header
+        //以字节为单位快速跳过已满的header，批量填充页面时插入不必每次从第一个槽位查起
+        while (headerIndex < header.length - 1 && header[headerIndex] == (byte) 0xFF) {
+            headerIndex++;
+        }
 
         //查找空缺header的空缺位置
         for (int i = 8 * headerIndex; i < numTuples; i++) {
@@ -310,6 +314,20 @@ public class HeapPage implements Page {
         return tidMakeDirty;
     }
 
+    /**
+     * Returns the LSN of the last log record written for this page
+     */
+    public long getLSN() {
+        return pageLSN;
+    }
+
+    /**
+     * Records the LSN of a log record just written for this page
+     */
+    public void setLSN(long lsn) {
+        this.pageLSN = lsn;
+    }
+
     /**
      * Returns the number of empty slots on this page.
      */
@@ -0,0 +1,90 @@
+package simpledb;
+
+/**
+ * HyperLogLog estimates the number of distinct values of a stream in a fixed
+ * number of one-byte registers.  Each value is hashed to 64 bits; the first
+ * PRECISION bits choose a register, which keeps the largest position of the
+ * first set bit seen in the remaining bits.  The estimate has a relative
+ * standard error of about 1.04 / sqrt(REGISTERS), 1.6% with 4096 registers,
+ * and small counts are estimated by linear counting over the empty
+ * registers instead.
+ * <p>
+ * Sketches of separate parts of a stream can be merged into a sketch of the
+ * whole by taking the larger of each pair of registers.
+ */
+class HyperLogLog {
+
+    /** The number of hash bits that choose a register */
+    static final int PRECISION = 12;
+
+    /** The number of registers, and bytes, of a sketch */
+    static final int REGISTERS = 1 << PRECISION;
+
+    private static final double ALPHA = 0.7213 / (1 + 1.079 / REGISTERS);
+
+    private final byte[] registers = new byte[REGISTERS];
+
+    /** Add a value to the stream */
+    void add(Field f) {
+        long h;
+        if (f instanceof IntField) {
+            h = ((IntField) f).getValue();
+        } else if (f instanceof StringField) {
+            //字符串的hashCode只有32位，按字符计算64位的FNV哈希
+            h = 0xcbf29ce484222325L;
+            String s = ((StringField) f).getValue();
+            for (int i = 0; i < s.length(); i++) {
+                h = (h ^ s.charAt(i)) * 0x100000001b3L;
+            }
+        } else {
+            h = f.hashCode();
+        }
+        addHash(mix(h));
+    }
+
+    /** Add a value, given by a well-mixed 64-bit hash of it */
+    void addHash(long hash) {
+        int r = (int) (hash >>> (64 - PRECISION));
+        //剩余位中第一个1的位置，从1开始；在末尾补一个1以免全0时越界
+        int rank = Long.numberOfLeadingZeros((hash << PRECISION) | (1L << (PRECISION - 1))) + 1;
+        if (rank > registers[r]) {
+            registers[r] = (byte) rank;
+        }
+    }
+
+    /** Add the values of another sketch to this one */
+    void merge(HyperLogLog other) {
+        for (int r = 0; r < REGISTERS; r++) {
+            if (other.registers[r] > registers[r]) {
+                registers[r] = other.registers[r];
+            }
+        }
+    }
+
+    /** @return the estimated number of distinct values added */
+    double estimate() {
+        double sum = 0;
+        int zeros = 0;
+        for (byte b : registers) {
+            sum += 1.0 / (1L << b);
+            if (b == 0) {
+                zeros++;
+            }
+        }
+        double raw = ALPHA * REGISTERS * REGISTERS / sum;
+        if (raw <= 2.5 * REGISTERS && zeros > 0) {
+            return REGISTERS * Math.log((double) REGISTERS / zeros);
+        }
+        return raw;
+    }
+
+    //MurmurHash3的64位混合函数，使相近的值得到无关的哈希
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
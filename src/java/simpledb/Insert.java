@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.io.IOException;
+import java.util.ArrayList;
 
 /**
  * Inserts tuples read from the child operator into the tableId specified in the
@@ -8,6 +9,11 @@ import java.io.IOException;
  */
 public class Insert extends Operator {
 
+    /**
+     * The number of child tuples passed to the buffer pool at a time.
+     */
+    public static final int BATCH_SIZE = 4096;
+
     private static final long serialVersionUID = 1L;
     private TransactionId tid;
     private OpIterator child;
@@ -76,6 +82,9 @@ public class Insert extends Operator {
      * instances of BufferPool is available via Database.getBufferPool(). Note
      * that insert DOES NOT need check to see if a particular tuple is a
      * duplicate before inserting it.
+     * <p>
+     * Tuples are passed to {@link BufferPool#insertTuples} in batches of
+     * {@link #BATCH_SIZE}, so that the table fills each page at once.
      *
      * @return A 1-field tuple containing the number of inserted records, or
      * null if called more than once.
@@ -90,12 +99,18 @@ public class Insert extends Operator {
         }
         called = true;
 
+        ArrayList<Tuple> batch = new ArrayList<>();
         while (child.hasNext()) {
-            try {
-                Database.getBufferPool().insertTuple(tid, tableId, child.next());
-                num++;
-            } catch (IOException e) {
-                e.printStackTrace();
+            batch.add(child.next());
+            if (batch.size() == BATCH_SIZE || !child.hasNext()) {
+                try {
+                    Database.getBufferPool().insertTuples(tid, tableId, batch);
+                    num += batch.size();
+                } catch (IOException e) {
+                    //一批元组可能已有部分写入页面，抛出异常使事务中止
+                    throw new DbException("failed to insert tuples into table " + tableId + ": " + e.getMessage());
+                }
+                batch.clear();
             }
         }
         numTuple.setField(0, new IntField(num));
@@ -1,27 +1,44 @@
 package simpledb;
 
+import java.util.Arrays;
+
 /** A class to represent a fixed-width histogram over a single integer-based field.
  */
 public class IntHistogram {
 
+    private final int min;
+    private final int max;
+    //每个桶覆盖的整数个数，最后一个桶可能覆盖得更少
+    private final int width;
+    private final int[] counts;
+    private int ntups;
+
     /**
      * Create a new IntHistogram.
-     * 
+     *
      * This IntHistogram should maintain a histogram of integer values that it receives.
      * It should split the histogram into "buckets" buckets.
-     * 
+     *
      * The values that are being histogrammed will be provided one-at-a-time through the "addValue()" function.
-     * 
+     *
      * Your implementation should use space and have execution time that are both
-     * constant with respect to the number of values being histogrammed.  For example, you shouldn't 
+     * constant with respect to the number of values being histogrammed.  For example, you shouldn't
      * simply store every value that you see in a sorted list.
-     * 
+     * <p>
+     * Each bucket covers the same whole number of integers, so there are
+     * fewer than "buckets" buckets when max - min + 1 is not a multiple of it.
+     *
      * @param buckets The number of buckets to split the input value into.
      * @param min The minimum integer value that will ever be passed to this class for histogramming
      * @param max The maximum integer value that will ever be passed to this class for histogramming
      */
     public IntHistogram(int buckets, int min, int max) {
     	// some code goes here
+        this.min = min;
+        this.max = max;
+        long range = (long) max - min + 1;
+        this.width = (int) Math.max(1, (range + buckets - 1) / buckets);
+        this.counts = new int[(int) ((range + width - 1) / width)];
     }
 
     /**
@@ -30,14 +47,128 @@ public class IntHistogram {
      */
     public void addValue(int v) {
     	// some code goes here
+        if (v < min || v > max) {
+            return;
+        }
+        counts[bucket(v)]++;
+        ntups++;
+    }
+
+    /**
+     * Remove a value that was added before.  The count of its bucket is
+     * decremented, unless it is already zero.
+     */
+    void removeValue(int v) {
+        if (v < min || v > max || counts[bucket(v)] == 0) {
+            return;
+        }
+        counts[bucket(v)]--;
+        ntups--;
+    }
+
+    /**
+     * Add n values spread evenly over the integers lo to hi, as far as they
+     * lie between min and max.  Used to fill the histogram from a coarser
+     * summary of the values.
+     */
+    void addValues(long lo, long hi, int n) {
+        lo = Math.max(lo, min);
+        hi = Math.min(hi, max);
+        if (lo > hi || n == 0) {
+            return;
+        }
+        //按每个桶覆盖的整数个数分配，累计取整保证总数恰好为n
+        long total = hi - lo + 1;
+        long covered = 0;
+        int assigned = 0;
+        for (int b = bucket((int) lo); b <= bucket((int) hi); b++) {
+            long bucketLo = Math.max(lo, (long) min + (long) b * width);
+            long bucketHi = Math.min(hi, (long) min + (long) (b + 1) * width - 1);
+            covered += bucketHi - bucketLo + 1;
+            int upTo = (int) Math.round((double) n * covered / total);
+            counts[b] += upTo - assigned;
+            assigned = upTo;
+        }
+        ntups += n;
+    }
+
+    /**
+     * Add the counts of another histogram with the same buckets to this one.
+     *
+     * @throws IllegalArgumentException if the histograms have different buckets
+     */
+    void merge(IntHistogram other) {
+        if (other.min != min || other.max != max || other.width != width) {
+            throw new IllegalArgumentException("histograms have different buckets");
+        }
+        for (int b = 0; b < counts.length; b++) {
+            counts[b] += other.counts[b];
+        }
+        ntups += other.ntups;
+    }
+
+    /** @return the number of buckets */
+    int numBuckets() {
+        return counts.length;
+    }
+
+    /** @return the number of values added */
+    int numValues() {
+        return ntups;
+    }
+
+    /** @return the number of values in bucket b */
+    int count(int b) {
+        return counts[b];
+    }
+
+    /** @return the bucket that value v, between min and max, falls in */
+    int bucket(int v) {
+        return (int) (((long) v - min) / width);
+    }
+
+    /** @return the smallest value bucket b covers */
+    int bucketLow(int b) {
+        return (int) ((long) min + (long) b * width);
+    }
+
+    /** @return the number of integers bucket b covers; the last bucket may cover fewer */
+    int bucketWidth(int b) {
+        return (int) Math.min(width, (long) max - min + 1 - (long) b * width);
+    }
+
+    //小于v的值所占的比例，假设桶内的值均匀分布
+    private double fractionBelow(int v) {
+        if (v <= min) {
+            return 0;
+        }
+        if (v > max) {
+            return 1;
+        }
+        int b = bucket(v);
+        long below = 0;
+        for (int i = 0; i < b; i++) {
+            below += counts[i];
+        }
+        long bucketLo = (long) min + (long) b * width;
+        return (below + (double) counts[b] * (v - bucketLo) / bucketWidth(b)) / ntups;
+    }
+
+    //等于v的值所占的比例
+    private double fractionEqual(int v) {
+        if (v < min || v > max) {
+            return 0;
+        }
+        int b = bucket(v);
+        return (double) counts[b] / bucketWidth(b) / ntups;
     }
 
     /**
      * Estimate the selectivity of a particular predicate and operand on this table.
-     * 
-     * For example, if "op" is "GREATER_THAN" and "v" is 5, 
+     *
+     * For example, if "op" is "GREATER_THAN" and "v" is 5,
      * return your estimate of the fraction of elements that are greater than 5.
-     * 
+     *
      * @param op Operator
      * @param v Value
      * @return Predicted selectivity of this particular operator and value
@@ -45,28 +176,59 @@ public class IntHistogram {
     public double estimateSelectivity(Predicate.Op op, int v) {
 
     	// some code goes here
-        return -1.0;
+        if (ntups == 0) {
+            return 0;
+        }
+        switch (op) {
+            case EQUALS:
+            case LIKE:
+                return fractionEqual(v);
+            case NOT_EQUALS:
+                return 1 - fractionEqual(v);
+            case LESS_THAN:
+                return fractionBelow(v);
+            case LESS_THAN_OR_EQ:
+                return fractionBelow(v) + fractionEqual(v);
+            case GREATER_THAN:
+                return Math.max(0, 1 - fractionBelow(v) - fractionEqual(v));
+            case GREATER_THAN_OR_EQ:
+                return 1 - fractionBelow(v);
+            default:
+                throw new IllegalArgumentException("unsupported operator " + op);
+        }
     }
-    
+
     /**
      * @return
      *     the average selectivity of this histogram.
-     *     
+     *
      *     This is not an indispensable method to implement the basic
      *     join optimization. It may be needed if you want to
      *     implement a more efficient optimization
+     *     <p>
+     *     This is the selectivity of an equality predicate whose operand
+     *     is drawn from the values in the histogram.
      * */
     public double avgSelectivity()
     {
         // some code goes here
-        return 1.0;
+        if (ntups == 0) {
+            return 0;
+        }
+        double avg = 0;
+        for (int b = 0; b < counts.length; b++) {
+            double frac = (double) counts[b] / ntups;
+            avg += frac * frac / bucketWidth(b);
+        }
+        return avg;
     }
-    
+
     /**
      * @return A string describing this histogram, for debugging purposes
      */
     public String toString() {
         // some code goes here
-        return null;
+        return "IntHistogram(" + min + ".." + max + ", width " + width + ", " + ntups + " values): "
+                + Arrays.toString(counts);
     }
 }
@@ -0,0 +1,160 @@
+package simpledb;
+
+import java.util.Arrays;
+
+/**
+ * IntJoinHashTable is the build-side hash table used by {@link HashEquiJoin}
+ * when both join fields are {@link Type#INT_TYPE}.
+ * <p>
+ * Distinct keys are kept unboxed in an open-addressing table (linear
+ * probing). Build tuples are stored in one contiguous array, and tuples that
+ * share a key are chained through an int array of row indices, so neither
+ * building nor probing goes through IntField.hashCode/equals or allocates a
+ * per-key list.
+ */
+public class IntJoinHashTable {
+
+    /** Row index returned by {@link #find} and {@link #nextRow} when there is no (more) match */
+    public static final int NO_ROW = -1;
+
+    private static final int MIN_CAPACITY = 16;
+
+    //开放寻址表：每个槽存储一个key以及该key对应行链表的头尾下标，slotHeads为NO_ROW时表示空槽
+    private int[] slotKeys;
+    private int[] slotHeads;
+    private int[] slotTails;
+    private int mask;
+    private int numKeys;
+
+    //连续存放的构建侧元组，nextRows[i]为与第i行key相同的下一行
+    private Tuple[] rows;
+    private int[] nextRows;
+    private int numRows;
+
+    /**
+     * Create an empty table.
+     *
+     * @param expectedRows the number of build tuples expected; used to size
+     *                     the table so that it does not need to grow
+     */
+    public IntJoinHashTable(int expectedRows) {
+        int capacity = tableSizeFor(Math.max(expectedRows, 1) * 2);
+        allocateSlots(capacity);
+        rows = new Tuple[Math.max(expectedRows, MIN_CAPACITY)];
+        nextRows = new int[rows.length];
+    }
+
+    /**
+     * Add a build tuple under the specified key. Tuples with equal keys are
+     * returned by {@link #find}/{@link #nextRow} in insertion order.
+     */
+    public void add(int key, Tuple t) {
+        if (numRows == rows.length) {
+            rows = Arrays.copyOf(rows, rows.length * 2);
+            nextRows = Arrays.copyOf(nextRows, nextRows.length * 2);
+        }
+        int row = numRows++;
+        rows[row] = t;
+        nextRows[row] = NO_ROW;
+
+        int slot = findSlot(key);
+        if (slotHeads[slot] == NO_ROW) {
+            slotKeys[slot] = key;
+            slotHeads[slot] = row;
+            slotTails[slot] = row;
+            //负载因子超过0.5时扩容，保证线性探测的链足够短
+            if (++numKeys * 2 > slotKeys.length) {
+                rehash(slotKeys.length * 2);
+            }
+        } else {
+            nextRows[slotTails[slot]] = row;
+            slotTails[slot] = row;
+        }
+    }
+
+    /**
+     * @return the index of the first build tuple with the specified key, or
+     * {@link #NO_ROW} if there is none
+     */
+    public int find(int key) {
+        return slotHeads[findSlot(key)];
+    }
+
+    /**
+     * @return the index of the next build tuple with the same key as row, or
+     * {@link #NO_ROW} if row was the last one
+     */
+    public int nextRow(int row) {
+        return nextRows[row];
+    }
+
+    /**
+     * @return the build tuple stored at the specified row index
+     */
+    public Tuple getRow(int row) {
+        return rows[row];
+    }
+
+    /**
+     * @return the number of build tuples in the table
+     */
+    public int size() {
+        return numRows;
+    }
+
+    /**
+     * Remove all tuples, keeping the allocated arrays for reuse.
+     */
+    public void clear() {
+        Arrays.fill(slotHeads, NO_ROW);
+        Arrays.fill(rows, 0, numRows, null);
+        numKeys = 0;
+        numRows = 0;
+    }
+
+    //返回key所在的槽，若key不存在则返回探测到的第一个空槽
+    private int findSlot(int key) {
+        int slot = hash(key) & mask;
+        while (slotHeads[slot] != NO_ROW && slotKeys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void rehash(int capacity) {
+        int[] oldKeys = slotKeys;
+        int[] oldHeads = slotHeads;
+        int[] oldTails = slotTails;
+        allocateSlots(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldHeads[i] != NO_ROW) {
+                int slot = findSlot(oldKeys[i]);
+                slotKeys[slot] = oldKeys[i];
+                slotHeads[slot] = oldHeads[i];
+                slotTails[slot] = oldTails[i];
+            }
+        }
+    }
+
+    private void allocateSlots(int capacity) {
+        slotKeys = new int[capacity];
+        slotHeads = new int[capacity];
+        slotTails = new int[capacity];
+        Arrays.fill(slotHeads, NO_ROW);
+        mask = capacity - 1;
+    }
+
+    //连续的整数key（如自增主键）直接取低位会聚集在一起，先做一次乘法散列
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static int tableSizeFor(int n) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < n && capacity < (1 << 30)) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+}
@@ -9,7 +9,7 @@ import java.util.NoSuchElementException;
 public class Join extends Operator {
 
     private static final long serialVersionUID = 1L;
-    private final int joinBufferSize = 16384;//对于join的缓冲区我设置了四个页面的大小，即16384字节
+    static final int JOIN_BUFFER_SIZE = 16384;//对于join的缓冲区我设置了四个页面的大小，即16384字节
     private JoinPredicate joinPredicate;
     private OpIterator child1;
     private OpIterator child2;
@@ -154,7 +154,7 @@ public class Join extends Operator {
     //使内循环中的每个元组只需要一次磁盘I/O操作，极大提高了性能
     private TupleIterator blockNestedLoopJoin() throws DbException, TransactionAbortedException {
         ArrayList<Tuple> joinTuples = new ArrayList<>();
-        int maxCacheTupleNum = joinBufferSize / child1.getTupleDesc().getSize();//根据缓存大小和child1的TupleDesc大小计算缓存的元组数目
+        int maxCacheTupleNum = JOIN_BUFFER_SIZE / child1.getTupleDesc().getSize();//根据缓存大小和child1的TupleDesc大小计算缓存的元组数目
         Tuple[] cacheBlock = new Tuple[maxCacheTupleNum];
         int cacheTupleNum = 0;
         child1.rewind();
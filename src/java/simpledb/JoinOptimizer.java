@@ -14,6 +14,27 @@ public class JoinOptimizer {
     LogicalPlan p;
     Vector<LogicalJoinNode> joins;
 
+    /**
+     * The largest number of tables whose joins may be ordered by dynamic
+     * programming; its plan cache has an entry for each of their subsets.
+     */
+    public static final int MAX_DP_TABLES = 20;
+
+    /** The default number of tables above which joins are ordered greedily */
+    public static final int DEFAULT_DP_TABLES = 16;
+
+    /** The default time orderJoins may take, in milliseconds */
+    public static final long DEFAULT_PLANNING_BUDGET = 200;
+
+    /**
+     * Simulated annealing stops after this many moves per table in a row
+     * that find no better plan
+     */
+    private static final int ANNEAL_MOVES = 200;
+
+    private static volatile int dpTables = DEFAULT_DP_TABLES;
+    private static volatile long planningBudget = DEFAULT_PLANNING_BUDGET;
+
     /**
      * Constructor
      * 
@@ -27,6 +48,49 @@ public class JoinOptimizer {
         this.joins = joins;
     }
 
+    /**
+     * @return the largest number of tables whose joins {@link #orderJoins}
+     *         orders by dynamic programming
+     */
+    public static int getDpTables() {
+        return dpTables;
+    }
+
+    /**
+     * Set the largest number of tables whose joins {@link #orderJoins}
+     * orders by dynamic programming; the joins of more tables are ordered
+     * greedily.
+     * 
+     * @param tables
+     *            the number of tables, at most {@link #MAX_DP_TABLES}
+     */
+    public static void setDpTables(int tables) {
+        if (tables > MAX_DP_TABLES) {
+            throw new IllegalArgumentException("at most " + MAX_DP_TABLES + " tables");
+        }
+        dpTables = tables;
+    }
+
+    /**
+     * @return the time {@link #orderJoins} may take, in milliseconds
+     */
+    public static long getPlanningBudget() {
+        return planningBudget;
+    }
+
+    /**
+     * Set the time {@link #orderJoins} may take.  Dynamic programming that
+     * runs past it is abandoned for greedy ordering, and what is left of it
+     * is spent improving greedy plans.  Greedy ordering itself is not cut
+     * short; it takes time polynomial in the number of tables.
+     * 
+     * @param millis
+     *            the time in milliseconds
+     */
+    public static void setPlanningBudget(long millis) {
+        planningBudget = millis;
+    }
+
     /**
      * Return best iterator for computing a given logical join, given the
      * specified statistics, and the provided left and right subplans. Note that
@@ -68,7 +132,12 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        j = new Join(p,plan1,plan2);
+        //等值连接用哈希连接，其他连接用块嵌套循环连接，与estimateJoinCost一致
+        if (lj.p == Predicate.Op.EQUALS) {
+            j = new HashEquiJoin(p, plan1, plan2);
+        } else {
+            j = new Join(p, plan1, plan2);
+        }
 
         return j;
 
@@ -82,6 +151,12 @@ public class JoinOptimizer {
      * the amount of data that must be read over the course of the query, as
      * well as the number of CPU opertions performed by your join. Assume that
      * the cost of a single predicate application is roughly 1.
+     * <p>
+     * The cost is that of the operator {@link #instantiateJoin} chooses,
+     * by the formulas of the current {@link CostModel}: a hash join for an
+     * equality, a block nested-loops join otherwise.  The outer's tuples
+     * are taken to be as wide as those of the table of j.t1Alias, one int
+     * field if that is not a table of the plan.
      * 
      * 
      * @param j
@@ -111,7 +186,14 @@ public class JoinOptimizer {
             // HINT: You may need to use the variable "j" if you implemented
             // a join algorithm that's more complicated than a basic
             // nested-loops join.
-            return -1.0;
+            CostModel m = CostModel.getCostModel();
+            if (j.p == Predicate.Op.EQUALS) {
+                return m.hashJoinCost(card1, card2, cost1, cost2, HashEquiJoin.MAP_SIZE + 1);
+            }
+            Integer tableId = p.getTableId(j.t1Alias);
+            int width = tableId == null ? Type.INT_TYPE.getLen()
+                    : Database.getCatalog().getTupleDesc(tableId).getSize();
+            return m.blockNestedLoopJoinCost(card1, card2, cost1, cost2, Join.JOIN_BUFFER_SIZE / width);
         }
     }
 
@@ -149,6 +231,17 @@ public class JoinOptimizer {
 
     /**
      * Estimate the join cardinality of two tables.
+     * <p>
+     * An equi-join matches each value of one side with the tuples of the
+     * other side that have it, so it yields card1 * card2 / max(d1, d2)
+     * tuples, where d1 and d2 are the numbers of distinct values of the
+     * join fields among the joined tuples (the values of the side with fewer
+     * of them are taken to occur on the other side).  The number of distinct
+     * values of a field is taken from its TableStats, but no more than the
+     * cardinality of its side; a primary key has as many as its side's
+     * cardinality, so a key / foreign-key join yields about the
+     * cardinality of the foreign-key side.  A range join is taken to yield
+     * 30% of the cross product.
      * */
     public static int estimateTableJoinCardinality(Predicate.Op joinOp,
             String table1Alias, String table2Alias, String field1PureName,
@@ -157,45 +250,65 @@ public class JoinOptimizer {
             Map<String, Integer> tableAliasToId) {
         int card = 1;
         // some code goes here
+        double product = (double) card1 * card2;
+        double d1 = distinctValues(table1Alias, field1PureName, card1, t1pkey, stats, tableAliasToId);
+        double d2 = distinctValues(table2Alias, field2PureName, card2, t2pkey, stats, tableAliasToId);
+        double equal = product / Math.max(1, Math.max(d1, d2));
+        double estimate;
+        switch (joinOp) {
+            case EQUALS:
+            case LIKE:
+                estimate = equal;
+                break;
+            case NOT_EQUALS:
+                estimate = product - equal;
+                break;
+            default:
+                estimate = product * 0.3;
+        }
+        card = (int) Math.min(Integer.MAX_VALUE, Math.round(estimate));
         return card <= 0 ? 1 : card;
     }
 
-    /**
-     * Helper method to enumerate all of the subsets of a given size of a
-     * specified vector.
-     * 
-     * @param v
-     *            The vector whose subsets are desired
-     * @param size
-     *            The size of the subsets of interest
-     * @return a set of all subsets of the specified size
-     */
-    @SuppressWarnings("unchecked")
-    public <T> Set<Set<T>> enumerateSubsets(Vector<T> v, int size) {
-        Set<Set<T>> els = new HashSet<Set<T>>();
-        els.add(new HashSet<T>());
-        // Iterator<Set> it;
-        // long start = System.currentTimeMillis();
-
-        for (int i = 0; i < size; i++) {
-            Set<Set<T>> newels = new HashSet<Set<T>>();
-            for (Set<T> s : els) {
-                for (T t : v) {
-                    Set<T> news = (Set<T>) (((HashSet<T>) s).clone());
-                    if (news.add(t))
-                        newels.add(news);
-                }
-            }
-            els = newels;
+    //连接属性在参与连接的card个元组中的不同值个数；主键或没有统计信息时取card
+    private static double distinctValues(String tableAlias, String fieldPureName, int card,
+            boolean pkey, Map<String, TableStats> stats, Map<String, Integer> tableAliasToId) {
+        if (pkey || tableAlias == null || tableAliasToId.get(tableAlias) == null) {
+            return card;
+        }
+        int tableId = tableAliasToId.get(tableAlias);
+        TableStats s = stats.get(Database.getCatalog().getTableName(tableId));
+        if (s == null) {
+            return card;
+        }
+        try {
+            int field = Database.getCatalog().getTupleDesc(tableId).fieldNameToIndex(fieldPureName);
+            return Math.min(card, s.numDistinctValues(field));
+        } catch (NoSuchElementException e) {
+            return card;
         }
-
-        return els;
-
     }
 
     /**
      * Compute a logical, reasonably efficient join on the specified tables. See
      * PS4 for hints on how this should be implemented.
+     * <p>
+     * Up to {@link #getDpTables()} tables, the joins are ordered by dynamic
+     * programming over sets of tables, each set a long bit mask of the
+     * tables' numbers, with the best plan of each set kept in a
+     * {@link PlanCache} indexed by the mask.  Following DPccp (Moerkotte and
+     * Neumann, "Analysis of two existing and one new dynamic programming
+     * algorithm for the generation of optimal bushy join trees without cross
+     * products", VLDB 2006), only connected sets are planned, and each pair
+     * of disjoint connected sets joined by a predicate is considered once,
+     * both ways round, after the plans of both sets.
+     * <p>
+     * With more tables, or when the dynamic programming runs out of the
+     * planning budget ({@link #getPlanningBudget()}), the joins are ordered
+     * greedily: the pair of plans whose join yields the fewest tuples is
+     * joined first (Fegaras's greedy operator ordering).  The greedy plan is
+     * then improved by simulated annealing over bushy plans for what is left
+     * of the budget.  The plans may be bushy.
      * 
      * @param stats
      *            Statistics for each table involved in the join, referenced by
@@ -207,8 +320,10 @@ public class JoinOptimizer {
      * @param explain
      *            Indicates whether your code should explain its query plan or
      *            simply execute it
-     * @return A Vector<LogicalJoinNode> that stores joins in the left-deep
-     *         order in which they should be executed.
+     * @return A Vector<LogicalJoinNode> that stores joins in the order in
+     *         which they should be executed: each join comes after the joins
+     *         that produce its two inputs, and joins with subqueries come
+     *         last.
      * @throws ParsingException
      *             when stats or filter selectivities is missing a table in the
      *             join, or or when another internal error occurs
@@ -217,175 +332,506 @@ public class JoinOptimizer {
             HashMap<String, TableStats> stats,
             HashMap<String, Double> filterSelectivities, boolean explain)
             throws ParsingException {
+        return orderJoins(stats, filterSelectivities, null, explain);
+    }
+
+    /**
+     * Compute a logical, reasonably efficient join on the specified tables,
+     * as {@link #orderJoins(HashMap, HashMap, boolean)} does, where some
+     * tables are read in another way than by a full scan.
+     *
+     * @param scanCosts
+     *            The costs of reading the tables that are not scanned in
+     *            full, such as those read through an index, referenced by
+     *            table alias; the other tables cost
+     *            {@link TableStats#estimateScanCost()}.  May be null.
+     */
+    public Vector<LogicalJoinNode> orderJoins(
+            HashMap<String, TableStats> stats,
+            HashMap<String, Double> filterSelectivities,
+            HashMap<String, Double> scanCosts, boolean explain)
+            throws ParsingException {
         //Not necessary for labs 1--3
 
         // some code goes here
-        //Replace the following
-        return joins;
+        long start = System.nanoTime();
+        long deadline = start + planningBudget * 1000000;
+        JoinGraph g = new JoinGraph();
+        int n = g.tables.size();
+        //位掩码最多表示64个表，更多时保持原有顺序
+        if (n == 0 || n > Long.SIZE) {
+            return joins;
+        }
+
+        Plan[] bases = new Plan[n];
+        for (int i = 0; i < n; i++) {
+            String alias = g.tables.get(i);
+            TableStats s = stats.get(Database.getCatalog().getTableName(p.getTableId(alias)));
+            Double selectivity = filterSelectivities.get(alias);
+            if (s == null || selectivity == null) {
+                throw new ParsingException("Missing statistics for table " + alias);
+            }
+            double scanCost = scanCosts != null && scanCosts.containsKey(alias)
+                    ? scanCosts.get(alias) : s.estimateScanCost();
+            bases[i] = new Plan(1L << i, scanCost, s.estimateTableCardinality(selectivity));
+        }
+
+        //没有连接谓词相连的部分各自排序，由physicalPlan报告缺少的连接
+        Vector<Plan> plans = new Vector<Plan>();
+        if (n <= dpTables) {
+            PlanCache pc = new PlanCache(n);
+            for (Plan b : bases) {
+                pc.addPlan(b.tables, b.cost, b.card, 0, null);
+            }
+            if (g.enumeratePairs(pc, stats, deadline)) {
+                long rest = (1L << n) - 1;
+                while (rest != 0) {
+                    long component = g.component(Long.lowestOneBit(rest));
+                    plans.add(cachedPlan(pc, bases, component));
+                    rest &= ~component;
+                }
+            }
+        }
+        if (plans.isEmpty()) {
+            plans = greedyPlans(g, bases, stats);
+            for (int i = 0; i < plans.size(); i++) {
+                //剩余的时间平分给还没有改进的部分
+                long now = System.nanoTime();
+                long end = now + Math.max(0, deadline - now) / (plans.size() - i);
+                plans.set(i, anneal(g, plans.get(i), stats, now, end));
+            }
+        }
+
+        Vector<LogicalJoinNode> order = new Vector<LogicalJoinNode>();
+        boolean[] used = new boolean[g.edges.size()];
+        for (Plan plan : plans) {
+            appendPlan(g, plan, order, used);
+        }
+        order.addAll(g.subplans);
+
+        if (explain) {
+            printJoins(order, plans, stats, filterSelectivities, g);
+        }
+        return order;
     }
 
     // ===================== Private Methods =================================
 
     /**
-     * This is a helper method that computes the cost and cardinality of joining
-     * joinToRemove to joinSet (joinSet should contain joinToRemove), given that
-     * all of the subsets of size joinSet.size() - 1 have already been computed
-     * and stored in PlanCache pc.
-     * 
-     * @param stats
-     *            table stats for all of the tables, referenced by table names
-     *            rather than alias (see {@link #orderJoins})
-     * @param filterSelectivities
-     *            the selectivities of the filters over each of the tables
-     *            (where tables are indentified by their alias or name if no
-     *            alias is given)
-     * @param joinToRemove
-     *            the join to remove from joinSet
-     * @param joinSet
-     *            the set of joins being considered
-     * @param bestCostSoFar
-     *            the best way to join joinSet so far (minimum of previous
-     *            invocations of computeCostAndCardOfSubplan for this joinSet,
-     *            from returned CostCard)
-     * @param pc
-     *            the PlanCache for this join; should have subplans for all
-     *            plans of size joinSet.size()-1
-     * @return A {@link CostCard} objects desribing the cost, cardinality,
-     *         optimal subplan
-     * @throws ParsingException
-     *             when stats, filterSelectivities, or pc object is missing
-     *             tables involved in join
+     * A plan for a connected set of tables: a base table, or the join of
+     * an outer and an inner plan, with its estimated cost and cardinality
      */
-    @SuppressWarnings("unchecked")
-    private CostCard computeCostAndCardOfSubplan(
-            HashMap<String, TableStats> stats,
-            HashMap<String, Double> filterSelectivities,
-            LogicalJoinNode joinToRemove, Set<LogicalJoinNode> joinSet,
-            double bestCostSoFar, PlanCache pc) throws ParsingException {
-
-        LogicalJoinNode j = joinToRemove;
-
-        Vector<LogicalJoinNode> prevBest;
-
-        if (this.p.getTableId(j.t1Alias) == null)
-            throw new ParsingException("Unknown table " + j.t1Alias);
-        if (this.p.getTableId(j.t2Alias) == null)
-            throw new ParsingException("Unknown table " + j.t2Alias);
-
-        String table1Name = Database.getCatalog().getTableName(
-                this.p.getTableId(j.t1Alias));
-        String table2Name = Database.getCatalog().getTableName(
-                this.p.getTableId(j.t2Alias));
-        String table1Alias = j.t1Alias;
-        String table2Alias = j.t2Alias;
-
-        Set<LogicalJoinNode> news = (Set<LogicalJoinNode>) ((HashSet<LogicalJoinNode>) joinSet)
-                .clone();
-        news.remove(j);
-
-        double t1cost, t2cost;
-        int t1card, t2card;
-        boolean leftPkey, rightPkey;
-
-        if (news.isEmpty()) { // base case -- both are base relations
-            prevBest = new Vector<LogicalJoinNode>();
-            t1cost = stats.get(table1Name).estimateScanCost();
-            t1card = stats.get(table1Name).estimateTableCardinality(
-                    filterSelectivities.get(j.t1Alias));
-            leftPkey = isPkey(j.t1Alias, j.f1PureName);
-
-            t2cost = table2Alias == null ? 0 : stats.get(table2Name)
-                    .estimateScanCost();
-            t2card = table2Alias == null ? 0 : stats.get(table2Name)
-                    .estimateTableCardinality(
-                            filterSelectivities.get(j.t2Alias));
-            rightPkey = table2Alias == null ? false : isPkey(table2Alias,
-                    j.f2PureName);
+    private static class Plan {
+        final long tables;
+        final Plan outer, inner;
+        final LogicalJoinNode join;
+        final double cost;
+        final int card;
+
+        Plan(long table, double cost, int card) {
+            this(table, null, null, null, cost, card);
+        }
+
+        Plan(long tables, Plan outer, Plan inner, LogicalJoinNode join, double cost, int card) {
+            this.tables = tables;
+            this.outer = outer;
+            this.inner = inner;
+            this.join = join;
+            this.cost = cost;
+            this.card = card;
+        }
+    }
+
+    /**
+     * The tables of the joins being ordered, numbered by their position in
+     * {@link #tables}, and the joins between them, which are the edges of
+     * the join graph.  Joins with subqueries are not edges and are kept in
+     * {@link #subplans}.
+     */
+    private class JoinGraph {
+        final Vector<String> tables = new Vector<String>();
+        final Vector<LogicalJoinNode> edges = new Vector<LogicalJoinNode>();
+        final Vector<LogicalJoinNode> subplans = new Vector<LogicalJoinNode>();
+        /** The numbers of the tables t1 and t2 of each edge */
+        final int[] left, right;
+        /** Each edge with its inner and outer swapped */
+        final LogicalJoinNode[] swapped;
+        /** Whether the join fields of t1 and t2 of each edge are primary keys */
+        final boolean[] leftPkey, rightPkey;
+        /** The tables joined with each table */
+        final long[] neighbors;
+        /** The first edge between each pair of tables, -1 if there is none */
+        final int[][] edgeBetween;
+
+        private PlanCache pc;
+        private HashMap<String, TableStats> stats;
+        private long deadline;
+        private int pairs;
+        private boolean expired;
+
+        JoinGraph() throws ParsingException {
+            HashMap<String, Integer> numbers = new HashMap<String, Integer>();
+            for (LogicalJoinNode j : joins) {
+                number(numbers, j.t1Alias);
+                if (j instanceof LogicalSubplanJoinNode) {
+                    subplans.add(j);
+                } else {
+                    number(numbers, j.t2Alias);
+                    edges.add(j);
+                }
+            }
+            int m = edges.size();
+            left = new int[m];
+            right = new int[m];
+            swapped = new LogicalJoinNode[m];
+            leftPkey = new boolean[m];
+            rightPkey = new boolean[m];
+            neighbors = new long[tables.size()];
+            edgeBetween = new int[tables.size()][tables.size()];
+            for (int[] row : edgeBetween) {
+                Arrays.fill(row, -1);
+            }
+            for (int k = m - 1; k >= 0; k--) {
+                LogicalJoinNode j = edges.get(k);
+                left[k] = numbers.get(j.t1Alias);
+                right[k] = numbers.get(j.t2Alias);
+                swapped[k] = j.swapInnerOuter();
+                leftPkey[k] = isPkey(j.t1Alias, j.f1PureName);
+                rightPkey[k] = isPkey(j.t2Alias, j.f2PureName);
+                neighbors[left[k]] |= 1L << right[k];
+                neighbors[right[k]] |= 1L << left[k];
+                edgeBetween[left[k]][right[k]] = k;
+                edgeBetween[right[k]][left[k]] = k;
+            }
+        }
+
+        private void number(HashMap<String, Integer> numbers, String alias) throws ParsingException {
+            if (p.getTableId(alias) == null) {
+                throw new ParsingException("Unknown table " + alias);
+            }
+            if (!numbers.containsKey(alias)) {
+                numbers.put(alias, tables.size());
+                tables.add(alias);
+            }
+        }
+
+        /** @return the tables joined with some table of s, including those in s */
+        long neighborhood(long s) {
+            long n = 0;
+            for (long rest = s; rest != 0; rest &= rest - 1) {
+                n |= neighbors[Long.numberOfTrailingZeros(rest)];
+            }
+            return n;
+        }
+
+        /** @return the tables connected to s by edges, including s */
+        long component(long s) {
+            long prev = 0;
+            while (s != prev) {
+                prev = s;
+                s |= neighborhood(s);
+            }
+            return s;
+        }
+
+        /** @return an edge between a table of s1 and a table of s2, -1 if there is none */
+        int edgeJoining(long s1, long s2) {
+            for (long rest = s1; rest != 0; rest &= rest - 1) {
+                int t = Long.numberOfTrailingZeros(rest);
+                long joined = neighbors[t] & s2;
+                if (joined != 0) {
+                    return edgeBetween[t][Long.numberOfTrailingZeros(joined)];
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Join the plans of every pair of disjoint connected sets of tables
+         * that is joined by an edge, each pair once.  The pairs come in an
+         * order in which the plans of both sets of a pair are final: the
+         * connected sets are grown from each table i by adding neighbors
+         * numbered above i, and each is paired with the connected sets grown
+         * from its neighbors outside it numbered above i, where subsets of
+         * neighbors are added in increasing order.
+         * 
+         * @return false if the deadline, in System.nanoTime(), passed before
+         *         all pairs were joined
+         */
+        boolean enumeratePairs(PlanCache pc, HashMap<String, TableStats> stats, long deadline) {
+            this.pc = pc;
+            this.stats = stats;
+            this.deadline = deadline;
+            for (int i = tables.size() - 1; i >= 0 && !expired; i--) {
+                long v = 1L << i;
+                emitCsg(v);
+                enumerateCsgRec(v, (v << 1) - 1);
+            }
+            return !expired;
+        }
+
+        //把s1扩展为更大的连通集合，不加入x中的表
+        private void enumerateCsgRec(long s1, long x) {
+            long n = neighborhood(s1) & ~x;
+            //按从小到大的顺序枚举n的非空子集
+            for (long s = n & -n; s != 0 && !expired; s = (s - n) & n) {
+                emitCsg(s1 | s);
+            }
+            for (long s = n & -n; s != 0 && !expired; s = (s - n) & n) {
+                enumerateCsgRec(s1 | s, x | n);
+            }
+        }
+
+        //找出与连通集合s1相邻、编号都大于s1中最小编号的连通集合
+        private void emitCsg(long s1) {
+            long x = s1 | ((Long.lowestOneBit(s1) << 1) - 1);
+            long n = neighborhood(s1) & ~x;
+            for (long rest = n; rest != 0 && !expired; ) {
+                long v = Long.highestOneBit(rest);
+                rest &= ~v;
+                emitPair(s1, v);
+                enumerateCmpRec(s1, v, x | (n & ((v << 1) - 1)));
+            }
+        }
+
+        //把与s1相邻的连通集合s2扩展为更大的连通集合，不加入x中的表
+        private void enumerateCmpRec(long s1, long s2, long x) {
+            long n = neighborhood(s2) & ~x;
+            for (long s = n & -n; s != 0 && !expired; s = (s - n) & n) {
+                emitPair(s1, s2 | s);
+            }
+            for (long s = n & -n; s != 0 && !expired; s = (s - n) & n) {
+                enumerateCmpRec(s1, s2 | s, x | n);
+            }
+        }
+
+        private void emitPair(long s1, long s2) {
+            //每1024对检查一次时间
+            if ((++pairs & 1023) == 0 && System.nanoTime() > deadline) {
+                expired = true;
+                return;
+            }
+            joinPlans(this, pc, s1, s2, stats);
+        }
+    }
+
+    /**
+     * Consider joining the best plans of the disjoint connected sets of
+     * tables s1 and s2 with an edge between them, with either set as
+     * the outer, and keep the result in pc if it is the best plan of their
+     * union so far.  The cost of a plan includes that of merging the tuples
+     * of its result.
+     */
+    private void joinPlans(JoinGraph g, PlanCache pc, long s1, long s2,
+            HashMap<String, TableStats> stats) {
+        int k = g.edgeJoining(s1, s2);
+        if (k < 0) {
+            return;
+        }
+        //edges[k]以包含t1的一边为外表，swapped[k]以另一边为外表
+        long outer = (s1 & (1L << g.left[k])) != 0 ? s1 : s2;
+        long inner = (s1 | s2) & ~outer;
+        int card1 = pc.getCard(outer), card2 = pc.getCard(inner);
+        double cost1 = pc.getCost(outer), cost2 = pc.getCost(inner);
+        double cost = estimateJoinCost(g.edges.get(k), card1, card2, cost1, cost2);
+        double swappedCost = estimateJoinCost(g.swapped[k], card2, card1, cost2, cost1);
+        double best = Math.min(cost, swappedCost);
+        long s = s1 | s2;
+        if (pc.hasPlan(s) && pc.getCost(s) <= best) {
+            return;
+        }
+
+        int card = joinCardinality(g, k, outer, inner, card1, card2, stats);
+        //合并结果元组的代价与哪边是外表无关
+        best += CostModel.getCostModel().outputCost(card);
+        if (pc.hasPlan(s) && pc.getCost(s) <= best) {
+            return;
+        }
+        if (cost <= swappedCost) {
+            pc.addPlan(s, best, card, outer, g.edges.get(k));
         } else {
-            // news is not empty -- figure best way to join j to news
-            prevBest = pc.getOrder(news);
-
-            // possible that we have not cached an answer, if subset
-            // includes a cross product
-            if (prevBest == null) {
-                return null;
-            }
-
-            double prevBestCost = pc.getCost(news);
-            int bestCard = pc.getCard(news);
-
-            // estimate cost of right subtree
-            if (doesJoin(prevBest, table1Alias)) { // j.t1 is in prevBest
-                t1cost = prevBestCost; // left side just has cost of whatever
-                                       // left
-                // subtree is
-                t1card = bestCard;
-                leftPkey = hasPkey(prevBest);
-
-                t2cost = j.t2Alias == null ? 0 : stats.get(table2Name)
-                        .estimateScanCost();
-                t2card = j.t2Alias == null ? 0 : stats.get(table2Name)
-                        .estimateTableCardinality(
-                                filterSelectivities.get(j.t2Alias));
-                rightPkey = j.t2Alias == null ? false : isPkey(j.t2Alias,
-                        j.f2PureName);
-            } else if (doesJoin(prevBest, j.t2Alias)) { // j.t2 is in prevbest
-                                                        // (both
-                // shouldn't be)
-                t2cost = prevBestCost; // left side just has cost of whatever
-                                       // left
-                // subtree is
-                t2card = bestCard;
-                rightPkey = hasPkey(prevBest);
-                t1cost = stats.get(table1Name).estimateScanCost();
-                t1card = stats.get(table1Name).estimateTableCardinality(
-                        filterSelectivities.get(j.t1Alias));
-                leftPkey = isPkey(j.t1Alias, j.f1PureName);
-
-            } else {
-                // don't consider this plan if one of j.t1 or j.t2
-                // isn't a table joined in prevBest (cross product)
-                return null;
-            }
-        }
-
-        // case where prevbest is left
-        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost);
-
-        LogicalJoinNode j2 = j.swapInnerOuter();
-        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost);
-        if (cost2 < cost1) {
-            boolean tmp;
-            j = j2;
-            cost1 = cost2;
-            tmp = rightPkey;
-            rightPkey = leftPkey;
-            leftPkey = tmp;
-        }
-        if (cost1 >= bestCostSoFar)
+            pc.addPlan(s, best, card, inner, g.swapped[k]);
+        }
+    }
+
+    /**
+     * Join plans a and b with an edge between them, with whichever of them
+     * is cheaper as the outer; the cost includes that of merging the tuples
+     * of the result
+     * 
+     * @return the joined plan, or null if no edge joins a and b
+     */
+    private Plan joinPlans(JoinGraph g, Plan a, Plan b, HashMap<String, TableStats> stats) {
+        int k = g.edgeJoining(a.tables, b.tables);
+        if (k < 0) {
             return null;
+        }
+        Plan outer = (a.tables & (1L << g.left[k])) != 0 ? a : b;
+        Plan inner = outer == a ? b : a;
+        double cost = estimateJoinCost(g.edges.get(k), outer.card, inner.card, outer.cost, inner.cost);
+        double swappedCost = estimateJoinCost(g.swapped[k], inner.card, outer.card, inner.cost, outer.cost);
+        int card = joinCardinality(g, k, outer.tables, inner.tables, outer.card, inner.card, stats);
+        long s = a.tables | b.tables;
+        double output = CostModel.getCostModel().outputCost(card);
+        if (cost <= swappedCost) {
+            return new Plan(s, outer, inner, g.edges.get(k), cost + output, card);
+        }
+        return new Plan(s, inner, outer, g.swapped[k], swappedCost + output, card);
+    }
 
-        CostCard cc = new CostCard();
+    //以edges[k]连接t1所在的outer和t2所在的inner的结果基数
+    private int joinCardinality(JoinGraph g, int k, long outer, long inner,
+            int card1, int card2, HashMap<String, TableStats> stats) {
+        //只有单个表的一边，连接属性是主键时才没有重复值
+        boolean pkey1 = Long.bitCount(outer) == 1 && g.leftPkey[k];
+        boolean pkey2 = Long.bitCount(inner) == 1 && g.rightPkey[k];
+        return estimateJoinCardinality(g.edges.get(k), card1, card2, pkey1, pkey2, stats);
+    }
 
-        cc.card = estimateJoinCardinality(j, t1card, t2card, leftPkey,
-                rightPkey, stats);
-        cc.cost = cost1;
-        cc.plan = (Vector<LogicalJoinNode>) prevBest.clone();
-        cc.plan.addElement(j); // prevbest is left -- add new join to end
-        return cc;
+    //从pc中取出集合s的最优计划
+    private Plan cachedPlan(PlanCache pc, Plan[] bases, long s) {
+        if (Long.bitCount(s) == 1) {
+            return bases[Long.numberOfTrailingZeros(s)];
+        }
+        long outer = pc.getOuter(s);
+        return new Plan(s, cachedPlan(pc, bases, outer), cachedPlan(pc, bases, s & ~outer),
+                pc.getJoin(s), pc.getCost(s), pc.getCard(s));
     }
 
     /**
-     * Return true if the specified table is in the list of joins, false
-     * otherwise
+     * Order the joins greedily, as in greedy operator ordering: starting
+     * from the base tables, repeatedly join the two plans, joined by an
+     * edge, whose join yields the fewest tuples.
+     * 
+     * @return a plan for each connected set of tables
      */
-    private boolean doesJoin(Vector<LogicalJoinNode> joinlist, String table) {
-        for (LogicalJoinNode j : joinlist) {
-            if (j.t1Alias.equals(table)
-                    || (j.t2Alias != null && j.t2Alias.equals(table)))
-                return true;
+    private Vector<Plan> greedyPlans(JoinGraph g, Plan[] bases, HashMap<String, TableStats> stats) {
+        Vector<Plan> plans = new Vector<Plan>(Arrays.asList(bases));
+        while (true) {
+            Plan best = null;
+            int bestI = -1, bestJ = -1;
+            for (int i = 0; i < plans.size(); i++) {
+                long n = g.neighborhood(plans.get(i).tables);
+                for (int j = i + 1; j < plans.size(); j++) {
+                    if ((n & plans.get(j).tables) == 0) {
+                        continue;
+                    }
+                    Plan joined = joinPlans(g, plans.get(i), plans.get(j), stats);
+                    if (best == null || joined.card < best.card
+                            || (joined.card == best.card && joined.cost < best.cost)) {
+                        best = joined;
+                        bestI = i;
+                        bestJ = j;
+                    }
+                }
+            }
+            if (best == null) {
+                return plans;
+            }
+            plans.set(bestI, best);
+            plans.remove(bestJ);
+        }
+    }
+
+    /**
+     * Improve a plan by simulated annealing until the deadline, in
+     * System.nanoTime(), or until ANNEAL_MOVES moves per table in a row
+     * find no better plan.  A move replaces a join (A B) C of three
+     * plans by A (B C) or B (A C), where the new inner join must be joined
+     * by an edge; each join of the new plan takes the cheaper outer.  A
+     * move that makes the plan costlier by a factor r is still taken with
+     * probability r^(-1/T), where the temperature T falls from 1 to 0 over
+     * the time allowed.
+     * 
+     * @return the cheapest plan seen
+     */
+    private Plan anneal(JoinGraph g, Plan plan, HashMap<String, TableStats> stats,
+            long start, long deadline) {
+        int joinCount = Long.bitCount(plan.tables) - 1;
+        if (joinCount < 2) {
+            return plan;
+        }
+        Random random = new Random(plan.tables);
+        Plan current = plan, best = plan;
+        int stale = 0;
+        long now;
+        while ((now = System.nanoTime()) < deadline && stale < ANNEAL_MOVES * (joinCount + 1)) {
+            stale++;
+            Plan next = move(g, current, new int[]{random.nextInt(joinCount)}, random, stats);
+            if (next == null) {
+                continue;
+            }
+            double temperature = (double) (deadline - now) / (deadline - start);
+            double delta = Math.log((next.cost + 1) / (current.cost + 1));
+            if (delta <= 0 || random.nextDouble() < Math.exp(-delta / temperature)) {
+                current = next;
+                if (current.cost < best.cost) {
+                    best = current;
+                    stale = 0;
+                }
+            }
+        }
+        return best;
+    }
+
+    //对plan中按先序第index[0]个连接做一次变换，返回新的计划；变换不可行时返回null
+    private Plan move(JoinGraph g, Plan plan, int[] index, Random random,
+            HashMap<String, TableStats> stats) {
+        if (plan.join == null) {
+            return null;
+        }
+        if (index[0]-- == 0) {
+            //选一个是连接的子计划(A B)，把A或B与另一个子计划C交换
+            Plan ab = random.nextBoolean() ? plan.outer : plan.inner;
+            if (ab.join == null) {
+                ab = ab == plan.outer ? plan.inner : plan.outer;
+                if (ab.join == null) {
+                    return null;
+                }
+            }
+            Plan c = ab == plan.outer ? plan.inner : plan.outer;
+            boolean keepOuter = random.nextBoolean();
+            Plan kept = keepOuter ? ab.outer : ab.inner;
+            Plan moved = keepOuter ? ab.inner : ab.outer;
+            Plan bc = joinPlans(g, moved, c, stats);
+            return bc == null ? null : joinPlans(g, kept, bc, stats);
+        }
+        Plan outer = move(g, plan.outer, index, random, stats);
+        if (outer != null) {
+            return joinPlans(g, outer, plan.inner, stats);
+        }
+        if (index[0] < 0) {
+            return null;
+        }
+        Plan inner = move(g, plan.inner, index, random, stats);
+        return inner == null ? null : joinPlans(g, plan.outer, inner, stats);
+    }
+
+    /**
+     * Append the joins of a plan to order: those of its outer and inner
+     * inputs, then the join of the two.  Edges between tables of the plan
+     * that are not in it, because some join already connects their tables,
+     * are appended after that join.
+     */
+    private void appendPlan(JoinGraph g, Plan plan, Vector<LogicalJoinNode> order, boolean[] used) {
+        if (plan.join == null) {
+            return;
+        }
+        appendPlan(g, plan.outer, order, used);
+        appendPlan(g, plan.inner, order, used);
+        order.add(plan.join);
+        for (int k = 0; k < g.edges.size(); k++) {
+            if (g.edges.get(k) == plan.join || g.swapped[k] == plan.join) {
+                used[k] = true;
+            }
+        }
+        for (int k = 0; k < g.edges.size(); k++) {
+            if (!used[k] && (plan.tables & (1L << g.left[k])) != 0
+                    && (plan.tables & (1L << g.right[k])) != 0) {
+                order.add(g.edges.get(k));
+                used[k] = true;
+            }
         }
-        return false;
     }
 
     /**
@@ -404,20 +850,6 @@ public class JoinOptimizer {
         return pkey1.equals(field);
     }
 
-    /**
-     * Return true if a primary key field is joined by one of the joins in
-     * joinlist
-     */
-    private boolean hasPkey(Vector<LogicalJoinNode> joinlist) {
-        for (LogicalJoinNode j : joinlist) {
-            if (isPkey(j.t1Alias, j.f1PureName)
-                    || (j.t2Alias != null && isPkey(j.t2Alias, j.f2PureName)))
-                return true;
-        }
-        return false;
-
-    }
-
     /**
      * Helper function to display a Swing window with a tree representation of
      * the specified list of joins. See {@link #orderJoins}, which may want to
@@ -425,18 +857,20 @@ public class JoinOptimizer {
      * 
      * @param js
      *            the join plan to visualize
-     * @param pc
-     *            the PlanCache accumulated whild building the optimal plan
+     * @param plans
+     *            the plans the joins were taken from
      * @param stats
      *            table statistics for base tables
      * @param selectivities
      *            the selectivities of the filters over each of the tables
      *            (where tables are indentified by their alias or name if no
      *            alias is given)
+     * @param g
+     *            the tables of the plans
      */
-    private void printJoins(Vector<LogicalJoinNode> js, PlanCache pc,
+    private void printJoins(Vector<LogicalJoinNode> js, Vector<Plan> plans,
             HashMap<String, TableStats> stats,
-            HashMap<String, Double> selectivities) {
+            HashMap<String, Double> selectivities, JoinGraph g) {
 
         JFrame f = new JFrame("Join Plan for " + p.getQuery());
 
@@ -449,73 +883,41 @@ public class JoinOptimizer {
         f.setSize(300, 500);
 
         HashMap<String, DefaultMutableTreeNode> m = new HashMap<String, DefaultMutableTreeNode>();
+        //每个表当前所在子树包含的表
+        HashMap<String, Long> masks = new HashMap<String, Long>();
+        for (int i = 0; i < g.tables.size(); i++) {
+            masks.put(g.tables.get(i), 1L << i);
+        }
 
-        // int numTabs = 0;
-
-        // int k;
         DefaultMutableTreeNode root = null, treetop = null;
-        HashSet<LogicalJoinNode> pathSoFar = new HashSet<LogicalJoinNode>();
-        boolean neither;
 
         System.out.println(js);
         for (LogicalJoinNode j : js) {
-            pathSoFar.add(j);
-            System.out.println("PATH SO FAR = " + pathSoFar);
-
-            String table1Name = Database.getCatalog().getTableName(
-                    this.p.getTableId(j.t1Alias));
-            String table2Name = Database.getCatalog().getTableName(
-                    this.p.getTableId(j.t2Alias));
-
-            // Double c = pc.getCost(pathSoFar);
-            neither = true;
+            long mask = masks.get(j.t1Alias);
+            if (j.t2Alias != null) {
+                mask |= masks.get(j.t2Alias);
+            }
+            System.out.println("TABLES SO FAR = " + Long.toBinaryString(mask));
 
+            Plan plan = null;
+            for (int i = 0; i < plans.size() && plan == null; i++) {
+                plan = findPlan(plans.get(i), mask);
+            }
             root = new DefaultMutableTreeNode("Join " + j + " (Cost ="
-                    + pc.getCost(pathSoFar) + ", card = "
-                    + pc.getCard(pathSoFar) + ")");
-            DefaultMutableTreeNode n = m.get(j.t1Alias);
-            if (n == null) { // never seen this table before
-                n = new DefaultMutableTreeNode(j.t1Alias
-                        + " (Cost = "
-                        + stats.get(table1Name).estimateScanCost()
-                        + ", card = "
-                        + stats.get(table1Name).estimateTableCardinality(
-                                selectivities.get(j.t1Alias)) + ")");
-                root.add(n);
-            } else {
-                // make left child root n
-                root.add(n);
-                neither = false;
-            }
-            m.put(j.t1Alias, root);
-
-            n = m.get(j.t2Alias);
-            if (n == null) { // never seen this table before
-
-                n = new DefaultMutableTreeNode(
-                        j.t2Alias == null ? "Subplan"
-                                : (j.t2Alias
-                                        + " (Cost = "
-                                        + stats.get(table2Name)
-                                                .estimateScanCost()
-                                        + ", card = "
-                                        + stats.get(table2Name)
-                                                .estimateTableCardinality(
-                                                        selectivities
-                                                                .get(j.t2Alias)) + ")"));
-                root.add(n);
-            } else {
-                // make right child root n
-                root.add(n);
-                neither = false;
-            }
-            m.put(j.t2Alias, root);
-
-            // unless this table doesn't join with other tables,
-            // all tables are accessed from root
-            if (!neither) {
-                for (String key : m.keySet()) {
-                    m.put(key, root);
+                    + (plan == null ? "?" : plan.cost) + ", card = "
+                    + (plan == null ? "?" : plan.card) + ")");
+            root.add(treeNode(m, j.t1Alias, stats, selectivities));
+            if (j.t2Alias == null) {
+                root.add(new DefaultMutableTreeNode("Subplan"));
+            } else if (m.get(j.t2Alias) != m.get(j.t1Alias) || m.get(j.t2Alias) == null) {
+                root.add(treeNode(m, j.t2Alias, stats, selectivities));
+            }
+
+            // all tables of the two inputs are now accessed from root
+            for (int i = 0; i < g.tables.size(); i++) {
+                if ((mask & (1L << i)) != 0) {
+                    m.put(g.tables.get(i), root);
+                    masks.put(g.tables.get(i), mask);
                 }
             }
 
@@ -550,4 +952,31 @@ public class JoinOptimizer {
 
     }
 
+    //plan中连接tables中所有表的子计划
+    private static Plan findPlan(Plan plan, long tables) {
+        if (plan == null || (plan.tables & tables) != tables) {
+            return null;
+        }
+        if (plan.tables == tables) {
+            return plan;
+        }
+        Plan found = findPlan(plan.outer, tables);
+        return found != null ? found : findPlan(plan.inner, tables);
+    }
+
+    //表所在子树的根；还没有参与连接的表新建一个叶子
+    private DefaultMutableTreeNode treeNode(HashMap<String, DefaultMutableTreeNode> m,
+            String alias, HashMap<String, TableStats> stats,
+            HashMap<String, Double> selectivities) {
+        DefaultMutableTreeNode n = m.get(alias);
+        if (n != null) {
+            return n;
+        }
+        TableStats s = stats.get(Database.getCatalog().getTableName(
+                this.p.getTableId(alias)));
+        return new DefaultMutableTreeNode(alias + " (Cost = "
+                + s.estimateScanCost() + ", card = "
+                + s.estimateTableCardinality(selectivities.get(alias)) + ")");
+    }
+
 }
@@ -4,6 +4,8 @@ import java.util.Arrays;
 import java.util.Map;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 public class LockManager {
@@ -159,7 +161,7 @@ public class LockManager {
             //去掉T1，因为虽然上图没画出这种情况，但T1可能同时也在其他Page上有读锁，这会影响判断结果
             if (!holderTid.equals(tid)) {
                 //判断holderTid是否直接或间接在等待pids中的某元素
-                if (isWaitingResources(holderTid, pids, tid)) {
+                if (isWaitingResources(holderTid, pids, tid, new HashSet<>())) {
                     return true;
                 }
             }
@@ -168,7 +170,12 @@ public class LockManager {
     }
 
     //判断tid是否直接或间接地在等待pids中的某个资源
-    private synchronized boolean isWaitingResources(TransactionId tid, ArrayList<PageId> pids, TransactionId toRemove) {
+    //visited记录已检查过的事务，其他事务之间的等待环不会导致无限递归
+    private synchronized boolean isWaitingResources(TransactionId tid, ArrayList<PageId> pids, TransactionId toRemove,
+                                                    Set<TransactionId> visited) {
+        if (!visited.add(tid)) {
+            return false;
+        }
         PageId waitingPage = waitingInfo.get(tid);//得到当前tid在等待的page
         if (waitingPage == null) {//没有等待列表时返回false
             return false;
@@ -187,7 +194,7 @@ public class LockManager {
         for (Lock lock : holders) {
             TransactionId holderTid = lock.tid;
             if (!holderTid.equals(toRemove)) {//去掉toRemove，在toRemove刚好拥有waitingResource的读锁时就需要
-                boolean isWaiting = isWaitingResources(holderTid, pids, toRemove);
+                boolean isWaiting = isWaitingResources(holderTid, pids, toRemove, visited);
                 if (isWaiting) return true;
             }
         }
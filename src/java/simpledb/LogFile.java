@@ -2,7 +2,11 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.*;
 import java.lang.reflect.*;
 
 /**
@@ -51,8 +55,8 @@ transaction id.
 <li> Each log record ends with a long integer file offset representing
 the position in the log file where the record began.
 
-<li> There are five record types: ABORT, COMMIT, UPDATE, BEGIN, and
-CHECKPOINT
+<li> There are seven record types: ABORT, COMMIT, UPDATE, DELTA,
+BEGIN, CHECKPOINT and CLR
 
 <li> ABORT, COMMIT, and BEGIN records contain no additional data
 
@@ -67,14 +71,91 @@ of the record is an integer count of the number of transactions, as well
 as a long integer transaction id and a long integer first record offset
 for each active transaction.
 
+<li> DELTA records describe a page update that changed only a few
+bytes of the page, such as inserting, deleting or updating a tuple in a
+HeapPage or BTreeLeafPage.  They consist of the page class name and
+page id, followed by the changed byte ranges, each with its offset,
+length, before bytes and after bytes.  Like a full image, setting the
+bytes of a range is idempotent, so redo can apply a DELTA record to a
+page no matter whether the page already contains the change.  Each
+UPDATE or DELTA record describes the change since the previous record
+for the same page (the page's before image is reset whenever it is
+logged), so replaying the records of a page in order always
+reconstructs it.  logWrite chooses full images instead when the change
+covers much of the page, or when the before image is all zeroes (a page
+that was just created or wiped on disk without being logged).
+
+<li> CLR (compensation log record) records are written when an UPDATE
+or DELTA is undone, by rollback or by recovery.  They consist of the
+page class name and page id, the byte ranges that were restored with
+their restored contents (the before bytes of the undone record), and
+the offset of the undone record; everything the transaction logged
+from that offset on has already been undone.
+
 </ul>
 
+<p> <u> Recovery: </u>
+<p>
+
+BufferPool follows a STEAL/NO-FORCE policy: pages of uncommitted
+transactions may be written to disk (after their UPDATE records are
+durable), and committing only logs the transaction's pages instead of
+writing them.  recover() therefore repeats history and then rolls back
+the losers, in the style of ARIES:
+
+<ul>
+<li> Analysis: starting at the last checkpoint (which records the active
+transactions and the dirty pages), find the transactions that have a BEGIN record but no COMMIT or
+ABORT record.
+<li> Redo: install the after bytes of every UPDATE, DELTA and CLR
+record, from the checkpoint on.  Pages are assembled in memory and
+written once at the end.  The log is read by one thread, but the
+records are hash-partitioned by page id across worker threads; each
+partition is applied in log order by a single thread, so the records
+of a page are never reordered.
+<li> Undo: scan the log backwards, logging a CLR for every UPDATE and
+DELTA of a loser transaction, then write an ABORT record for each
+loser.  Strict two-phase locking means no two losers changed the same
+page, so the before bytes of each loser's records are restored by a
+separate task, in parallel.
+</ul>
+
+rollback() uses the same backward scan for a single transaction.
+
+<p> <u> Log buffer and LSNs: </u>
+<p>
+
+Records are not written to the file one field at a time.  They are
+assembled in an in-memory log buffer and reach the file in large
+sequential writes, either when the buffer fills up or when the
+log-flush thread (below) drains it.  Every record is identified by its
+log sequence number (LSN), which is its offset in the log file plus a
+base that grows whenever logTruncate() cuts off the head of the file,
+so LSNs only ever increase for the lifetime of a LogFile.  Pages
+remember the LSN of the last UPDATE record written for them (see
+{@link Page#getLSN}); before a dirty page is written, BufferPool only
+has to make sure the log is durable up to that LSN ({@link #flushTo}),
+which is usually already the case.
+
+<p> <u> Group commit: </u>
+<p>
+
+Committing transactions do not force the log themselves.  logCommit
+appends the COMMIT record and then waits until the durable watermark
+(the LSN up to which the log is known to be on disk) passes the end of
+that record.  A single log-flush thread writes out the log buffer and
+performs the fsync on behalf of every transaction waiting at that
+time, so N concurrent commits cost one write and one fsync instead of
+N.  The flusher can be told to wait up to {@link #setGroupCommitDelay}
+microseconds before each fsync so that more committers can join the
+batch.
+
 */
 
 public class LogFile {
 
     final File logFile;
-    private RandomAccessFile raf;
+    private volatile RandomAccessFile raf;
     Boolean recoveryUndecided; // no call to recover() and no append to log
 
     static final int ABORT_RECORD = 1;
@@ -82,17 +163,58 @@ public class LogFile {
     static final int UPDATE_RECORD = 3;
     static final int BEGIN_RECORD = 4;
     static final int CHECKPOINT_RECORD = 5;
+    static final int CLR_RECORD = 6;
+    static final int DELTA_RECORD = 7;
     static final long NO_CHECKPOINT_ID = -1;
 
     final static int INT_SIZE = 4;
     final static int LONG_SIZE = 8;
 
-    long currentOffset = -1;//protected by this
+    /** Changed byte ranges closer together than this are logged as one range */
+    static final int DELTA_MERGE_GAP = 2 * INT_SIZE;
+
+    /** Number of records handed to a redo partition at a time */
+    static final int REDO_BATCH_SIZE = 256;
+    /** Redo batches a partition may have queued before the reader waits */
+    static final int REDO_MAX_PENDING = 8;
+
+    /** Initial size of the in-memory log buffer; it grows to fit a single larger record */
+    static final int LOG_BUFFER_SIZE = 1 << 18;
+
+    long currentOffset = -1;// end of the log, including records still in the buffer //protected by this
+    long writtenOffset = -1; // log bytes before this offset have been written to raf //protected by this
+    long lsnBase = 0; // LSN of file offset 0; grows on truncation so LSNs never go backwards //protected by this
+    private ByteBuffer logBuffer = ByteBuffer.allocate(LOG_BUFFER_SIZE); //protected by this
 //    int pageSize;
     int totalRecords = 0; // for PatchTest //protected by this
+    int totalForces = 0; // fsyncs issued by the log-flush thread, for tests //protected by this
 
     HashMap<Long,Long> tidToFirstLogRecord = new HashMap<Long,Long>();
 
+    /** Default upper bound on how long the flusher waits for more committers before an fsync */
+    public static final long DEFAULT_GROUP_COMMIT_DELAY_MICROS = 0;
+    /** The flusher thread exits after this long without work; it is restarted on demand */
+    static final long FLUSHER_IDLE_MILLIS = 1000;
+
+    long durableLSN = 0; // log records before this LSN are on disk //protected by this
+
+    /** Default amount of log written between automatic checkpoints */
+    public static final long DEFAULT_CHECKPOINT_INTERVAL_BYTES = 16L << 20;
+
+    long lastCheckpointLSN = 0; //protected by this
+    private boolean checkpointRequested = false; //protected by this
+    private volatile long checkpointIntervalBytes = DEFAULT_CHECKPOINT_INTERVAL_BYTES;
+    private volatile boolean deltaRecords = true;
+    private volatile int recoveryThreads = Runtime.getRuntime().availableProcessors();
+    // serializes checkpoints; taken before the BufferPool and LogFile monitors
+    private final Object checkpointLock = new Object();
+    private boolean flushRequested = false; //protected by this
+    private IOException flushError = null; //protected by this
+    private LogFlusher flusher = null; //protected by this
+    private volatile long groupCommitDelayMicros = DEFAULT_GROUP_COMMIT_DELAY_MICROS;
+    // held while fsync'ing raf, so that raf cannot be closed/replaced underneath the flusher
+    private final Object forceLock = new Object();
+
     /** Constructor.
         Initialize and back the log file with the specified file.
         We're not sure yet whether the caller is creating a brand new DB,
@@ -132,12 +254,69 @@ public class LogFile {
             raf.writeLong(NO_CHECKPOINT_ID);
             raf.seek(raf.length());
             currentOffset = raf.getFilePointer();
+            writtenOffset = currentOffset;
+            logBuffer.clear();
         }
     }
 
+    /** Reserve room for a record of the specified size at the end of the
+        log buffer, writing the buffer out first if the record does not fit.
+        @return the log buffer, positioned at the start of the new record
+    */
+    private ByteBuffer reserve(int size) throws IOException {
+        if (logBuffer.remaining() < size) {
+            writeBuffer();
+            if (logBuffer.capacity() < size)
+                logBuffer = ByteBuffer.allocate(size);
+        }
+        return logBuffer;
+    }
+
+    /** Write the contents of the log buffer to the end of the log file in
+        one sequential write, without forcing it to disk.  Anything that
+        reads the log file back must call this first. */
+    void writeBuffer() throws IOException {
+        if (logBuffer.position() == 0)
+            return;
+        logBuffer.flip();
+        FileChannel ch = raf.getChannel();
+        while (logBuffer.hasRemaining())
+            writtenOffset += ch.write(logBuffer, writtenOffset);
+        logBuffer.clear();
+    }
+
+    /** Append a record that carries no data besides its type and tid
+        (ABORT, COMMIT and BEGIN records).
+        @return the LSN of the new record
+    */
+    private long appendRecord(int type, long tid) throws IOException {
+        int size = INT_SIZE + 2 * LONG_SIZE;
+        ByteBuffer buf = reserve(size);
+        long start = currentOffset;
+        buf.putInt(type);
+        buf.putLong(tid);
+        buf.putLong(start);
+        currentOffset += size;
+        return lsnBase + start;
+    }
+
+    /** @return the LSN of the end of the log (the LSN the next record will get) */
+    public synchronized long getEndLSN() {
+        return lsnBase + currentOffset;
+    }
+
+    /** @return the LSN up to which the log is known to be on disk */
+    public synchronized long getDurableLSN() {
+        return durableLSN;
+    }
+
     public synchronized int getTotalRecords() {
         return totalRecords;
     }
+
+    public synchronized int getTotalForces() {
+        return totalForces;
+    }
     
     /** Write an abort record to the log for the specified tid, force
         the log to disk, and perform a rollback
@@ -158,18 +337,23 @@ public class LogFile {
                 // live transactions (needs tidToFirstLogRecord)
                 rollback(tid);
 
-                raf.writeInt(ABORT_RECORD);
-                raf.writeLong(tid.getId());
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
+                appendRecord(ABORT_RECORD, tid.getId());
                 force();
                 tidToFirstLogRecord.remove(tid.getId());
             }
         }
     }
 
+    /** @return true if the specified transaction has logged a BEGIN and
+        has not yet committed or aborted */
+    public synchronized boolean isActive(TransactionId tid) {
+        return tidToFirstLogRecord.containsKey(tid.getId());
+    }
+
     /** Write a commit record to disk for the specified tid,
-        and force the log to disk.
+        and wait until the log is on disk up to and including that
+        record.  The fsync itself is done by the log-flush thread, once
+        for every transaction committing at the same time.
 
         @param tid The committing transaction.
     */
@@ -178,26 +362,33 @@ public class LogFile {
         Debug.log("COMMIT " + tid.getId());
         //should we verify that this is a live transaction?
 
-        raf.writeInt(COMMIT_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
-        force();
+        appendRecord(COMMIT_RECORD, tid.getId());
         tidToFirstLogRecord.remove(tid.getId());
+        waitUntilDurable(lsnBase + currentOffset);
     }
 
-    /** Write an UPDATE record to disk for the specified tid and page
-        (with provided         before and after images.)
+    /** Write an UPDATE record to the log for the specified tid and page
+        (with provided         before and after images.)  If only a small
+        part of the page changed, a DELTA record with just the changed
+        byte ranges is written instead.  The record is
+        only buffered; use {@link #flushTo} with the returned LSN before
+        writing the page itself.
         @param tid The transaction performing the write
         @param before The before image of the page
         @param after The after image of the page
+        @return the LSN of the new record
 
         @see simpledb.Page#getBeforeImage
     */
-    public  synchronized void logWrite(TransactionId tid, Page before,
+    public  synchronized long logWrite(TransactionId tid, Page before,
                                        Page after)
         throws IOException  {
-        Debug.log("WRITE, offset = " + raf.getFilePointer());
+        Debug.log("WRITE, offset = " + currentOffset);
+        if (!tidToFirstLogRecord.containsKey(tid.getId())) {
+            // a transaction driven straight through the BufferPool never
+            // logged a BEGIN; give it one so it can be rolled back
+            logXactionBegin(tid);
+        }
         preAppend();
         /* update record conists of
 
@@ -207,15 +398,255 @@ public class LogFile {
            after page data
            start offset
         */
-        raf.writeInt(UPDATE_RECORD);
-        raf.writeLong(tid.getId());
-
-        writePageData(raf,before);
-        writePageData(raf,after);
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
+        byte[] beforeData = before.getPageData();
+        byte[] afterData = after.getPageData();
+        int[] ranges = deltaRecords ? diffRanges(beforeData, afterData) : null;
+        if (ranges != null) {
+            return logDelta(tid.getId(), after, beforeData, afterData, ranges);
+        }
+        int size = INT_SIZE + LONG_SIZE + pageDataSize(before, beforeData)
+            + pageDataSize(after, afterData) + LONG_SIZE;
+        ByteBuffer buf = reserve(size);
+        long start = currentOffset;
+        buf.putInt(UPDATE_RECORD);
+        buf.putLong(tid.getId());
+
+        putPageData(buf, before, beforeData);
+        putPageData(buf, after, afterData);
+        buf.putLong(start);
+        currentOffset += size;
 
         Debug.log("WRITE OFFSET = " + currentOffset);
+        return lsnBase + start;
+    }
+
+    /** Find the byte ranges in which a page changed, merging ranges that
+        are fewer than DELTA_MERGE_GAP bytes apart.
+        @return {start, end, start, end, ...} with exclusive ends, or null
+        if the change should be logged with full page images instead
+    */
+    static int[] diffRanges(byte[] before, byte[] after) {
+        if (before.length != after.length) {
+            return null;
+        }
+        boolean zero = true;
+        for (byte b : before) {
+            if (b != 0) {
+                zero = false;
+                break;
+            }
+        }
+        if (zero) {
+            return null; // see the DELTA record description
+        }
+
+        int[] ranges = new int[8];
+        int n = 0;
+        int deltaBytes = 0;
+        int i = 0;
+        while (i < after.length) {
+            if (before[i] == after[i]) {
+                i++;
+                continue;
+            }
+            //找到一段变化的字节，相距不足DELTA_MERGE_GAP的变化合并为同一段
+            int start = i;
+            int end = ++i;
+            while (i < after.length && i < end + DELTA_MERGE_GAP) {
+                if (before[i] != after[i])
+                    end = i + 1;
+                i++;
+            }
+            deltaBytes += 2 * INT_SIZE + 2 * (end - start);
+            if (deltaBytes > after.length / 2) {
+                return null; // a structural change; full images are as small
+            }
+            if (n == ranges.length)
+                ranges = Arrays.copyOf(ranges, n * 2);
+            ranges[n++] = start;
+            ranges[n++] = end;
+        }
+        return Arrays.copyOf(ranges, n);
+    }
+
+    /** Write a DELTA record with the specified ranges of before and after
+        @return the LSN of the new record
+    */
+    private long logDelta(long tid, Page page, byte[] before, byte[] after, int[] ranges)
+        throws IOException {
+        /* delta record consists of
+
+           record type
+           transaction id
+           page class name and page id (see putPageHeader)
+           number of ranges
+           for each range: offset, length, before bytes, after bytes
+           start offset
+        */
+        String pageClass = page.getClass().getName();
+        int size = INT_SIZE + LONG_SIZE + pageHeaderSize(pageClass, page.getId()) + INT_SIZE + LONG_SIZE;
+        for (int i = 0; i < ranges.length; i += 2) {
+            size += 2 * INT_SIZE + 2 * (ranges[i + 1] - ranges[i]);
+        }
+        ByteBuffer buf = reserve(size);
+        long start = currentOffset;
+        buf.putInt(DELTA_RECORD);
+        buf.putLong(tid);
+        putPageHeader(buf, pageClass, page.getId());
+        buf.putInt(ranges.length / 2);
+        for (int i = 0; i < ranges.length; i += 2) {
+            int len = ranges[i + 1] - ranges[i];
+            buf.putInt(ranges[i]);
+            buf.putInt(len);
+            buf.put(before, ranges[i], len);
+            buf.put(after, ranges[i], len);
+        }
+        buf.putLong(start);
+        currentOffset += size;
+        return lsnBase + start;
+    }
+
+    /** @return the number of bytes putPageData will use for page p with the given data */
+    private int pageDataSize(Page p, byte[] pageData) {
+        return pageHeaderSize(p.getClass().getName(), p.getId())
+            + INT_SIZE + pageData.length;
+    }
+
+    /** @return the number of bytes putPageHeader will use */
+    private int pageHeaderSize(String pageClass, PageId pid) {
+        return 2 + utfLength(pageClass) + pageIdSize(pid);
+    }
+
+    private static int utfLength(String s) {
+        return s.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    /** Same format as writePageData, but into the log buffer. Class names
+        are written the way RandomAccessFile.writeUTF does for ASCII
+        names, so readPageData can read them back with readUTF. */
+    private void putPageData(ByteBuffer buf, Page p, byte[] pageData) {
+        putPageHeader(buf, p.getClass().getName(), p.getId());
+        buf.putInt(pageData.length);
+        buf.put(pageData);
+    }
+
+    /** Write the page class name and page id that start page data */
+    private void putPageHeader(ByteBuffer buf, String pageClass, PageId pid) {
+        byte[] pageClassName = pageClass.getBytes(StandardCharsets.UTF_8);
+        buf.putShort((short) pageClassName.length);
+        buf.put(pageClassName);
+        putPageId(buf, pid);
+    }
+
+    /** @return the number of bytes putPageId will use for pid */
+    private int pageIdSize(PageId pid) {
+        return 2 + utfLength(pid.getClass().getName())
+            + INT_SIZE + INT_SIZE * pid.serialize().length;
+    }
+
+    /** Write a page id the way putPageData does, without the page class */
+    private void putPageId(ByteBuffer buf, PageId pid) {
+        byte[] idClassName = pid.getClass().getName().getBytes(StandardCharsets.UTF_8);
+        int pageInfo[] = pid.serialize();
+        buf.putShort((short) idClassName.length);
+        buf.put(idClassName);
+        buf.putInt(pageInfo.length);
+        for (int i = 0; i < pageInfo.length; i++) {
+            buf.putInt(pageInfo[i]);
+        }
+    }
+
+    /** Read a page id written by putPageId */
+    PageId readPageId(DataInput in) throws IOException {
+        return readPageId(in, in.readUTF());
+    }
+
+    private PageId readPageId(DataInput in, String idClassName) throws IOException {
+        try {
+            Class<?> idClass = Class.forName(idClassName);
+            Constructor<?>[] idConsts = idClass.getDeclaredConstructors();
+            int numIdArgs = in.readInt();
+            Object idArgs[] = new Object[numIdArgs];
+            for (int i = 0; i<numIdArgs;i++) {
+                idArgs[i] = in.readInt();
+            }
+            return (PageId)idConsts[0].newInstance(idArgs);
+        } catch (ReflectiveOperationException e) {
+            throw new IOException("cannot read page id of class " + idClassName, e);
+        }
+    }
+
+    /** Copy a page id written by putPageId without interpreting it */
+    private static void copyPageId(DataInput in, DataOutput out) throws IOException {
+        out.writeUTF(in.readUTF());
+        int numIdArgs = in.readInt();
+        out.writeInt(numIdArgs);
+        for (int i = 0; i < numIdArgs; i++) {
+            out.writeInt(in.readInt());
+        }
+    }
+
+    /** Copy page data written by writePageData without building the page */
+    private static void copyPageData(DataInput in, DataOutput out) throws IOException {
+        out.writeUTF(in.readUTF());
+        copyPageId(in, out);
+        byte[] pageData = new byte[in.readInt()];
+        in.readFully(pageData);
+        out.writeInt(pageData.length);
+        out.write(pageData);
+    }
+
+    /** Copy the ranges of a DELTA (images = 2) or CLR (images = 1) record */
+    private static void copyRanges(DataInput in, DataOutput out, int images) throws IOException {
+        int numRanges = in.readInt();
+        out.writeInt(numRanges);
+        while (numRanges-- > 0) {
+            out.writeInt(in.readInt());
+            int len = in.readInt();
+            out.writeInt(len);
+            byte[] bytes = new byte[images * len];
+            in.readFully(bytes);
+            out.write(bytes);
+        }
+    }
+
+    /** Write a CLR record for the specified transaction, recording that
+        an UPDATE or DELTA record was undone by restoring its before bytes.
+        @param tid The transaction being rolled back
+        @param rec The undone record
+        @return the LSN of the new record
+    */
+    private long logClr(long tid, LogRecord rec) throws IOException {
+        /* clr record consists of
+
+           record type
+           transaction id
+           page class name and page id (see putPageHeader)
+           number of ranges
+           for each range: offset, length, restored bytes
+           offset of the undone record
+           start offset
+        */
+        int size = INT_SIZE + LONG_SIZE + pageHeaderSize(rec.pageClass, rec.pid)
+            + INT_SIZE + 2 * LONG_SIZE;
+        for (byte[] restored : rec.before) {
+            size += 2 * INT_SIZE + restored.length;
+        }
+        ByteBuffer buf = reserve(size);
+        long start = currentOffset;
+        buf.putInt(CLR_RECORD);
+        buf.putLong(tid);
+        putPageHeader(buf, rec.pageClass, rec.pid);
+        buf.putInt(rec.before.length);
+        for (int i = 0; i < rec.before.length; i++) {
+            buf.putInt(rec.ranges[2 * i]);
+            buf.putInt(rec.before[i].length);
+            buf.put(rec.before[i]);
+        }
+        buf.putLong(rec.offset);
+        buf.putLong(start);
+        currentOffset += size;
+        return lsnBase + start;
     }
 
     void writePageData(RandomAccessFile raf, Page p) throws IOException{
@@ -247,35 +678,32 @@ public class LogFile {
     }
 
     Page readPageData(RandomAccessFile raf) throws IOException {
-        PageId pid;
-        Page newPage = null;
-
         String pageClassName = raf.readUTF();
-        String idClassName = raf.readUTF();
+        PageId pid = readPageId(raf);
+        int pageSize = raf.readInt();
+        byte[] pageData = new byte[pageSize];
+        raf.readFully(pageData); //read before image
+        return makePage(pageClassName, pid, pageData);
+    }
 
+    /** Build a page of the named class from its serialized contents */
+    Page makePage(String pageClassName, PageId pid, byte[] pageData) throws IOException {
+        Page newPage = null;
         try {
-            Class<?> idClass = Class.forName(idClassName);
             Class<?> pageClass = Class.forName(pageClassName);
-
-            Constructor<?>[] idConsts = idClass.getDeclaredConstructors();
-            int numIdArgs = raf.readInt();
-            Object idArgs[] = new Object[numIdArgs];
-            for (int i = 0; i<numIdArgs;i++) {
-                idArgs[i] = new Integer(raf.readInt());
-            }
-            pid = (PageId)idConsts[0].newInstance(idArgs);
-
             Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
-            int pageSize = raf.readInt();
 
-            byte[] pageData = new byte[pageSize];
-            raf.read(pageData); //read before image
-
-            Object[] pageArgs = new Object[2];
-            pageArgs[0] = pid;
-            pageArgs[1] = pageData;
+            // B+ tree leaf and internal pages also need the key field
+            Constructor<?> pageConst = pageConsts[0];
+            Object[] pageArgs;
+            if (pageConst.getParameterCount() == 3) {
+                BTreeFile bf = (BTreeFile) Database.getCatalog().getDatabaseFile(pid.getTableId());
+                pageArgs = new Object[]{pid, pageData, bf.keyField()};
+            } else {
+                pageArgs = new Object[]{pid, pageData};
+            }
 
-            newPage = (Page)pageConsts[0].newInstance(pageArgs);
+            newPage = (Page)pageConst.newInstance(pageArgs);
 
             //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
         } catch (ClassNotFoundException e){
@@ -295,6 +723,314 @@ public class LogFile {
 
     }
 
+    /** A log record read back by {@link #readRecord}.  UPDATE, DELTA and
+        CLR records are all described as byte ranges of one page; a full
+        image is a single range covering the page. */
+    static class LogRecord {
+        int type;
+        long tid;
+        long offset;        // where the record starts
+        String pageClass;   // UPDATE, DELTA, CLR: the class of the page
+        PageId pid;         // UPDATE, DELTA, CLR: the page
+        int[] ranges;       // UPDATE, DELTA, CLR: {start, end, ...}
+        byte[][] before;    // UPDATE, DELTA: contents of each range before the change
+        byte[][] after;     // UPDATE, DELTA: after the change; CLR: restored contents
+        long undoNext;      // CLR: offset of the undone record
+        Map<Long, Long> active; // CHECKPOINT: tid -> first record offset
+        Map<PageId, Long> dirty; // CHECKPOINT: page -> recLSN as a file offset
+    }
+
+    /** Read the log record starting at the current position of raf,
+        leaving raf positioned at the next record.
+        @throws EOFException if the record is incomplete (end of log)
+    */
+    LogRecord readRecord(RandomAccessFile raf) throws IOException {
+        return readRecord(raf, raf.getFilePointer());
+    }
+
+    /** Read the log record that starts at the specified offset from in,
+        which must be positioned there. */
+    LogRecord readRecord(DataInput raf, long offset) throws IOException {
+        LogRecord rec = new LogRecord();
+        rec.offset = offset;
+        rec.type = raf.readInt();
+        rec.tid = raf.readLong();
+        switch (rec.type) {
+        case UPDATE_RECORD:
+            rec.pageClass = raf.readUTF();
+            rec.pid = readPageId(raf);
+            byte[] beforeData = new byte[raf.readInt()];
+            raf.readFully(beforeData);
+            raf.readUTF();
+            readPageId(raf);
+            byte[] afterData = new byte[raf.readInt()];
+            raf.readFully(afterData);
+            rec.ranges = new int[]{0, afterData.length};
+            rec.before = new byte[][]{beforeData};
+            rec.after = new byte[][]{afterData};
+            break;
+        case DELTA_RECORD:
+        case CLR_RECORD:
+            rec.pageClass = raf.readUTF();
+            rec.pid = readPageId(raf);
+            int numRanges = raf.readInt();
+            rec.ranges = new int[2 * numRanges];
+            rec.before = new byte[numRanges][];
+            rec.after = new byte[numRanges][];
+            for (int i = 0; i < numRanges; i++) {
+                int start = raf.readInt();
+                int len = raf.readInt();
+                rec.ranges[2 * i] = start;
+                rec.ranges[2 * i + 1] = start + len;
+                if (rec.type == DELTA_RECORD) {
+                    rec.before[i] = new byte[len];
+                    raf.readFully(rec.before[i]);
+                }
+                rec.after[i] = new byte[len];
+                raf.readFully(rec.after[i]);
+            }
+            if (rec.type == CLR_RECORD)
+                rec.undoNext = raf.readLong();
+            break;
+        case CHECKPOINT_RECORD:
+            int numXactions = raf.readInt();
+            rec.active = new HashMap<Long, Long>();
+            while (numXactions-- > 0) {
+                long xid = raf.readLong();
+                rec.active.put(xid, raf.readLong());
+            }
+            int numDirty = raf.readInt();
+            rec.dirty = new HashMap<PageId, Long>();
+            while (numDirty-- > 0) {
+                PageId pid = readPageId(raf);
+                rec.dirty.put(pid, raf.readLong());
+            }
+            break;
+        case ABORT_RECORD:
+        case COMMIT_RECORD:
+        case BEGIN_RECORD:
+            break;
+        default:
+            throw new IOException("unknown log record type " + rec.type + " at offset " + rec.offset);
+        }
+        if (raf.readLong() != rec.offset)
+            throw new IOException("corrupt log record at offset " + rec.offset);
+        return rec;
+    }
+
+    /** Tracks the log offset of a sequential, buffered read of the log.
+        Recovery reads the log forward through this instead of raf,
+        which would make a system call for every field. */
+    private static class CountingInputStream extends FilterInputStream {
+        long position;
+
+        CountingInputStream(File f, long position) throws IOException {
+            super(null);
+            FileInputStream fin = new FileInputStream(f);
+            fin.getChannel().position(position);
+            this.in = new BufferedInputStream(fin, 1 << 16);
+            this.position = position;
+        }
+
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0)
+                position++;
+            return b;
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0)
+                position += n;
+            return n;
+        }
+
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            position += skipped;
+            return skipped;
+        }
+    }
+
+    /** The contents of a page being redone or undone */
+    private static class PageImage {
+        final String pageClass;
+        final byte[] data;
+
+        PageImage(String pageClass, byte[] data) {
+            this.pageClass = pageClass;
+            this.data = data;
+        }
+    }
+
+    /** Copy the bytes of each range into a page image */
+    private static void applyRanges(byte[] page, int[] ranges, byte[][] contents) {
+        for (int i = 0; i < contents.length; i++) {
+            System.arraycopy(contents[i], 0, page, ranges[2 * i], contents[i].length);
+        }
+    }
+
+    /** Return the image of the page a record applies to, loading it the
+        first time: a full UPDATE image needs no base, otherwise the page
+        is taken from the buffer pool as of its last log record (if
+        fromPool is set and it is cached) or from disk. */
+    private PageImage imageFor(Map<PageId, PageImage> images, LogRecord rec, boolean fromPool) {
+        PageImage image = images.get(rec.pid);
+        if (image == null) {
+            byte[] data = fromPool ? Database.getBufferPool().getLoggedPageData(rec.pid) : null;
+            if (data == null) {
+                if (rec.type == UPDATE_RECORD) {
+                    data = new byte[rec.after[0].length];
+                } else {
+                    DbFile file = Database.getCatalog().getDatabaseFile(rec.pid.getTableId());
+                    data = file.readPage(rec.pid).getPageData();
+                }
+            }
+            image = new PageImage(rec.pageClass, data);
+            images.put(rec.pid, image);
+        }
+        return image;
+    }
+
+    /** Write page images to disk and drop any cached copies of them
+        @param workers if not null, the pages are written by these threads
+    */
+    private void writeImages(Map<PageId, PageImage> images, ExecutorService workers)
+        throws IOException {
+        int parts = workers == null ? 1 : recoveryThreads;
+        List<List<Map.Entry<PageId, PageImage>>> partitions = new ArrayList<>();
+        for (int i = 0; i < parts; i++) {
+            partitions.add(new ArrayList<Map.Entry<PageId, PageImage>>());
+        }
+        for (Map.Entry<PageId, PageImage> e : images.entrySet()) {
+            partitions.get(Math.floorMod(e.getKey().hashCode(), parts)).add(e);
+        }
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (List<Map.Entry<PageId, PageImage>> partition : partitions) {
+            tasks.add(() -> {
+                for (Map.Entry<PageId, PageImage> e : partition) {
+                    PageId pid = e.getKey();
+                    Page p = makePage(e.getValue().pageClass, pid, e.getValue().data);
+                    Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(p);
+                }
+                return null;
+            });
+        }
+        runAll(workers, tasks);
+        BufferPool pool = Database.getBufferPool();
+        for (PageId pid : images.keySet()) {
+            pool.discardPage(pid);
+        }
+    }
+
+    /** Run tasks on workers, or on this thread if workers is null, and
+        wait for all of them; the first failure is rethrown. */
+    private static void runAll(ExecutorService workers, List<Callable<Void>> tasks)
+        throws IOException {
+        if (workers == null) {
+            for (Callable<Void> task : tasks) {
+                try {
+                    task.call();
+                } catch (IOException | RuntimeException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new IOException(e);
+                }
+            }
+            return;
+        }
+        List<Future<Void>> futures;
+        try {
+            futures = workers.invokeAll(tasks);
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("recovery interrupted");
+        }
+        for (Future<Void> f : futures) {
+            await(f);
+        }
+    }
+
+    /** Wait for a recovery task, rethrowing its failure */
+    private static void await(Future<?> f) throws IOException {
+        try {
+            f.get();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("recovery interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    /** Applies redo records on worker threads.  Records are partitioned
+        by the hash of their page id, and each partition has a single
+        thread that applies its batches in the order they were added. */
+    private class ParallelRedo {
+        private final Map<PageId, PageImage> images;
+        private final ExecutorService[] partitions;
+        private final List<List<LogRecord>> batches = new ArrayList<List<LogRecord>>();
+        private final List<Deque<Future<?>>> pending = new ArrayList<Deque<Future<?>>>();
+
+        ParallelRedo(int threads, Map<PageId, PageImage> images) {
+            this.images = images;
+            partitions = new ExecutorService[threads];
+            for (int i = 0; i < threads; i++) {
+                partitions[i] = Executors.newSingleThreadExecutor();
+                batches.add(new ArrayList<LogRecord>());
+                pending.add(new ArrayDeque<Future<?>>());
+            }
+        }
+
+        /** Queue a record whose after bytes must be applied */
+        void add(LogRecord rec) throws IOException {
+            int p = Math.floorMod(rec.pid.hashCode(), partitions.length);
+            List<LogRecord> batch = batches.get(p);
+            batch.add(rec);
+            if (batch.size() >= REDO_BATCH_SIZE) {
+                submit(p);
+            }
+        }
+
+        private void submit(int p) throws IOException {
+            List<LogRecord> batch = batches.get(p);
+            batches.set(p, new ArrayList<LogRecord>());
+            Deque<Future<?>> queued = pending.get(p);
+            // don't read the log much faster than the partition can apply it
+            while (queued.size() >= REDO_MAX_PENDING) {
+                await(queued.removeFirst());
+            }
+            queued.addLast(partitions[p].submit(() -> {
+                for (LogRecord rec : batch) {
+                    applyRanges(imageFor(images, rec, false).data, rec.ranges, rec.after);
+                }
+            }));
+        }
+
+        /** Apply everything queued so far and stop the worker threads */
+        void finish() throws IOException {
+            try {
+                for (int p = 0; p < partitions.length; p++) {
+                    if (!batches.get(p).isEmpty())
+                        submit(p);
+                }
+                for (Deque<Future<?>> queued : pending) {
+                    for (Future<?> f : queued) {
+                        await(f);
+                    }
+                }
+            } finally {
+                for (ExecutorService partition : partitions) {
+                    partition.shutdownNow();
+                }
+            }
+        }
+    }
+
     /** Write a BEGIN record for the specified transaction
         @param tid The transaction that is beginning
 
@@ -307,149 +1043,278 @@ public class LogFile {
             throw new IOException("double logXactionBegin()");
         }
         preAppend();
-        raf.writeInt(BEGIN_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
         tidToFirstLogRecord.put(tid.getId(), currentOffset);
-        currentOffset = raf.getFilePointer();
+        appendRecord(BEGIN_RECORD, tid.getId());
 
         Debug.log("BEGIN OFFSET = " + currentOffset);
     }
 
-    /** Checkpoint the log and write a checkpoint record. */
+    /** Checkpoint the log and write a checkpoint record.
+
+        Checkpoints are fuzzy: they record the active transactions and
+        the buffer pool's dirty page table (with the LSN of the first
+        record that dirtied each page) but do not write any data pages,
+        so transactions keep running while a checkpoint is taken.  Redo
+        then starts at the oldest recLSN in the table.  To keep that point
+        moving forward, pages that have stayed dirty since before the
+        previous checkpoint are written out first.
+    */
     public void logCheckpoint() throws IOException {
-        //make sure we have buffer pool lock before proceeding
-        synchronized (Database.getBufferPool()) {
+        BufferPool pool = Database.getBufferPool();
+        synchronized (checkpointLock) {
+            long previous;
             synchronized (this) {
-                //Debug.log("CHECKPOINT, offset = " + raf.getFilePointer());
-                preAppend();
-                long startCpOffset, endCpOffset;
-                Set<Long> keys = tidToFirstLogRecord.keySet();
-                Iterator<Long> els = keys.iterator();
-                force();
-                Database.getBufferPool().flushAllPages();
-                startCpOffset = raf.getFilePointer();
-                raf.writeInt(CHECKPOINT_RECORD);
-                raf.writeLong(-1); //no tid , but leave space for convenience
-
-                //write list of outstanding transactions
-                raf.writeInt(keys.size());
-                while (els.hasNext()) {
-                    Long key = els.next();
-                    Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + key);
-                    raf.writeLong(key);
-                    //Debug.log("WRITING CHECKPOINT TRANSACTION OFFSET: " + tidToFirstLogRecord.get(key));
-                    raf.writeLong(tidToFirstLogRecord.get(key));
+                previous = lastCheckpointLSN;
+            }
+            if (previous > 0) {
+                pool.flushPagesDirtiedBefore(previous);
+            }
+
+            long cpLSN;
+            //make sure we have buffer pool lock before proceeding
+            synchronized (pool) {
+                synchronized (this) {
+                    //Debug.log("CHECKPOINT, offset = " + raf.getFilePointer());
+                    preAppend();
+                    Map<PageId, Long> dirtyPages = pool.getDirtyPageTable();
+                    Set<Long> keys = tidToFirstLogRecord.keySet();
+                    Iterator<Long> els = keys.iterator();
+                    int size = INT_SIZE + LONG_SIZE + INT_SIZE
+                        + keys.size() * 2 * LONG_SIZE + INT_SIZE + LONG_SIZE;
+                    for (PageId pid : dirtyPages.keySet()) {
+                        size += pageIdSize(pid) + LONG_SIZE;
+                    }
+                    ByteBuffer buf = reserve(size);
+                    long startCpOffset = currentOffset;
+                    buf.putInt(CHECKPOINT_RECORD);
+                    buf.putLong(-1); //no tid , but leave space for convenience
+
+                    //write list of outstanding transactions
+                    buf.putInt(keys.size());
+                    while (els.hasNext()) {
+                        Long key = els.next();
+                        Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + key);
+                        buf.putLong(key);
+                        //Debug.log("WRITING CHECKPOINT TRANSACTION OFFSET: " + tidToFirstLogRecord.get(key));
+                        buf.putLong(tidToFirstLogRecord.get(key));
+                    }
+
+                    //write the dirty page table, recLSNs as file offsets
+                    buf.putInt(dirtyPages.size());
+                    for (Map.Entry<PageId, Long> e : dirtyPages.entrySet()) {
+                        putPageId(buf, e.getKey());
+                        buf.putLong(e.getValue() - lsnBase);
+                    }
+                    buf.putLong(startCpOffset);
+                    currentOffset += size;
+                    cpLSN = lsnBase + startCpOffset;
                 }
+            }
 
-                //once the CP is written, make sure the CP location at the
+            synchronized (this) {
+                //once the CP is durable, make sure the CP location at the
                 // beginning of the log file is updated
-                endCpOffset = raf.getFilePointer();
-                raf.seek(0);
-                raf.writeLong(startCpOffset);
-                raf.seek(endCpOffset);
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
+                force();
+                ByteBuffer header = ByteBuffer.allocate(LONG_SIZE);
+                header.putLong(cpLSN - lsnBase);
+                header.flip();
+                raf.getChannel().write(header, 0);
+                lastCheckpointLSN = cpLSN;
+                checkpointRequested = false;
                 //Debug.log("CP OFFSET = " + currentOffset);
             }
+
+            logTruncate();
         }
+    }
+
+    /** Take a checkpoint if at least the checkpoint interval worth of log
+        has been written since the last one.  Called by committing
+        transactions once they hold no locks; at most one of them takes
+        the checkpoint.
 
-        logTruncate();
+        @see #setCheckpointInterval
+    */
+    public void checkpointIfNeeded() throws IOException {
+        synchronized (this) {
+            long interval = checkpointIntervalBytes;
+            if (interval <= 0 || checkpointRequested || recoveryUndecided
+                || lsnBase + currentOffset - lastCheckpointLSN < interval) {
+                return;
+            }
+            checkpointRequested = true;
+        }
+        try {
+            logCheckpoint();
+        } finally {
+            synchronized (this) {
+                checkpointRequested = false;
+            }
+        }
+    }
+
+    /** Set how much log (in bytes) may be written between automatic
+        checkpoints.  Smaller values bound recovery time more tightly at
+        the cost of more frequent checkpoints.
+
+        @param bytes the interval, or 0 to disable automatic checkpoints
+    */
+    public void setCheckpointInterval(long bytes) {
+        if (bytes < 0)
+            throw new IllegalArgumentException("negative checkpoint interval");
+        checkpointIntervalBytes = bytes;
+    }
+
+    /** @return the automatic checkpoint interval in bytes (0 = disabled) */
+    public long getCheckpointInterval() {
+        return checkpointIntervalBytes;
+    }
+
+    /** Set whether small page changes are logged as DELTA records
+        (the default) or always as full before and after images. */
+    public void setDeltaRecords(boolean enabled) {
+        deltaRecords = enabled;
+    }
+
+    /** Set the number of threads recover() uses for redo and undo
+        (by default, one per available processor). */
+    public void setRecoveryThreads(int threads) {
+        if (threads < 1)
+            throw new IllegalArgumentException("need at least one recovery thread");
+        recoveryThreads = threads;
+    }
+
+    /** @return the number of threads recover() uses for redo and undo */
+    public int getRecoveryThreads() {
+        return recoveryThreads;
+    }
+
+    /** @return the current length of the log file in bytes, including
+        records that are still buffered */
+    public synchronized long getLogSize() {
+        return currentOffset == -1 ? 0 : currentOffset;
     }
 
     /** Truncate any unneeded portion of the log to reduce its space
-        consumption */
+        consumption.  Everything before the oldest of the last checkpoint,
+        the first record of each active transaction and the recLSN of each
+        dirty page is no longer needed.  The rest of the log is copied to a
+        new file, so this only happens once the unneeded prefix is at
+        least as large as what has to be copied.
+    */
     public synchronized void logTruncate() throws IOException {
         preAppend();
+        writeBuffer();
         raf.seek(0);
         long cpLoc = raf.readLong();
 
-        long minLogRecord = cpLoc;
-
-        if (cpLoc != -1L) {
-            raf.seek(cpLoc);
-            int cpType = raf.readInt();
-            @SuppressWarnings("unused")
-            long cpTid = raf.readLong();
-
-            if (cpType != CHECKPOINT_RECORD) {
-                throw new RuntimeException("Checkpoint pointer does not point to checkpoint record");
-            }
+        if (cpLoc == NO_CHECKPOINT_ID) {
+            return; // everything may still be needed by recovery
+        }
 
-            int numOutstanding = raf.readInt();
+        long minLogRecord = cpLoc;
+        raf.seek(cpLoc);
+        LogRecord cp = readRecord(raf);
+        if (cp.type != CHECKPOINT_RECORD) {
+            throw new RuntimeException("Checkpoint pointer does not point to checkpoint record");
+        }
+        for (long firstLogRecord : cp.active.values()) {
+            minLogRecord = Math.min(minLogRecord, firstLogRecord);
+        }
+        for (long recOffset : cp.dirty.values()) {
+            minLogRecord = Math.min(minLogRecord, recOffset);
+        }
 
-            for (int i = 0; i < numOutstanding; i++) {
-                @SuppressWarnings("unused")
-                long tid = raf.readLong();
-                long firstLogRecord = raf.readLong();
-                if (firstLogRecord < minLogRecord) {
-                    minLogRecord = firstLogRecord;
-                }
-            }
+        // copying is proportional to what is kept; only pay it once at
+        // least as much space is reclaimed
+        if (minLogRecord - LONG_SIZE < writtenOffset - minLogRecord) {
+            return;
         }
 
         // we can truncate everything before minLogRecord
+        final long shift = minLogRecord - LONG_SIZE;
         File newFile = new File("logtmp" + System.currentTimeMillis());
-        RandomAccessFile logNew = new RandomAccessFile(newFile, "rw");
-        logNew.seek(0);
-        logNew.writeLong((cpLoc - minLogRecord) + LONG_SIZE);
+        FileOutputStream newOut = new FileOutputStream(newFile);
+        DataOutputStream logNew = new DataOutputStream(new BufferedOutputStream(newOut, LOG_BUFFER_SIZE));
+        logNew.writeLong(cpLoc - shift);
 
-        raf.seek(minLogRecord);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+            java.nio.channels.Channels.newInputStream(raf.getChannel().position(minLogRecord)),
+            LOG_BUFFER_SIZE));
 
-        //have to rewrite log records since offsets are different after truncation
+        //have to rewrite log records since offsets are different after truncation;
+        //page images are copied as raw bytes
         while (true) {
+            int type;
             try {
-                int type = raf.readInt();
-                long record_tid = raf.readLong();
-                long newStart = logNew.getFilePointer();
-
-                Debug.log("NEW START = " + newStart);
-
-                logNew.writeInt(type);
-                logNew.writeLong(record_tid);
+                type = in.readInt();
+            } catch (EOFException e) {
+                break;
+            }
+            long record_tid = in.readLong();
 
-                switch (type) {
-                case UPDATE_RECORD:
-                    Page before = readPageData(raf);
-                    Page after = readPageData(raf);
+            logNew.writeInt(type);
+            logNew.writeLong(record_tid);
 
-                    writePageData(logNew, before);
-                    writePageData(logNew, after);
-                    break;
-                case CHECKPOINT_RECORD:
-                    int numXactions = raf.readInt();
-                    logNew.writeInt(numXactions);
-                    while (numXactions-- > 0) {
-                        long xid = raf.readLong();
-                        long xoffset = raf.readLong();
-                        logNew.writeLong(xid);
-                        logNew.writeLong((xoffset - minLogRecord) + LONG_SIZE);
-                    }
-                    break;
-                case BEGIN_RECORD:
-                    tidToFirstLogRecord.put(record_tid,newStart);
-                    break;
+            switch (type) {
+            case UPDATE_RECORD:
+                copyPageData(in, logNew);
+                copyPageData(in, logNew);
+                break;
+            case DELTA_RECORD:
+                logNew.writeUTF(in.readUTF());
+                copyPageId(in, logNew);
+                copyRanges(in, logNew, 2);
+                break;
+            case CLR_RECORD:
+                logNew.writeUTF(in.readUTF());
+                copyPageId(in, logNew);
+                copyRanges(in, logNew, 1);
+                logNew.writeLong(in.readLong() - shift);
+                break;
+            case CHECKPOINT_RECORD:
+                int numXactions = in.readInt();
+                logNew.writeInt(numXactions);
+                while (numXactions-- > 0) {
+                    logNew.writeLong(in.readLong());
+                    logNew.writeLong(in.readLong() - shift);
+                }
+                int numDirty = in.readInt();
+                logNew.writeInt(numDirty);
+                while (numDirty-- > 0) {
+                    copyPageId(in, logNew);
+                    logNew.writeLong(in.readLong() - shift);
                 }
-
-                //all xactions finish with a pointer
-                logNew.writeLong(newStart);
-                raf.readLong();
-
-            } catch (EOFException e) {
                 break;
             }
+
+            //all xactions finish with a pointer
+            long start = in.readLong();
+            logNew.writeLong(start - shift);
+            if (type == BEGIN_RECORD && tidToFirstLogRecord.containsKey(record_tid)) {
+                tidToFirstLogRecord.put(record_tid, start - shift);
+            }
         }
 
-        Debug.log("TRUNCATING LOG;  WAS " + raf.length() + " BYTES ; NEW START : " + minLogRecord + " NEW LENGTH: " + (raf.length() - minLogRecord));
+        Debug.log("TRUNCATING LOG;  WAS " + writtenOffset + " BYTES ; NEW START : " + minLogRecord + " NEW LENGTH: " + (writtenOffset - shift));
 
-        raf.close();
-        logFile.delete();
-        newFile.renameTo(logFile);
-        raf = new RandomAccessFile(logFile, "rw");
-        raf.seek(raf.length());
+        logNew.flush();
+        newOut.getChannel().force(true);
+        logNew.close();
+        synchronized (forceLock) {
+            raf.close();
+            logFile.delete();
+            newFile.renameTo(logFile);
+            raf = new RandomAccessFile(logFile, "rw");
+        }
         newFile.delete();
 
-        currentOffset = raf.getFilePointer();
+        // records moved from offset x to x - shift; keep their LSNs
+        lsnBase += shift;
+        currentOffset = raf.length();
+        writtenOffset = currentOffset;
+        // the rewritten log was forced above
+        durableLSN = lsnBase + currentOffset;
         //print();
     }
 
@@ -466,19 +1331,102 @@ public class LogFile {
         synchronized (Database.getBufferPool()) {
             synchronized(this) {
                 preAppend();
+                writeBuffer();
                 // some code goes here
+                Long firstRecord = tidToFirstLogRecord.get(tid.getId());
+                if (firstRecord == null) {
+                    return; // nothing logged, so nothing on disk to undo
+                }
+                Map<Long, Long> losers = new HashMap<Long, Long>();
+                losers.put(tid.getId(), firstRecord);
+                Map<PageId, PageImage> images = new HashMap<PageId, PageImage>();
+                undo(losers, images, true, null);
+                if (!images.isEmpty()) {
+                    force(); // write-ahead rule for the restored pages
+                    writeImages(images, null);
+                }
+            }
+        }
+    }
+
+    /** Undo every UPDATE and DELTA record of the specified transactions
+        that has not been undone yet, newest first, logging a CLR for each.
+        The restored pages are left in images; the caller writes them out
+        once the CLRs are durable.
+
+        @param losers map from transaction id to the offset of its first
+        log record
+        @param images page images to undo into; pages not in it are loaded
+        as by imageFor
+        @param fromPool whether to load pages from the buffer pool
+        @param workers if not null, each loser's pages are restored by a
+        separate task on these threads
+    */
+    private void undo(Map<Long, Long> losers, Map<PageId, PageImage> images, boolean fromPool,
+                      ExecutorService workers)
+        throws IOException {
+        long stop = Collections.min(losers.values());
+        // records at or past this offset were already undone by earlier CLRs
+        Map<Long, Long> undoneFrom = new HashMap<Long, Long>();
+        // the records to undo for each loser, newest first
+        Map<Long, List<LogRecord>> toUndo = new HashMap<Long, List<LogRecord>>();
+
+        //从日志末尾向前扫描，利用每条记录末尾的起始偏移定位上一条记录
+        long pos = writtenOffset;
+        while (pos > stop) {
+            raf.seek(pos - LONG_SIZE);
+            long start = raf.readLong();
+            // one read per record; reading field by field is a system call each
+            byte[] bytes = new byte[(int) (pos - start)];
+            raf.seek(start);
+            raf.readFully(bytes);
+            int type = ByteBuffer.wrap(bytes).getInt(0);
+            long recordTid = ByteBuffer.wrap(bytes).getLong(INT_SIZE);
+            pos = start;
+            if (!losers.containsKey(recordTid)
+                || (type != UPDATE_RECORD && type != DELTA_RECORD && type != CLR_RECORD)) {
+                continue;
             }
+            LogRecord rec = readRecord(new DataInputStream(new ByteArrayInputStream(bytes)), start);
+            if (type == CLR_RECORD) {
+                undoneFrom.merge(recordTid, rec.undoNext, Math::min);
+            } else if (start < undoneFrom.getOrDefault(recordTid, Long.MAX_VALUE)) {
+                logClr(recordTid, rec);
+                toUndo.computeIfAbsent(recordTid, k -> new ArrayList<LogRecord>()).add(rec);
+            }
+        }
+
+        //不同的loser事务不会修改同一页面（严格两阶段锁），可以分别并行恢复
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (List<LogRecord> records : toUndo.values()) {
+            tasks.add(() -> {
+                //按从新到旧的顺序把每条记录的before字节写回页面
+                for (LogRecord rec : records) {
+                    applyRanges(imageFor(images, rec, fromPool).data, rec.ranges, rec.before);
+                }
+                return null;
+            });
         }
+        runAll(workers, tasks);
     }
 
     /** Shutdown the logging system, writing out whatever state
         is necessary so that start up can happen quickly (without
         extensive recovery.)
     */
-    public synchronized void shutdown() {
+    public void shutdown() {
         try {
+            // write every dirty page so the checkpoint leaves nothing to redo
+            Database.getBufferPool().flushAllPages();
             logCheckpoint();  //simple way to shutdown is to write a checkpoint record
-            raf.close();
+            synchronized (this) {
+                force();
+                flusher = null; // the flusher exits when it sees it has been replaced
+                notifyAll();
+                synchronized (forceLock) {
+                    raf.close();
+                }
+            }
         } catch (IOException e) {
             System.out.println("ERROR SHUTTING DOWN -- IGNORING.");
             e.printStackTrace();
@@ -494,6 +1442,106 @@ public class LogFile {
             synchronized (this) {
                 recoveryUndecided = false;
                 // some code goes here
+                logBuffer.clear();
+                if (raf.length() < LONG_SIZE) {
+                    // no log at all; start a fresh one
+                    raf.setLength(0);
+                    raf.writeLong(NO_CHECKPOINT_ID);
+                    currentOffset = LONG_SIZE;
+                    writtenOffset = LONG_SIZE;
+                    return;
+                }
+
+                raf.seek(0);
+                long cpLoc = raf.readLong();
+
+                // analysis: the transactions active at the checkpoint, plus
+                // any that began later, minus the ones that finished
+                Map<Long, Long> active = new HashMap<Long, Long>();
+                Map<PageId, Long> dirtyPages = new HashMap<PageId, Long>();
+                long redoStart = LONG_SIZE;
+                long analysisStart = LONG_SIZE;
+                if (cpLoc != NO_CHECKPOINT_ID) {
+                    raf.seek(cpLoc);
+                    LogRecord cp = readRecord(raf);
+                    if (cp.type != CHECKPOINT_RECORD) {
+                        throw new RuntimeException("Checkpoint pointer does not point to checkpoint record");
+                    }
+                    active.putAll(cp.active);
+                    dirtyPages.putAll(cp.dirty);
+                    analysisStart = raf.getFilePointer();
+                    // pages not in the checkpoint's dirty page table were on
+                    // disk; redo starts at the oldest change that may not be
+                    redoStart = analysisStart;
+                    for (long recOffset : dirtyPages.values()) {
+                        redoStart = Math.min(redoStart, recOffset);
+                    }
+                }
+
+                // redo: repeat history from the oldest recLSN on, assembling
+                // the affected pages in memory
+                Map<PageId, PageImage> images = new ConcurrentHashMap<PageId, PageImage>();
+                ParallelRedo redo = new ParallelRedo(recoveryThreads, images);
+                long end = redoStart;
+                CountingInputStream counter = new CountingInputStream(logFile, redoStart);
+                DataInputStream in = new DataInputStream(counter);
+                try {
+                    while (true) {
+                        LogRecord rec;
+                        try {
+                            rec = readRecord(in, counter.position);
+                        } catch (EOFException e) {
+                            break; // a record torn by the crash ends the log
+                        }
+                        // before the checkpoint only the dirty page table matters;
+                        // the checkpoint already knows which transactions were active
+                        boolean afterCheckpoint = rec.offset >= analysisStart;
+                        switch (rec.type) {
+                        case BEGIN_RECORD:
+                            if (afterCheckpoint)
+                                active.put(rec.tid, rec.offset);
+                            break;
+                        case COMMIT_RECORD:
+                        case ABORT_RECORD:
+                            if (afterCheckpoint)
+                                active.remove(rec.tid);
+                            break;
+                        case UPDATE_RECORD:
+                        case DELTA_RECORD:
+                        case CLR_RECORD:
+                            Long recOffset = dirtyPages.get(rec.pid);
+                            if (afterCheckpoint || (recOffset != null && rec.offset >= recOffset)) {
+                                redo.add(rec);
+                            }
+                            break;
+                        }
+                        end = counter.position;
+                    }
+                } finally {
+                    in.close();
+                    redo.finish();
+                }
+
+                // new records are appended after the last complete record
+                raf.setLength(end);
+                currentOffset = end;
+                writtenOffset = end;
+
+                // undo: roll back the losers and mark them aborted
+                ExecutorService workers = Executors.newFixedThreadPool(recoveryThreads);
+                try {
+                    if (!active.isEmpty()) {
+                        undo(active, images, false, workers);
+                        for (Long tid : active.keySet()) {
+                            appendRecord(ABORT_RECORD, tid);
+                        }
+                        force();
+                    }
+                    writeImages(images, workers);
+                } finally {
+                    workers.shutdownNow();
+                }
+                tidToFirstLogRecord.clear();
             }
          }
     }
@@ -501,10 +1549,178 @@ public class LogFile {
     /** Print out a human readable represenation of the log */
     public void print() throws IOException {
         // some code goes here
+        synchronized (this) {
+            if (currentOffset != -1)
+                writeBuffer();
+            raf.seek(0);
+            System.out.println("0: checkpoint record at offset " + raf.readLong());
+            while (true) {
+                LogRecord rec;
+                try {
+                    rec = readRecord(raf);
+                } catch (EOFException e) {
+                    break;
+                }
+                String desc;
+                switch (rec.type) {
+                case ABORT_RECORD: desc = "ABORT"; break;
+                case COMMIT_RECORD: desc = "COMMIT"; break;
+                case BEGIN_RECORD: desc = "BEGIN"; break;
+                case UPDATE_RECORD: desc = "UPDATE " + rec.pid; break;
+                case DELTA_RECORD: desc = "DELTA " + rec.pid + " ranges=" + Arrays.toString(rec.ranges); break;
+                case CLR_RECORD: desc = "CLR " + rec.pid + " ranges=" + Arrays.toString(rec.ranges)
+                    + " undoNext=" + rec.undoNext; break;
+                default: desc = "CHECKPOINT active=" + rec.active + " dirty=" + rec.dirty; break;
+                }
+                System.out.println(rec.offset + ": " + desc + " tid=" + rec.tid);
+            }
+            if (currentOffset != -1)
+                raf.seek(writtenOffset);
+        }
+    }
+
+    /** Force the log to disk: return once every record appended so far
+        is durable. */
+    public synchronized void force() throws IOException {
+        waitUntilDurable(lsnBase + currentOffset);
+    }
+
+    /** Make sure the log is on disk at least up to and including the
+        record with the specified LSN.  This is the write-ahead rule: call
+        it with a page's LSN before writing the page.  Returns immediately
+        if the log is already durable that far.
+
+        @param lsn the LSN of the record that must be durable
+    */
+    public synchronized void flushTo(long lsn) throws IOException {
+        // durableLSN only ever points at record boundaries, so any LSN at
+        // or past the start of an unflushed record needs that record
+        if (lsn >= durableLSN)
+            waitUntilDurable(Math.min(lsn + 1, lsnBase + currentOffset));
+    }
+
+    /** Set the longest time the log-flush thread waits for more
+        committers to join a batch before it forces the log.  Larger
+        values trade commit latency for fewer fsyncs under load.
+
+        @param micros the maximum delay in microseconds (0 = flush as
+        soon as a commit is waiting)
+    */
+    public void setGroupCommitDelay(long micros) {
+        if (micros < 0)
+            throw new IllegalArgumentException("negative group commit delay");
+        groupCommitDelayMicros = micros;
+    }
+
+    /** @return the maximum group commit delay in microseconds */
+    public long getGroupCommitDelay() {
+        return groupCommitDelayMicros;
+    }
+
+    /** Block until the log is durable up to the specified LSN, asking
+        the log-flush thread for an fsync if necessary.  Must be called
+        with the monitor held; it is released while waiting. */
+    private void waitUntilDurable(long lsn) throws IOException {
+        boolean interrupted = false;
+        while (durableLSN < lsn) {
+            if (flushError != null) {
+                IOException e = flushError;
+                flushError = null;
+                throw e;
+            }
+            if (flusher == null) {
+                flusher = new LogFlusher();
+                flusher.start();
+            }
+            if (!flushRequested) {
+                // only the first waiter of a round wakes the flusher; waking on
+                // every iteration would let waiters starve it of the monitor
+                flushRequested = true;
+                notifyAll();
+            }
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
     }
 
-    public  synchronized void force() throws IOException {
-        raf.getChannel().force(true);
+    /** The log-flush thread.  Each round it writes out the log buffer,
+        forces the file with a single fsync and advances the durable
+        watermark, waking every committer it covered. */
+    private class LogFlusher extends Thread {
+        LogFlusher() {
+            super("simpledb-log-flusher");
+            setDaemon(true);
+        }
+
+        public void run() {
+            while (true) {
+                synchronized (LogFile.this) {
+                    long idleSince = System.currentTimeMillis();
+                    while (!flushRequested) {
+                        long idle = System.currentTimeMillis() - idleSince;
+                        if (idle >= FLUSHER_IDLE_MILLIS || flusher != this) {
+                            if (flusher == this)
+                                flusher = null;
+                            return;
+                        }
+                        try {
+                            LogFile.this.wait(FLUSHER_IDLE_MILLIS - idle);
+                        } catch (InterruptedException e) {
+                            // keep going; shutdown() signals exit via the flusher field
+                        }
+                    }
+                }
+
+                // let more committers append their records to this batch
+                long delay = groupCommitDelayMicros;
+                if (delay > 0) {
+                    try {
+                        Thread.sleep(delay / 1000, (int) (delay % 1000) * 1000);
+                    } catch (InterruptedException e) {
+                        // flush right away
+                    }
+                }
+
+                long target = 0;
+                IOException error = null;
+                synchronized (LogFile.this) {
+                    flushRequested = false;
+                    try {
+                        writeBuffer();
+                    } catch (IOException e) {
+                        error = e;
+                    }
+                    target = lsnBase + currentOffset;
+                }
+
+                if (error == null) {
+                    synchronized (forceLock) {
+                        try {
+                            raf.getChannel().force(true);
+                        } catch (IOException e) {
+                            error = e;
+                        }
+                    }
+                }
+
+                synchronized (LogFile.this) {
+                    totalForces++;
+                    if (error != null) {
+                        flushError = error;
+                    } else if (target > durableLSN) {
+                        // truncation keeps LSNs, so a target taken before a
+                        // concurrent logTruncate is still meaningful
+                        durableLSN = target;
+                    }
+                    LogFile.this.notifyAll();
+                }
+            }
+        }
     }
 
 }
@@ -15,6 +15,9 @@ public class LogicalFilterNode {
     
     /* The constant on the right side of the filter */
     public String c;
+
+    /** The index of the parameter whose value takes the place of c, or -1 if c is the constant */
+    public int param = -1;
     
     /** The field from t which is in the filter. The pure name, without alias or tablename*/
     public String fieldPureName;
@@ -32,4 +35,10 @@ public class LogicalFilterNode {
             fieldPureName=field;
         this.fieldQuantifiedName = tableAlias+"."+fieldPureName;
     }
+
+    /** Create a filter comparing field with the value of the parameter with index param */
+    public LogicalFilterNode(String table, String field, Predicate.Op pred, int param) {
+        this(table, field, pred, (String) null);
+        this.param = param;
+    }
 }
@@ -25,8 +25,11 @@ public class LogicalPlan {
     private Vector<LogicalJoinNode> joins;
     private Vector<LogicalScanNode> tables;
     private Vector<LogicalFilterNode> filters;
-    private HashMap<String, OpIterator> subplanMap;
     private HashMap<String,Integer> tableMap;
+    private int numParameters = 0;
+    private boolean joinsOrdered = false;
+    //由索引回答的过滤条件，按表的别名，与连接顺序一同选定
+    private HashMap<String, LogicalFilterNode> indexFilters = new HashMap<String, LogicalFilterNode>();
 
     private Vector<LogicalSelectListNode> selectList;
     private String groupByField = null;
@@ -43,7 +46,6 @@ public class LogicalPlan {
         joins = new Vector<LogicalJoinNode>();
         filters = new Vector<LogicalFilterNode>();
         tables = new Vector<LogicalScanNode>();
-        subplanMap = new HashMap<String, OpIterator>();
         tableMap = new HashMap<String,Integer>();
 
         selectList = new Vector<LogicalSelectListNode>();
@@ -105,6 +107,27 @@ public class LogicalPlan {
         filters.addElement(lf);
     }
 
+    /** Add a new filter comparing a field with the value of a parameter, which is
+     *   given each time the plan is converted by {@link #physicalPlan(TransactionId, Map, String[], boolean)}.
+     *   @param field The name of the field over which the filter applies, as for {@link #addFilter}
+     *   @param p The predicate for the filter
+     *   @param param the index of the parameter, from 0
+     *   @throws ParsingException if field is not in one of the tables
+     *   added via {@link #addScan} or if field is ambiguous
+     */
+    public void addParameterFilter(String field, Predicate.Op p, int param) throws ParsingException {
+        field = disambiguateName(field);
+        String table = field.split("[.]")[0];
+
+        filters.addElement(new LogicalFilterNode(table, field.split("[.]")[1], p, param));
+        numParameters = Math.max(numParameters, param + 1);
+    }
+
+    /** @return the number of parameters of the filters added via {@link #addParameterFilter} */
+    public int numParameters() {
+        return numParameters;
+    }
+
     /** Add a join between two fields of two different tables.  
      *  @param joinField1 The name of the first join field; this can
      *  be a fully qualified name (e.g., tableName.field or
@@ -258,6 +281,15 @@ public class LogicalPlan {
 
     }
 
+    /** @return true if a filter with operator op on the key of a BTreeFile can be
+     *   answered by an {@link IndexPredicate}
+     */
+    static boolean isIndexable(Predicate.Op op) {
+        return op == Predicate.Op.EQUALS || op == Predicate.Op.LESS_THAN
+            || op == Predicate.Op.LESS_THAN_OR_EQ || op == Predicate.Op.GREATER_THAN
+            || op == Predicate.Op.GREATER_THAN_OR_EQ;
+    }
+
     /** Convert the aggregate operator name s into an Aggregator.op operation.
      *  @throws ParsingException if s is not a valid operator name 
      */
@@ -271,24 +303,60 @@ public class LogicalPlan {
         throw new ParsingException("Unknown predicate " + s);
     }
 
+    /** Convert this LogicalPlan, which must have no parameters, into a physical plan.
+     *  @see #physicalPlan(TransactionId, Map, String[], boolean)
+     */
+    public OpIterator physicalPlan(TransactionId t, Map<String,TableStats> baseTableStats, boolean explain) throws ParsingException {
+        return physicalPlan(t, baseTableStats, null, explain);
+    }
+
+    /** Forget the join order and the indexes chosen by {@link #physicalPlan}, so that the next
+     *  call chooses them again, from the statistics then given.
+     */
+    public void resetJoinOrder() {
+        joinsOrdered = false;
+    }
+
     /** Convert this LogicalPlan into a physicalPlan represented by a {@link OpIterator}.  Attempts to
      *   find the optimal plan by using {@link JoinOptimizer#orderJoins} to order the joins in the plan.
+     *   The joins are ordered on the first call only, and later calls build the same
+     *   plan again, until {@link #resetJoinOrder} is called, so a plan converted again
+     *   (for another transaction, or other parameters) is not optimized again.
+     *   <p>
+     *   A table stored in a {@link BTreeFile} is read through its index, by a
+     *   {@link BTreeScan}, when a filter compares its key with a constant (by =, &lt;,
+     *   &lt;=, &gt; or &gt;=) and the estimated cost of reading the tuples selected by the
+     *   filter ({@link TableStats#estimateIndexScanCost}) is below that of scanning the
+     *   whole table; of several such filters the cheapest is used, and the others are
+     *   applied to its tuples.  The costs of the index scans are used in ordering the
+     *   joins.  A query of a single BTreeFile ordered by its key reads the tuples in that
+     *   order, by a BTreeScan or, for a descending order, a {@link BTreeReverseScan},
+     *   and is not sorted.
      *  @param t The transaction that the returned OpIterator will run as a part of
      *  @param baseTableStats a HashMap providing a {@link TableStats}
      *    object for each table used in the LogicalPlan.  This should
      *    have one entry for each table referenced by the plan, not one
      *    entry for each table alias (so a table t aliases as t1 and
      *    t2 would have just one entry with key 't' in this HashMap).
+     *  @param params the values of the parameters of the filters added via
+     *    {@link #addParameterFilter}, as constants are given to {@link #addFilter};
+     *    they are used to estimate the selectivities of the filters when the
+     *    joins are ordered
      *  @param explain flag indicating whether output visualizing the physical
      *    query plan should be given.
-     *  @throws ParsingException if the logical plan is not valid
+     *  @throws ParsingException if the logical plan is not valid, or a parameter
+     *    is missing or of the wrong type
      *  @return A OpIterator representing this plan.
      */ 
-    public OpIterator physicalPlan(TransactionId t, Map<String,TableStats> baseTableStats, boolean explain) throws ParsingException {
+    public synchronized OpIterator physicalPlan(TransactionId t, Map<String,TableStats> baseTableStats, String[] params, boolean explain) throws ParsingException {
         Iterator<LogicalScanNode> tableIt = tables.iterator();
+        HashMap<String, OpIterator> subplanMap = new HashMap<String, OpIterator>();
         HashMap<String,String> equivMap = new HashMap<String,String>();
         HashMap<String,Double> filterSelectivities = new HashMap<String, Double>();
         HashMap<String,TableStats> statsMap = new HashMap<String,TableStats>();
+        HashMap<String,Double> scanCosts = new HashMap<String, Double>();
+        if (!joinsOrdered)
+            indexFilters.clear();
 
         while (tableIt.hasNext()) {
             LogicalScanNode table = tableIt.next();
@@ -306,9 +374,9 @@ public class LogicalPlan {
 
         }
 
-        Iterator<LogicalFilterNode> filterIt = filters.iterator();        
-        while (filterIt.hasNext()) {
-            LogicalFilterNode lf = filterIt.next();
+        Predicate[] predicates = new Predicate[filters.size()];
+        for (int i = 0; i < filters.size(); i++) {
+            LogicalFilterNode lf = filters.get(i);
             OpIterator subplan = subplanMap.get(lf.tableAlias);
             if (subplan == null) {
                 throw new ParsingException("Unknown table in WHERE clause " + lf.tableAlias);
@@ -323,10 +391,20 @@ public class LogicalPlan {
             } catch (java.util.NoSuchElementException e) {
                 throw new ParsingException("Unknown field in filter expression " + lf.fieldQuantifiedName);
             }
-            if (ftyp == Type.INT_TYPE)
-                f = new IntField(new Integer(lf.c).intValue());
-            else
-                f = new StringField(lf.c, Type.STRING_LEN);
+            String c = lf.c;
+            if (lf.param >= 0) {
+                if (params == null || lf.param >= params.length || params[lf.param] == null)
+                    throw new ParsingException("No value for parameter " + (lf.param + 1));
+                c = params[lf.param];
+            }
+            try {
+                if (ftyp == Type.INT_TYPE)
+                    f = new IntField(Integer.parseInt(c));
+                else
+                    f = new StringField(c, Type.STRING_LEN);
+            } catch (NumberFormatException e) {
+                throw new ParsingException("Value " + c + " of " + lf.fieldQuantifiedName + " is not an integer");
+            }
 
             Predicate p = null;
             try {
@@ -334,20 +412,65 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
-            subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            predicates[i] = p;
 
+            //连接顺序和索引已定时不需要估计选择率
+            if (joinsOrdered)
+                continue;
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
             
             double sel= s.estimateSelectivity(subplan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName), lf.p, f);
             filterSelectivities.put(lf.tableAlias, filterSelectivities.get(lf.tableAlias) * sel);
 
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
+
+            //比较B+树的键与常量的过滤条件可以由索引回答，取代价最低的一个
+            DbFile file = Database.getCatalog().getDatabaseFile(this.getTableId(lf.tableAlias));
+            if (file instanceof BTreeFile && p.getField() == ((BTreeFile) file).keyField() && isIndexable(lf.p)) {
+                double cost = s.estimateIndexScanCost(sel);
+                Double best = scanCosts.get(lf.tableAlias);
+                if (cost < (best != null ? best : s.estimateScanCost())) {
+                    indexFilters.put(lf.tableAlias, lf);
+                    scanCosts.put(lf.tableAlias, cost);
+                }
+            }
+        }
+
+        //只有一个B+树表、没有连接和聚合时，按键排序的结果可以由扫描的顺序得到
+        boolean scanInOrder = false;
+        if (hasOrderBy && !hasAgg && joins.isEmpty() && tables.size() == 1) {
+            LogicalScanNode table = tables.get(0);
+            DbFile file = Database.getCatalog().getDatabaseFile(table.t);
+            scanInOrder = file instanceof BTreeFile && oByField.equals(table.alias + "."
+                    + file.getTupleDesc().getFieldName(((BTreeFile) file).keyField()));
+        }
+
+        for (LogicalScanNode table : tables) {
+            LogicalFilterNode indexFilter = indexFilters.get(table.alias);
+            IndexPredicate ipred = null;
+            if (indexFilter != null) {
+                Predicate p = predicates[filters.indexOf(indexFilter)];
+                ipred = new IndexPredicate(p.getOp(), p.getOperand());
+                if (explain)
+                    System.out.println("Reading " + table.alias + " through its index on "
+                            + indexFilter.fieldQuantifiedName + " " + p.getOp() + " " + p.getOperand());
+            }
+            if (scanInOrder && !oByAsc)
+                subplanMap.put(table.alias, new BTreeReverseScan(t, table.t, table.alias, ipred));
+            else if (ipred != null || scanInOrder)
+                subplanMap.put(table.alias, new BTreeScan(t, table.t, table.alias, ipred));
+        }
+        for (int i = 0; i < filters.size(); i++) {
+            LogicalFilterNode lf = filters.get(i);
+            if (indexFilters.get(lf.tableAlias) != lf)
+                subplanMap.put(lf.tableAlias, new Filter(predicates[i], subplanMap.get(lf.tableAlias)));
         }
         
         if (!joins.isEmpty()) {
             JoinOptimizer jo = new JoinOptimizer(this,joins);
 
-            joins = jo.orderJoins(statsMap,filterSelectivities,explain);
+            if (!joinsOrdered)
+                joins = jo.orderJoins(statsMap,filterSelectivities,scanCosts,explain);
 
             Iterator<LogicalJoinNode> joinIt = joins.iterator();
             while (joinIt.hasNext()) {
@@ -403,6 +526,8 @@ public class LogicalPlan {
             }
         }
 
+        joinsOrdered = true;
+
         if (subplanMap.size() > 1) {
             throw new ParsingException("Query does not include join expressions joining all nodes!");
         }
@@ -475,7 +600,7 @@ public class LogicalPlan {
             node = aggNode;
         }
 
-        if (hasOrderBy) {
+        if (hasOrderBy && !scanInOrder) {
             node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node);
         }
 
@@ -41,10 +41,8 @@ public class OperatorCardinality {
                     hasJoinPK = updateOperatorCardinality(
                             (Operator) children[0], tableAliasToId, tableStats);
                     childC = ((Operator) children[0]).getEstimatedCardinality();
-                } else if (children[0] instanceof SeqScan) {
-                    childC = tableStats.get(
-                            ((SeqScan) children[0]).getTableName())
-                            .estimateTableCardinality(1.0);
+                } else if (isScan(children[0])) {
+                    childC = scanCardinality(children[0], tableStats);
                 }
             }
             o.setEstimatedCardinality(childC);
@@ -52,6 +50,37 @@ public class OperatorCardinality {
         }
     }
 
+    //SeqScan，或者BTreeScan、BTreeReverseScan
+    private static boolean isScan(OpIterator o) {
+        return o instanceof SeqScan || o instanceof BTreeScan
+                || o instanceof BTreeReverseScan;
+    }
+
+    //扫描输出的元组数，索引扫描按其索引谓词的选择率估计
+    private static int scanCardinality(OpIterator scan,
+            Map<String, TableStats> tableStats) {
+        String tableName;
+        IndexPredicate ipred = null;
+        if (scan instanceof SeqScan) {
+            tableName = ((SeqScan) scan).getTableName();
+        } else if (scan instanceof BTreeScan) {
+            tableName = ((BTreeScan) scan).getTableName();
+            ipred = ((BTreeScan) scan).getIndexPredicate();
+        } else {
+            tableName = ((BTreeReverseScan) scan).getTableName();
+            ipred = ((BTreeReverseScan) scan).getIndexPredicate();
+        }
+        TableStats s = tableStats.get(tableName);
+        double selectivity = 1.0;
+        if (ipred != null) {
+            BTreeFile f = (BTreeFile) Database.getCatalog().getDatabaseFile(
+                    Database.getCatalog().getTableId(tableName));
+            selectivity = s.estimateSelectivity(f.keyField(), ipred.getOp(),
+                    ipred.getField());
+        }
+        return s.estimateTableCardinality(selectivity);
+    }
+
     private static boolean updateFilterCardinality(Filter f,
             Map<String, Integer> tableAliasToId,
             Map<String, TableStats> tableStats) {
@@ -77,10 +106,9 @@ public class OperatorCardinality {
                 f.setEstimatedCardinality((int) (oChild
                         .getEstimatedCardinality() * selectivity) + 1);
                 return hasJoinPK;
-            } else if (child instanceof SeqScan) {
-                f.setEstimatedCardinality((int) (tableStats.get(
-                        ((SeqScan) child).getTableName())
-                        .estimateTableCardinality(1.0) * selectivity) + 1);
+            } else if (isScan(child)) {
+                f.setEstimatedCardinality((int) (scanCardinality(child, tableStats)
+                        * selectivity) + 1);
                 return false;
             }
         }
@@ -120,9 +148,8 @@ public class OperatorCardinality {
             child1HasJoinPK = pk || child1HasJoinPK;
             child1Card = child1O.getEstimatedCardinality();
             child1Card = child1Card > 0 ? child1Card : 1;
-        } else if (child1 instanceof SeqScan) {
-            child1Card = (int) (tableStats.get(((SeqScan) child1)
-                    .getTableName()).estimateTableCardinality(1.0));
+        } else if (isScan(child1)) {
+            child1Card = scanCardinality(child1, tableStats);
         }
 
         if (child2 instanceof Operator) {
@@ -132,9 +159,8 @@ public class OperatorCardinality {
             child2HasJoinPK = pk || child2HasJoinPK;
             child2Card = child2O.getEstimatedCardinality();
             child2Card = child2Card > 0 ? child2Card : 1;
-        } else if (child2 instanceof SeqScan) {
-            child2Card = (int) (tableStats.get(((SeqScan) child2)
-                    .getTableName()).estimateTableCardinality(1.0));
+        } else if (isScan(child2)) {
+            child2Card = scanCardinality(child2, tableStats);
         }
 
         j.setEstimatedCardinality(JoinOptimizer.estimateTableJoinCardinality(j
@@ -177,9 +203,8 @@ public class OperatorCardinality {
             child1HasJoinPK = pk || child1HasJoinPK;
             child1Card = child1O.getEstimatedCardinality();
             child1Card = child1Card > 0 ? child1Card : 1;
-        } else if (child1 instanceof SeqScan) {
-            child1Card = (int) (tableStats.get(((SeqScan) child1)
-                    .getTableName()).estimateTableCardinality(1.0));
+        } else if (isScan(child1)) {
+            child1Card = scanCardinality(child1, tableStats);
         }
 
         if (child2 instanceof Operator) {
@@ -189,9 +214,8 @@ public class OperatorCardinality {
             child2HasJoinPK = pk || child2HasJoinPK;
             child2Card = child2O.getEstimatedCardinality();
             child2Card = child2Card > 0 ? child2Card : 1;
-        } else if (child2 instanceof SeqScan) {
-            child2Card = (int) (tableStats.get(((SeqScan) child2)
-                    .getTableName()).estimateTableCardinality(1.0));
+        } else if (isScan(child2)) {
+            child2Card = scanCardinality(child2, tableStats);
         }
 
         j.setEstimatedCardinality(JoinOptimizer.estimateTableJoinCardinality(j
@@ -219,9 +243,8 @@ public class OperatorCardinality {
             return hasJoinPK;
         }
 
-        if (child instanceof SeqScan) {
-            childCard = (int) (tableStats.get(((SeqScan) child).getTableName())
-                    .estimateTableCardinality(1.0));
+        if (isScan(child)) {
+            childCard = scanCardinality(child, tableStats);
         }
 
         String[] tmp = a.groupFieldName().split("[.]");
@@ -56,4 +56,20 @@ public interface Page {
      * copy current content to the before image.
      */
     public void setBeforeImage();
+
+    /**
+     * Return the LSN of the last log record written for this page, or 0 if
+     * none has been written since the page was read.  The log must be
+     * durable up to this LSN before the page may be written to disk.
+     * <p>
+     * The page LSN is kept in memory only; it is not part of getPageData.
+     *
+     * @see LogFile#flushTo
+     */
+    public long getLSN();
+
+    /**
+     * Record the LSN of a log record just written for this page.
+     */
+    public void setLSN(long lsn);
 }
@@ -12,6 +12,9 @@ import jline.SimpleCompletor;
 public class Parser {
     static boolean explain = false;
 
+    /** Starts the string constant that {@link #prepare} puts in place of a ?, before the index of the parameter */
+    static final char PARAMETER_MARK = '\u0001';
+
     public static Predicate.Op getOp(String s) throws simpledb.ParsingException {
         if (s.equals("="))
             return Predicate.Op.EQUALS;
@@ -125,7 +128,11 @@ public class Parser {
                     compValue = new String(op1.getValue());
                 }
 
-                lp.addFilter(column, op, compValue);
+                //预备语句中代替?的参数
+                if (compValue.length() > 1 && compValue.charAt(0) == PARAMETER_MARK)
+                    lp.addParameterFilter(column, op, Integer.parseInt(compValue.substring(1)));
+                else
+                    lp.addFilter(column, op, compValue);
 
             }
         }
@@ -283,7 +290,23 @@ public class Parser {
                 TableStats.getStatsMap(), explain);
         query.setPhysicalPlan(physicalPlan);
         query.setLogicalPlan(lp);
+        printQueryPlan(lp, physicalPlan);
+
+        return query;
+    }
+
+    /**
+     * Bind a prepared statement for a transaction, printing its plan as
+     * {@link #handleQueryStatement} does.
+     */
+    public Query handlePreparedStatement(PreparedStatement ps, TransactionId tId,
+            Object... params) throws simpledb.ParsingException {
+        Query query = ps.bind(tId, params);
+        printQueryPlan(query.getLogicalPlan(), query.getPhysicalPlan());
+        return query;
+    }
 
+    private void printQueryPlan(LogicalPlan lp, OpIterator physicalPlan) {
         if (physicalPlan != null) {
             Class<?> c;
             try {
@@ -316,8 +339,6 @@ public class Parser {
                 e.printStackTrace();
             }
         }
-
-        return query;
     }
 
     public Query handleInsertStatement(ZInsert s, TransactionId tId)
@@ -484,6 +505,101 @@ public class Parser {
                 "Cannot generate logical plan for expression : " + s);
     }
 
+    /**
+     * Prepare a query to be run many times, see {@link PreparedStatement}.
+     * Each <tt>?</tt> outside string constants in its text is a parameter,
+     * which can stand for the constant of a filter, as in
+     * <tt>SELECT * FROM t WHERE t.a = ? AND t.b &lt; ?</tt>.  A statement
+     * prepared before with the same text (but for white space) is taken
+     * from the {@link StatementCache} of the Database, unless one of its
+     * tables has been replaced in the catalog since.
+     *
+     * @param sql the text of the query
+     * @return the prepared statement
+     * @throws ParsingException if sql is not a valid query, has a subquery,
+     *         or has a parameter that does not stand for a filter constant
+     */
+    public PreparedStatement prepare(String sql) throws simpledb.ParsingException {
+        String text = StatementCache.normalize(sql);
+        StatementCache cache = Database.getStatementCache();
+        PreparedStatement ps = cache.get(text);
+        if (ps != null && ps.isValid())
+            return ps;
+
+        //ZQL不认识?，把字符串常量之外的每个?换成以PARAMETER_MARK开头、后跟参数序号的字符串常量
+        StringBuilder sb = new StringBuilder(text.length() + 8);
+        boolean quoted = false;
+        int params = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == PARAMETER_MARK)
+                throw new simpledb.ParsingException("Invalid character in " + text);
+            if (c == '\'')
+                quoted = !quoted;
+            if (c == '?' && !quoted)
+                sb.append('\'').append(PARAMETER_MARK).append(params++).append('\'');
+            else
+                sb.append(c);
+        }
+        sb.append(';');
+
+        ZStatement stmt;
+        try {
+            stmt = new ZqlParser(new ByteArrayInputStream(
+                    sb.toString().getBytes("UTF-8"))).readStatement();
+        } catch (Zql.ParseException e) {
+            throw new simpledb.ParsingException("Invalid SQL expression: \n \t " + e);
+        } catch (Zql.TokenMgrError e) {
+            throw new simpledb.ParsingException("Invalid SQL expression: \n \t " + e);
+        } catch (IOException e) {
+            throw new simpledb.ParsingException(e);
+        }
+        if (!(stmt instanceof ZQuery))
+            throw new simpledb.ParsingException("Only queries can be prepared: " + text);
+        return prepare(text, (ZQuery) stmt, params);
+    }
+
+    //由已解析的查询q生成预备语句并放入缓存，text为规范化的文本，params为其中参数的个数
+    private PreparedStatement prepare(String text, ZQuery q, int params) throws simpledb.ParsingException {
+        //子查询的计划在解析时就已生成，属于解析它的事务
+        if (hasSubquery(q.getWhere()))
+            throw new simpledb.ParsingException("Queries with subqueries cannot be prepared: " + text);
+        LogicalPlan lp;
+        try {
+            lp = parseQueryLogicalPlan(null, q);
+        } catch (Zql.ParseException e) {
+            throw new simpledb.ParsingException("Invalid SQL expression: \n \t " + e);
+        } catch (IOException e) {
+            throw new simpledb.ParsingException(e);
+        }
+        if (lp.numParameters() != params)
+            throw new simpledb.ParsingException(
+                    "Parameters can only stand for constants compared with fields: " + text);
+        lp.setQuery(text);
+
+        PreparedStatement ps = new PreparedStatement(text, lp);
+        Database.getStatementCache().put(ps);
+        return ps;
+    }
+
+    //有文本、没有子查询、也没有被当作参数的常量的查询才放入语句缓存
+    private static boolean isCacheable(String sql, ZQuery q) {
+        return sql != null && sql.indexOf(PARAMETER_MARK) < 0 && !hasSubquery(q.getWhere());
+    }
+
+    private static boolean hasSubquery(ZExp e) {
+        if (e instanceof ZQuery)
+            return true;
+        if (e instanceof ZExpression) {
+            ZExpression x = (ZExpression) e;
+            for (int i = 0; i < x.nbOperands(); i++) {
+                if (hasSubquery(x.getOperand(i)))
+                    return true;
+            }
+        }
+        return false;
+    }
+
     public void setTransaction(Transaction t) {
         curtrans = t;
     }
@@ -492,9 +608,20 @@ public class Parser {
         return curtrans;
     }
 
+    /**
+     * Run a statement.  A query without parameters is run through the
+     * {@link StatementCache}, so that one run again is neither parsed nor
+     * optimized again.
+     */
     public void processNextStatement(String s) {
+        //缓存中有的查询不再解析，其余语句解析一次，其中的查询放入缓存
+        PreparedStatement ps = Database.getStatementCache().get(s);
+        if (ps != null && ps.isValid() && ps.numParameters() == 0) {
+            processNextStatement(null, null, ps);
+            return;
+        }
         try {
-            processNextStatement(new ByteArrayInputStream(s.getBytes("UTF-8")));
+            processNextStatement(new ByteArrayInputStream(s.getBytes("UTF-8")), s, null);
         } catch (UnsupportedEncodingException e) {
             e.printStackTrace();
             throw new RuntimeException(e);
@@ -502,9 +629,17 @@ public class Parser {
     }
 
     public void processNextStatement(InputStream is) {
+        processNextStatement(is, null, null);
+    }
+
+    //执行从is读到的语句，sql不为null时是其文本，查询据此放入语句缓存；ps不为null时执行预备好的查询ps
+    private void processNextStatement(InputStream is, String sql, PreparedStatement ps) {
         try {
-            ZqlParser p = new ZqlParser(is);
-            ZStatement s = p.readStatement();
+            ZStatement s = null;
+            if (ps == null) {
+                ZqlParser p = new ZqlParser(is);
+                s = p.readStatement();
+            }
 
             Query query = null;
             if (s instanceof ZTransactStmt)
@@ -517,12 +652,17 @@ public class Parser {
                             + curtrans.getId().getId());
                 }
                 try {
-                    if (s instanceof ZInsert)
+                    if (ps != null)
+                        query = handlePreparedStatement(ps, curtrans.getId());
+                    else if (s instanceof ZInsert)
                         query = handleInsertStatement((ZInsert) s,
                                 curtrans.getId());
                     else if (s instanceof ZDelete)
                         query = handleDeleteStatement((ZDelete) s,
                                 curtrans.getId());
+                    else if (s instanceof ZQuery && isCacheable(sql, (ZQuery) s))
+                        query = handlePreparedStatement(prepare(StatementCache.normalize(sql),
+                                (ZQuery) s, 0), curtrans.getId());
                     else if (s instanceof ZQuery)
                         query = handleQueryStatement((ZQuery) s,
                                 curtrans.getId());
@@ -674,7 +814,6 @@ public class Parser {
                     buffer.append(line.substring(0, split + 1));
                     String cmd = buffer.toString().trim();
                     cmd = cmd.substring(0, cmd.length() - 1).trim() + ";";
-                    byte[] statementBytes = cmd.getBytes("UTF-8");
                     if (cmd.equalsIgnoreCase("quit;")
                             || cmd.equalsIgnoreCase("exit;")) {
                         shutdown();
@@ -683,8 +822,7 @@ public class Parser {
                     }
 
                     long startTime = System.currentTimeMillis();
-                    processNextStatement(new ByteArrayInputStream(
-                            statementBytes));
+                    processNextStatement(cmd);
                     long time = System.currentTimeMillis() - startTime;
                     System.out.printf("----------------\n%.2f seconds\n\n",
                             ((double) time / 1000.0));
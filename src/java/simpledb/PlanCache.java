@@ -1,50 +1,80 @@
 package simpledb;
-import java.util.HashMap;
-import java.util.Set;
-import java.util.Vector;
 
 /** A PlanCache is a helper class that can be used to store the best
- * way to order a given set of joins */
+ * way to join a given set of tables.  The tables of a query are numbered
+ * from 0, and a set of them is the long bit mask with their bits set; the
+ * plans are kept in arrays indexed by that mask, so a lookup neither
+ * hashes nor allocates.  The best plan of a set joins the best plans of two
+ * of its subsets, so only the subset on the outer side and the join at the
+ * top are stored; the whole plan is rebuilt by following the subsets down
+ * to the base tables. */
 public class PlanCache {
-    HashMap<Set<LogicalJoinNode>,Vector<LogicalJoinNode>> bestOrders= new HashMap<Set<LogicalJoinNode>,Vector<LogicalJoinNode>>();
-    HashMap<Set<LogicalJoinNode>,Double> bestCosts= new HashMap<Set<LogicalJoinNode>,Double>();
-    HashMap<Set<LogicalJoinNode>,Integer> bestCardinalities = new HashMap<Set<LogicalJoinNode>,Integer>();
-    
-    /** Add a new cost, cardinality and ordering for a particular join set.  Does not verify that the
+    private final boolean[] planned;
+    private final double[] bestCosts;
+    private final int[] bestCardinalities;
+    private final long[] bestOuters;
+    private final LogicalJoinNode[] bestJoins;
+
+    /** Create a cache for the plans of the subsets of the given number of tables
+        @param tables the number of tables being joined, small enough for 2^tables
+        entries to fit in memory
+    */
+    PlanCache(int tables) {
+        int size = 1 << tables;
+        planned = new boolean[size];
+        bestCosts = new double[size];
+        bestCardinalities = new int[size];
+        bestOuters = new long[size];
+        bestJoins = new LogicalJoinNode[size];
+    }
+
+    /** Add a new cost, cardinality and plan for a particular set of tables.  Does not verify that the
         new cost is less than any previously added cost -- simply adds or replaces an existing plan for the
-        specified join set
-        @param s the set of joins for which a new ordering (plan) is being added
+        specified set
+        @param s the set of tables for which a new plan is being added
         @param cost the estimated cost of the specified plan
         @param card the estimatied cardinality of the specified plan
-        @param order the ordering of the joins in the plan
+        @param outer the subset of s on the outer side of the top join, 0 for a base table
+        @param join the join of outer with the rest of s, null for a base table
     */
-    void addPlan(Set<LogicalJoinNode> s, double cost, int card, Vector<LogicalJoinNode> order) {
-        bestOrders.put(s,order);                        
-        bestCosts.put(s,cost);
-        bestCardinalities.put(s,card);
+    void addPlan(long s, double cost, int card, long outer, LogicalJoinNode join) {
+        int i = (int) s;
+        planned[i] = true;
+        bestCosts[i] = cost;
+        bestCardinalities[i] = card;
+        bestOuters[i] = outer;
+        bestJoins[i] = join;
     }
-    
-    /** Find the best join order in the cache for the specified plan 
-        @param s the set of joins to look up the best order for
-        @return the best order for s in the cache
-    */
-    Vector<LogicalJoinNode> getOrder(Set<LogicalJoinNode> s) {
-        return bestOrders.get(s);
+
+    /** @return true if a plan for the specified set of tables is in the cache */
+    boolean hasPlan(long s) {
+        return planned[(int) s];
     }
-    
-    /** Find the cost of the best join order in the cache for the specified plan 
-        @param s the set of joins to look up the best cost for
-        @return the cost of the best order for s in the cache
+
+    /** Find the cost of the best plan in the cache for the specified set of tables
+        @param s the set of tables to look up the best cost for
+        @return the cost of the best plan for s in the cache
     */
-    double getCost(Set<LogicalJoinNode> s) {
-        return bestCosts.get(s);
+    double getCost(long s) {
+        return bestCosts[(int) s];
     }
-    
-    /** Find the cardinality of the best join order in the cache for the specified plan 
-        @param s the set of joins to look up the best cardinality for
-        @return the cardinality of the best order for s in the cache
+
+    /** Find the cardinality of the best plan in the cache for the specified set of tables
+        @param s the set of tables to look up the best cardinality for
+        @return the cardinality of the best plan for s in the cache
     */
-    int getCard(Set<LogicalJoinNode> s) {
-        return bestCardinalities.get(s);
+    int getCard(long s) {
+        return bestCardinalities[(int) s];
+    }
+
+    /** @return the subset of s on the outer side of the top join of its best plan,
+        0 if s is a base table */
+    long getOuter(long s) {
+        return bestOuters[(int) s];
+    }
+
+    /** @return the top join of the best plan for s, null if s is a base table */
+    LogicalJoinNode getJoin(long s) {
+        return bestJoins[(int) s];
     }
 }
@@ -0,0 +1,158 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * A PreparedStatement is a query that has been parsed once, by
+ * {@link Parser#prepare}, and can be run any number of times, in any
+ * transaction, without being parsed or optimized again.  A constant of its
+ * WHERE clause may be left out as <tt>?</tt>, a parameter, whose value is
+ * given each time the statement is bound.
+ * <p>
+ * The joins are ordered, and the indexes to read tables through chosen, when
+ * the statement is first bound, estimating the selectivities of the filters
+ * from the values of the parameters given then, and that plan is kept for
+ * later bindings.  The plan is made again when the {@link TableStats} of one
+ * of the tables of the query have been replaced or rebuilt, that is after
+ * more than {@link TableStats#REFRESH_FRACTION} of its tuples have changed.
+ * Binding then only builds the operators of the plan for the transaction.
+ *
+ * @Threadsafe
+ */
+public class PreparedStatement {
+
+    private final String sql;
+    private final LogicalPlan lp;
+    private final String[] tableNames;
+    private final int[] tableIds;
+
+    //排序连接时所用的各表统计信息及其版本，null表示尚未排序
+    private TableStats[] plannedStats;
+    private long[] plannedVersions;
+
+    /**
+     * Create a statement from the logical plan parsed from its text.
+     *
+     * @param sql the normalized text of the statement, see
+     *        {@link StatementCache#normalize}
+     * @param lp the logical plan of the statement, which must not contain
+     *        subqueries
+     */
+    PreparedStatement(String sql, LogicalPlan lp) {
+        this.sql = sql;
+        this.lp = lp;
+        //查询中的各表（同一表的多个别名只算一次）
+        ArrayList<Integer> ids = new ArrayList<Integer>();
+        for (int id : lp.getTableAliasToIdMapping().values()) {
+            if (!ids.contains(id)) {
+                ids.add(id);
+            }
+        }
+        tableNames = new String[ids.size()];
+        tableIds = new int[ids.size()];
+        for (int i = 0; i < tableIds.length; i++) {
+            tableIds[i] = ids.get(i);
+            tableNames[i] = Database.getCatalog().getTableName(tableIds[i]);
+        }
+    }
+
+    /** @return the normalized text of the statement */
+    public String getSql() {
+        return sql;
+    }
+
+    /** @return the number of parameters of the statement */
+    public int numParameters() {
+        return lp.numParameters();
+    }
+
+    /**
+     * @return true if the tables of the statement are still in the catalog
+     *         under the names they had when it was prepared
+     */
+    public boolean isValid() {
+        Catalog catalog = Database.getCatalog();
+        for (int i = 0; i < tableIds.length; i++) {
+            try {
+                if (catalog.getTableId(tableNames[i]) != tableIds[i]) {
+                    return false;
+                }
+            } catch (NoSuchElementException e) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the next {@link #bind} will order the joins, because
+     *         the statement has not been bound yet or the statistics of one
+     *         of its tables have changed since
+     */
+    public synchronized boolean needsPlanning() {
+        if (plannedStats == null) {
+            return true;
+        }
+        Map<String, TableStats> stats = TableStats.getStatsMap();
+        for (int i = 0; i < tableNames.length; i++) {
+            TableStats s = stats.get(tableNames[i]);
+            if (s != plannedStats[i] || (s != null && s.getVersion() != plannedVersions[i])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Build the physical plan of the statement for a transaction, with the
+     * given values of its parameters.
+     *
+     * @param tid the transaction the query will run in
+     * @param params the values of the parameters, in the order of their
+     *        <tt>?</tt> in the text: Integers for integer fields, Strings
+     *        for string fields (or the integers as Strings)
+     * @return the query, ready to be started
+     * @throws ParsingException if the number of parameters is wrong, or a
+     *         value is not of the type of its field
+     */
+    public synchronized Query bind(TransactionId tid, Object... params) throws ParsingException {
+        if (params.length != numParameters()) {
+            throw new ParsingException("Statement has " + numParameters()
+                    + " parameters, but " + params.length + " were given");
+        }
+        String[] values = new String[params.length];
+        for (int i = 0; i < params.length; i++) {
+            if (params[i] == null) {
+                throw new ParsingException("No value for parameter " + (i + 1));
+            }
+            values[i] = params[i].toString();
+        }
+
+        Map<String, TableStats> stats = TableStats.getStatsMap();
+        if (needsPlanning()) {
+            //先记下版本，排序期间统计信息的变化留待下次重新排序
+            TableStats[] planned = new TableStats[tableNames.length];
+            long[] versions = new long[tableNames.length];
+            for (int i = 0; i < tableNames.length; i++) {
+                planned[i] = stats.get(tableNames[i]);
+                versions[i] = planned[i] == null ? 0 : planned[i].getVersion();
+            }
+            lp.resetJoinOrder();
+            plannedStats = null;
+            OpIterator pp = lp.physicalPlan(tid, stats, values, Parser.explain);
+            plannedStats = planned;
+            plannedVersions = versions;
+            return query(tid, pp);
+        }
+        return query(tid, lp.physicalPlan(tid, stats, values, false));
+    }
+
+    private Query query(TransactionId tid, OpIterator pp) {
+        Query q = new Query(tid);
+        q.setPhysicalPlan(pp);
+        q.setLogicalPlan(lp);
+        return q;
+    }
+}
@@ -13,6 +13,8 @@ public class QueryPlanVisualizer {
     static final String PROJECT = "π";
     static final String RENAME = "ρ";
     static final String SCAN = "scan";
+    static final String INDEX_SCAN = "index scan";
+    static final String REVERSE_SCAN = "reverse index scan";
     static final String ORDERBY = "o";
     static final String GROUPBY = "g";
     static final String SPACE = "  ";
@@ -65,24 +67,49 @@ public class QueryPlanVisualizer {
         int adjustDepth = currentDepth == 0 ? -1 : 0;
         SubTreeDescriptor thisNode = new SubTreeDescriptor(null, null);
 
-        if (queryPlan instanceof SeqScan) {
-            SeqScan s = (SeqScan) queryPlan;
-            String tableName = s.getTableName();
-            String alias = s.getAlias();
+        if (!(queryPlan instanceof Operator)) {
+            //SeqScan，或者按索引谓词扫描的BTreeScan、BTreeReverseScan
+            String scan = SCAN;
+            String tableName;
+            String alias;
+            IndexPredicate ipred = null;
+            if (queryPlan instanceof BTreeScan) {
+                BTreeScan s = (BTreeScan) queryPlan;
+                scan = INDEX_SCAN;
+                tableName = s.getTableName();
+                alias = s.getAlias();
+                ipred = s.getIndexPredicate();
+            } else if (queryPlan instanceof BTreeReverseScan) {
+                BTreeReverseScan s = (BTreeReverseScan) queryPlan;
+                scan = REVERSE_SCAN;
+                tableName = s.getTableName();
+                alias = s.getAlias();
+                ipred = s.getIndexPredicate();
+            } else {
+                SeqScan s = (SeqScan) queryPlan;
+                tableName = s.getTableName();
+                alias = s.getAlias();
+            }
 //            TupleDesc td = s.getTupleDesc();
             if (!tableName.equals(alias))
                 alias = " " + alias;
             else
                 alias = "";
+            if (ipred != null) {
+                int key = ((BTreeFile) Database.getCatalog().getDatabaseFile(
+                        Database.getCatalog().getTableId(tableName))).keyField();
+                alias += "," + queryPlan.getTupleDesc().getFieldName(key)
+                        + ipred.getOp() + ipred.getField();
+            }
             thisNode.text = String
-                    .format("%1$s(%2$s)", SCAN, tableName + alias);
-            if (SCAN.length() / 2 < parentUpperBarStartShift) {
+                    .format("%1$s(%2$s)", scan, tableName + alias);
+            if (scan.length() / 2 < parentUpperBarStartShift) {
                 thisNode.upBarPosition = currentStartPosition
                         + parentUpperBarStartShift;
                 thisNode.textStartPosition = thisNode.upBarPosition
-                        - SCAN.length() / 2;
+                        - scan.length() / 2;
             } else {
-                thisNode.upBarPosition = currentStartPosition + SCAN.length()
+                thisNode.upBarPosition = currentStartPosition + scan.length()
                         / 2;
                 thisNode.textStartPosition = currentStartPosition;
             }
@@ -0,0 +1,117 @@
+package simpledb;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * StatementCache keeps the most recently used {@link PreparedStatement}s,
+ * by their normalized text, so that a query that is run again is neither
+ * parsed nor optimized again.  When the cache is full the statement used
+ * least recently is dropped.  {@link Parser#prepare} looks statements up
+ * here, and the Parser runs every query without parameters through it.
+ *
+ * @Threadsafe
+ */
+public class StatementCache {
+
+    /** The number of statements the cache of a Database keeps */
+    public static final int DEFAULT_CAPACITY = 256;
+
+    private final LinkedHashMap<String, PreparedStatement> statements;
+    private int capacity;
+
+    /**
+     * Create a cache of at most capacity statements.
+     */
+    public StatementCache(int capacity) {
+        //按访问顺序排列，最先的是最久未用的
+        this.statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                return size() > StatementCache.this.capacity;
+            }
+        };
+        setCapacity(capacity);
+    }
+
+    /**
+     * Set the number of statements the cache keeps, dropping the least
+     * recently used ones if it holds more.
+     */
+    public synchronized void setCapacity(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("capacity " + capacity + " is negative");
+        }
+        this.capacity = capacity;
+        while (statements.size() > capacity) {
+            statements.remove(statements.keySet().iterator().next());
+        }
+    }
+
+    public synchronized int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @param sql the text of a statement, normalized or not
+     * @return the statement with that text, or null if it is not cached
+     */
+    public synchronized PreparedStatement get(String sql) {
+        return statements.get(normalize(sql));
+    }
+
+    /** Cache a statement under its text */
+    public synchronized void put(PreparedStatement ps) {
+        statements.put(ps.getSql(), ps);
+    }
+
+    /** Drop the statement with the given text, if it is cached */
+    public synchronized void remove(String sql) {
+        statements.remove(normalize(sql));
+    }
+
+    /** Drop all statements */
+    public synchronized void clear() {
+        statements.clear();
+    }
+
+    /** @return the number of statements cached */
+    public synchronized int size() {
+        return statements.size();
+    }
+
+    /**
+     * Normalize the text of a statement, so that texts that differ only in
+     * their white space, or in a final semicolon, are cached as one
+     * statement: runs of white space outside string constants become one
+     * space, and leading and trailing white space and semicolons are
+     * removed.
+     */
+    public static String normalize(String sql) {
+        StringBuilder sb = new StringBuilder(sql.length());
+        boolean quoted = false;
+        boolean space = false;
+        for (int i = 0; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (!quoted && Character.isWhitespace(c)) {
+                space = true;
+                continue;
+            }
+            if (space && sb.length() > 0) {
+                sb.append(' ');
+            }
+            space = false;
+            if (c == '\'') {
+                //字符串常量中的''也就是先结束再开始
+                quoted = !quoted;
+            }
+            sb.append(c);
+        }
+        int end = sb.length();
+        while (end > 0 && (sb.charAt(end - 1) == ';' || sb.charAt(end - 1) == ' ')) {
+            end--;
+        }
+        return sb.substring(0, end);
+    }
+}
@@ -1,23 +1,40 @@
 package simpledb;
 
+import java.util.Map;
+
 /**
- * A class to represent a fixed-width histogram over a single String-based
- * field.
+ * A class to represent a histogram over a single String-based field.
+ * <p>
+ * Strings are histogrammed by their first four characters in an
+ * {@link EquiDepthHistogram}, which estimates range predicates.  Since
+ * strings sharing those characters fall together there, the most common
+ * values are kept as whole strings instead, as the EquiDepthHistogram keeps
+ * integers, and equality with one of them is estimated from its own
+ * frequency.  Equality with any other string is estimated from the number
+ * of distinct strings, if it is given (see {@link #setDistinctValues}).
  */
 public class StringHistogram {
-    final IntHistogram hist;
+    final EquiDepthHistogram hist;
+    private final int buckets;
+    private final FrequentValues<String> frequent;
+    private int distinct;
+
+    //最常见的完整字符串及其出现次数，加入新的值后重新计算
+    private volatile Map<String, Long> mostCommon;
 
     /**
      * Create a new StringHistogram with a specified number of buckets.
      * <p>
-     * Our implementation is written in terms of an IntHistogram by converting
-     * each String to an integer.
+     * Our implementation is written in terms of an EquiDepthHistogram by
+     * converting each String to an integer.
      * 
      * @param buckets
      *            the number of buckets
      */
     public StringHistogram(int buckets) {
-        hist = new IntHistogram(buckets, minVal(), maxVal());
+        this.buckets = buckets;
+        hist = new EquiDepthHistogram(buckets, minVal(), maxVal(), false);
+        frequent = new FrequentValues<String>(EquiDepthHistogram.FREQUENT_COUNTERS);
     }
 
     /**
@@ -63,6 +80,58 @@ public class StringHistogram {
     public void addValue(String s) {
         int val = stringToInt(s);
         hist.addValue(val);
+        frequent.add(s);
+        mostCommon = null;
+    }
+
+    /** Remove a value that was added before */
+    void removeValue(String s) {
+        hist.removeValue(stringToInt(s));
+        frequent.remove(s);
+        mostCommon = null;
+    }
+
+    /** Add the values of another StringHistogram with as many buckets to this one */
+    void merge(StringHistogram other) {
+        hist.merge(other.hist);
+        frequent.merge(other.frequent);
+        mostCommon = null;
+    }
+
+    /**
+     * Set the number of distinct strings in the column, so that equality
+     * with a string that is not among the most common is estimated from it.
+     */
+    public void setDistinctValues(int distinct) {
+        this.distinct = distinct;
+    }
+
+    //出现次数不少于一个桶的深度的完整字符串
+    private Map<String, Long> mostCommon() {
+        Map<String, Long> values = mostCommon;
+        if (values == null) {
+            values = frequent.atLeast(Math.max(2, (frequent.total() + buckets - 1) / buckets));
+            mostCommon = values;
+        }
+        return values;
+    }
+
+    //等于s的字符串所占的比例：常见字符串取其自身的比例，其余字符串平分剩下的比例
+    private double fractionEqual(String s) {
+        Map<String, Long> values = mostCommon();
+        double n = frequent.total();
+        Long count = values.get(s);
+        if (count != null) {
+            return count / n;
+        }
+        if (distinct <= values.size()) {
+            return hist.estimateSelectivity(Predicate.Op.EQUALS, stringToInt(s));
+        }
+        double rest = n;
+        for (long c : values.values()) {
+            rest -= c;
+        }
+        return rest / n / (distinct - values.size());
     }
 
     /**
@@ -75,8 +144,19 @@ public class StringHistogram {
      *            The string to apply op to
      */
     public double estimateSelectivity(Predicate.Op op, String s) {
-        int val = stringToInt(s);
-        return hist.estimateSelectivity(op, val);
+        if (frequent.total() == 0) {
+            return 0;
+        }
+        switch (op) {
+            case EQUALS:
+            case LIKE:
+                return fractionEqual(s);
+            case NOT_EQUALS:
+                return 1 - fractionEqual(s);
+            default:
+                int val = stringToInt(s);
+                return hist.estimateSelectivity(op, val);
+        }
     }
 
     /**
@@ -87,6 +167,21 @@ public class StringHistogram {
      *         efficient optimization
      * */
     public double avgSelectivity() {
-        return hist.avgSelectivity();
+        if (frequent.total() == 0) {
+            return 0;
+        }
+        //常见字符串的比例平方和，加上其余字符串平分剩下比例的部分
+        Map<String, Long> values = mostCommon();
+        double n = frequent.total();
+        double avg = 0;
+        double rest = 1;
+        for (long count : values.values()) {
+            avg += (count / n) * (count / n);
+            rest -= count / n;
+        }
+        if (distinct <= values.size()) {
+            return avg + rest * rest * hist.avgSelectivity();
+        }
+        return avg + rest * rest / (distinct - values.size());
     }
 }
@@ -1,22 +1,64 @@
 package simpledb;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 /**
  * TableStats represents statistics (e.g., histograms) about base tables in a
  * query. 
  * 
  * This class is not needed in implementing lab1 and lab2.
+ * <p>
+ * The statistics are collected in a single scan of the table.  The pages of
+ * a HeapFile are split into runs of {@link #PAGES_PER_TASK} that are scanned
+ * in parallel on the caller's fork-join pool (the common pool if the caller
+ * is not running in one), each into its own per-column
+ * summaries, which are merged as the tasks join.  Integer columns are
+ * summarized with buckets whose width doubles whenever a value falls outside
+ * them, so no pass is needed to find the range of a column first.
+ * <p>
+ * Columns are described by {@link EquiDepthHistogram}s (through
+ * {@link StringHistogram} for strings), which keep the most common values
+ * apart, so that skewed columns are estimated well.  The number of distinct
+ * values of each column is estimated with a {@link HyperLogLog} sketch, so
+ * the scan keeps a fixed few KB per column however many values there are.
+ * <p>
+ * The summaries of the scan are kept and updated with every tuple the
+ * BufferPool inserts or deletes, when the transaction that changed it
+ * commits (changes of transactions that abort are dropped), and the
+ * histograms are rebuilt from them once more than
+ * {@link #REFRESH_FRACTION} of the tuples have changed.  Deleted values
+ * cannot be taken out of the distinct-value sketches, so once that many
+ * tuples have been deleted a HeapFile is also rescanned in the background.
+ * Changes committed while a table is rescanned may be missed.
+ * <p>
+ * A HeapFile of more than {@link #SAMPLE_PAGES} pages is sampled instead of
+ * scanned: that many random pages are read, straight from the file or from
+ * the last logged image of a cached page, so that the BufferPool neither
+ * caches them nor evicts other pages for them, and without taking locks.
+ * A reservoir of {@link #SAMPLE_TUPLES} of their tuples is summarized as a
+ * full scan would be, the number of tuples is scaled up from the tuples per
+ * sampled page, and the number of distinct values from the values seen
+ * once in the sample (the Duj1 estimator of Haas and Stokes, which
+ * PostgreSQL's ANALYZE uses too).  Selectivities
+ * need no scaling.  Later changes enter the summaries with the probability
+ * that a tuple of the table is in the sample.
  */
 public class TableStats {
 
     private static final ConcurrentHashMap<String, TableStats> statsMap = new ConcurrentHashMap<String, TableStats>();
 
-    static final int IOCOSTPERPAGE = 1000;
-
     public static TableStats getTableStats(String tablename) {
         return statsMap.get(tablename);
     }
@@ -47,15 +89,25 @@ public class TableStats {
         return statsMap;
     }
 
+    /**
+     * Compute the statistics of every table in the catalog.  Tables are
+     * scanned in parallel, as are the pages of each table, in the caller's
+     * fork-join pool or the common pool.  Reading a page costs the
+     * sequential page cost of the current {@link CostModel}.
+     */
     public static void computeStatistics() {
         Iterator<Integer> tableIt = Database.getCatalog().tableIdIterator();
+        List<Integer> tableIds = new ArrayList<Integer>();
+        while (tableIt.hasNext()) {
+            tableIds.add(tableIt.next());
+        }
 
         System.out.println("Computing table stats.");
-        while (tableIt.hasNext()) {
-            int tableid = tableIt.next();
-            TableStats s = new TableStats(tableid, IOCOSTPERPAGE);
+        tableIds.parallelStream().forEach(tableid -> {
+            int ioCostPerPage = (int) Math.round(CostModel.getCostModel().getSeqPageCost());
+            TableStats s = new TableStats(tableid, ioCostPerPage);
             setTableStats(Database.getCatalog().getTableName(tableid), s);
-        }
+        });
         System.out.println("Done.");
     }
 
@@ -66,6 +118,67 @@ public class TableStats {
      */
     static final int NUM_HIST_BINS = 100;
 
+    /**
+     * The number of pages of a HeapFile that one fork-join task scans.
+     */
+    static final int PAGES_PER_TASK = 32;
+
+    /**
+     * The number of buckets the per-task summary of an integer column keeps.
+     * It is larger than the number of fine buckets an EquiDepthHistogram
+     * cuts its buckets from, so that the summary's coarser, power-of-two
+     * aligned buckets lose little when they are spread over them.
+     */
+    static final int SUMMARY_BINS = 2048;
+
+    /**
+     * The fraction of a table's tuples that may be inserted or deleted
+     * before its histograms are rebuilt, or, for deletions, before it is
+     * rescanned.
+     */
+    static final double REFRESH_FRACTION = 0.1;
+
+    /**
+     * The number of changes that never triggers a refresh, so that small
+     * tables are not rebuilt on every change.
+     */
+    static final int REFRESH_THRESHOLD = 100;
+
+    /**
+     * The number of pages of a HeapFile above which it is sampled, and the
+     * number of pages that are sampled.
+     */
+    static final int SAMPLE_PAGES = 1024;
+
+    /**
+     * The number of tuples of the sampled pages that are summarized.
+     */
+    static final int SAMPLE_TUPLES = 30000;
+
+    private final int tableid;
+    private final DbFile file;
+    private final int ioCostPerPage;
+    private final int samplePages;
+    private final TupleDesc td;
+    private final Random random = new Random();
+
+    //扫描得到的各列摘要，随插入和删除更新；以下字段需持有this的锁访问
+    private ColumnSummary[] summaries;
+    private int changes;        //上次重建直方图之后插入和删除的元组数
+    private int deletes;        //上次扫描之后删除的元组数
+    private int scannedTuples;  //上次扫描到的元组数
+    private boolean rescanning;
+    private double sampleRate;      //摘要中的元组占表中元组的比例
+    private double[] distinctScale; //由样本中的不同值个数估计表中不同值个数的倍数
+
+    private volatile int numTuples;
+    //由摘要构建，重建时整体替换，构建之后不再修改
+    private volatile int numPages;
+    private volatile EquiDepthHistogram[] intHists;
+    private volatile StringHistogram[] stringHists;
+    private volatile int[] distinct;
+    private volatile long version;  //每次重建直方图加一
+
     /**
      * Create a new TableStats object, that keeps track of statistics on each
      * column of a table
@@ -77,6 +190,22 @@ public class TableStats {
      *            sequential-scan IO and disk seeks.
      */
     public TableStats(int tableid, int ioCostPerPage) {
+        this(tableid, ioCostPerPage, SAMPLE_PAGES);
+    }
+
+    /**
+     * Create a new TableStats object, sampling samplePages pages of the
+     * table if it is a HeapFile of more pages than that.
+     *
+     * @param tableid
+     *            The table over which to compute statistics
+     * @param ioCostPerPage
+     *            The cost per page of IO.
+     * @param samplePages
+     *            The number of pages above which the table is sampled, and
+     *            the number of pages sampled; 0 to always scan the table
+     */
+    public TableStats(int tableid, int ioCostPerPage, int samplePages) {
         // For this function, you'll have to get the
         // DbFile for the table in question,
         // then scan through its tuples and calculate
@@ -85,6 +214,454 @@ public class TableStats {
         // necessarily have to (for example) do everything
         // in a single scan of the table.
         // some code goes here
+        this.tableid = tableid;
+        this.file = Database.getCatalog().getDatabaseFile(tableid);
+        this.ioCostPerPage = ioCostPerPage;
+        this.samplePages = samplePages;
+        this.td = file.getTupleDesc();
+        synchronized (this) {
+            collect(false);
+            rebuild();
+        }
+    }
+
+    //扫描或抽样得到各列的摘要，替换现有的摘要
+    private void collect(boolean background) {
+        if (!(file instanceof HeapFile) || samplePages <= 0 || file.numPages() <= samplePages) {
+            ColumnSummary[] fresh = scan(file, background);
+            double[] scale = new double[td.numFields()];
+            Arrays.fill(scale, 1);
+            synchronized (this) {
+                summaries = fresh;
+                numTuples = fresh[0].count;
+                scannedTuples = numTuples;
+                sampleRate = 1;
+                distinctScale = scale;
+            }
+            return;
+        }
+
+        //随机选取samplePages个页面（Floyd算法），按页号顺序读取，从其中的元组中蓄水池抽样
+        int pages = file.numPages();
+        TreeSet<Integer> pgNos = new TreeSet<Integer>();
+        for (int j = pages - samplePages; j < pages; j++) {
+            int pgNo = random.nextInt(j + 1);
+            pgNos.add(pgNos.contains(pgNo) ? j : pgNo);
+        }
+        List<Tuple> reservoir = new ArrayList<Tuple>();
+        long seen = 0;
+        int read = 0;   //实际读到的页面数，跳过的页面不计入
+        for (int pgNo : pgNos) {
+            HeapPage page = samplePage(new HeapPageId(tableid, pgNo));
+            if (page == null) {
+                continue;
+            }
+            read++;
+            Iterator<Tuple> it = page.iterator();
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                if (reservoir.size() < SAMPLE_TUPLES) {
+                    reservoir.add(t);
+                } else {
+                    long j = (long) (random.nextDouble() * (seen + 1));
+                    if (j < SAMPLE_TUPLES) {
+                        reservoir.set((int) j, t);
+                    }
+                }
+                seen++;
+            }
+        }
+
+        double rows = read == 0 ? 0 : (double) seen * pages / read;
+        ColumnSummary[] fresh = new ColumnSummary[td.numFields()];
+        double[] scale = new double[td.numFields()];
+        for (int i = 0; i < fresh.length; i++) {
+            fresh[i] = new ColumnSummary(td.getFieldType(i));
+            HashMap<Field, Integer> counts = new HashMap<Field, Integer>();
+            for (Tuple t : reservoir) {
+                fresh[i].add(t.getField(i));
+                counts.merge(t.getField(i), 1, Integer::sum);
+            }
+            //Duj1：n * d / (n - f1 + f1 * n / rows)，f1为样本中只出现一次的值的个数
+            double n = reservoir.size();
+            double once = 0;
+            for (int c : counts.values()) {
+                if (c == 1) {
+                    once++;
+                }
+            }
+            double estimate = n * counts.size() / (n - once + once * n / rows);
+            scale[i] = counts.isEmpty() ? 1 : estimate / counts.size();
+        }
+        synchronized (this) {
+            summaries = fresh;
+            numTuples = (int) Math.min(Integer.MAX_VALUE, Math.round(rows));
+            scannedTuples = numTuples;
+            sampleRate = rows == 0 ? 1 : Math.min(1, reservoir.size() / rows);
+            distinctScale = scale;
+        }
+    }
+
+    //缓存中的页面取其before image，即最近一次记录日志时的内容，否则直接从文件读取；都不加锁，也不放入缓存
+    private HeapPage samplePage(HeapPageId pid) {
+        try {
+            byte[] data = Database.getBufferPool().getLoggedPageData(pid);
+            return data != null ? new HeapPage(pid, data) : (HeapPage) file.readPage(pid);
+        } catch (IOException | NoSuchElementException e) {
+            //页面可能正被写入，跳过读到的不完整内容（readPage读取失败时也返回null）
+            return null;
+        }
+    }
+
+    //扫描整个表得到各列的摘要
+    private static ColumnSummary[] scan(DbFile file, boolean background) {
+        //HeapFile按页面划分给并行任务扫描，其他文件（如BTreeFile）由一个任务顺序扫描
+        ScanTask task = file instanceof HeapFile
+                ? new ScanTask(file, 0, file.numPages(), background)
+                : new ScanTask(file, 0, 0, background);
+        //在调用者所在的fork-join池中运行，否则使用公共池
+        return task.invoke();
+    }
+
+    //由摘要重建直方图，并重新开始计算修改的元组数
+    private synchronized void rebuild() {
+        EquiDepthHistogram[] ints = new EquiDepthHistogram[td.numFields()];
+        StringHistogram[] strings = new StringHistogram[td.numFields()];
+        int[] d = new int[td.numFields()];
+        for (int i = 0; i < td.numFields(); i++) {
+            d[i] = summaries[i].distinctValues(distinctScale[i], numTuples, sampleRate >= 1);
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                ints[i] = summaries[i].toHistogram(d[i]);
+            } else {
+                //摘要中的直方图还会随修改变化，发布一份拷贝
+                strings[i] = new StringHistogram(NUM_HIST_BINS);
+                strings[i].merge(summaries[i].strings);
+                strings[i].setDistinctValues(d[i]);
+            }
+        }
+        intHists = ints;
+        stringHists = strings;
+        distinct = d;
+        numPages = file.numPages();
+        changes = 0;
+        version++;
+    }
+
+    /**
+     * Record that tuples were inserted into a table, in the statistics of
+     * the table if there are any.  Called by the BufferPool when the
+     * transaction that inserted them commits.
+     */
+    static void tuplesInserted(int tableid, List<Tuple> tuples) {
+        TableStats s = forTable(tableid);
+        if (s != null) {
+            s.changed(tuples, true);
+        }
+    }
+
+    /**
+     * Record that tuples were deleted from a table, in the statistics of
+     * the table if there are any.  Called by the BufferPool when the
+     * transaction that deleted them commits.
+     */
+    static void tuplesDeleted(int tableid, List<Tuple> tuples) {
+        TableStats s = forTable(tableid);
+        if (s != null) {
+            s.changed(tuples, false);
+        }
+    }
+
+    //以表名登记的该表的统计信息；同名的旧表的统计信息不算
+    private static TableStats forTable(int tableid) {
+        String name;
+        try {
+            name = Database.getCatalog().getTableName(tableid);
+        } catch (NoSuchElementException e) {
+            return null;
+        }
+        TableStats s = name == null ? null : statsMap.get(name);
+        return s != null && s.tableid == tableid ? s : null;
+    }
+
+    private synchronized void changed(List<Tuple> tuples, boolean inserted) {
+        for (Tuple t : tuples) {
+            //抽样得到的摘要中，修改按相同的比例抽样计入
+            if (sampleRate < 1 && random.nextDouble() >= sampleRate) {
+                continue;
+            }
+            for (int i = 0; i < summaries.length; i++) {
+                if (inserted) {
+                    summaries[i].add(t.getField(i));
+                } else {
+                    summaries[i].remove(t.getField(i));
+                }
+            }
+        }
+        numTuples = Math.max(0, numTuples + (inserted ? tuples.size() : -tuples.size()));
+        changes += tuples.size();
+        if (!inserted) {
+            deletes += tuples.size();
+        }
+        if (changes > Math.max(REFRESH_THRESHOLD, REFRESH_FRACTION * numTuples)) {
+            rebuild();
+        }
+        rescanIfNeeded();
+    }
+
+    //删除的值无法从HyperLogLog中去掉，删除足够多时在后台重新扫描HeapFile替换累积了误差的摘要
+    private synchronized void rescanIfNeeded() {
+        if (!rescanning && file instanceof HeapFile
+                && deletes > Math.max(REFRESH_THRESHOLD, REFRESH_FRACTION * scannedTuples)) {
+            rescanning = true;
+            int deletesBefore = deletes;
+            ForkJoinPool.commonPool().execute(() -> rescan(deletesBefore));
+        }
+    }
+
+    private void rescan(int deletesBefore) {
+        try {
+            collect(true);
+            synchronized (this) {
+                //扫描期间的删除可能没有被扫描看到，仍计入下一次扫描
+                deletes -= deletesBefore;
+                rebuild();
+            }
+        } catch (RuntimeException e) {
+            //扫描失败时保留原有的摘要，之后的删除会再次触发扫描
+            e.printStackTrace();
+        } finally {
+            synchronized (this) {
+                rescanning = false;
+                rescanIfNeeded();
+            }
+        }
+    }
+
+    /**
+     * Scans a run of pages of a table into a summary of each column,
+     * splitting the run among subtasks when it is longer than
+     * PAGES_PER_TASK.  Each task reads its pages in a transaction of its own.
+     * A background scan of a HeapFile reads each page in a transaction of
+     * its own instead, so that it never holds a lock while it waits for one
+     * and cannot deadlock with the transactions changing the table.
+     */
+    private static class ScanTask extends RecursiveTask<ColumnSummary[]> {
+        private static final long serialVersionUID = 1L;
+
+        private final DbFile file;
+        private final int lo;
+        private final int hi;
+        private final boolean background;
+
+        //hi为0时顺序扫描整个文件
+        ScanTask(DbFile file, int lo, int hi, boolean background) {
+            this.file = file;
+            this.lo = lo;
+            this.hi = hi;
+            this.background = background;
+        }
+
+        @Override
+        protected ColumnSummary[] compute() {
+            if (hi - lo > PAGES_PER_TASK) {
+                int mid = (lo + hi) >>> 1;
+                ScanTask left = new ScanTask(file, lo, mid, background);
+                left.fork();
+                ColumnSummary[] right = new ScanTask(file, mid, hi, background).compute();
+                ColumnSummary[] summaries = left.join();
+                for (int i = 0; i < summaries.length; i++) {
+                    summaries[i].merge(right[i]);
+                }
+                return summaries;
+            }
+
+            TupleDesc td = file.getTupleDesc();
+            ColumnSummary[] summaries = new ColumnSummary[td.numFields()];
+            for (int i = 0; i < summaries.length; i++) {
+                summaries[i] = new ColumnSummary(td.getFieldType(i));
+            }
+            TransactionId tid = new TransactionId();
+            try {
+                if (hi == 0 && !(file instanceof HeapFile)) {
+                    DbFileIterator it = file.iterator(tid);
+                    it.open();
+                    while (it.hasNext()) {
+                        add(summaries, it.next());
+                    }
+                    it.close();
+                } else {
+                    for (int pgNo = lo; pgNo < hi; pgNo++) {
+                        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid,
+                                new HeapPageId(file.getId(), pgNo), Permissions.READ_ONLY);
+                        Iterator<Tuple> it = page.iterator();
+                        while (it.hasNext()) {
+                            add(summaries, it.next());
+                        }
+                        if (background) {
+                            Database.getBufferPool().transactionComplete(tid);
+                            tid = new TransactionId();
+                        }
+                    }
+                }
+            } catch (Exception e) {
+                throw new RuntimeException("failed to scan table " + file.getId() + ": " + e.getMessage(), e);
+            } finally {
+                //扫描失败时也要释放读锁，否则写这些页面的事务会一直等待
+                try {
+                    Database.getBufferPool().transactionComplete(tid);
+                } catch (IOException e) {
+                    throw new RuntimeException("failed to scan table " + file.getId() + ": " + e.getMessage(), e);
+                }
+            }
+            return summaries;
+        }
+
+        private static void add(ColumnSummary[] summaries, Tuple t) {
+            for (int i = 0; i < summaries.length; i++) {
+                summaries[i].add(t.getField(i));
+            }
+        }
+    }
+
+    /**
+     * The values seen in one column by a scan task: their number, a
+     * HyperLogLog sketch of the distinct values and, for strings, a
+     * StringHistogram.  For integers it
+     * keeps the most common values, the minimum and maximum and
+     * SUMMARY_BINS buckets of a
+     * power-of-two width, each starting at a multiple of the width, so that
+     * summaries with different ranges can be brought to common buckets and
+     * merged.
+     */
+    private static class ColumnSummary {
+        final Type type;
+        final HyperLogLog distinct = new HyperLogLog();
+        int count;
+        StringHistogram strings;
+        FrequentValues<Integer> frequent;
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        //bins[i]为[lo + i * width, lo + (i + 1) * width)中值的个数
+        long lo;
+        long width = 1;
+        int[] bins;
+
+        ColumnSummary(Type type) {
+            this.type = type;
+            if (type == Type.STRING_TYPE) {
+                strings = new StringHistogram(NUM_HIST_BINS);
+            } else {
+                frequent = new FrequentValues<Integer>(EquiDepthHistogram.FREQUENT_COUNTERS);
+            }
+        }
+
+        void add(Field f) {
+            count++;
+            distinct.add(f);
+            if (type == Type.STRING_TYPE) {
+                strings.addValue(((StringField) f).getValue());
+                return;
+            }
+            int v = ((IntField) f).getValue();
+            frequent.add(v);
+            if (bins == null) {
+                bins = new int[SUMMARY_BINS];
+                lo = v;
+            } else if (v < lo || v >= lo + SUMMARY_BINS * width) {
+                rebin(Math.min(min, v), Math.max(max, v), width);
+            }
+            bins[(int) ((v - lo) / width)]++;
+            min = Math.min(min, v);
+            max = Math.max(max, v);
+        }
+
+        //去掉一个之前加入的值；最小值、最大值和HyperLogLog无法随之更新
+        void remove(Field f) {
+            if (count > 0) {
+                count--;
+            }
+            if (type == Type.STRING_TYPE) {
+                strings.removeValue(((StringField) f).getValue());
+                return;
+            }
+            int v = ((IntField) f).getValue();
+            frequent.remove(v);
+            if (bins != null && v >= lo && v < lo + SUMMARY_BINS * width && bins[(int) ((v - lo) / width)] > 0) {
+                bins[(int) ((v - lo) / width)]--;
+            }
+        }
+
+        void merge(ColumnSummary other) {
+            count += other.count;
+            distinct.merge(other.distinct);
+            if (type == Type.STRING_TYPE) {
+                strings.merge(other.strings);
+                return;
+            }
+            frequent.merge(other.frequent);
+            if (other.bins == null) {
+                return;
+            }
+            if (bins == null) {
+                bins = new int[SUMMARY_BINS];
+                lo = other.lo;
+                width = other.width;
+            }
+            int newMin = Math.min(min, other.min);
+            int newMax = Math.max(max, other.max);
+            rebin(newMin, newMax, Math.max(width, other.width));
+            other.rebin(newMin, newMax, width);
+            for (int i = 0; i < SUMMARY_BINS; i++) {
+                bins[i] += other.bins[i];
+            }
+            min = newMin;
+            max = newMax;
+        }
+
+        //换成能覆盖[a, b]且宽度不小于minWidth的最窄的对齐桶；宽度都是2的幂，旧桶恰好落在一个新桶内
+        private void rebin(long a, long b, long minWidth) {
+            long w = minWidth;
+            long l = Math.floorDiv(a, w) * w;
+            while (b >= l + SUMMARY_BINS * w) {
+                w *= 2;
+                l = Math.floorDiv(a, w) * w;
+            }
+            if (w == width && l == lo) {
+                return;
+            }
+            int[] newBins = new int[SUMMARY_BINS];
+            for (int i = 0; i < SUMMARY_BINS; i++) {
+                if (bins[i] != 0) {
+                    newBins[(int) ((lo + i * width - l) / w)] += bins[i];
+                }
+            }
+            bins = newBins;
+            lo = l;
+            width = w;
+        }
+
+        EquiDepthHistogram toHistogram(int distinctValues) {
+            if (bins == null) {
+                return new EquiDepthHistogram(NUM_HIST_BINS, 0, 0);
+            }
+            EquiDepthHistogram hist = new EquiDepthHistogram(NUM_HIST_BINS, min, max);
+            for (int i = 0; i < SUMMARY_BINS; i++) {
+                hist.addValues(lo + i * width, lo + (i + 1) * width - 1, bins[i]);
+            }
+            hist.addFrequentValues(frequent);
+            hist.setDistinctValues(distinctValues);
+            return hist;
+        }
+
+        //估计值乘以scale，不超过表中的元组数；摘要包含整个表时，对整数也不超过取值范围的大小
+        //（抽样的摘要只有样本的取值范围，可能远小于表的）
+        int distinctValues(double scale, int rows, boolean whole) {
+            double estimate = Math.min(distinct.estimate() * scale, rows);
+            if (bins != null && whole) {
+                estimate = Math.min(estimate, (double) max - min + 1);
+            }
+            return (int) Math.round(estimate);
+        }
     }
 
     /**
@@ -96,12 +673,43 @@ public class TableStats {
      * if the last page of the table only has one tuple on it, it's just as
      * expensive to read as a full page. (Most real hard drives can't
      * efficiently address regions smaller than a page at a time.)
+     * <p>
+     * Passing each tuple on costs {@link CostModel#getTupleCost()} more.
      * 
      * @return The estimated cost of scanning the table.
      */
     public double estimateScanCost() {
         // some code goes here
-        return 0;
+        //读取每个元组还有CPU开销
+        return (double) numPages * ioCostPerPage + (double) numTuples * CostModel.getCostModel().getTupleCost();
+    }
+
+    /**
+     * Estimates the cost of reading the tuples of a BTreeFile whose keys
+     * satisfy a predicate through its index, as a BTreeScan does.  The
+     * search reads one page on each level of the tree, from the root pointer
+     * down, out of order, so at the random page cost of the current
+     * {@link CostModel} (relative to its sequential page cost, which
+     * ioCostPerPage stands for).  The leaves holding the selected fraction
+     * of the tuples are then read in key order, as a full scan reads all of
+     * them.  The height of the tree is estimated from the number of pages
+     * and the length of the keys.
+     *
+     * @param selectivity
+     *            The selectivity of the predicate on the key
+     * @return The estimated cost of the index scan, comparable with
+     *         {@link #estimateScanCost()}
+     */
+    public double estimateIndexScanCost(double selectivity) {
+        CostModel m = CostModel.getCostModel();
+        //内部页面的扇出按每项一个键和一个子页面号估计
+        int keyLen = file instanceof BTreeFile
+                ? td.getFieldType(((BTreeFile) file).keyField()).getLen()
+                : Type.INT_TYPE.getLen();
+        double fanout = Math.max(2, BufferPool.getPageSize() / (keyLen + BTreePage.INDEX_SIZE));
+        double levels = 1 + Math.ceil(Math.log(Math.max(1, numPages)) / Math.log(fanout));
+        double randomPageCost = ioCostPerPage * m.getRandomPageCost() / m.getSeqPageCost();
+        return levels * randomPageCost + selectivity * estimateScanCost();
     }
 
     /**
@@ -115,7 +723,7 @@ public class TableStats {
      */
     public int estimateTableCardinality(double selectivityFactor) {
         // some code goes here
-        return 0;
+        return (int) Math.round(numTuples * selectivityFactor);
     }
 
     /**
@@ -127,10 +735,28 @@ public class TableStats {
      * The semantic of the method is that, given the table, and then given a
      * tuple, of which we do not know the value of the field, return the
      * expected selectivity. You may estimate this value from the histograms.
+     * <p>
+     * For equality this is the chance that two values drawn from the column
+     * are equal; a range comparison is taken to hold for half of the pairs
+     * that are not equal.
      * */
     public double avgSelectivity(int field, Predicate.Op op) {
         // some code goes here
-        return 1.0;
+        double eq = td.getFieldType(field) == Type.INT_TYPE
+                ? intHists[field].avgSelectivity()
+                : stringHists[field].avgSelectivity();
+        switch (op) {
+            case EQUALS:
+            case LIKE:
+                return eq;
+            case NOT_EQUALS:
+                return 1 - eq;
+            case LESS_THAN:
+            case GREATER_THAN:
+                return (1 - eq) / 2;
+            default:
+                return (1 + eq) / 2;
+        }
     }
 
     /**
@@ -148,7 +774,10 @@ public class TableStats {
      */
     public double estimateSelectivity(int field, Predicate.Op op, Field constant) {
         // some code goes here
-        return 1.0;
+        if (td.getFieldType(field) == Type.INT_TYPE) {
+            return intHists[field].estimateSelectivity(op, ((IntField) constant).getValue());
+        }
+        return stringHists[field].estimateSelectivity(op, ((StringField) constant).getValue());
     }
 
     /**
@@ -156,7 +785,34 @@ public class TableStats {
      * */
     public int totalTuples() {
         // some code goes here
-        return 0;
+        return numTuples;
+    }
+
+    /**
+     * @return the number of pages in this table
+     */
+    public int numPages() {
+        return numPages;
+    }
+
+    /**
+     * @param field the index of the field
+     * @return the number of distinct values in the field, estimated from a
+     *     HyperLogLog sketch of a few KB, so within a few percent of the
+     *     exact number
+     */
+    public int numDistinctValues(int field) {
+        return distinct[field];
+    }
+
+    /**
+     * @return a number that grows each time the histograms are rebuilt, that
+     *     is once more than {@link #REFRESH_FRACTION} of the tuples have
+     *     changed, so that plans made from the statistics can tell that
+     *     they are out of date
+     */
+    public long getVersion() {
+        return version;
     }
 
 }
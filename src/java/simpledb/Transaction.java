@@ -47,8 +47,9 @@ public class Transaction {
             if (abort) {
                 Database.getLogFile().logAbort(tid); //does rollback too
             } else {
-                //write all the dirty pages for this transaction out
-                Database.getBufferPool().flushPages(tid);
+                //log all the dirty pages for this transaction; they are
+                //written out later (NO-FORCE)
+                Database.getBufferPool().logPages(tid);
                 Database.getLogFile().logCommit(tid);
             }
 
@@ -60,6 +61,9 @@ public class Transaction {
 
             //setting this here means we could possibly write multiple abort records -- OK?
             started = false;
+
+            //no locks are held any more, so this is a safe point for a checkpoint
+            Database.getLogFile().checkpointIfNeeded();
         }
     }
 }
@@ -313,6 +313,51 @@ public class BTreeInternalPageTest extends SimpleDbTestBase {
 		}
 	}
 
+	/**
+	 * Unit test for BTreeInternalPage.getChildFor() and getReverseChildFor(),
+	 * against a linear scan of the entries
+	 */
+	@Test public void getChildFor() throws Exception {
+		BTreeInternalPage page = new BTreeInternalPage(pid, EXAMPLE_DATA, 0);
+		checkChildFor(page);
+
+		// the binary search sees entries deleted from the page
+		Iterator<BTreeEntry> it = page.iterator();
+		LinkedList<BTreeEntry> entries = new LinkedList<BTreeEntry>();
+		while (it.hasNext())
+			entries.add(it.next());
+		page.deleteKeyAndLeftChild(entries.removeFirst());
+		page.deleteKeyAndRightChild(entries.get(5));
+		checkChildFor(page);
+	}
+
+	private void checkChildFor(BTreeInternalPage page) {
+		assertEquals(page.iterator().next().getLeftChild(), page.getChildFor(null));
+		assertEquals(page.reverseIterator().next().getRightChild(), page.getReverseChildFor(null));
+		for (int key = 0; key < 70000; key += 71) {
+			for (IntField f : new IntField[]{new IntField(key), new IntField(EXAMPLE_VALUES[key % 20][1])}) {
+				BTreePageId left = null;
+				BTreeEntry e = null;
+				Iterator<BTreeEntry> it = page.iterator();
+				while (it.hasNext() && left == null) {
+					e = it.next();
+					if (e.getKey().compare(Predicate.Op.GREATER_THAN_OR_EQ, f))
+						left = e.getLeftChild();
+				}
+				assertEquals(left == null ? e.getRightChild() : left, page.getChildFor(f));
+
+				BTreePageId right = null;
+				it = page.reverseIterator();
+				while (it.hasNext() && right == null) {
+					e = it.next();
+					if (e.getKey().compare(Predicate.Op.LESS_THAN_OR_EQ, f))
+						right = e.getRightChild();
+				}
+				assertEquals(right == null ? e.getLeftChild() : right, page.getReverseChildFor(f));
+			}
+		}
+	}
+
 	/**
 	 * JUnit suite target
 	 */
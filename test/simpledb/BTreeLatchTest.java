@@ -0,0 +1,110 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.Predicate.Op;
+
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BTreeLatchTest extends SimpleDbTestBase {
+	private TransactionId tid;
+	private BTreeFile bf;
+
+	/**
+	 * Set up initial resources for each unit test.
+	 */
+	@Before
+	public void setUp() throws Exception {
+		tid = new TransactionId();
+		// a root internal page over a few dozen leaves
+		bf = BTreeUtility.createRandomBTreeFile(2, 10000, null, null, 0);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	private BTreePageId rootId() throws Exception {
+		BTreePageId rootPtrPid = BTreeRootPtrPage.getId(bf.getId());
+		TransactionId t = new TransactionId();
+		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(t, rootPtrPid, Permissions.READ_ONLY);
+		BTreePageId rootId = rootPtr.getRootId();
+		Database.getBufferPool().transactionComplete(t);
+		return rootId;
+	}
+
+	/**
+	 * A search latches the internal pages it passes through, but only locks the leaves
+	 */
+	@Test
+	public void searchLocksOnlyLeaves() throws Exception {
+		BTreePageId rootId = rootId();
+		assertEquals(BTreePageId.INTERNAL, rootId.pgcateg());
+
+		DbFileIterator it = bf.indexIterator(tid, new IndexPredicate(Op.EQUALS, new IntField(0)));
+		it.open();
+		while (it.hasNext()) {
+			it.next();
+		}
+		it.close();
+
+		BufferPool pool = Database.getBufferPool();
+		assertFalse(pool.holdsLock(tid, BTreeRootPtrPage.getId(bf.getId())));
+		assertFalse(pool.holdsLock(tid, rootId));
+		BTreeLeafPage leaf = bf.findLeafPage(tid, Permissions.READ_ONLY, new IntField(0));
+		assertTrue(pool.holdsLock(tid, leaf.getId()));
+	}
+
+	/**
+	 * A leaf split changes the root while another transaction is reading
+	 * through it
+	 */
+	@Test
+	public void splitWhileSearching() throws Exception {
+		BTreePageId rootId = rootId();
+		int rootEntries = ((BTreeInternalPage) Database.getBufferPool().getPage(tid, rootId,
+				Permissions.READ_ONLY)).getNumEntries();
+		Database.getBufferPool().transactionComplete(tid);
+		tid = new TransactionId();
+
+		// the reader stays on the leftmost leaf
+		DbFileIterator it = bf.iterator(tid);
+		it.open();
+		assertTrue(it.hasNext());
+		it.next();
+
+		// the writer fills the rightmost leaf until it splits
+		TransactionId writer = new TransactionId();
+		int numPages = bf.numPages();
+		for (int i = 0; bf.numPages() == numPages; i++) {
+			Database.getBufferPool().insertTuple(writer, bf.getId(),
+					BTreeUtility.getBTreeTuple(new int[]{BTreeUtility.MAX_RAND_VALUE + i, i}));
+		}
+		Database.getBufferPool().transactionComplete(writer);
+
+		while (it.hasNext()) {
+			it.next();
+		}
+		it.close();
+
+		TransactionId t = new TransactionId();
+		BTreeInternalPage root = (BTreeInternalPage) Database.getBufferPool().getPage(t, rootId,
+				Permissions.READ_ONLY);
+		assertEquals(rootEntries + 1, root.getNumEntries());
+		Database.getBufferPool().transactionComplete(t);
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(BTreeLatchTest.class);
+	}
+}
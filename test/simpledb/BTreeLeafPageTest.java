@@ -336,6 +336,47 @@ public class BTreeLeafPageTest extends SimpleDbTestBase {
 		}
 	}
 
+	/**
+	 * Unit test for BTreeLeafPage.iterator(Field) and reverseIterator(Field)
+	 */
+	@Test public void iteratorFromKey() throws Exception {
+		BTreeLeafPage page = new BTreeLeafPage(pid, EXAMPLE_DATA, 0);
+		// duplicates of an existing key, in between the other tuples
+		page.insertTuple(BTreeUtility.getBTreeTuple(new int[]{22064, 1}));
+		page.insertTuple(BTreeUtility.getBTreeTuple(new int[]{22064, 2}));
+		page.deleteTuple(page.iterator().next());
+
+		for (int key = 0; key < 70000; key += 97) {
+			for (IntField f : new IntField[]{new IntField(key), new IntField(EXAMPLE_VALUES[key % 20][0])}) {
+				ArrayList<Tuple> expected = new ArrayList<Tuple>();
+				Iterator<Tuple> it = page.iterator();
+				while (it.hasNext()) {
+					Tuple t = it.next();
+					if (t.getField(0).compare(Predicate.Op.GREATER_THAN_OR_EQ, f))
+						expected.add(t);
+				}
+				ArrayList<Tuple> actual = new ArrayList<Tuple>();
+				it = page.iterator(f);
+				while (it.hasNext())
+					actual.add(it.next());
+				assertEquals(expected, actual);
+
+				expected.clear();
+				it = page.reverseIterator();
+				while (it.hasNext()) {
+					Tuple t = it.next();
+					if (t.getField(0).compare(Predicate.Op.LESS_THAN_OR_EQ, f))
+						expected.add(t);
+				}
+				actual.clear();
+				it = page.reverseIterator(f);
+				while (it.hasNext())
+					actual.add(it.next());
+				assertEquals(expected, actual);
+			}
+		}
+	}
+
 	/**
 	 * JUnit suite target
 	 */
@@ -0,0 +1,48 @@
+package simpledb;
+
+import java.io.File;
+import java.io.FileWriter;
+
+import org.junit.Test;
+import org.junit.Assert;
+
+public class CostModelTest {
+
+	/** Saved constants are read back, and missing ones take their defaults */
+	@Test public void saveLoadTest() throws Exception {
+		File f = File.createTempFile("costmodel", ".properties");
+		f.deleteOnExit();
+		new CostModel(100, 400, 2, 3, 5).save(f);
+		CostModel m = CostModel.load(f);
+		Assert.assertEquals(100, m.getSeqPageCost(), 0.0);
+		Assert.assertEquals(400, m.getRandomPageCost(), 0.0);
+		Assert.assertEquals(2, m.getTupleCost(), 0.0);
+		Assert.assertEquals(3, m.getHashCost(), 0.0);
+		Assert.assertEquals(5, m.getMergeCost(), 0.0);
+
+		FileWriter w = new FileWriter(f);
+		w.write("hashCost = 9\n");
+		w.close();
+		m = CostModel.load(f);
+		Assert.assertEquals(9, m.getHashCost(), 0.0);
+		Assert.assertEquals(CostModel.DEFAULT.getSeqPageCost(), m.getSeqPageCost(), 0.0);
+	}
+
+	/**
+	 * The inner is read again for each block or hash table of the outer,
+	 * and a nested-loops join compares every pair of tuples.
+	 */
+	@Test public void joinCostTest() {
+		CostModel m = new CostModel(100, 400, 2, 3, 5);
+		// one block: outer and inner read once, 10 * 20 comparisons
+		Assert.assertEquals(50 + 70 + 2 * (10 + 20) + 200,
+				m.blockNestedLoopJoinCost(10, 20, 50, 70, 100), 0.001);
+		// three blocks
+		Assert.assertEquals(50 + 3 * 70 + 2 * (250 + 3 * 20) + 250 * 20,
+				m.blockNestedLoopJoinCost(250, 20, 50, 70, 100), 0.001);
+		// two hash tables, no comparisons
+		Assert.assertEquals(50 + 2 * 70 + (2 + 3) * (150 + 2 * 20),
+				m.hashJoinCost(150, 20, 50, 70, 100), 0.001);
+		Assert.assertEquals(5 * 7, m.outputCost(7), 0.0);
+	}
+}
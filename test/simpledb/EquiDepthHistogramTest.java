@@ -0,0 +1,119 @@
+package simpledb;
+
+import java.util.Random;
+
+import org.junit.Test;
+import org.junit.Assert;
+
+import simpledb.Predicate.Op;
+
+public class EquiDepthHistogramTest {
+
+	/**
+	 * Make sure that equality and range estimates do something reasonable
+	 * for a handful of values.
+	 */
+	@Test public void smallTest() {
+		EquiDepthHistogram h = new EquiDepthHistogram(10, 1, 10);
+		h.addValue(3);
+		h.addValue(3);
+		h.addValue(3);
+		h.addValue(1);
+		h.addValue(10);
+
+		Assert.assertEquals(0.6, h.estimateSelectivity(Op.EQUALS, 3), 0.001);
+		Assert.assertEquals(0.0, h.estimateSelectivity(Op.EQUALS, 8), 0.001);
+		Assert.assertEquals(0.4, h.estimateSelectivity(Op.NOT_EQUALS, 3), 0.001);
+		Assert.assertEquals(0.2, h.estimateSelectivity(Op.LESS_THAN, 3), 0.001);
+		Assert.assertEquals(0.8, h.estimateSelectivity(Op.LESS_THAN_OR_EQ, 3), 0.001);
+		Assert.assertEquals(0.2, h.estimateSelectivity(Op.GREATER_THAN, 3), 0.001);
+		Assert.assertEquals(1.0, h.estimateSelectivity(Op.GREATER_THAN_OR_EQ, 1), 0.001);
+		Assert.assertEquals(0.0, h.estimateSelectivity(Op.GREATER_THAN, 10), 0.001);
+	}
+
+	/**
+	 * A hot value among many uniform ones is estimated from its own
+	 * frequency, where a fixed-width histogram spreads it over its bucket.
+	 */
+	@Test public void hotValueTest() {
+		EquiDepthHistogram h = new EquiDepthHistogram(100, 0, 999999);
+		IntHistogram fixed = new IntHistogram(100, 0, 999999);
+		Random r = new Random(1);
+		for (int i = 0; i < 100000; i++) {
+			int v = i % 10 == 0 ? 4242 : r.nextInt(1000000);
+			h.addValue(v);
+			fixed.addValue(v);
+		}
+
+		Assert.assertEquals(0.1, h.estimateSelectivity(Op.EQUALS, 4242), 0.005);
+		Assert.assertTrue(fixed.estimateSelectivity(Op.EQUALS, 4242) < 0.001);
+		Assert.assertEquals(0.9, h.estimateSelectivity(Op.NOT_EQUALS, 4242), 0.005);
+		Assert.assertEquals(0.1 + 0.9 * 4242 / 1e6, h.estimateSelectivity(Op.LESS_THAN_OR_EQ, 4242), 0.005);
+		Assert.assertEquals(0.9 * 4242 / 1e6, h.estimateSelectivity(Op.LESS_THAN, 4242), 0.005);
+		Assert.assertEquals(0.9e-6, h.estimateSelectivity(Op.EQUALS, 500000), 1e-6);
+	}
+
+	/**
+	 * Buckets hold about the same number of values, so a dense range of a
+	 * sparse column is estimated as closely as the rest.
+	 */
+	@Test public void equiDepthTest() {
+		EquiDepthHistogram h = new EquiDepthHistogram(100, 0, 1000000);
+		Random r = new Random(1);
+		// half of the values lie in the first 1% of the range
+		for (int i = 0; i < 100000; i++) {
+			h.addValue(i % 2 == 0 ? r.nextInt(10000) : r.nextInt(1000001));
+		}
+		Assert.assertEquals(0.25 + 0.5 * 0.005, h.estimateSelectivity(Op.LESS_THAN, 5000), 0.02);
+		Assert.assertEquals(0.5 + 0.5 * 0.01, h.estimateSelectivity(Op.LESS_THAN, 10000), 0.02);
+		Assert.assertEquals(0.5 * 0.5, h.estimateSelectivity(Op.GREATER_THAN, 500000), 0.02);
+	}
+
+	/**
+	 * The number of distinct values, when given, divides a bucket among the
+	 * values that occur rather than every integer it covers.
+	 */
+	@Test public void distinctValuesTest() {
+		EquiDepthHistogram h = new EquiDepthHistogram(10, 0, 999999);
+		for (int i = 0; i < 10000; i++) {
+			h.addValue((i % 100) * 10000);
+		}
+		Assert.assertTrue(h.estimateSelectivity(Op.EQUALS, 30000) < 0.001);
+		h.setDistinctValues(100);
+		Assert.assertEquals(0.01, h.estimateSelectivity(Op.EQUALS, 30000), 0.002);
+		Assert.assertEquals(0.01, h.avgSelectivity(), 0.002);
+	}
+
+	/** Histograms of two halves of the values merge into one of them all */
+	@Test public void mergeTest() {
+		EquiDepthHistogram h = new EquiDepthHistogram(20, -1000, 1000);
+		EquiDepthHistogram other = new EquiDepthHistogram(20, -1000, 1000);
+		for (int i = -1000; i < 1000; i++) {
+			(i < 0 ? h : other).addValue(i);
+			(i < 0 ? h : other).addValue(7);
+		}
+		h.merge(other);
+		// the most common value may be undercounted by up to 1/(FREQUENT_COUNTERS + 1) of the values
+		Assert.assertEquals(0.5, h.estimateSelectivity(Op.EQUALS, 7), 0.005);
+		Assert.assertEquals(0.25, h.estimateSelectivity(Op.LESS_THAN, 0), 0.01);
+		Assert.assertEquals(0.25, h.estimateSelectivity(Op.GREATER_THAN, 7), 0.01);
+	}
+
+	/**
+	 * The most common strings are told apart even when they share their
+	 * first characters with all others.
+	 */
+	@Test public void stringTest() {
+		StringHistogram h = new StringHistogram(100);
+		for (int i = 0; i < 20000; i++) {
+			h.addValue(i % 5 == 0 ? "customer-000042" : String.format("customer-%06d", i));
+		}
+		h.setDistinctValues(16001);
+
+		Assert.assertEquals(0.2, h.estimateSelectivity(Op.EQUALS, "customer-000042"), 0.005);
+		Assert.assertEquals(0.8 / 16000, h.estimateSelectivity(Op.EQUALS, "customer-000043"), 1e-6);
+		Assert.assertEquals(0.8, h.estimateSelectivity(Op.NOT_EQUALS, "customer-000042"), 0.005);
+		Assert.assertEquals(0.0, h.estimateSelectivity(Op.LESS_THAN, "b"), 0.001);
+		Assert.assertEquals(1.0, h.estimateSelectivity(Op.GREATER_THAN, "b"), 0.001);
+	}
+}
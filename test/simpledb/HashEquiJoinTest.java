@@ -0,0 +1,89 @@
+package simpledb;
+
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class HashEquiJoinTest extends SimpleDbTestBase {
+
+  int width1 = 2;
+  int width2 = 3;
+  OpIterator scan1;
+  OpIterator scan2;
+  OpIterator eqJoin;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void createTupleLists() throws Exception {
+    this.scan1 = TestUtil.createTupleList(width1,
+        new int[] { 1, 2,
+                    3, 4,
+                    3, 5,
+                    7, 8 });
+    this.scan2 = TestUtil.createTupleList(width2,
+        new int[] { 1, 2, 3,
+                    2, 3, 4,
+                    3, 4, 5,
+                    4, 5, 6 });
+    this.eqJoin = TestUtil.createTupleList(width1 + width2,
+        new int[] { 1, 2, 1, 2, 3,
+                    3, 4, 3, 4, 5,
+                    3, 5, 3, 4, 5 });
+  }
+
+  /**
+   * Unit test for HashEquiJoin.getNext() on int join fields
+   */
+  @Test public void eqJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashEquiJoin op = new HashEquiJoin(pred, scan1, scan2);
+    op.open();
+    eqJoin.open();
+    TestUtil.matchAllTuples(eqJoin, op);
+  }
+
+  /**
+   * Unit test for HashEquiJoin.rewind()
+   */
+  @Test public void rewind() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashEquiJoin op = new HashEquiJoin(pred, scan1, scan2);
+    op.open();
+    while (op.hasNext())
+      op.next();
+    assertTrue(TestUtil.checkExhausted(op));
+    op.rewind();
+
+    eqJoin.open();
+    TestUtil.matchAllTuples(eqJoin, op);
+  }
+
+  /**
+   * Unit test for HashEquiJoin.getNext() on string join fields, which use
+   * the generic (Field-keyed) hash table
+   */
+  @Test public void stringJoin() throws Exception {
+    OpIterator left = TestUtil.createTupleList(2,
+        new Object[] { "a", 1, "b", 2, "b", 3 });
+    OpIterator right = TestUtil.createTupleList(2,
+        new Object[] { "b", 10, "c", 20 });
+    OpIterator expected = TestUtil.createTupleList(4,
+        new Object[] { "b", 2, "b", 10, "b", 3, "b", 10 });
+    HashEquiJoin op = new HashEquiJoin(
+        new JoinPredicate(0, Predicate.Op.EQUALS, 0), left, right);
+    op.open();
+    TestUtil.matchAllTuples(expected, op);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(HashEquiJoinTest.class);
+  }
+}
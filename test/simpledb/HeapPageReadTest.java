@@ -57,6 +57,7 @@ public class HeapPageReadTest extends SimpleDbTestBase {
         try {
             File temp = File.createTempFile("table", ".dat");
             temp.deleteOnExit();
+            FreeSpaceMap.mapFile(temp).deleteOnExit();
             HeapFileEncoder.convert(table, temp, BufferPool.getPageSize(), 2);
             EXAMPLE_DATA = TestUtil.readFileBytes(temp.getAbsolutePath());
         } catch (IOException e) {
@@ -0,0 +1,52 @@
+package simpledb;
+
+import java.util.Random;
+
+import org.junit.Test;
+import org.junit.Assert;
+
+public class HyperLogLogTest {
+
+	/** Small numbers of distinct values are counted almost exactly */
+	@Test public void smallTest() {
+		HyperLogLog h = new HyperLogLog();
+		Assert.assertEquals(0, h.estimate(), 0.001);
+		for (int i = 0; i < 10; i++) {
+			for (int v = 0; v < 100; v++) {
+				h.add(new IntField(v));
+			}
+		}
+		Assert.assertEquals(100, h.estimate(), 2);
+	}
+
+	/**
+	 * Large numbers of distinct integers and strings are estimated within
+	 * a few standard errors.
+	 */
+	@Test public void largeTest() {
+		HyperLogLog ints = new HyperLogLog();
+		HyperLogLog strings = new HyperLogLog();
+		Random r = new Random(1);
+		for (int i = 0; i < 1000000; i++) {
+			int v = r.nextInt(200000);
+			ints.add(new IntField(v));
+			strings.add(new StringField("customer-" + v, Type.STRING_LEN));
+		}
+		// about 200000 * (1 - 1/e^5) of the values occur
+		double expected = 200000 * (1 - Math.exp(-5));
+		Assert.assertEquals(expected, ints.estimate(), expected * 0.05);
+		Assert.assertEquals(expected, strings.estimate(), expected * 0.05);
+	}
+
+	/** Sketches of overlapping parts merge into a sketch of their union */
+	@Test public void mergeTest() {
+		HyperLogLog h = new HyperLogLog();
+		HyperLogLog other = new HyperLogLog();
+		for (int v = 0; v < 60000; v++) {
+			h.add(new IntField(v));
+			other.add(new IntField(v + 40000));
+		}
+		h.merge(other);
+		Assert.assertEquals(100000, h.estimate(), 100000 * 0.05);
+	}
+}
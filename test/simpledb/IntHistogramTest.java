@@ -174,4 +174,20 @@ public class IntHistogramTest {
 		Assert.assertTrue(h.estimateSelectivity(Op.NOT_EQUALS, 3) < 0.001);
 		Assert.assertTrue(h.estimateSelectivity(Op.NOT_EQUALS, 8) > 0.01);
 	}
+
+	/**
+	 * Histograms with the same buckets can be merged, and values spread over
+	 * a range are split between the buckets the range covers.
+	 */
+	@Test public void mergeTest() {
+		IntHistogram h = new IntHistogram(10, 0, 99);
+		IntHistogram other = new IntHistogram(10, 0, 99);
+		h.addValue(5);
+		other.addValues(0, 19, 10);
+		h.merge(other);
+
+		Assert.assertEquals(6.0 / 11, h.estimateSelectivity(Op.LESS_THAN, 10), 0.001);
+		Assert.assertEquals(1.0, h.estimateSelectivity(Op.LESS_THAN, 20), 0.001);
+		Assert.assertEquals(0.0, h.estimateSelectivity(Op.GREATER_THAN, 19), 0.001);
+	}
 }
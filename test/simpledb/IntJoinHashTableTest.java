@@ -0,0 +1,74 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class IntJoinHashTableTest extends SimpleDbTestBase {
+
+  private IntJoinHashTable table;
+
+  @Before public void createTable() {
+    // deliberately small so that add() has to grow both the rows and the slots
+    table = new IntJoinHashTable(1);
+  }
+
+  /**
+   * Unit test for IntJoinHashTable.find() on keys that were never added
+   */
+  @Test public void findMissing() {
+    assertEquals(IntJoinHashTable.NO_ROW, table.find(0));
+    table.add(1, Utility.getHeapTuple(1));
+    assertEquals(IntJoinHashTable.NO_ROW, table.find(0));
+    assertEquals(IntJoinHashTable.NO_ROW, table.find(-1));
+  }
+
+  /**
+   * Unit test for IntJoinHashTable.add() with duplicate keys: matches come
+   * back in insertion order
+   */
+  @Test public void duplicateKeys() {
+    Tuple[] tups = new Tuple[5];
+    for (int i = 0; i < tups.length; i++) {
+      tups[i] = Utility.getHeapTuple(i);
+      table.add(7, tups[i]);
+      table.add(i * 1000, Utility.getHeapTuple(i));
+    }
+    int row = table.find(7);
+    for (Tuple t : tups) {
+      assertSame(t, table.getRow(row));
+      row = table.nextRow(row);
+    }
+    assertEquals(IntJoinHashTable.NO_ROW, row);
+  }
+
+  /**
+   * Unit test for IntJoinHashTable growth and clear()
+   */
+  @Test public void manyKeysAndClear() {
+    int n = 50000;
+    for (int i = 0; i < n; i++)
+      table.add(i * 16, Utility.getHeapTuple(i));
+    assertEquals(n, table.size());
+    for (int i = 0; i < n; i++) {
+      int row = table.find(i * 16);
+      assertEquals(i, ((IntField) table.getRow(row).getField(0)).getValue());
+      assertEquals(IntJoinHashTable.NO_ROW, table.nextRow(row));
+    }
+    table.clear();
+    assertEquals(0, table.size());
+    assertEquals(IntJoinHashTable.NO_ROW, table.find(16));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(IntJoinHashTableTest.class);
+  }
+}
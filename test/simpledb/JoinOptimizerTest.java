@@ -38,6 +38,7 @@ public class JoinOptimizerTest extends SimpleDbTestBase {
             throws IOException {
         File temp = File.createTempFile("table", ".dat");
         temp.deleteOnExit();
+        FreeSpaceMap.mapFile(temp).deleteOnExit();
         HeapFileEncoder.convert(tuples, temp, BufferPool.getPageSize(), columns);
         return Utility.openHeapFile(columns, colPrefix, temp);
     }
@@ -265,6 +266,34 @@ public class JoinOptimizerTest extends SimpleDbTestBase {
         Assert.assertTrue(cardinality == 800 || cardinality == 2000);
     }
 
+    /**
+     * Verify that a join on fields that are not keys is estimated from the
+     * numbers of distinct values of the fields
+     */
+    @Test
+    public void estimateNonKeyJoinCardinality() throws ParsingException {
+        TransactionId tid = new TransactionId();
+        Parser p = new Parser();
+        JoinOptimizer j = new JoinOptimizer(p.generateLogicalPlan(tid,
+                "SELECT * FROM " + tableName2 + " t1, " + tableName2
+                        + " t2 WHERE t1.c3 = t2.c4;"),
+                new Vector<LogicalJoinNode>());
+
+        // both fields take the 20 values 0..19
+        int card1 = stats2.estimateTableCardinality(0.8);
+        int card2 = stats2.estimateTableCardinality(0.2);
+        double cardinality = j.estimateJoinCardinality(new LogicalJoinNode(
+                "t1", "t2", "c3", "c4", Predicate.Op.EQUALS), card1, card2,
+                false, false, TableStats.getStatsMap());
+        Assert.assertEquals(card1 * card2 / 20.0, cardinality, card1 * card2 / 20.0 * 0.05);
+
+        // there are fewer joined tuples than values on the filtered side
+        cardinality = j.estimateJoinCardinality(new LogicalJoinNode("t1",
+                "t2", "c3", "c4", Predicate.Op.EQUALS), 10, 5, false, false,
+                TableStats.getStatsMap());
+        Assert.assertEquals(10 * 5 / 10.0, cardinality, 0.001);
+    }
+
     /**
      * Determine whether the orderJoins implementation is doing a reasonable job
      * of ordering joins, and not taking an unreasonable amount of time to do so
@@ -520,6 +549,135 @@ public class JoinOptimizerTest extends SimpleDbTestBase {
         Assert.assertEquals(result.get(result.size() - 1).t2Alias, "bigTable");
     }
 
+    /**
+     * Add copies of a small table named t0, t1, ... to the catalog, with
+     * their stats and filter selectivities, and join them in a chain
+     * t0..t(chain - 1) that ends in a star: the remaining tables all join
+     * the last table of the chain.
+     * 
+     * @return a JoinOptimizer for a query over the tables, given the joins
+     *         in a shuffled order
+     */
+    private JoinOptimizer chainAndStar(int tables, int chain,
+            HashMap<String, TableStats> stats,
+            HashMap<String, Double> filterSelectivities,
+            Vector<LogicalJoinNode> nodes) throws IOException,
+            DbException, TransactionAbortedException, ParsingException {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        SystemTestUtil.createRandomHeapFile(2, 100, 1000, null, tuples, "c");
+
+        StringBuilder from = new StringBuilder();
+        StringBuilder where = new StringBuilder();
+        for (int i = 0; i < tables; i++) {
+            String name = "t" + i;
+            HeapFile f = createDuplicateHeapFile(tuples, 2, "c");
+            Database.getCatalog().addTable(f, name);
+            stats.put(name, new TableStats(f.getId(), 100));
+            filterSelectivities.put(name, 1.0 / (i + 1));
+            from.append(i == 0 ? "" : ", ").append(name);
+            if (i > 0) {
+                String other = "t" + Math.min(i - 1, chain - 1);
+                nodes.add(new LogicalJoinNode(other, name, "c0", "c1", Predicate.Op.EQUALS));
+                where.append(i == 1 ? "" : " AND ").append(other + ".c0 = " + name + ".c1");
+            }
+        }
+        Collections.shuffle(nodes);
+        TransactionId tid = new TransactionId();
+        return new JoinOptimizer(new Parser().generateLogicalPlan(tid,
+                "SELECT COUNT(t0.c0) FROM " + from + " WHERE " + where + ";"), nodes);
+    }
+
+    /**
+     * Check that each join of result combines two subplans that are still
+     * apart, following the subplans as LogicalPlan.physicalPlan does, so
+     * that the order can be executed
+     */
+    private void assertExecutable(Vector<LogicalJoinNode> result, int tables) {
+        HashMap<String, String> subplanOf = new HashMap<String, String>();
+        for (int i = 0; i < tables; i++) {
+            subplanOf.put("t" + i, "t" + i);
+        }
+        for (LogicalJoinNode n : result) {
+            String s1 = subplanOf.get(n.t1Alias);
+            String s2 = subplanOf.get(n.t2Alias);
+            Assert.assertFalse(s1.equals(s2));
+            for (String t : subplanOf.keySet()) {
+                if (subplanOf.get(t).equals(s2)) {
+                    subplanOf.put(t, s1);
+                }
+            }
+        }
+    }
+
+    /**
+     * Order the joins of a twelve-way query whose join graph is a chain
+     * ending in a star by dynamic programming; planning should take
+     * milliseconds.
+     */
+    @Test(timeout = 10000)
+    public void twelveWayOrderJoinsTest() throws IOException, DbException,
+            TransactionAbortedException, ParsingException {
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        HashMap<String, Double> filterSelectivities = new HashMap<String, Double>();
+        Vector<LogicalJoinNode> nodes = new Vector<LogicalJoinNode>();
+        JoinOptimizer j = chainAndStar(12, 7, stats, filterSelectivities, nodes);
+
+        long start = System.currentTimeMillis();
+        Vector<LogicalJoinNode> result = j.orderJoins(stats, filterSelectivities, false);
+        Assert.assertTrue(System.currentTimeMillis() - start < 1000);
+        Assert.assertEquals(nodes.size(), result.size());
+        assertExecutable(result, 12);
+    }
+
+    /**
+     * The joins of more tables than JoinOptimizer.getDpTables() are ordered
+     * greedily, within about the planning budget.
+     */
+    @Test(timeout = 20000)
+    public void greedyOrderJoinsTest() throws IOException, DbException,
+            TransactionAbortedException, ParsingException {
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        HashMap<String, Double> filterSelectivities = new HashMap<String, Double>();
+        Vector<LogicalJoinNode> nodes = new Vector<LogicalJoinNode>();
+        JoinOptimizer j = chainAndStar(40, 20, stats, filterSelectivities, nodes);
+
+        long start = System.currentTimeMillis();
+        Vector<LogicalJoinNode> result = j.orderJoins(stats, filterSelectivities, false);
+        Assert.assertTrue(System.currentTimeMillis() - start
+                < JoinOptimizer.getPlanningBudget() + 1000);
+        Assert.assertEquals(nodes.size(), result.size());
+        assertExecutable(result, 40);
+    }
+
+    /**
+     * Dynamic programming that would take longer than the planning budget,
+     * here for a sixteen-way query in which every pair of tables is joined,
+     * is abandoned for greedy ordering.
+     */
+    @Test(timeout = 20000)
+    public void planningBudgetTest() throws IOException, DbException,
+            TransactionAbortedException, ParsingException {
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        HashMap<String, Double> filterSelectivities = new HashMap<String, Double>();
+        Vector<LogicalJoinNode> nodes = new Vector<LogicalJoinNode>();
+        JoinOptimizer j = chainAndStar(16, 16, stats, filterSelectivities, nodes);
+        for (int a = 0; a < 16; a++) {
+            for (int b = a + 2; b < 16; b++) {
+                nodes.add(new LogicalJoinNode("t" + a, "t" + b, "c0", "c1", Predicate.Op.EQUALS));
+            }
+        }
+
+        JoinOptimizer.setPlanningBudget(20);
+        try {
+            long start = System.currentTimeMillis();
+            Vector<LogicalJoinNode> result = j.orderJoins(stats, filterSelectivities, false);
+            Assert.assertTrue(System.currentTimeMillis() - start < 500);
+            Assert.assertEquals(nodes.size(), result.size());
+        } finally {
+            JoinOptimizer.setPlanningBudget(JoinOptimizer.DEFAULT_PLANNING_BUDGET);
+        }
+    }
+
     /**
      * Test a join ordering with an inequality, to make sure the inequality gets
      * put as the outermost join
@@ -1,7 +1,10 @@
 package simpledb;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Random;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -151,4 +154,187 @@ public class TableStatsTest extends SimpleDbTestBase {
 			Assert.assertEquals(0.0, s.estimateSelectivity(col, Predicate.Op.LESS_THAN_OR_EQ, belowMin), 0.001);
 		}
 	}
+
+	/** @return the fraction of the tuples whose field is less than v */
+	private static double fractionBelow(ArrayList<ArrayList<Integer>> tuples, int field, int v) {
+		int n = 0;
+		for (ArrayList<Integer> t : tuples) {
+			if (t.get(field) < v)
+				n++;
+		}
+		return (double) n / tuples.size();
+	}
+
+	/**
+	 * Statistics of a table scanned by many tasks, each of which sees a
+	 * different range of values, match the values in the table.
+	 */
+	@Test public void parallelScanTest() throws IOException {
+		// column 0 grows from page to page; column 1 is random, with negative values
+		Random r = new Random(1);
+		ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+		HashSet<Integer> distinct = new HashSet<Integer>();
+		for (int i = 0; i < 50000; i++) {
+			ArrayList<Integer> row = new ArrayList<Integer>();
+			row.add(i * 37 - 500000);
+			row.add(r.nextInt(2001) - 1000);
+			rows.add(row);
+			distinct.add(row.get(1));
+		}
+		File file = File.createTempFile("stats", ".dat");
+		file.deleteOnExit();
+		FreeSpaceMap.mapFile(file).deleteOnExit();
+		HeapFileEncoder.convert(rows, file, BufferPool.getPageSize(), 2);
+		HeapFile hf = Utility.openHeapFile(2, file);
+		Assert.assertTrue(hf.numPages() > 3 * TableStats.PAGES_PER_TASK);
+
+		TableStats s = new TableStats(hf.getId(), IO_COST);
+		Assert.assertEquals(50000, s.totalTuples());
+		Assert.assertEquals(hf.numPages(), s.numPages());
+		// the numbers of distinct values are estimated to within a few percent
+		Assert.assertEquals(50000, s.numDistinctValues(0), 50000 * 0.05);
+		Assert.assertEquals(distinct.size(), s.numDistinctValues(1), distinct.size() * 0.05);
+		for (int i = 0; i < 20; i++) {
+			int v0 = r.nextInt(2000000) - 500000;
+			int v1 = r.nextInt(2001) - 1000;
+			Assert.assertEquals(fractionBelow(rows, 0, v0),
+					s.estimateSelectivity(0, Predicate.Op.LESS_THAN, new IntField(v0)), 0.01);
+			Assert.assertEquals(fractionBelow(rows, 1, v1),
+					s.estimateSelectivity(1, Predicate.Op.LESS_THAN, new IntField(v1)), 0.01);
+			Assert.assertEquals(1.0 / 2001, s.estimateSelectivity(1, Predicate.Op.EQUALS, new IntField(v1)), 0.0005);
+		}
+		Assert.assertEquals(1.0 / 2001, s.avgSelectivity(1, Predicate.Op.EQUALS), 0.0005);
+	}
+
+	/**
+	 * A table of more than samplePages pages is sampled, without bringing
+	 * its pages into the buffer pool, and the sample is scaled to the table.
+	 */
+	@Test public void samplingTest() throws IOException {
+		Random r = new Random(1);
+		ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+		for (int i = 0; i < 200000; i++) {
+			ArrayList<Integer> row = new ArrayList<Integer>();
+			row.add(i);
+			row.add(r.nextInt(1000));
+			rows.add(row);
+		}
+		File file = File.createTempFile("stats", ".dat");
+		file.deleteOnExit();
+		FreeSpaceMap.mapFile(file).deleteOnExit();
+		HeapFileEncoder.convert(rows, file, BufferPool.getPageSize(), 2);
+		HeapFile hf = Utility.openHeapFile(2, file);
+		Assert.assertTrue(hf.numPages() > 300);
+
+		TableStats s = new TableStats(hf.getId(), IO_COST, 40);
+		for (int pgNo = 0; pgNo < hf.numPages(); pgNo++) {
+			Assert.assertNull(Database.getBufferPool().getLoggedPageData(new HeapPageId(hf.getId(), pgNo)));
+		}
+		Assert.assertEquals(hf.numPages(), s.numPages());
+		Assert.assertEquals(200000, s.totalTuples(), 200000 * 0.02);
+		Assert.assertEquals(200000, s.numDistinctValues(0), 200000 * 0.1);
+		Assert.assertEquals(1000, s.numDistinctValues(1), 1000 * 0.05);
+		// the first column is clustered by page, so only the second is sampled evenly
+		Assert.assertEquals(0.5, s.estimateSelectivity(1, Predicate.Op.LESS_THAN, new IntField(500)), 0.03);
+		Assert.assertEquals(0.001, s.avgSelectivity(1, Predicate.Op.EQUALS), 0.0002);
+	}
+
+	/** Tables that are not HeapFiles are scanned through their iterator */
+	@Test public void bTreeFileTest() throws Exception {
+		ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+		BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, 5000, 32, null, rows, 0);
+		TableStats s = new TableStats(bf.getId(), IO_COST);
+		Assert.assertEquals(5000, s.totalTuples());
+		Assert.assertEquals(bf.numPages() * IO_COST + 5000 * CostModel.getCostModel().getTupleCost(),
+				s.estimateScanCost(), 0.001);
+		Assert.assertEquals(fractionBelow(rows, 1, 16),
+				s.estimateSelectivity(1, Predicate.Op.LESS_THAN, new IntField(16)), 0.01);
+	}
+
+	/**
+	 * Inserted tuples are counted when their transaction commits, and
+	 * reflected in the histograms once they make up REFRESH_FRACTION of the
+	 * table.  Tuples of a transaction that aborts are not counted.
+	 */
+	@Test public void insertRefreshTest() throws Exception {
+		TableStats s = new TableStats(this.tableId, IO_COST);
+		TableStats.setTableStats(this.tableName, s);
+		Assert.assertEquals(0.0, s.estimateSelectivity(0, Predicate.Op.EQUALS, new IntField(100)), 0.001);
+
+		TransactionId tid = new TransactionId();
+		Database.getBufferPool().insertTuples(tid, this.tableId, tuplesWithFirstField(50, 100));
+		Assert.assertEquals(10200, s.totalTuples());
+		Database.getBufferPool().transactionComplete(tid);
+		Assert.assertEquals(10250, s.totalTuples());
+		// too few changes to rebuild the histograms
+		Assert.assertEquals(0.0, s.estimateSelectivity(0, Predicate.Op.EQUALS, new IntField(100)), 0.001);
+
+		tid = new TransactionId();
+		Database.getBufferPool().insertTuples(tid, this.tableId, tuplesWithFirstField(100, 100));
+		Database.getBufferPool().transactionComplete(tid, false);
+		Assert.assertEquals(10250, s.totalTuples());
+
+		tid = new TransactionId();
+		Database.getBufferPool().insertTuples(tid, this.tableId, tuplesWithFirstField(1150, 100));
+		Database.getBufferPool().transactionComplete(tid);
+		Assert.assertEquals(11400, s.totalTuples());
+		Assert.assertEquals(1200.0 / 11400, s.estimateSelectivity(0, Predicate.Op.EQUALS, new IntField(100)), 0.01);
+		Assert.assertEquals(10200.0 / 11400, s.estimateSelectivity(0, Predicate.Op.LESS_THAN, new IntField(32)), 0.01);
+	}
+
+	/**
+	 * Once REFRESH_FRACTION of the tuples have been deleted, the table is
+	 * rescanned in the background and the deleted values disappear from the
+	 * numbers of distinct values too.
+	 */
+	@Test public void deleteRescanTest() throws Exception {
+		TableStats s = new TableStats(this.tableId, IO_COST);
+		TableStats.setTableStats(this.tableName, s);
+		Assert.assertEquals(32, s.numDistinctValues(1));
+
+		// delete the tuples whose second field is below 8
+		TransactionId tid = new TransactionId();
+		DbFileIterator it = this.f.iterator(tid);
+		it.open();
+		ArrayList<Tuple> toDelete = new ArrayList<Tuple>();
+		while (it.hasNext()) {
+			Tuple t = it.next();
+			if (((IntField) t.getField(1)).getValue() < 8)
+				toDelete.add(t);
+		}
+		it.close();
+		for (Tuple t : toDelete) {
+			Database.getBufferPool().deleteTuple(tid, t);
+		}
+		Database.getBufferPool().transactionComplete(tid);
+		Assert.assertEquals(10200 - toDelete.size(), s.totalTuples());
+
+		for (int i = 0; i < 100 && s.numDistinctValues(1) > 24; i++) {
+			Thread.sleep(100);
+		}
+		Assert.assertEquals(24, s.numDistinctValues(1));
+		Assert.assertEquals(10200 - toDelete.size(), s.totalTuples());
+		Assert.assertEquals(0.0, s.estimateSelectivity(1, Predicate.Op.LESS_THAN, new IntField(8)), 0.001);
+	}
+
+	/** @return n tuples of the table, with first field v and the others 0 */
+	private ArrayList<Tuple> tuplesWithFirstField(int n, int v) {
+		ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+		for (int i = 0; i < n; i++) {
+			Tuple t = new Tuple(this.f.getTupleDesc());
+			for (int j = 0; j < 10; j++) {
+				t.setField(j, new IntField(j == 0 ? v : 0));
+			}
+			tuples.add(t);
+		}
+		return tuples;
+	}
+
+	/** An empty table has no tuples to select */
+	@Test public void emptyTableTest() throws Exception {
+		HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 0, null, null);
+		TableStats s = new TableStats(hf.getId(), IO_COST);
+		Assert.assertEquals(0, s.totalTuples());
+		Assert.assertEquals(0.0, s.estimateSelectivity(0, Predicate.Op.GREATER_THAN, new IntField(1)), 0.001);
+	}
 }
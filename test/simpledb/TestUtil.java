@@ -219,6 +219,11 @@ public class TestUtil {
             throw new RuntimeException("not implemented");
         }
 
+        public ArrayList<Page> insertTuples(TransactionId tid, List<Tuple> tuples)
+            throws DbException, IOException, TransactionAbortedException {
+            throw new RuntimeException("not implemented");
+        }
+
         public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
             throws DbException, TransactionAbortedException {
             throw new RuntimeException("not implemented");
@@ -380,6 +385,7 @@ public class TestUtil {
                 throw new RuntimeException(e);
             }
             emptyFile.deleteOnExit();
+            FreeSpaceMap.mapFile(emptyFile).deleteOnExit();
         }
 
         protected void setUp() throws Exception {
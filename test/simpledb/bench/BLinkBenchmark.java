@@ -0,0 +1,109 @@
+package simpledb.bench;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import simpledb.*;
+import simpledb.Predicate.Op;
+
+/**
+ * Measures point lookup throughput on a B+ tree while one thread keeps
+ * inserting (and splitting pages), with latch crabbing and in B-link mode.
+ * Each lookup and each insert is its own transaction.
+ * <p>
+ * Usage: ant runbench -Dbench=BLinkBenchmark [-Dargs="seconds"]
+ */
+public class BLinkBenchmark {
+
+    private static final int ROWS = 20000;
+    private static final int[] THREADS = {1, 2, 4, 8};
+
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+
+        System.out.println("lookups/s with one concurrent inserter, " + seconds + "s per run");
+        System.out.println("readers   crabbing    b-link");
+        for (int threads : THREADS) {
+            long crabbing = run(false, threads, seconds);
+            long blink = run(true, threads, seconds);
+            System.out.printf("%7d   %8d  %8d%n", threads, crabbing, blink);
+        }
+    }
+
+    private static long run(boolean blink, int readers, int seconds) throws Exception {
+        Database.reset();
+        Database.getLogFile().setCheckpointInterval(0);
+        File f = File.createTempFile("blink", ".dat");
+        f.deleteOnExit();
+        final BTreeFile bf = blink
+                ? BTreeUtility.createEmptyBLinkTreeFile(f.getAbsolutePath(), 2, 0)
+                : BTreeUtility.createEmptyBTreeFile(f.getAbsolutePath(), 2, 0);
+        final BufferPool pool = Database.getBufferPool();
+        Transaction load = new Transaction();
+        load.start();
+        for (int i = 0; i < ROWS; i++) {
+            pool.insertTuple(load.getId(), bf.getId(), BTreeUtility.getBTreeTuple(new int[]{2 * i, i}));
+        }
+        load.commit();
+
+        final AtomicBoolean done = new AtomicBoolean();
+        final AtomicLong lookups = new AtomicLong();
+        List<Thread> threads = new ArrayList<Thread>();
+        threads.add(new Thread() {
+            public void run() {
+                // odd keys, so lookups of even keys never wait for an insert
+                Random rand = new Random(0);
+                while (!done.get()) {
+                    TransactionId tid = new TransactionId();
+                    try {
+                        pool.insertTuple(tid, bf.getId(),
+                                BTreeUtility.getBTreeTuple(new int[]{2 * rand.nextInt(ROWS) + 1, 0}));
+                        pool.transactionComplete(tid);
+                    } catch (Exception e) {
+                        complete(tid, false);
+                    }
+                }
+            }
+        });
+        for (int i = 0; i < readers; i++) {
+            final int seed = i + 1;
+            threads.add(new Thread() {
+                public void run() {
+                    Random rand = new Random(seed);
+                    while (!done.get()) {
+                        TransactionId tid = new TransactionId();
+                        try {
+                            IndexPredicate ipred = new IndexPredicate(Op.EQUALS,
+                                    new IntField(2 * rand.nextInt(ROWS)));
+                            DbFileIterator it = bf.indexIterator(tid, ipred);
+                            it.open();
+                            it.next();
+                            it.close();
+                            complete(tid, true);
+                            lookups.incrementAndGet();
+                        } catch (Exception e) {
+                            complete(tid, false);
+                        }
+                    }
+                }
+            });
+        }
+        for (Thread t : threads) t.start();
+        Thread.sleep(seconds * 1000L);
+        done.set(true);
+        for (Thread t : threads) t.join();
+        return lookups.get() / seconds;
+    }
+
+    private static void complete(TransactionId tid, boolean commit) {
+        try {
+            Database.getBufferPool().transactionComplete(tid, commit);
+        } catch (java.io.IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
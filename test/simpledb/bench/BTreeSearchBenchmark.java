@@ -0,0 +1,131 @@
+package simpledb.bench;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Random;
+
+import simpledb.*;
+import simpledb.Predicate.Op;
+
+/**
+ * Measures the CPU cost of searching inside B+ tree pages: finding the child
+ * for a key on the root page and the first matching tuple on a leaf page, with a linear scan of the page iterator (as the descent used to)
+ * and with the binary search of getChildFor / iterator(Field). Also reports
+ * end-to-end point lookups per second on a tree that fits in the buffer pool.
+ * <p>
+ * Usage: ant runbench -Dbench=BTreeSearchBenchmark [-Dargs="iterations"]
+ */
+public class BTreeSearchBenchmark {
+
+    private static final int ROWS = 100000;
+
+    public static void main(String[] args) throws Exception {
+        int iters = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+        Random rand = new Random(1);
+
+        BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, ROWS, null, null, 0);
+        BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) bf.readPage(BTreeRootPtrPage.getId(bf.getId()));
+        BTreeInternalPage internal = (BTreeInternalPage) bf.readPage(rootPtr.getRootId());
+        BTreeLeafPage leaf = (BTreeLeafPage) bf.readPage(internal.getChildFor(null));
+
+        IntField[] keys = new IntField[1024];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = new IntField(rand.nextInt(BTreeUtility.MAX_RAND_VALUE));
+        }
+
+        System.out.println("internal page with " + internal.getNumEntries() + " entries, leaf page with "
+                + leaf.getNumTuples() + " tuples");
+        System.out.println("operation          linear ns   binary ns");
+        for (int round = 0; round < 2; round++) {
+            // the first round warms up the JIT
+            long[] child = {timeLinearChild(internal, keys, iters), timeBinaryChild(internal, keys, iters)};
+            long[] tuple = {timeLinearTuple(leaf, keys, iters / 10), timeBinaryTuple(leaf, keys, iters / 10)};
+            if (round == 1) {
+                System.out.printf("child for key     %9d   %9d%n", child[0], child[1]);
+                System.out.printf("first tuple >= k  %9d   %9d%n", tuple[0], tuple[1]);
+            }
+        }
+
+        long start = System.nanoTime();
+        int lookups = iters / 20;
+        for (int i = 0; i < lookups; i++) {
+            TransactionId tid = new TransactionId();
+            DbFileIterator it = bf.indexIterator(tid, new IndexPredicate(Op.EQUALS, keys[i % keys.length]));
+            it.open();
+            while (it.hasNext()) {
+                it.next();
+            }
+            it.close();
+            Database.getBufferPool().transactionComplete(tid);
+        }
+        System.out.printf("point lookups/s   %d%n", lookups * 1000000000L / (System.nanoTime() - start));
+    }
+
+    private static long timeLinearChild(BTreeInternalPage page, IntField[] keys, int iters) {
+        long start = System.nanoTime();
+        int sink = 0;
+        for (int i = 0; i < iters; i++) {
+            Field f = keys[i & (keys.length - 1)];
+            Iterator<BTreeEntry> it = page.iterator();
+            BTreeEntry e = null;
+            BTreePageId child = null;
+            while (it.hasNext()) {
+                e = it.next();
+                if (e.getKey().compare(Op.GREATER_THAN_OR_EQ, f)) {
+                    child = e.getLeftChild();
+                    break;
+                }
+            }
+            sink += (child == null ? e.getRightChild() : child).getPageNumber();
+        }
+        consume(sink);
+        return (System.nanoTime() - start) / iters;
+    }
+
+    private static long timeBinaryChild(BTreeInternalPage page, IntField[] keys, int iters) {
+        long start = System.nanoTime();
+        int sink = 0;
+        for (int i = 0; i < iters; i++) {
+            sink += page.getChildFor(keys[i & (keys.length - 1)]).getPageNumber();
+        }
+        consume(sink);
+        return (System.nanoTime() - start) / iters;
+    }
+
+    private static long timeLinearTuple(BTreeLeafPage page, IntField[] keys, int iters) {
+        long start = System.nanoTime();
+        int sink = 0;
+        for (int i = 0; i < iters; i++) {
+            Field f = keys[i & (keys.length - 1)];
+            Iterator<Tuple> it = page.iterator();
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                if (t.getField(0).compare(Op.GREATER_THAN_OR_EQ, f)) {
+                    sink += t.getRecordId().getTupleNumber();
+                    break;
+                }
+            }
+        }
+        consume(sink);
+        return (System.nanoTime() - start) / iters;
+    }
+
+    private static long timeBinaryTuple(BTreeLeafPage page, IntField[] keys, int iters) {
+        long start = System.nanoTime();
+        int sink = 0;
+        for (int i = 0; i < iters; i++) {
+            Iterator<Tuple> it = page.iterator(keys[i & (keys.length - 1)]);
+            if (it.hasNext()) {
+                sink += it.next().getRecordId().getTupleNumber();
+            }
+        }
+        consume(sink);
+        return (System.nanoTime() - start) / iters;
+    }
+
+    private static final ArrayList<Integer> SINK = new ArrayList<Integer>();
+
+    private static void consume(int sink) {
+        SINK.add(sink);
+    }
+}
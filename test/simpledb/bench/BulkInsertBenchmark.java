@@ -0,0 +1,67 @@
+package simpledb.bench;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import simpledb.*;
+
+/**
+ * Measures loading a heap file in one transaction, one
+ * BufferPool.insertTuple call per row against the Insert operator, which
+ * passes the rows to BufferPool.insertTuples in batches.  Reports the time
+ * and the log bytes written, which include the pages the load evicts from
+ * the buffer pool.
+ * <p>
+ * Usage: ant runbench -Dbench=BulkInsertBenchmark [-Dargs="rows"]
+ */
+public class BulkInsertBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        List<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < rows; i++) {
+            tuples.add(Utility.getHeapTuple(new int[]{i, i}));
+        }
+
+        System.out.println(rows + " rows");
+        System.out.println("path          ms      log MB");
+        for (int round = 0; round < 2; round++) {
+            // the first round warms up the JIT
+            for (boolean batched : new boolean[]{false, true}) {
+                long[] r = load(tuples, batched);
+                if (round == 1) {
+                    System.out.printf("%-8s %7d %11.1f%n", batched ? "batched" : "per row", r[0], r[1] / 1e6);
+                }
+            }
+        }
+    }
+
+    /** @return {elapsed ms, log bytes written} */
+    private static long[] load(List<Tuple> tuples, boolean batched) throws Exception {
+        Database.reset();
+        LogFile log = Database.getLogFile();
+        log.setCheckpointInterval(0);
+        File f = File.createTempFile("bulkinsert", ".dat");
+        f.deleteOnExit();
+        FreeSpaceMap.mapFile(f).deleteOnExit();
+        HeapFile hf = Utility.createEmptyHeapFile(f.getAbsolutePath(), 2);
+
+        long startSize = log.getLogSize();
+        long start = System.nanoTime();
+        Transaction t = new Transaction();
+        t.start();
+        if (batched) {
+            Insert insert = new Insert(t.getId(), new TupleIterator(Utility.getTupleDesc(2), tuples), hf.getId());
+            insert.open();
+            insert.next();
+            insert.close();
+        } else {
+            for (Tuple tuple : tuples) {
+                Database.getBufferPool().insertTuple(t.getId(), hf.getId(), tuple);
+            }
+        }
+        t.commit();
+        return new long[]{(System.nanoTime() - start) / 1000000, log.getLogSize() - startSize};
+    }
+}
@@ -0,0 +1,68 @@
+package simpledb.bench;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import simpledb.*;
+
+/**
+ * Measures the time, log bytes and file size of building a B+ tree from
+ * sorted rows, by inserting them one at a time with BufferPool.insertTuple
+ * and with BTreeFile.bulkLoad at a few fill factors. Each build is a single
+ * transaction.
+ * <p>
+ * Usage: ant runbench -Dbench=BulkLoadBenchmark [-Dargs="rows"]
+ */
+public class BulkLoadBenchmark {
+
+    private static final double[] FILL_FACTORS = {1.0, 0.9, 0.7};
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        List<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < rows; i++) {
+            tuples.add(BTreeUtility.getBTreeTuple(new int[]{i, i}));
+        }
+
+        System.out.println(rows + " sorted rows");
+        System.out.println("method            ms   log bytes   pages");
+        print("insertTuple", run(tuples, 0));
+        for (double fill : FILL_FACTORS) {
+            print(String.format("bulkLoad %.1f", fill), run(tuples, fill));
+        }
+    }
+
+    private static void print(String method, long[] r) {
+        System.out.printf("%-13s %6d %11d %7d%n", method, r[0], r[1], r[2]);
+    }
+
+    /** @return {elapsed ms, log bytes written, pages in the file} */
+    private static long[] run(List<Tuple> tuples, double fillFactor) throws Exception {
+        Database.reset();
+        LogFile log = Database.getLogFile();
+        log.setCheckpointInterval(0);
+        File f = File.createTempFile("bulkload", ".dat");
+        f.deleteOnExit();
+        BTreeFile bf = BTreeUtility.createEmptyBTreeFile(f.getAbsolutePath(), 2, 0);
+
+        long startSize = log.getLogSize();
+        long start = System.nanoTime();
+        Transaction t = new Transaction();
+        t.start();
+        if (fillFactor == 0) {
+            for (Tuple tup : tuples) {
+                Database.getBufferPool().insertTuple(t.getId(), bf.getId(), tup);
+            }
+        } else {
+            OpIterator it = new TupleIterator(Utility.getTupleDesc(2), tuples);
+            it.open();
+            bf.bulkLoad(t.getId(), it, fillFactor);
+            it.close();
+        }
+        t.commit();
+        Database.getBufferPool().flushAllPages();
+        long ms = (System.nanoTime() - start) / 1000000;
+        return new long[]{ms, log.getLogSize() - startSize, bf.numPages()};
+    }
+}
@@ -0,0 +1,178 @@
+package simpledb.bench;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.Random;
+
+import simpledb.*;
+
+/**
+ * Measures the constants of the CostModel on this machine and saves them
+ * to CostModel.getFile(), where the optimizer loads them from.  Each
+ * operation is timed in nanoseconds over many repetitions, and the
+ * constants are the times divided by that of one join predicate
+ * evaluation:
+ * <ul>
+ * <li>seqPageCost: HeapFile.readPage of the pages of a large file in order
+ * <li>randomPageCost: the same in random order
+ * <li>tupleCost: a tuple read from a page in the buffer pool
+ * <li>hashCost: an add or a find in an IntJoinHashTable
+ * <li>mergeCost: Tuple.merge of two tuples
+ * </ul>
+ * Pages are read as the operating system serves them, usually from its
+ * cache for a file just written.
+ * <p>
+ * Usage: ant runbench -Dbench=CostCalibrationBenchmark [-Dargs="pages [nosave]"]
+ */
+public class CostCalibrationBenchmark {
+
+    private static final int TUPLES = 1 << 20;
+
+    private static long sink;
+
+    public static void main(String[] args) throws Exception {
+        int pages = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        boolean save = args.length < 2 || !args[1].equals("nosave");
+        Random rand = new Random(1);
+        TupleDesc td = Utility.getTupleDesc(2);
+        Tuple[] tuples = new Tuple[TUPLES];
+        for (int i = 0; i < TUPLES; i++) {
+            tuples[i] = new Tuple(td);
+            tuples[i].setField(0, new IntField(rand.nextInt(TUPLES)));
+            tuples[i].setField(1, new IntField(i));
+        }
+        File file = writeHeapFile(pages, rand);
+
+        double[] ns = new double[6];
+        for (int round = 0; round < 2; round++) {
+            // the first round warms up the JIT
+            ns[0] = predicateNs(tuples);
+            ns[1] = pageNs(file, pages, false);
+            ns[2] = pageNs(file, pages, true);
+            ns[3] = tupleNs(file);
+            ns[4] = hashNs(tuples);
+            ns[5] = mergeNs(tuples);
+        }
+        CostModel m = new CostModel(ns[1] / ns[0], ns[2] / ns[0], ns[3] / ns[0],
+                ns[4] / ns[0], ns[5] / ns[0]);
+
+        String[] names = {"predicate", "seqPageCost", "randomPageCost", "tupleCost", "hashCost", "mergeCost"};
+        double[] costs = {1, m.getSeqPageCost(), m.getRandomPageCost(), m.getTupleCost(),
+                m.getHashCost(), m.getMergeCost()};
+        System.out.println("constant            ns     cost");
+        for (int i = 0; i < names.length; i++) {
+            System.out.printf("%-15s %9.1f %8.1f%n", names[i], ns[i], costs[i]);
+        }
+        if (save) {
+            m.save(CostModel.getFile());
+            System.out.println("saved to " + CostModel.getFile().getAbsolutePath());
+        }
+    }
+
+    //pages个页面的两列整数表
+    private static File writeHeapFile(int pages, Random rand) throws Exception {
+        File text = File.createTempFile("calibrate", ".txt");
+        text.deleteOnExit();
+        int perPage = BufferPool.getPageSize() * 8 / (Utility.getTupleDesc(2).getSize() * 8 + 1);
+        BufferedWriter bw = new BufferedWriter(new FileWriter(text));
+        for (int i = 0; i < pages * perPage; i++) {
+            bw.write(i + "," + rand.nextInt() + "\n");
+        }
+        bw.close();
+        File file = File.createTempFile("calibrate", ".dat");
+        file.deleteOnExit();
+        FreeSpaceMap.mapFile(file).deleteOnExit();
+        HeapFileEncoder.convert(text, file, BufferPool.getPageSize(), 2);
+        return file;
+    }
+
+    private static double predicateNs(Tuple[] tuples) {
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        int reps = 20;
+        long start = System.nanoTime();
+        long matches = 0;
+        for (int r = 0; r < reps; r++) {
+            Tuple left = tuples[r];
+            for (Tuple t : tuples) {
+                if (p.filter(left, t)) {
+                    matches++;
+                }
+            }
+        }
+        sink += matches;
+        return (double) (System.nanoTime() - start) / ((long) reps * tuples.length);
+    }
+
+    private static double pageNs(File file, int pages, boolean random) {
+        Database.reset();
+        HeapFile hf = Utility.openHeapFile(2, file);
+        int[] order = new int[pages];
+        for (int i = 0; i < pages; i++) {
+            order[i] = i;
+        }
+        if (random) {
+            Random rand = new Random(2);
+            for (int i = pages - 1; i > 0; i--) {
+                int j = rand.nextInt(i + 1);
+                int tmp = order[i];
+                order[i] = order[j];
+                order[j] = tmp;
+            }
+        }
+        long start = System.nanoTime();
+        for (int pgNo : order) {
+            sink += hf.readPage(new HeapPageId(hf.getId(), pgNo)).getId().getPageNumber();
+        }
+        return (double) (System.nanoTime() - start) / pages;
+    }
+
+    private static double tupleNs(File file) throws Exception {
+        Database.reset();
+        HeapFile hf = Utility.openHeapFile(2, file);
+        int pages = Math.min(hf.numPages(), BufferPool.DEFAULT_PAGES - 5);
+        TransactionId tid = new TransactionId();
+        long tuples = 0;
+        long start = 0;
+        //第一遍把页面读入缓冲池，之后的每一遍只计CPU开销
+        for (int r = 0; r <= 20; r++) {
+            if (r == 1) {
+                start = System.nanoTime();
+                tuples = 0;
+            }
+            for (int pgNo = 0; pgNo < pages; pgNo++) {
+                HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid,
+                        new HeapPageId(hf.getId(), pgNo), Permissions.READ_ONLY);
+                java.util.Iterator<Tuple> it = page.iterator();
+                while (it.hasNext()) {
+                    sink += it.next().getField(0).hashCode();
+                    tuples++;
+                }
+            }
+        }
+        double ns = (double) (System.nanoTime() - start) / tuples;
+        Database.getBufferPool().transactionComplete(tid);
+        return ns;
+    }
+
+    private static double hashNs(Tuple[] tuples) {
+        IntJoinHashTable table = new IntJoinHashTable(tuples.length);
+        long start = System.nanoTime();
+        for (Tuple t : tuples) {
+            table.add(((IntField) t.getField(0)).getValue(), t);
+        }
+        for (Tuple t : tuples) {
+            sink += table.find(((IntField) t.getField(1)).getValue());
+        }
+        return (double) (System.nanoTime() - start) / (2L * tuples.length);
+    }
+
+    private static double mergeNs(Tuple[] tuples) {
+        TupleDesc td = TupleDesc.merge(tuples[0].getTupleDesc(), tuples[0].getTupleDesc());
+        long start = System.nanoTime();
+        for (int i = 1; i < tuples.length; i++) {
+            sink += Tuple.merge(td, tuples[i - 1], tuples[i]).getField(3).hashCode();
+        }
+        return (double) (System.nanoTime() - start) / (tuples.length - 1);
+    }
+}
@@ -0,0 +1,69 @@
+package simpledb.bench;
+
+import java.io.File;
+import java.util.Arrays;
+
+import simpledb.*;
+
+/**
+ * Measures commit throughput as the number of concurrently committing client
+ * threads grows. Each client owns its own table, so the only shared resource
+ * is the log; with group commit, commits/second should grow with the number
+ * of clients while the number of fsyncs per commit drops.
+ * <p>
+ * Usage: ant runbench -Dbench=GroupCommitBenchmark [-Dargs="delayMicros seconds"]
+ */
+public class GroupCommitBenchmark {
+
+    private static final int[] CLIENTS = {1, 2, 4, 8, 16};
+
+    public static void main(String[] args) throws Exception {
+        long delay = args.length > 0 ? Long.parseLong(args[0]) : LogFile.DEFAULT_GROUP_COMMIT_DELAY_MICROS;
+        double seconds = args.length > 1 ? Double.parseDouble(args[1]) : 2.0;
+
+        System.out.println("group commit delay = " + delay + "us, " + seconds + "s per run");
+        for (int clients : CLIENTS) {
+            Database.reset();
+            Database.getLogFile().setGroupCommitDelay(delay);
+            HeapFile[] tables = new HeapFile[clients];
+            for (int i = 0; i < clients; i++) {
+                File f = File.createTempFile("commitbench", ".dat");
+                f.deleteOnExit();
+                FreeSpaceMap.mapFile(f).deleteOnExit();
+                tables[i] = Utility.createEmptyHeapFile(f.getAbsolutePath(), 2);
+            }
+
+            final long end = System.nanoTime() + (long) (seconds * 1e9);
+            final long[] commits = new long[clients];
+            Thread[] threads = new Thread[clients];
+            int forcesBefore = Database.getLogFile().getTotalForces();
+            long start = System.nanoTime();
+            for (int i = 0; i < clients; i++) {
+                final int client = i;
+                final HeapFile table = tables[i];
+                threads[i] = new Thread(() -> {
+                    try {
+                        while (System.nanoTime() < end) {
+                            Transaction t = new Transaction();
+                            t.start();
+                            Database.getBufferPool().insertTuple(t.getId(), table.getId(),
+                                    Utility.getHeapTuple(new int[]{client, (int) commits[client]}));
+                            t.commit();
+                            commits[client]++;
+                        }
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                });
+                threads[i].start();
+            }
+            for (Thread t : threads)
+                t.join();
+            double elapsed = (System.nanoTime() - start) / 1e9;
+            long total = Arrays.stream(commits).sum();
+            int forces = Database.getLogFile().getTotalForces() - forcesBefore;
+            System.out.printf("%2d clients: %9.0f commits/s   %5.2f commits per fsync%n",
+                    clients, total / elapsed, forces == 0 ? 0.0 : (double) total / forces);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package simpledb.bench;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+
+import simpledb.*;
+
+/**
+ * Compares build and probe throughput of the primitive IntJoinHashTable used
+ * by HashEquiJoin for int keys against the Field-keyed HashMap of
+ * ArrayList&lt;Tuple&gt; that HashEquiJoin used before (and still uses for
+ * string keys).
+ * <p>
+ * Usage: ant runbench -Dbench=HashEquiJoinBenchmark [-Dargs="rows distinctKeys"]
+ */
+public class HashEquiJoinBenchmark {
+
+    private static final int ROUNDS = 10;
+
+    public static void main(String[] args) {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : HashEquiJoin.MAP_SIZE;
+        int distinct = args.length > 1 ? Integer.parseInt(args[1]) : rows / 4;
+
+        Random rand = new Random(6830);
+        Tuple[] build = randomTuples(rows, distinct, rand);
+        Tuple[] probe = randomTuples(rows * 5, distinct * 2, rand);
+
+        System.out.println("build rows = " + rows + ", probe rows = " + probe.length
+                + ", distinct build keys <= " + distinct);
+        long[] map = null, table = null;
+        // the first half of the rounds are warm-up for the JIT
+        for (int i = 0; i < ROUNDS; i++) {
+            map = runHashMap(build, probe);
+            table = runIntTable(build, probe);
+            if (map[2] != table[2])
+                throw new RuntimeException("match counts differ: " + map[2] + " vs " + table[2]);
+        }
+        report("HashMap<Field,ArrayList<Tuple>>", map, build.length, probe.length);
+        report("IntJoinHashTable", table, build.length, probe.length);
+    }
+
+    private static Tuple[] randomTuples(int n, int distinct, Random rand) {
+        Tuple[] tups = new Tuple[n];
+        for (int i = 0; i < n; i++)
+            tups[i] = Utility.getHeapTuple(new int[]{rand.nextInt(distinct), i});
+        return tups;
+    }
+
+    /** @return {build ns, probe ns, matches} */
+    private static long[] runHashMap(Tuple[] build, Tuple[] probe) {
+        long start = System.nanoTime();
+        HashMap<Object, ArrayList<Tuple>> map = new HashMap<Object, ArrayList<Tuple>>();
+        for (Tuple t : build) {
+            ArrayList<Tuple> list = map.get(t.getField(0));
+            if (list == null) {
+                list = new ArrayList<Tuple>();
+                map.put(t.getField(0), list);
+            }
+            list.add(t);
+        }
+        long built = System.nanoTime();
+        long matches = 0;
+        for (Tuple t : probe) {
+            ArrayList<Tuple> l = map.get(t.getField(0));
+            if (l == null)
+                continue;
+            for (Tuple m : l)
+                matches += m.getField(1).hashCode() & 1;
+        }
+        return new long[]{built - start, System.nanoTime() - built, matches};
+    }
+
+    /** @return {build ns, probe ns, matches} */
+    private static long[] runIntTable(Tuple[] build, Tuple[] probe) {
+        long start = System.nanoTime();
+        IntJoinHashTable table = new IntJoinHashTable(build.length);
+        for (Tuple t : build)
+            table.add(((IntField) t.getField(0)).getValue(), t);
+        long built = System.nanoTime();
+        long matches = 0;
+        for (Tuple t : probe) {
+            int row = table.find(((IntField) t.getField(0)).getValue());
+            for (; row != IntJoinHashTable.NO_ROW; row = table.nextRow(row))
+                matches += table.getRow(row).getField(1).hashCode() & 1;
+        }
+        return new long[]{built - start, System.nanoTime() - built, matches};
+    }
+
+    private static void report(String name, long[] r, int buildRows, int probeRows) {
+        System.out.printf("%-34s build %8.2f Mtuples/s   probe %8.2f Mtuples/s%n", name,
+                buildRows * 1000.0 / r[0], probeRows * 1000.0 / r[1]);
+    }
+}
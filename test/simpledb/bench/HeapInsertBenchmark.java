@@ -0,0 +1,67 @@
+package simpledb.bench;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+
+import simpledb.*;
+
+/**
+ * Measures inserting into heap files of growing size whose pages are all
+ * full.  The first insert into a file written by HeapFileEncoder has no free
+ * space map to go by, so it tries every page as all inserts did before the
+ * map; the inserts after it go straight to the page with free slots.  Each
+ * insert is one transaction.
+ * <p>
+ * Usage: ant runbench -Dbench=HeapInsertBenchmark [-Dargs="inserts"]
+ */
+public class HeapInsertBenchmark {
+
+    private static final int[] PAGES = {250, 1000, 4000};
+
+    public static void main(String[] args) throws Exception {
+        int inserts = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int perPage = BufferPool.getPageSize() * 8 / (Utility.getTupleDesc(2).getSize() * 8 + 1);
+
+        System.out.println("pages   first insert ms   later inserts us");
+        for (int round = 0; round < 2; round++) {
+            // the first round warms up the JIT
+            for (int pages : round == 0 ? new int[]{PAGES[0]} : PAGES) {
+                HeapFile hf = load(pages * perPage);
+                double first = insertMillis(hf, 1);
+                double later = insertMillis(hf, inserts) * 1000 / inserts;
+                if (round == 1) {
+                    System.out.printf("%5d   %15.2f   %16.1f%n", pages, first, later);
+                }
+            }
+        }
+    }
+
+    private static HeapFile load(int rows) throws Exception {
+        Database.reset();
+        Database.getLogFile().setCheckpointInterval(0);
+        File text = File.createTempFile("heapins", ".txt");
+        text.deleteOnExit();
+        BufferedWriter bw = new BufferedWriter(new FileWriter(text));
+        for (int i = 0; i < rows; i++) {
+            bw.write(i + "," + i + "\n");
+        }
+        bw.close();
+        File f = File.createTempFile("heapins", ".dat");
+        f.deleteOnExit();
+        FreeSpaceMap.mapFile(f).deleteOnExit();
+        HeapFileEncoder.convert(text, f, BufferPool.getPageSize(), 2);
+        return Utility.openHeapFile(2, f);
+    }
+
+    private static double insertMillis(HeapFile hf, int n) throws Exception {
+        long start = System.nanoTime();
+        for (int i = 0; i < n; i++) {
+            Transaction t = new Transaction();
+            t.start();
+            Database.getBufferPool().insertTuple(t.getId(), hf.getId(), Utility.getHeapTuple(new int[]{i, i}));
+            t.commit();
+        }
+        return (System.nanoTime() - start) / 1e6;
+    }
+}
@@ -0,0 +1,108 @@
+package simpledb.bench;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import simpledb.*;
+import simpledb.Predicate.Op;
+
+/**
+ * Measures the accuracy of selectivity estimates from a fixed-width
+ * IntHistogram and from an EquiDepthHistogram with the same number of
+ * buckets, on a uniform column and on Zipf-distributed customer ids scattered
+ * over a wide range.  The error of an estimate is its q-error,
+ * max(estimate / actual, actual / estimate), with both at least one row;
+ * equalities use values drawn from the column, ranges use random bounds.
+ * <p>
+ * Usage: ant runbench -Dbench=HistogramAccuracyBenchmark [-Dargs="rows"]
+ */
+public class HistogramAccuracyBenchmark {
+
+    private static final int BUCKETS = 100;
+    private static final int QUERIES = 2000;
+    private static final int MAX_VALUE = 10000000;
+
+    public static void main(String[] args) {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        Random rand = new Random(1);
+
+        int[] uniform = new int[rows];
+        for (int i = 0; i < rows; i++) {
+            uniform[i] = rand.nextInt(MAX_VALUE);
+        }
+        // 100000 customers at random ids; customer k is ordered with probability ~ 1 / k
+        int[] ids = new int[100000];
+        for (int k = 0; k < ids.length; k++) {
+            ids[k] = rand.nextInt(MAX_VALUE);
+        }
+        double[] cdf = new double[ids.length];
+        double sum = 0;
+        for (int k = 0; k < ids.length; k++) {
+            sum += 1.0 / (k + 1);
+            cdf[k] = sum;
+        }
+        int[] zipf = new int[rows];
+        for (int i = 0; i < rows; i++) {
+            int k = Arrays.binarySearch(cdf, rand.nextDouble() * sum);
+            zipf[i] = ids[k < 0 ? -k - 1 : k];
+        }
+
+        System.out.println(rows + " rows, " + BUCKETS + " buckets, " + QUERIES + " queries per kind");
+        System.out.println("column    predicate   histogram     median q   p95 q      max q");
+        run("uniform", uniform, rand);
+        run("zipf", zipf, rand);
+    }
+
+    private static void run(String name, int[] values, Random rand) {
+        IntHistogram fixed = new IntHistogram(BUCKETS, 0, MAX_VALUE - 1);
+        EquiDepthHistogram equi = new EquiDepthHistogram(BUCKETS, 0, MAX_VALUE - 1);
+        Map<Integer, Integer> counts = new HashMap<Integer, Integer>();
+        for (int v : values) {
+            fixed.addValue(v);
+            equi.addValue(v);
+            counts.merge(v, 1, Integer::sum);
+        }
+        equi.setDistinctValues(counts.size());
+        int[] sorted = values.clone();
+        Arrays.sort(sorted);
+
+        for (Op op : new Op[]{Op.EQUALS, Op.LESS_THAN}) {
+            double[][] errors = new double[2][QUERIES];
+            for (int q = 0; q < QUERIES; q++) {
+                int v = op == Op.EQUALS ? values[rand.nextInt(values.length)] : rand.nextInt(MAX_VALUE);
+                double actual = op == Op.EQUALS ? counts.get(v) : lowerBound(sorted, v);
+                errors[0][q] = qError(fixed.estimateSelectivity(op, v) * values.length, actual);
+                errors[1][q] = qError(equi.estimateSelectivity(op, v) * values.length, actual);
+            }
+            String[] kinds = {"fixed-width", "equi-depth"};
+            for (int k = 0; k < 2; k++) {
+                Arrays.sort(errors[k]);
+                System.out.printf("%-9s %-11s %-11s %10.2f %8.2f %10.2f%n", name, op, kinds[k],
+                        errors[k][QUERIES / 2], errors[k][QUERIES * 95 / 100], errors[k][QUERIES - 1]);
+            }
+        }
+    }
+
+    //有序数组中小于v的元素个数
+    private static int lowerBound(int[] sorted, int v) {
+        int lo = 0;
+        int hi = sorted.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (sorted[mid] < v) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private static double qError(double estimate, double actual) {
+        estimate = Math.max(1, estimate);
+        actual = Math.max(1, actual);
+        return Math.max(estimate / actual, actual / estimate);
+    }
+}
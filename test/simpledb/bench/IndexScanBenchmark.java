@@ -0,0 +1,74 @@
+package simpledb.bench;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import simpledb.*;
+
+/**
+ * Measures the time to run a range query on the key of a BTreeFile, by
+ * the plan the optimizer chooses and by a full scan with a filter, as
+ * every query was run before, for filters selecting from 0.1% to 50% of
+ * the tuples.  The plan chosen is printed with each time.
+ * <p>
+ * Usage: ant runbench -Dbench=IndexScanBenchmark [-Dargs="rows runs"]
+ */
+public class IndexScanBenchmark {
+
+    private static final int MAX_VALUE = 1000000;
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        Database.reset();
+        BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, rows, MAX_VALUE, null, new ArrayList<ArrayList<Integer>>(), 0);
+        BTreeFile b = new BTreeFile(bf.getFile(), 0, Utility.getTupleDesc(2, "c"));
+        Database.getCatalog().addTable(b, "b");
+        TableStats.setTableStats("b", new TableStats(b.getId(), 1000));
+        Parser p = new Parser();
+
+        double[] fractions = { 0.001, 0.01, 0.05, 0.1, 0.5 };
+        double[][] ms = new double[fractions.length][2];
+        String[] scans = new String[fractions.length];
+        for (int round = 0; round < 2; round++) {
+            // the first round warms up the JIT
+            for (int i = 0; i < fractions.length; i++) {
+                int bound = (int) (fractions[i] * MAX_VALUE);
+                TransactionId tid = new TransactionId();
+                LogicalPlan lp = p.generateLogicalPlan(tid, "SELECT b.c1 FROM b WHERE b.c0 < " + bound + ";");
+                OpIterator chosen = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+                scans[i] = scanOf(chosen).getClass().getSimpleName();
+                OpIterator full = new Filter(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(bound)),
+                        new SeqScan(tid, b.getId(), "b"));
+                ms[i][0] = time(chosen, round == 0 ? 1 : runs);
+                ms[i][1] = time(full, round == 0 ? 1 : runs);
+                Database.getBufferPool().transactionComplete(tid);
+            }
+        }
+
+        System.out.println("selected   plan           chosen ms   full scan ms");
+        for (int i = 0; i < fractions.length; i++) {
+            System.out.printf("%7.1f%%   %-12s %11.2f %14.2f%n", fractions[i] * 100, scans[i], ms[i][0], ms[i][1]);
+        }
+    }
+
+    private static OpIterator scanOf(OpIterator it) {
+        while (it instanceof Operator) {
+            it = ((Operator) it).getChildren()[0];
+        }
+        return it;
+    }
+
+    private static double time(OpIterator it, int runs) throws Exception {
+        long start = System.nanoTime();
+        for (int r = 0; r < runs; r++) {
+            it.open();
+            while (it.hasNext()) {
+                it.next();
+            }
+            it.close();
+        }
+        return (System.nanoTime() - start) / 1e6 / runs;
+    }
+}
@@ -0,0 +1,95 @@
+package simpledb.bench;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.Vector;
+
+import simpledb.*;
+
+/**
+ * Measures the time JoinOptimizer.orderJoins takes to plan queries whose join
+ * graphs are chains, stars and cliques of 8 to 32 tables.  Above
+ * JoinOptimizer.getDpTables() tables, or when dynamic programming would
+ * exceed the planning budget, the joins are ordered greedily.  The tables are
+ * copies of one small heap file, each with its own filter selectivity.
+ * <p>
+ * Usage: ant runbench -Dbench=JoinOrderBenchmark [-Dargs="runs"]
+ */
+public class JoinOrderBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int runs = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        File text = File.createTempFile("plan", ".txt");
+        text.deleteOnExit();
+        StringBuilder sb = new StringBuilder();
+        Random rand = new Random(1);
+        for (int i = 0; i < 1000; i++) {
+            sb.append(i).append(',').append(rand.nextInt(100)).append('\n');
+        }
+        Files.write(text.toPath(), sb.toString().getBytes());
+        File file = File.createTempFile("plan", ".dat");
+        file.deleteOnExit();
+        FreeSpaceMap.mapFile(file).deleteOnExit();
+        HeapFileEncoder.convert(text, file, BufferPool.getPageSize(), 2);
+
+        System.out.println("graph   tables  joins     ms/plan");
+        for (int round = 0; round < 2; round++) {
+            // the first round warms up the JIT
+            for (String shape : new String[]{"chain", "star", "clique"}) {
+                for (int tables : new int[]{8, 12, 16, 24, 32}) {
+                    double ms = plan(shape, tables, file, round == 0 ? 1 : runs);
+                    if (round == 1) {
+                        System.out.printf("%-7s %6d %6d %11.2f%n", shape, tables, joins(shape, tables).size(), ms);
+                    }
+                }
+            }
+        }
+    }
+
+    //shape形状的连接图中的连接，表名为t0..t(n-1)
+    private static Vector<LogicalJoinNode> joins(String shape, int tables) {
+        Vector<LogicalJoinNode> joins = new Vector<LogicalJoinNode>();
+        for (int i = 1; i < tables; i++) {
+            if (shape.equals("clique")) {
+                for (int k = 0; k < i; k++) {
+                    joins.add(new LogicalJoinNode("t" + k, "t" + i, "c0", "c0", Predicate.Op.EQUALS));
+                }
+            } else {
+                String other = shape.equals("chain") ? "t" + (i - 1) : "t0";
+                joins.add(new LogicalJoinNode(other, "t" + i, "c0", "c1", Predicate.Op.EQUALS));
+            }
+        }
+        return joins;
+    }
+
+    private static double plan(String shape, int tables, File file, int runs) throws Exception {
+        Database.reset();
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        HashMap<String, Double> selectivities = new HashMap<String, Double>();
+        StringBuilder from = new StringBuilder();
+        for (int i = 0; i < tables; i++) {
+            // a table's id is the hash of its file's path, so each table needs a copy
+            File copy = File.createTempFile("plan", ".dat");
+            copy.deleteOnExit();
+            FreeSpaceMap.mapFile(copy).deleteOnExit();
+            Files.copy(file.toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            HeapFile hf = Utility.openHeapFile(2, "c", copy);
+            Database.getCatalog().addTable(hf, "t" + i);
+            stats.put("t" + i, new TableStats(hf.getId(), 1000));
+            selectivities.put("t" + i, 1.0 / (i + 1));
+            from.append(i == 0 ? "" : ", ").append("t" + i);
+        }
+        Vector<LogicalJoinNode> joins = joins(shape, tables);
+        LogicalPlan lp = new Parser().generateLogicalPlan(new TransactionId(),
+                "SELECT t0.c0 FROM " + from + ";");
+
+        long start = System.nanoTime();
+        for (int r = 0; r < runs; r++) {
+            new JoinOptimizer(lp, joins).orderJoins(stats, selectivities, false);
+        }
+        return (System.nanoTime() - start) / 1e6 / runs;
+    }
+}
@@ -0,0 +1,93 @@
+package simpledb.bench;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import simpledb.*;
+
+/**
+ * Measures log bytes written per transaction for small updates, with full
+ * before/after page images and with DELTA records. Each transaction
+ * inserts (or deletes) a single row, so with full images it logs two whole
+ * pages, while a DELTA record only holds the changed slot and header bytes.
+ * <p>
+ * Usage: ant runbench -Dbench=LogVolumeBenchmark [-Dargs="transactions"]
+ */
+public class LogVolumeBenchmark {
+
+    private static final int COLUMNS = 2;
+
+    public static void main(String[] args) throws Exception {
+        int txns = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+
+        System.out.println(txns + " transactions per workload");
+        System.out.println("workload        full images (B/txn, ms)   deltas (B/txn, ms)");
+        for (String workload : new String[]{"heap insert", "heap delete", "btree insert"}) {
+            long[] full = run(workload, txns, false);
+            long[] delta = run(workload, txns, true);
+            System.out.printf("%-14s  %12d %9d   %12d %9d%n",
+                    workload, full[0] / txns, full[1], delta[0] / txns, delta[1]);
+        }
+    }
+
+    /** @return {log bytes written, elapsed ms} */
+    private static long[] run(String workload, int txns, boolean deltas) throws Exception {
+        Database.reset();
+        LogFile log = Database.getLogFile();
+        log.setCheckpointInterval(0);
+        log.setDeltaRecords(deltas);
+        BufferPool pool = Database.getBufferPool();
+        Random rand = new Random(1);
+
+        File f = File.createTempFile("logvolume", ".dat");
+        f.deleteOnExit();
+        FreeSpaceMap.mapFile(f).deleteOnExit();
+        DbFile table;
+        if (workload.startsWith("btree")) {
+            table = BTreeUtility.createRandomBTreeFile(COLUMNS, 20000, null, null, 0);
+        } else {
+            table = Utility.createEmptyHeapFile(f.getAbsolutePath(), COLUMNS);
+            // preload the rows to delete, outside the measurement
+            Transaction t = new Transaction();
+            t.start();
+            for (int i = 0; i < txns; i++) {
+                pool.insertTuple(t.getId(), table.getId(), Utility.getHeapTuple(new int[]{i, i}));
+            }
+            t.commit();
+        }
+
+        long startSize = log.getLogSize();
+        long start = System.nanoTime();
+        if (workload.equals("heap delete")) {
+            Transaction scanTxn = new Transaction();
+            scanTxn.start();
+            DbFileIterator it = table.iterator(scanTxn.getId());
+            it.open();
+            List<Tuple> rows = new ArrayList<Tuple>();
+            while (it.hasNext())
+                rows.add(it.next());
+            it.close();
+            scanTxn.commit();
+            startSize = log.getLogSize();
+            start = System.nanoTime();
+            for (Tuple row : rows) {
+                Transaction t = new Transaction();
+                t.start();
+                pool.deleteTuple(t.getId(), row);
+                t.commit();
+            }
+        } else {
+            for (int i = 0; i < txns; i++) {
+                Transaction t = new Transaction();
+                t.start();
+                int v = rand.nextInt(BTreeUtility.MAX_RAND_VALUE);
+                pool.insertTuple(t.getId(), table.getId(), Utility.getHeapTuple(new int[]{v, v}));
+                t.commit();
+            }
+        }
+        long millis = (System.nanoTime() - start) / 1000000;
+        return new long[]{log.getLogSize() - startSize, millis};
+    }
+}
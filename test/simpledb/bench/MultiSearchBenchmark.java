@@ -0,0 +1,97 @@
+package simpledb.bench;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import simpledb.*;
+import simpledb.Predicate.Op;
+
+/**
+ * Measures looking up a batch of random keys in a B+ tree, one
+ * BTreeSearchIterator per key against a single BTreeFile.indexIterator over
+ * the whole batch, with latch crabbing and in B-link mode.  Each batch is
+ * one transaction.
+ * <p>
+ * Usage: ant runbench -Dbench=MultiSearchBenchmark [-Dargs="rows"]
+ */
+public class MultiSearchBenchmark {
+
+    private static final int[] BATCH_SIZES = {10, 100, 1000, 10000};
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        List<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < rows; i++) {
+            tuples.add(BTreeUtility.getBTreeTuple(new int[]{2 * i, i}));
+        }
+
+        System.out.println(rows + " rows, half of the keys looked up are missing");
+        System.out.println("mode       keys   per key ms   batch ms");
+        for (boolean blink : new boolean[]{false, true}) {
+            BTreeFile bf = load(tuples, blink);
+            Random rand = new Random(1);
+            for (int round = 0; round < 2; round++) {
+                // the first round warms up the JIT
+                for (int n : BATCH_SIZES) {
+                    List<Field> keys = new ArrayList<Field>();
+                    for (int i = 0; i < n; i++) {
+                        keys.add(new IntField(rand.nextInt(2 * rows)));
+                    }
+                    double single = perKey(bf, keys);
+                    double batch = batch(bf, keys);
+                    if (round == 1) {
+                        System.out.printf("%-8s %6d   %10.2f %10.2f%n", blink ? "b-link" : "crabbing", n, single, batch);
+                    }
+                }
+            }
+        }
+    }
+
+    private static BTreeFile load(List<Tuple> tuples, boolean blink) throws Exception {
+        Database.reset();
+        Database.getLogFile().setCheckpointInterval(0);
+        File f = File.createTempFile("multi", ".dat");
+        f.deleteOnExit();
+        BTreeFile bf = blink
+                ? BTreeUtility.createEmptyBLinkTreeFile(f.getAbsolutePath(), 2, 0)
+                : BTreeUtility.createEmptyBTreeFile(f.getAbsolutePath(), 2, 0);
+        Transaction t = new Transaction();
+        t.start();
+        OpIterator it = new TupleIterator(Utility.getTupleDesc(2), tuples);
+        it.open();
+        bf.bulkLoad(t.getId(), it, 1.0);
+        it.close();
+        t.commit();
+        return bf;
+    }
+
+    private static double perKey(BTreeFile bf, List<Field> keys) throws Exception {
+        long start = System.nanoTime();
+        TransactionId tid = new TransactionId();
+        for (Field key : keys) {
+            DbFileIterator it = bf.indexIterator(tid, new IndexPredicate(Op.EQUALS, key));
+            it.open();
+            while (it.hasNext()) {
+                it.next();
+            }
+            it.close();
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        return (System.nanoTime() - start) / 1e6;
+    }
+
+    private static double batch(BTreeFile bf, List<Field> keys) throws Exception {
+        long start = System.nanoTime();
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = bf.indexIterator(tid, keys);
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return (System.nanoTime() - start) / 1e6;
+    }
+}
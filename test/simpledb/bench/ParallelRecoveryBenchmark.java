@@ -0,0 +1,128 @@
+package simpledb.bench;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Measures restart time with different numbers of recovery threads. The
+ * workload deletes rows scattered over many pages, one per committed
+ * transaction, and leaves several large transactions running at the
+ * crash, so both redo (many pages) and undo (many losers) have work.
+ * The crashed database is saved once and restored before every run.
+ * <p>
+ * Usage: ant runbench -Dbench=ParallelRecoveryBenchmark [-Dargs="transactions"]
+ */
+public class ParallelRecoveryBenchmark {
+
+    private static final int TABLES = 4;
+    private static final int PAGES_PER_TABLE = 500;
+    private static final int LOSERS = 8;
+    private static final int ROWS_PER_LOSER = 2000;
+    private static final int[] THREADS = {1, 2, 4, 8};
+    private static final int RUNS = 3;
+
+    public static void main(String[] args) throws Exception {
+        int txns = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        File[] files = crashedDatabase(txns);
+        File log = new File("log");
+        File[] saved = new File[files.length + 1];
+        for (int i = 0; i <= files.length; i++) {
+            saved[i] = File.createTempFile("parallelrecovery", ".saved");
+            saved[i].deleteOnExit();
+            copy(i < files.length ? files[i] : log, saved[i]);
+        }
+
+        System.out.println(txns + " committed transactions, " + LOSERS + " losers, log "
+                + log.length() / 1024 + "KB");
+        System.out.println("threads   restart ms (best of " + RUNS + ")");
+        for (int threads : THREADS) {
+            long best = Long.MAX_VALUE;
+            for (int run = 0; run < RUNS; run++) {
+                for (int i = 0; i <= files.length; i++) {
+                    copy(saved[i], i < files.length ? files[i] : log);
+                }
+                Database.reset();
+                for (File f : files) {
+                    Utility.openHeapFile(2, f);
+                }
+                Database.getLogFile().setRecoveryThreads(threads);
+                long start = System.nanoTime();
+                Database.getLogFile().recover();
+                best = Math.min(best, (System.nanoTime() - start) / 1000000);
+            }
+            System.out.printf("%7d   %10d%n", threads, best);
+        }
+    }
+
+    /** Run the workload and return the table files, leaving the log as of the crash */
+    private static File[] crashedDatabase(int txns) throws Exception {
+        Database.reset();
+        Database.getLogFile().setCheckpointInterval(0);
+        int rowsPerPage = BufferPool.getPageSize() * 8 / (2 * Type.INT_TYPE.getLen() * 8 + 1);
+        File[] files = new File[TABLES];
+        HeapFile[] tables = new HeapFile[TABLES];
+        for (int i = 0; i < TABLES; i++) {
+            files[i] = SystemTestUtil.createRandomHeapFileUnopened(2, PAGES_PER_TABLE * rowsPerPage,
+                    1000, null, null);
+            files[i].deleteOnExit();
+            tables[i] = Utility.openHeapFile(2, files[i]);
+        }
+
+        // every row once, in random order; the losers get the last pages of each table
+        int loserPages = LOSERS;
+        List<RecordId> rows = new ArrayList<RecordId>();
+        List<List<RecordId>> loserRows = new ArrayList<List<RecordId>>();
+        for (int i = 0; i < LOSERS; i++) {
+            loserRows.add(new ArrayList<RecordId>());
+        }
+        for (HeapFile table : tables) {
+            for (int page = 0; page < PAGES_PER_TABLE; page++) {
+                HeapPageId pid = new HeapPageId(table.getId(), page);
+                for (int slot = 0; slot < rowsPerPage; slot++) {
+                    RecordId rid = new RecordId(pid, slot);
+                    if (page < PAGES_PER_TABLE - loserPages)
+                        rows.add(rid);
+                    else
+                        loserRows.get(PAGES_PER_TABLE - 1 - page).add(rid);
+                }
+            }
+        }
+        Collections.shuffle(rows, new Random(1));
+
+        BufferPool pool = Database.getBufferPool();
+        for (int i = 0; i < txns; i++) {
+            Transaction t = new Transaction();
+            t.start();
+            pool.deleteTuple(t.getId(), row(rows.get(i)));
+            t.commit();
+        }
+        for (List<RecordId> loser : loserRows) {
+            Transaction t = new Transaction();
+            t.start();
+            for (int i = 0; i < ROWS_PER_LOSER && i < loser.size(); i++) {
+                pool.deleteTuple(t.getId(), row(loser.get(i)));
+                pool.flushPages(t.getId()); // one log record per row
+            }
+        }
+        Database.getLogFile().force();
+        return files;
+    }
+
+    private static Tuple row(RecordId rid) {
+        Tuple t = new Tuple(Utility.getTupleDesc(2));
+        t.setRecordId(rid);
+        return t;
+    }
+
+    private static void copy(File from, File to) throws Exception {
+        Files.copy(from.toPath(), to.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+}
@@ -0,0 +1,101 @@
+package simpledb.bench;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Random;
+
+import simpledb.*;
+
+/**
+ * Measures the time to turn the text of a query into a physical plan, by
+ * parsing and optimizing it each time, as the Parser did for every
+ * statement, and by binding a statement prepared once, as the Parser now
+ * does for a query it has seen before.  The queries join chains of 1 to 8
+ * tables, with a filter on the first.  Neither is run.
+ * <p>
+ * Usage: ant runbench -Dbench=PreparedStatementBenchmark [-Dargs="runs"]
+ */
+public class PreparedStatementBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int runs = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        File text = File.createTempFile("prepared", ".txt");
+        text.deleteOnExit();
+        StringBuilder sb = new StringBuilder();
+        Random rand = new Random(1);
+        for (int i = 0; i < 1000; i++) {
+            sb.append(i).append(',').append(rand.nextInt(100)).append('\n');
+        }
+        Files.write(text.toPath(), sb.toString().getBytes());
+        File file = File.createTempFile("prepared", ".dat");
+        file.deleteOnExit();
+        FreeSpaceMap.mapFile(file).deleteOnExit();
+        HeapFileEncoder.convert(text, file, BufferPool.getPageSize(), 2);
+
+        Database.reset();
+        for (int i = 0; i < 8; i++) {
+            // a table's id is the hash of its file's path, so each table needs a copy
+            File copy = File.createTempFile("prepared", ".dat");
+            copy.deleteOnExit();
+            FreeSpaceMap.mapFile(copy).deleteOnExit();
+            Files.copy(file.toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            HeapFile hf = Utility.openHeapFile(2, "c", copy);
+            Database.getCatalog().addTable(hf, "t" + i);
+            TableStats.setTableStats("t" + i, new TableStats(hf.getId(), 1000));
+        }
+
+        //解析时打印的信息不计入时间
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        double[][] us = new double[8][2];
+        for (int round = 0; round < 2; round++) {
+            // the first round warms up the JIT
+            for (int tables = 1; tables <= 8; tables++) {
+                us[tables - 1][0] = parse(query(tables, "1"), round == 0 ? 10 : runs / tables);
+                us[tables - 1][1] = bind(query(tables, "?"), round == 0 ? 10 : runs);
+            }
+        }
+        System.setOut(out);
+
+        System.out.println("tables   parse+plan us   prepared us");
+        for (int tables = 1; tables <= 8; tables++) {
+            System.out.printf("%6d %15.1f %13.2f%n", tables, us[tables - 1][0], us[tables - 1][1]);
+        }
+    }
+
+    //t0..t(n-1)连成一条链，t0上有一个过滤条件
+    private static String query(int tables, String constant) {
+        StringBuilder from = new StringBuilder("t0");
+        StringBuilder where = new StringBuilder("t0.c1 = " + constant);
+        for (int i = 1; i < tables; i++) {
+            from.append(", t").append(i);
+            where.append(" AND t").append(i - 1).append(".c0 = t").append(i).append(".c1");
+        }
+        return "SELECT t0.c0 FROM " + from + " WHERE " + where + ";";
+    }
+
+    private static double parse(String sql, int runs) throws Exception {
+        Parser p = new Parser();
+        TransactionId tid = new TransactionId();
+        long start = System.nanoTime();
+        for (int r = 0; r < runs; r++) {
+            LogicalPlan lp = p.generateLogicalPlan(tid, sql);
+            lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+        }
+        return (System.nanoTime() - start) / 1e3 / runs;
+    }
+
+    private static double bind(String sql, int runs) throws Exception {
+        Parser p = new Parser();
+        TransactionId tid = new TransactionId();
+        p.prepare(sql).bind(tid, 1);
+        long start = System.nanoTime();
+        for (int r = 0; r < runs; r++) {
+            p.prepare(sql).bind(tid, r % 100);
+        }
+        return (System.nanoTime() - start) / 1e3 / runs;
+    }
+}
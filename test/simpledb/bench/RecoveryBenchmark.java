@@ -0,0 +1,65 @@
+package simpledb.bench;
+
+import java.io.File;
+
+import simpledb.*;
+
+/**
+ * Measures restart (recovery) time as the amount of work done before a crash
+ * grows, with and without automatic checkpoints. Without checkpoints the log,
+ * and with it recovery time, grows with the number of committed transactions;
+ * with fuzzy checkpoints both should stay roughly flat.
+ * <p>
+ * Usage: ant runbench -Dbench=RecoveryBenchmark [-Dargs="checkpointIntervalKB"]
+ */
+public class RecoveryBenchmark {
+
+    private static final int[] TRANSACTIONS = {1000, 2000, 4000, 8000};
+    private static final int TABLES = 8;
+
+    public static void main(String[] args) throws Exception {
+        long interval = (args.length > 0 ? Long.parseLong(args[0]) : 1024) * 1024;
+
+        System.out.println("checkpoint interval = " + interval / 1024 + "KB");
+        System.out.println("  txns   no checkpoints (log KB, restart ms)   checkpoints (log KB, restart ms)");
+        for (int txns : TRANSACTIONS) {
+            long[] without = run(txns, 0);
+            long[] with = run(txns, interval);
+            System.out.printf("%6d   %14d %12d   %14d %12d%n",
+                    txns, without[0] / 1024, without[1], with[0] / 1024, with[1]);
+        }
+    }
+
+    /** @return {log size before the crash, recovery time in ms} */
+    private static long[] run(int txns, long interval) throws Exception {
+        Database.reset();
+        Database.getLogFile().setCheckpointInterval(interval);
+        File[] files = new File[TABLES];
+        HeapFile[] tables = new HeapFile[TABLES];
+        for (int i = 0; i < TABLES; i++) {
+            files[i] = File.createTempFile("recoverybench", ".dat");
+            files[i].deleteOnExit();
+            FreeSpaceMap.mapFile(files[i]).deleteOnExit();
+            tables[i] = Utility.createEmptyHeapFile(files[i].getAbsolutePath(), 2);
+        }
+
+        for (int i = 0; i < txns; i++) {
+            Transaction t = new Transaction();
+            t.start();
+            Database.getBufferPool().insertTuple(t.getId(), tables[i % TABLES].getId(),
+                    Utility.getHeapTuple(new int[]{i, i}));
+            t.commit();
+        }
+        long logSize = Database.getLogFile().getLogSize();
+
+        // crash: drop the buffer pool and log state, then recover
+        Database.reset();
+        for (int i = 0; i < TABLES; i++) {
+            Utility.openHeapFile(2, files[i]);
+        }
+        long start = System.nanoTime();
+        Database.getLogFile().recover();
+        long millis = (System.nanoTime() - start) / 1000000;
+        return new long[]{logSize, millis};
+    }
+}
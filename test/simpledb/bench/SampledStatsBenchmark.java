@@ -0,0 +1,67 @@
+package simpledb.bench;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.Random;
+
+import simpledb.*;
+
+/**
+ * Compares TableStats collected by a full scan of a large heap file with
+ * TableStats collected from a sample of its pages: the time taken, the pages
+ * of the table left in the buffer pool, and the estimated number of tuples,
+ * numbers of distinct values and a range selectivity.  The buffer pool is
+ * emptied before each run.
+ * <p>
+ * Usage: ant runbench -Dbench=SampledStatsBenchmark [-Dargs="rows"]
+ */
+public class SampledStatsBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+        Random rand = new Random(1);
+        File text = File.createTempFile("stats", ".txt");
+        text.deleteOnExit();
+        BufferedWriter bw = new BufferedWriter(new FileWriter(text));
+        int below = 0;
+        for (int i = 0; i < rows; i++) {
+            int v = rand.nextInt(2000000) - 1000000;
+            if (v < 0) {
+                below++;
+            }
+            bw.write(i + "," + rand.nextInt(1000) + "," + v + "\n");
+        }
+        bw.close();
+        File file = File.createTempFile("stats", ".dat");
+        file.deleteOnExit();
+        FreeSpaceMap.mapFile(file).deleteOnExit();
+        HeapFileEncoder.convert(text, file, BufferPool.getPageSize(), 3);
+
+        System.out.println(rows + " rows, c1 has 1000 values, " + below + " rows have c2 < 0");
+        System.out.println("mode          ms  cached      rows    ndv(c0)  ndv(c1)  ndv(c2)  sel(c2<0)");
+        for (int round = 0; round < 2; round++) {
+            // the first round warms up the JIT
+            for (boolean sampled : new boolean[]{false, true}) {
+                Database.reset();
+                HeapFile hf = Utility.openHeapFile(3, file);
+                long start = System.nanoTime();
+                TableStats s = sampled
+                        ? new TableStats(hf.getId(), 1000)
+                        : new TableStats(hf.getId(), 1000, 0);
+                long ms = (System.nanoTime() - start) / 1000000;
+                int cached = 0;
+                for (int pgNo = 0; pgNo < hf.numPages(); pgNo++) {
+                    if (Database.getBufferPool().getLoggedPageData(new HeapPageId(hf.getId(), pgNo)) != null) {
+                        cached++;
+                    }
+                }
+                if (round == 1) {
+                    System.out.printf("%-8s %7d %7d %9d %10d %8d %8d %10.4f%n", sampled ? "sampled" : "full",
+                            ms, cached, s.totalTuples(), s.numDistinctValues(0), s.numDistinctValues(1),
+                            s.numDistinctValues(2), s.estimateSelectivity(2, Predicate.Op.LESS_THAN, new IntField(0)));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package simpledb.bench;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import simpledb.*;
+import simpledb.Predicate.Op;
+
+/**
+ * Measures the shape of a B+ tree keyed on URL-like strings, whose internal
+ * pages store truncated separators in the compact format: the average fanout
+ * and height of the tree against the height fixed-width string slots would
+ * give, and the latency of point lookups with the default buffer pool and
+ * with one too small to hold the tree.
+ * <p>
+ * Usage: ant runbench -Dbench=StringKeyBenchmark [-Dargs="rows"]
+ */
+public class StringKeyBenchmark {
+
+    private static final int[] POOL_PAGES = {BufferPool.DEFAULT_PAGES, 20};
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 150000;
+        Random rand = new Random(1);
+        List<String> keys = new ArrayList<String>();
+        File text = File.createTempFile("strkey", ".txt");
+        text.deleteOnExit();
+        BufferedWriter bw = new BufferedWriter(new FileWriter(text));
+        for (int i = 0; i < rows; i++) {
+            String key = String.format("https://www.example.com/users/%08d/profile", rand.nextInt(100000000));
+            keys.add(key);
+            bw.write(key + "," + i + "\n");
+        }
+        bw.close();
+
+        File hFile = File.createTempFile("strkey", ".heap");
+        hFile.deleteOnExit();
+        File bFile = File.createTempFile("strkey", ".dat");
+        bFile.deleteOnExit();
+        Type[] types = {Type.STRING_TYPE, Type.INT_TYPE};
+        BTreeFile bf = BTreeFileEncoder.convert(text, hFile, bFile, BufferPool.getPageSize(), 2, types, ',', 0);
+
+        BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) bf.readPage(BTreeRootPtrPage.getId(bf.getId()));
+        int[] shape = new int[3]; // internal pages, child pointers, leaf pages
+        int height = walk(bf, rootPtr.getRootId(), shape);
+
+        // fixed-width slots: a 128 byte string and a child pointer per entry, plus a header bit
+        int fixedFanout = (BufferPool.getPageSize() * 8 - 9 * 8 - 1) / ((Type.STRING_TYPE.getLen() + 4) * 8 + 1) + 1;
+        int fixedHeight = 1;
+        for (int pages = shape[2]; pages > 1; pages = (pages + fixedFanout - 1) / fixedFanout) {
+            fixedHeight++;
+        }
+
+        System.out.println(rows + " rows, " + shape[2] + " leaf pages");
+        System.out.println("format        fanout   height");
+        System.out.printf("fixed-width   %6d   %6d%n", fixedFanout, fixedHeight);
+        System.out.printf("compact       %6d   %6d%n", shape[1] / shape[0], height);
+
+        System.out.println("pool pages   lookup us");
+        for (int pages : POOL_PAGES) {
+            Database.resetBufferPool(pages);
+            System.out.printf("%10d   %9.1f%n", pages, lookupMicros(bf, keys, rand, 20000));
+        }
+    }
+
+    /** @return the height of the subtree, adding its internal pages, child pointers and leaves to shape */
+    private static int walk(BTreeFile bf, BTreePageId pid, int[] shape) throws Exception {
+        if (pid.pgcateg() == BTreePageId.LEAF) {
+            shape[2]++;
+            return 1;
+        }
+        BTreeInternalPage page = (BTreeInternalPage) bf.readPage(pid);
+        shape[0]++;
+        shape[1] += page.getNumEntries() + 1;
+        Iterator<BTreeEntry> it = page.iterator();
+        BTreeEntry e = null;
+        int height = 0;
+        while (it.hasNext()) {
+            e = it.next();
+            height = walk(bf, e.getLeftChild(), shape);
+        }
+        walk(bf, e.getRightChild(), shape);
+        return height + 1;
+    }
+
+    private static double lookupMicros(BTreeFile bf, List<String> keys, Random rand, int lookups)
+            throws Exception {
+        long start = System.nanoTime();
+        for (int i = 0; i < lookups; i++) {
+            TransactionId tid = new TransactionId();
+            Field key = new StringField(keys.get(rand.nextInt(keys.size())), Type.STRING_LEN);
+            DbFileIterator it = bf.indexIterator(tid, new IndexPredicate(Op.EQUALS, key));
+            it.open();
+            if (!it.hasNext()) {
+                throw new RuntimeException("missing key " + key);
+            }
+            it.close();
+            Database.getBufferPool().transactionComplete(tid);
+        }
+        return (System.nanoTime() - start) / 1000.0 / lookups;
+    }
+}
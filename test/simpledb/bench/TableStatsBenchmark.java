@@ -0,0 +1,62 @@
+package simpledb.bench;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import simpledb.*;
+
+/**
+ * Measures TableStats.computeStatistics over a catalog of many heap files,
+ * run in fork-join pools of growing parallelism.  The buffer pool is emptied
+ * before each run, so every page is read from the file.
+ * <p>
+ * Usage: ant runbench -Dbench=TableStatsBenchmark [-Dargs="tables rows"]
+ */
+public class TableStatsBenchmark {
+
+    private static final int[] THREADS = {1, 2, 4, 8};
+
+    public static void main(String[] args) throws Exception {
+        int tables = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        int rows = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+        Random rand = new Random(1);
+        File[] files = new File[tables];
+        for (int t = 0; t < tables; t++) {
+            File text = File.createTempFile("stats", ".txt");
+            text.deleteOnExit();
+            BufferedWriter bw = new BufferedWriter(new FileWriter(text));
+            for (int i = 0; i < rows; i++) {
+                bw.write(i + "," + rand.nextInt(1000) + "," + (rand.nextInt(2000000) - 1000000) + "\n");
+            }
+            bw.close();
+            files[t] = File.createTempFile("stats", ".dat");
+            files[t].deleteOnExit();
+            FreeSpaceMap.mapFile(files[t]).deleteOnExit();
+            HeapFileEncoder.convert(text, files[t], BufferPool.getPageSize(), 3);
+        }
+
+        System.out.println(tables + " tables of " + rows + " rows, "
+                + Runtime.getRuntime().availableProcessors() + " processors");
+        System.out.println("threads        ms");
+        for (int round = 0; round < 2; round++) {
+            // the first round warms up the JIT
+            for (int threads : THREADS) {
+                Database.reset();
+                for (File f : files) {
+                    Utility.openHeapFile(3, f);
+                }
+                ForkJoinPool pool = new ForkJoinPool(threads);
+                long start = System.nanoTime();
+                pool.submit(TableStats::computeStatistics).get();
+                long ms = (System.nanoTime() - start) / 1000000;
+                pool.shutdown();
+                if (round == 1) {
+                    System.out.printf("%7d %9d%n", threads, ms);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * System test for B+ trees in B-link mode
+ */
+public class BLinkTreeTest extends SimpleDbTestBase {
+    private final Random r = new Random(1);
+    private File file;
+    private BTreeFile bf;
+
+    @Before
+    public void setUp() throws Exception {
+        BTreeUtility.useSmallPages();
+        file = File.createTempFile("blink", ".dat");
+        file.deleteOnExit();
+        bf = BTreeUtility.createEmptyBLinkTreeFile(file.getAbsolutePath(), 2, 0);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        BTreeUtility.resetSmallPages();
+    }
+
+    private List<Tuple> insert(TransactionId tid, int n) throws Exception {
+        List<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < n; i++) {
+            tuples.add(BTreeUtility.getBTreeTuple(new int[]{r.nextInt(100000), i}));
+        }
+        BTreeUtility.insertTuples(tid, bf, tuples);
+        return tuples;
+    }
+
+    /** Splits and merges keep the fence keys, which survive a restart */
+    @Test public void testFences() throws Exception {
+        TransactionId tid = new TransactionId();
+        List<Tuple> tuples = insert(tid, 5000);
+        Database.getBufferPool().transactionComplete(tid);
+        assertTrue(bf.numPages() > 50);
+        BTreeUtility.checkTree(bf, tuples, false);
+
+        // delete most of the tuples so that pages merge
+        Collections.shuffle(tuples, r);
+        tid = new TransactionId();
+        for (Tuple t : new ArrayList<Tuple>(tuples.subList(0, 4000))) {
+            Database.getBufferPool().deleteTuple(tid, BTreeUtility.lookupTuple(tid, bf, t));
+            tuples.remove(t);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        BTreeUtility.checkTree(bf, tuples, false);
+
+        Database.getBufferPool().flushAllPages();
+        Database.reset();
+        bf = BTreeUtility.openBTreeFile(2, file, 0, true);
+        BTreeUtility.checkTree(bf, tuples, false);
+    }
+
+    /** A rolled back split leaves no trace in the tree */
+    @Test public void testAbortedSplits() throws Exception {
+        TransactionId tid = new TransactionId();
+        List<Tuple> tuples = insert(tid, 2000);
+        Database.getBufferPool().transactionComplete(tid);
+        int numPages = bf.numPages();
+
+        tid = new TransactionId();
+        insert(tid, 2000);
+        assertTrue(bf.numPages() > numPages);
+        Database.getBufferPool().transactionComplete(tid, false);
+        BTreeUtility.checkTree(bf, tuples, false);
+
+        // and the tree is still usable
+        tid = new TransactionId();
+        tuples.addAll(insert(tid, 2000));
+        Database.getBufferPool().transactionComplete(tid);
+        BTreeUtility.checkTree(bf, tuples, false);
+    }
+
+    /** Point lookups run while other threads split pages */
+    @Test public void testSearchDuringSplits() throws Exception {
+        TransactionId tid = new TransactionId();
+        final List<Tuple> tuples = insert(tid, 1000);
+        Database.getBufferPool().transactionComplete(tid);
+
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        final AtomicInteger inserted = new AtomicInteger();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 4; i++) {
+            final int seed = i;
+            threads.add(new Thread() {
+                public void run() {
+                    Random rand = new Random(seed);
+                    for (int j = 0; j < 500 && error.get() == null; j++) {
+                        TransactionId tid = new TransactionId();
+                        try {
+                            Tuple t = BTreeUtility.getBTreeTuple(new int[]{rand.nextInt(100000), -1});
+                            Database.getBufferPool().insertTuple(tid, bf.getId(), t);
+                            Database.getBufferPool().transactionComplete(tid);
+                            inserted.incrementAndGet();
+                        } catch (TransactionAbortedException e) {
+                            abort(tid);
+                        } catch (Throwable e) {
+                            error.compareAndSet(null, e);
+                        }
+                    }
+                }
+            });
+            threads.add(new Thread() {
+                public void run() {
+                    Random rand = new Random(seed);
+                    for (int j = 0; j < 500 && error.get() == null; j++) {
+                        TransactionId tid = new TransactionId();
+                        try {
+                            Tuple t = tuples.get(rand.nextInt(tuples.size()));
+                            if (BTreeUtility.lookupTuple(tid, bf, t) == null) {
+                                error.compareAndSet(null, new AssertionError("lost " + t));
+                            }
+                            Database.getBufferPool().transactionComplete(tid);
+                        } catch (TransactionAbortedException e) {
+                            abort(tid);
+                        } catch (Throwable e) {
+                            error.compareAndSet(null, e);
+                        }
+                    }
+                }
+            });
+        }
+        for (Thread t : threads) t.start();
+        for (Thread t : threads) t.join();
+        if (error.get() != null) {
+            throw new AssertionError(error.get());
+        }
+        assertTrue(inserted.get() > 0);
+        BTreeUtility.checkTree(bf, tuples, false);
+    }
+
+    private static void abort(TransactionId tid) {
+        try {
+            Database.getBufferPool().transactionComplete(tid, false);
+        } catch (java.io.IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(BLinkTreeTest.class);
+    }
+}
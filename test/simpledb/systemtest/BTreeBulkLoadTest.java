@@ -0,0 +1,175 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * System test for loading B+ trees bottom-up from a sorted stream
+ */
+public class BTreeBulkLoadTest extends SimpleDbTestBase {
+    private final Random r = new Random(1);
+    private File file;
+    private BTreeFile bf;
+
+    @Before
+    public void setUp() throws Exception {
+        BTreeUtility.useSmallPages();
+        file = File.createTempFile("bulk", ".dat");
+        file.deleteOnExit();
+        bf = BTreeUtility.createEmptyBTreeFile(file.getAbsolutePath(), 2, 0);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        BTreeUtility.resetSmallPages();
+    }
+
+    /** @return n tuples sorted on the key, with some duplicate keys */
+    private List<Tuple> sortedTuples(int n) {
+        List<Integer> keys = new ArrayList<Integer>();
+        for (int i = 0; i < n; i++) {
+            keys.add(r.nextInt(n / 2));
+        }
+        Collections.sort(keys);
+        List<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < n; i++) {
+            tuples.add(BTreeUtility.getBTreeTuple(new int[]{keys.get(i), i}));
+        }
+        return tuples;
+    }
+
+    private int load(TransactionId tid, List<Tuple> tuples, double fillFactor) throws Exception {
+        OpIterator it = new TupleIterator(Utility.getTupleDesc(2), tuples);
+        it.open();
+        try {
+            return bf.bulkLoad(tid, it, fillFactor);
+        } finally {
+            it.close();
+        }
+    }
+
+    private List<List<Integer>> contents(TransactionId tid) throws Exception {
+        List<List<Integer>> rows = new ArrayList<List<Integer>>();
+        DbFileIterator it = bf.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            rows.add(SystemTestUtil.tupleToList(it.next()));
+        }
+        it.close();
+        return rows;
+    }
+
+    private void check(List<Tuple> tuples) throws Exception {
+        BTreeUtility.checkTree(bf, tuples, false);
+        TransactionId tid = new TransactionId();
+        List<List<Integer>> expected = new ArrayList<List<Integer>>();
+        for (Tuple t : tuples) {
+            expected.add(SystemTestUtil.tupleToList(t));
+        }
+        assertEquals(expected, contents(tid));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** A loaded tree is a valid tree, and survives a crash once committed */
+    @Test public void testLoad() throws Exception {
+        List<Tuple> tuples = sortedTuples(5000);
+        Transaction t = new Transaction();
+        t.start();
+        assertEquals(5000, load(t.getId(), tuples, 1.0));
+        t.commit();
+        check(tuples);
+
+        Database.reset();
+        bf = BTreeUtility.openBTreeFile(2, file, 0);
+        Database.getLogFile().recover();
+        check(tuples);
+    }
+
+    /** Pages are filled to the fill factor, and the tree can still grow and shrink */
+    @Test public void testFillFactor() throws Exception {
+        List<Tuple> tuples = sortedTuples(5000);
+        TransactionId tid = new TransactionId();
+        load(tid, tuples, 0.5);
+        Database.getBufferPool().transactionComplete(tid);
+        int leaves = 5000 / BTreeUtility.getNumTuplesPerPage(2);
+        assertTrue(bf.numPages() > 2 * leaves);
+        assertTrue(bf.numPages() < 3 * leaves);
+        check(tuples);
+
+        tid = new TransactionId();
+        for (int i = 0; i < 2000; i++) {
+            Tuple tup = BTreeUtility.getBTreeTuple(new int[]{r.nextInt(5000), -1});
+            Database.getBufferPool().insertTuple(tid, bf.getId(), tup);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        tid = new TransactionId();
+        BTreeChecker.checkRep(bf, tid, new HashMap<PageId, Page>(), false);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Fence keys and right links are set on the loaded pages in B-link mode */
+    @Test public void testBLink() throws Exception {
+        bf = BTreeUtility.createEmptyBLinkTreeFile(file.getAbsolutePath() + ".blink", 2, 0);
+        new File(file.getAbsolutePath() + ".blink").deleteOnExit();
+        List<Tuple> tuples = sortedTuples(5000);
+        TransactionId tid = new TransactionId();
+        load(tid, tuples, 0.8);
+        Database.getBufferPool().transactionComplete(tid);
+        check(tuples);
+    }
+
+    /** An aborted load leaves the tree empty and usable */
+    @Test public void testAbort() throws Exception {
+        TransactionId tid = new TransactionId();
+        load(tid, sortedTuples(2000), 1.0);
+        Database.getBufferPool().transactionComplete(tid, false);
+        tid = new TransactionId();
+        assertTrue(contents(tid).isEmpty());
+        Database.getBufferPool().transactionComplete(tid);
+
+        List<Tuple> tuples = sortedTuples(2000);
+        tid = new TransactionId();
+        load(tid, tuples, 1.0);
+        Database.getBufferPool().transactionComplete(tid);
+        check(tuples);
+    }
+
+    /** Loads into a non-empty tree and unsorted input are rejected */
+    @Test public void testRejected() throws Exception {
+        List<Tuple> tuples = sortedTuples(2000);
+        Collections.swap(tuples, 100, 1900);
+        TransactionId tid = new TransactionId();
+        try {
+            load(tid, tuples, 1.0);
+            fail("expected DbException");
+        } catch (DbException e) {
+        }
+        Database.getBufferPool().transactionComplete(tid, false);
+
+        tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, bf.getId(), BTreeUtility.getBTreeTuple(new int[]{1, 1}));
+        try {
+            load(tid, sortedTuples(10), 1.0);
+            fail("expected DbException");
+        } catch (DbException e) {
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(BTreeBulkLoadTest.class);
+    }
+}
@@ -0,0 +1,126 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * System test for looking up many keys at once in a B+ tree
+ */
+public class BTreeMultiSearchTest extends SimpleDbTestBase {
+    private final Random r = new Random(1);
+    private File file;
+    private BTreeFile bf;
+
+    @Before
+    public void setUp() throws Exception {
+        BTreeUtility.useSmallPages();
+        file = File.createTempFile("multi", ".dat");
+        file.deleteOnExit();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        BTreeUtility.resetSmallPages();
+    }
+
+    /** @return the tuples inserted, with keys below 2000 so that many are duplicates */
+    private List<List<Integer>> insert(int n) throws Exception {
+        List<List<Integer>> rows = new ArrayList<List<Integer>>();
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < n; i++) {
+            Tuple t = BTreeUtility.getBTreeTuple(new int[]{r.nextInt(2000), i});
+            Database.getBufferPool().insertTuple(tid, bf.getId(), t);
+            rows.add(SystemTestUtil.tupleToList(t));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        return rows;
+    }
+
+    private List<List<Integer>> lookup(List<Field> keys) throws Exception {
+        TransactionId tid = new TransactionId();
+        List<List<Integer>> rows = new ArrayList<List<Integer>>();
+        DbFileIterator it = bf.indexIterator(tid, keys);
+        it.open();
+        while (it.hasNext()) {
+            rows.add(SystemTestUtil.tupleToList(it.next()));
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return rows;
+    }
+
+    private void check(List<List<Integer>> rows, int numKeys) throws Exception {
+        // some keys are missing from the tree, and some are given twice
+        List<Field> keys = new ArrayList<Field>();
+        Set<Integer> keySet = new HashSet<Integer>();
+        for (int i = 0; i < numKeys; i++) {
+            int k = r.nextInt(2200);
+            keys.add(new IntField(k));
+            keys.add(new IntField(k));
+            keySet.add(k);
+        }
+        Collections.shuffle(keys, r);
+
+        List<List<Integer>> expected = new ArrayList<List<Integer>>();
+        for (List<Integer> row : rows) {
+            if (keySet.contains(row.get(0)))
+                expected.add(row);
+        }
+        List<List<Integer>> actual = lookup(keys);
+        for (int i = 1; i < actual.size(); i++) {
+            assertTrue(actual.get(i - 1).get(0) <= actual.get(i).get(0));
+        }
+        // tuples with the same key may come in any order
+        Collections.sort(expected, (a, b) -> a.get(0).equals(b.get(0)) ? a.get(1) - b.get(1) : a.get(0) - b.get(0));
+        Collections.sort(actual, (a, b) -> a.get(0).equals(b.get(0)) ? a.get(1) - b.get(1) : a.get(0) - b.get(0));
+        assertEquals(expected, actual);
+    }
+
+    /** Sparse and dense sets of keys give the same tuples as looking each key up */
+    @Test public void testLookup() throws Exception {
+        bf = BTreeUtility.createEmptyBTreeFile(file.getAbsolutePath(), 2, 0);
+        List<List<Integer>> rows = insert(5000);
+        check(rows, 10);
+        check(rows, 300);
+        check(rows, 3000);
+    }
+
+    /** The same in B-link mode, where far keys are found from an ancestor of the leaf */
+    @Test public void testBLink() throws Exception {
+        bf = BTreeUtility.createEmptyBLinkTreeFile(file.getAbsolutePath(), 2, 0);
+        List<List<Integer>> rows = insert(5000);
+        check(rows, 10);
+        check(rows, 300);
+        check(rows, 3000);
+    }
+
+    /** No keys, or an empty tree, give no tuples */
+    @Test public void testEmpty() throws Exception {
+        bf = BTreeUtility.createEmptyBTreeFile(file.getAbsolutePath(), 2, 0);
+        List<Field> keys = new ArrayList<Field>();
+        assertTrue(lookup(keys).isEmpty());
+        keys.add(new IntField(1));
+        assertTrue(lookup(keys).isEmpty());
+
+        insert(100);
+        assertTrue(lookup(new ArrayList<Field>()).isEmpty());
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(BTreeMultiSearchTest.class);
+    }
+}
@@ -0,0 +1,181 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * System test for B+ trees keyed on a string, whose internal pages use the
+ * compact format with truncated keys
+ */
+public class BTreeStringKeyTest extends SimpleDbTestBase {
+    private static final TupleDesc TD = new TupleDesc(new Type[]{Type.STRING_TYPE, Type.INT_TYPE});
+
+    private final Random r = new Random(1);
+    private File file;
+    private BTreeFile bf;
+
+    @Before
+    public void setUp() throws Exception {
+        BTreeUtility.useSmallPages();
+        file = File.createTempFile("strkey", ".dat");
+        file.deleteOnExit();
+        bf = open(file, false);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        BTreeUtility.resetSmallPages();
+    }
+
+    private static BTreeFile open(File f, boolean blink) {
+        BTreeFile bf = new BTreeFile(f, 0, TD, blink);
+        Database.getCatalog().addTable(bf, UUID.randomUUID().toString());
+        return bf;
+    }
+
+    /** @return a key of 8 to 40 letters, so that keys often share long prefixes */
+    private String randomKey() {
+        StringBuilder sb = new StringBuilder("customer/");
+        int len = 8 + r.nextInt(32);
+        for (int i = 0; i < len; i++) {
+            sb.append((char) ('a' + r.nextInt(i < 2 ? 3 : 26)));
+        }
+        return sb.toString();
+    }
+
+    private Tuple tuple(String key, int value) {
+        Tuple t = new Tuple(TD);
+        t.setField(0, new StringField(key, Type.STRING_LEN));
+        t.setField(1, new IntField(value));
+        return t;
+    }
+
+    private List<Tuple> insert(TransactionId tid, int n) throws Exception {
+        List<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < n; i++) {
+            tuples.add(tuple(randomKey(), i));
+        }
+        BTreeUtility.insertTuples(tid, bf, tuples);
+        return tuples;
+    }
+
+    /** @return the number of entries on each internal page below the root */
+    private List<Integer> internalEntries(BTreePageId pid, boolean root) throws Exception {
+        List<Integer> counts = new ArrayList<Integer>();
+        if (pid.pgcateg() != BTreePageId.INTERNAL)
+            return counts;
+        BTreeInternalPage p = (BTreeInternalPage) bf.readPage(pid);
+        if (!root)
+            counts.add(p.getNumEntries());
+        BTreeEntry e = null;
+        java.util.Iterator<BTreeEntry> it = p.iterator();
+        while (it.hasNext()) {
+            e = it.next();
+            counts.addAll(internalEntries(e.getLeftChild(), false));
+        }
+        counts.addAll(internalEntries(e.getRightChild(), false));
+        return counts;
+    }
+
+    private void run(boolean blink) throws Exception {
+        TransactionId tid = new TransactionId();
+        List<Tuple> tuples = insert(tid, 3000);
+        Database.getBufferPool().transactionComplete(tid);
+        BTreeUtility.checkTree(bf, tuples, true);
+
+        // delete most of the tuples so that pages are merged and redistributed
+        Collections.shuffle(tuples, r);
+        tid = new TransactionId();
+        for (Tuple t : new ArrayList<Tuple>(tuples.subList(0, 2500))) {
+            Database.getBufferPool().deleteTuple(tid, BTreeUtility.lookupTuple(tid, bf, t));
+            tuples.remove(t);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        BTreeUtility.checkTree(bf, tuples, true);
+
+        tid = new TransactionId();
+        tuples.addAll(insert(tid, 1000));
+        Database.getBufferPool().transactionComplete(tid);
+        BTreeUtility.checkTree(bf, tuples, true);
+
+        Database.getBufferPool().flushAllPages();
+        Database.reset();
+        bf = open(file, blink);
+        BTreeUtility.checkTree(bf, tuples, true);
+    }
+
+    /** Inserts and deletes keep the tree valid, and the pages survive a restart */
+    @Test public void testInsertDelete() throws Exception {
+        run(false);
+    }
+
+    /** The same in B-link mode, where the pages also carry fence keys */
+    @Test public void testBLink() throws Exception {
+        file = new File(file.getAbsolutePath() + ".blink");
+        file.deleteOnExit();
+        bf = open(file, true);
+        run(true);
+    }
+
+    /** Internal pages hold more entries than fixed-width string keys would allow */
+    @Test public void testFanout() throws Exception {
+        TransactionId tid = new TransactionId();
+        insert(tid, 3000);
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().flushAllPages();
+
+        // a key and a child pointer per entry; a parent pointer, child category and extra child pointer
+        int fixedMax = (BufferPool.getPageSize() * 8 - 9 * 8 - 1) / ((Type.STRING_TYPE.getLen() + 4) * 8 + 1);
+        BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) bf.readPage(BTreeRootPtrPage.getId(bf.getId()));
+        List<Integer> counts = internalEntries(rootPtr.getRootId(), true);
+        assertFalse(counts.isEmpty());
+        int total = 0;
+        for (int c : counts)
+            total += c;
+        assertTrue(total / counts.size() > 2 * fixedMax);
+    }
+
+    /** The encoder writes string-keyed trees in the compact format */
+    @Test public void testEncoder() throws Exception {
+        List<Tuple> tuples = new ArrayList<Tuple>();
+        File text = File.createTempFile("strkey", ".txt");
+        text.deleteOnExit();
+        BufferedWriter bw = new BufferedWriter(new FileWriter(text));
+        for (int i = 0; i < 3000; i++) {
+            Tuple t = tuple(randomKey(), i);
+            tuples.add(t);
+            bw.write(((StringField) t.getField(0)).getValue() + "," + i + "\n");
+        }
+        bw.close();
+        File hFile = File.createTempFile("strkey", ".heap");
+        hFile.deleteOnExit();
+        bf = BTreeFileEncoder.convert(text, hFile, file, BufferPool.getPageSize(), 2,
+                new Type[]{Type.STRING_TYPE, Type.INT_TYPE}, ',', 0);
+        BTreeUtility.checkTree(bf, tuples, true);
+
+        // and the tree can still be changed
+        TransactionId tid = new TransactionId();
+        tuples.addAll(insert(tid, 1000));
+        Database.getBufferPool().transactionComplete(tid);
+        BTreeUtility.checkTree(bf, tuples, true);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(BTreeStringKeyTest.class);
+    }
+}
@@ -0,0 +1,111 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * System test for inserting many tuples at once through BufferPool.insertTuples
+ */
+public class BatchInsertTest extends SimpleDbTestBase {
+    private ArrayList<ArrayList<Integer>> expected;
+    private int perPage;
+
+    @Before
+    public void setUp() throws Exception {
+        perPage = BufferPool.getPageSize() * 8 / (Utility.getTupleDesc(2).getSize() * 8 + 1);
+        expected = new ArrayList<ArrayList<Integer>>();
+    }
+
+    private List<Tuple> tuples(int n) {
+        List<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < n; i++) {
+            Tuple t = Utility.getHeapTuple(new int[]{i, -i});
+            tuples.add(t);
+            expected.add(SystemTestUtil.tupleToList(t));
+        }
+        return tuples;
+    }
+
+    /** Free slots in existing pages are filled before new pages are added */
+    @Test public void testFillsFreeSlots() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 3 * perPage, null, expected);
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        for (int i = 0; i < 10; i++) {
+            Tuple t = it.next();
+            Database.getBufferPool().deleteTuple(tid, t);
+            expected.remove(SystemTestUtil.tupleToList(t));
+        }
+        it.close();
+
+        List<Tuple> batch = tuples(10 + perPage + 1);
+        Database.getBufferPool().insertTuples(tid, hf.getId(), batch);
+        Database.getBufferPool().transactionComplete(tid);
+        for (int i = 0; i < batch.size(); i++) {
+            int page = batch.get(i).getRecordId().getPageId().getPageNumber();
+            assertEquals(i < 10 ? 0 : i < 10 + perPage ? 3 : 4, page);
+        }
+        assertEquals(5, hf.numPages());
+        SystemTestUtil.matchTuples(hf, expected);
+    }
+
+    /** A batch dirtying more pages than the buffer pool holds commits and aborts */
+    @Test public void testLargerThanBufferPool() throws Exception {
+        Database.resetBufferPool(10);
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 0, null, expected);
+        Transaction t = new Transaction();
+        t.start();
+        Database.getBufferPool().insertTuples(t.getId(), hf.getId(), tuples(30 * perPage));
+        t.commit();
+        SystemTestUtil.matchTuples(hf, expected);
+
+        t = new Transaction();
+        t.start();
+        Database.getBufferPool().insertTuples(t.getId(), hf.getId(), tuples(20 * perPage));
+        t.abort();
+        expected.subList(30 * perPage, expected.size()).clear();
+        SystemTestUtil.matchTuples(hf, expected);
+    }
+
+    /** The Insert operator gives the same table as inserting tuples one at a time */
+    @Test public void testInsertOperator() throws Exception {
+        File f = File.createTempFile("batch", ".dat");
+        f.deleteOnExit();
+        FreeSpaceMap.mapFile(f).deleteOnExit();
+        HeapFile hf = Utility.createEmptyHeapFile(f.getAbsolutePath(), 2);
+        List<Tuple> batch = tuples(2 * Insert.BATCH_SIZE + 7);
+        TransactionId tid = new TransactionId();
+        Insert insert = new Insert(tid, new TupleIterator(Utility.getTupleDesc(2), batch), hf.getId());
+        insert.open();
+        assertEquals(batch.size(), ((IntField) insert.next().getField(0)).getValue());
+        assertFalse(insert.hasNext());
+        insert.close();
+        Database.getBufferPool().transactionComplete(tid);
+        SystemTestUtil.matchTuples(hf, expected);
+    }
+
+    /** B+ trees insert the batch one tuple at a time */
+    @Test public void testBTree() throws Exception {
+        File f = File.createTempFile("batch", ".dat");
+        f.deleteOnExit();
+        BTreeFile bf = BTreeUtility.createEmptyBTreeFile(f.getAbsolutePath(), 2, 0);
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuples(tid, bf.getId(), tuples(3 * perPage));
+        Database.getBufferPool().transactionComplete(tid);
+        SystemTestUtil.matchTuples(bf, expected);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(BatchInsertTest.class);
+    }
+}
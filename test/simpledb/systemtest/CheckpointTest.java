@@ -0,0 +1,102 @@
+package simpledb.systemtest;
+
+import simpledb.*;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Tests fuzzy checkpoints, the log-volume checkpoint trigger and log
+ * truncation.
+ */
+public class CheckpointTest extends SimpleDbTestBase {
+    private HeapFile hf;
+
+    private void setup() throws Exception {
+        hf = SystemTestUtil.createRandomHeapFile(2, 0, 1000, null, null);
+    }
+
+    private void commitRow(int v) throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        SystemTestUtil.insertTuple(t, hf, v);
+        t.commit();
+    }
+
+    private int count() throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        SeqScan scan = new SeqScan(t.getId(), hf.getId(), "");
+        scan.open();
+        int n = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            n++;
+        }
+        scan.close();
+        t.commit();
+        return n;
+    }
+
+    @Test public void testCheckpointDoesNotWritePages() throws Exception {
+        setup();
+        commitRow(1);
+        Database.getLogFile().logCheckpoint();
+
+        // the checkpoint only recorded the page as dirty
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        HeapPage empty = new HeapPage(pid, HeapPage.createEmptyPageData());
+        assertEquals(empty.getNumEmptySlots(),
+                ((HeapPage) hf.readPage(pid)).getNumEmptySlots());
+        assertFalse(Database.getBufferPool().getDirtyPageTable().isEmpty());
+
+        hf = SystemTestUtil.crashAndRecover(hf)[0];
+        assertEquals(1, count());
+    }
+
+    @Test public void testAutomaticCheckpointsBoundLog() throws Exception {
+        setup();
+        LogFile log = Database.getLogFile();
+        log.setCheckpointInterval(64 * 1024);
+        long maxSize = 0;
+        for (int i = 0; i < 300; i++) {
+            commitRow(i);
+            maxSize = Math.max(maxSize, log.getLogSize());
+        }
+        // full page images would make 300 commits ~1.2MB of log
+        assertTrue("log grew to " + maxSize, maxSize < 512 * 1024);
+
+        hf = SystemTestUtil.crashAndRecover(hf)[0];
+        assertEquals(300, count());
+    }
+
+    @Test public void testTruncationKeepsActiveTransaction() throws Exception {
+        setup();
+        LogFile log = Database.getLogFile();
+        log.setCheckpointInterval(32 * 1024);
+
+        Transaction loser = new Transaction();
+        loser.start();
+        SystemTestUtil.insertTuple(loser, hf, -1);
+        // write the uncommitted row to disk
+        Database.getBufferPool().flushAllPages();
+
+        // other tables' commits drive checkpoints and truncation
+        HeapFile other = SystemTestUtil.createRandomHeapFile(2, 0, 1000, null, null);
+        for (int i = 0; i < 100; i++) {
+            Transaction t = new Transaction();
+            t.start();
+            Database.getBufferPool().insertTuple(t.getId(), other.getId(),
+                    Utility.getHeapTuple(new int[]{i, i}));
+            t.commit();
+        }
+
+        hf = SystemTestUtil.crashAndRecover(hf, other)[0];
+        assertEquals(0, count());
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(CheckpointTest.class);
+    }
+}
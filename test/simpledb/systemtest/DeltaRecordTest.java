@@ -0,0 +1,110 @@
+package simpledb.systemtest;
+
+import simpledb.*;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Tests that small page changes are logged as DELTA records and that
+ * rollback and recovery replay them correctly.
+ */
+public class DeltaRecordTest extends SimpleDbTestBase {
+    private HeapFile hf;
+
+    private void setup() throws Exception {
+        hf = SystemTestUtil.createRandomHeapFile(2, 10, 1000, null, null);
+    }
+
+    private int count(int v) throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        SeqScan scan = new SeqScan(t.getId(), hf.getId(), "");
+        scan.open();
+        int n = 0;
+        while (scan.hasNext()) {
+            if (((IntField) scan.next().getField(0)).getValue() == v)
+                n++;
+        }
+        scan.close();
+        t.commit();
+        return n;
+    }
+
+    @Test public void testSmallUpdateLogsDelta() throws Exception {
+        setup();
+        LogFile log = Database.getLogFile();
+        long size = log.getLogSize();
+        Transaction t = new Transaction();
+        t.start();
+        SystemTestUtil.insertTuple(t, hf, -1);
+        t.commit();
+        // a full UPDATE record would hold two whole pages
+        assertTrue("logged " + (log.getLogSize() - size) + " bytes",
+                log.getLogSize() - size < BufferPool.getPageSize() / 8);
+    }
+
+    @Test public void testDeltasRedoneAndUndone() throws Exception {
+        setup();
+        Transaction t1 = new Transaction();
+        t1.start();
+        SystemTestUtil.insertTuple(t1, hf, -1);
+        t1.commit();
+
+        // the loser's delta follows the committed one on the same page
+        Transaction loser = new Transaction();
+        loser.start();
+        SystemTestUtil.insertTuple(loser, hf, -2);
+        Database.getBufferPool().flushAllPages();
+
+        hf = SystemTestUtil.crashAndRecover(hf)[0];
+        assertEquals(1, count(-1));
+        assertEquals(0, count(-2));
+        assertEquals(11, countAll());
+    }
+
+    @Test public void testAbortUndoesLoggedDeltas() throws Exception {
+        setup();
+        Transaction t1 = new Transaction();
+        t1.start();
+        SystemTestUtil.insertTuple(t1, hf, -1);
+        t1.commit();
+
+        Transaction t2 = new Transaction();
+        t2.start();
+        SystemTestUtil.insertTuple(t2, hf, -2);
+        Database.getBufferPool().flushPages(t2.getId());
+        SystemTestUtil.insertTuple(t2, hf, -3);
+        Database.getBufferPool().flushPages(t2.getId());
+        SystemTestUtil.insertTuple(t2, hf, -4);
+        t2.abort();
+
+        assertEquals(1, count(-1));
+        assertEquals(0, count(-2) + count(-3) + count(-4));
+
+        // and nothing comes back after a crash
+        hf = SystemTestUtil.crashAndRecover(hf)[0];
+        assertEquals(1, count(-1));
+        assertEquals(0, count(-2) + count(-3) + count(-4));
+    }
+
+    private int countAll() throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        SeqScan scan = new SeqScan(t.getId(), hf.getId(), "");
+        scan.open();
+        int n = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            n++;
+        }
+        scan.close();
+        t.commit();
+        return n;
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(DeltaRecordTest.class);
+    }
+}
@@ -0,0 +1,147 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * System test for the free space map that HeapFile inserts consult
+ */
+public class FreeSpaceMapTest extends SimpleDbTestBase {
+    private File file;
+    private HeapFile hf;
+    private int perPage;
+
+    @Before
+    public void setUp() throws Exception {
+        // three full pages, written without going through HeapFile
+        perPage = BufferPool.getPageSize() * 8 / (Utility.getTupleDesc(2).getSize() * 8 + 1);
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        file = SystemTestUtil.createRandomHeapFileUnopened(2, 3 * perPage, 1000, null, tuples);
+        hf = Utility.openHeapFile(2, file);
+    }
+
+    /** @return the page the tuple went to */
+    private int insert(TransactionId tid, int value) throws Exception {
+        Tuple t = Utility.getHeapTuple(new int[]{value, value});
+        Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        return t.getRecordId().getPageId().getPageNumber();
+    }
+
+    private Tuple firstTupleOf(TransactionId tid, int pgNo) throws Exception {
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid,
+                new HeapPageId(hf.getId(), pgNo), Permissions.READ_ONLY);
+        return page.iterator().next();
+    }
+
+    /** Full pages are marked as such and not tried again */
+    @Test public void testSkipsFullPages() throws Exception {
+        TransactionId tid = new TransactionId();
+        assertEquals(3, insert(tid, 1));
+        assertEquals(4, hf.numPages());
+        assertEquals(3, new FreeSpaceMap(file).findPage(0, hf.numPages()));
+
+        // fill the new page; the next insert appends another one
+        for (int i = 1; i < perPage; i++) {
+            assertEquals(3, insert(tid, 1));
+        }
+        assertEquals(4, insert(tid, 1));
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(5, hf.numPages());
+    }
+
+    /** A deletion makes its page the target of the next insert */
+    @Test public void testReusesFreedSlot() throws Exception {
+        TransactionId tid = new TransactionId();
+        assertEquals(3, insert(tid, 1));
+        Database.getBufferPool().deleteTuple(tid, firstTupleOf(tid, 1));
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        assertEquals(1, insert(tid, 2));
+        assertEquals(3, insert(tid, 3));
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(4, hf.numPages());
+    }
+
+    /** A deletion that is rolled back only costs the next insert one look at the page */
+    @Test public void testAbortedDelete() throws Exception {
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().deleteTuple(tid, firstTupleOf(tid, 0));
+        Database.getBufferPool().transactionComplete(tid, false);
+
+        tid = new TransactionId();
+        assertEquals(3, insert(tid, 1));
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(3, new FreeSpaceMap(file).findPage(0, hf.numPages()));
+
+        tid = new TransactionId();
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid,
+                new HeapPageId(hf.getId(), 0), Permissions.READ_ONLY);
+        assertEquals(0, page.getNumEmptySlots());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Pages filled by an aborted insert are not left marked as full */
+    @Test public void testAbortedInsert() throws Exception {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < 3 * perPage; i++) {
+            tuples.add(Utility.getHeapTuple(new int[]{i, i}));
+        }
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuples(tid, hf.getId(), tuples);
+        int numPages = hf.numPages();
+        assertEquals(numPages, new FreeSpaceMap(file).findPage(0, numPages));
+        Database.getBufferPool().transactionComplete(tid, false);
+        assertEquals(3, new FreeSpaceMap(file).findPage(0, numPages));
+
+        tid = new TransactionId();
+        assertEquals(3, insert(tid, 1));
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(numPages, hf.numPages());
+    }
+
+    /** The map is kept on disk and read again when the table is reopened */
+    @Test public void testPersists() throws Exception {
+        TransactionId tid = new TransactionId();
+        assertEquals(3, insert(tid, 1));
+        Database.getBufferPool().deleteTuple(tid, firstTupleOf(tid, 2));
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().flushAllPages();
+
+        Database.reset();
+        hf = Utility.openHeapFile(2, file);
+        assertEquals(2, new FreeSpaceMap(file).findPage(0, hf.numPages()));
+        tid = new TransactionId();
+        assertEquals(2, insert(tid, 2));
+        assertEquals(3, insert(tid, 3));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Creating a new file at the same path drops the old map */
+    @Test public void testNewFile() throws Exception {
+        TransactionId tid = new TransactionId();
+        insert(tid, 1);
+        Database.getBufferPool().transactionComplete(tid);
+        assertTrue(FreeSpaceMap.mapFile(file).exists());
+
+        // the new table has the same id, so drop the old pages from the buffer pool
+        Database.reset();
+        hf = Utility.createEmptyHeapFile(file.getAbsolutePath(), 2);
+        assertFalse(FreeSpaceMap.mapFile(file).exists());
+        tid = new TransactionId();
+        assertEquals(0, insert(tid, 1));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(FreeSpaceMapTest.class);
+    }
+}
@@ -0,0 +1,90 @@
+package simpledb.systemtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicReference;
+
+import simpledb.*;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Tests that concurrent commits share fsyncs through the log-flush thread.
+ */
+public class GroupCommitTest extends SimpleDbTestBase {
+    private static final int THREADS = 8;
+    private static final int COMMITS_PER_THREAD = 20;
+
+    @Test public void testConcurrentCommitsShareForces() throws Exception {
+        // a generous delay makes batching deterministic enough to assert on
+        Database.getLogFile().setGroupCommitDelay(5000);
+        final HeapFile[] tables = new HeapFile[THREADS];
+        for (int i = 0; i < THREADS; i++) {
+            File f = File.createTempFile("groupcommit", ".dat");
+            f.deleteOnExit();
+            FreeSpaceMap.mapFile(f).deleteOnExit();
+            tables[i] = Utility.createEmptyHeapFile(f.getAbsolutePath(), 2);
+        }
+
+        final CyclicBarrier barrier = new CyclicBarrier(THREADS);
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        Thread[] threads = new Thread[THREADS];
+        for (int i = 0; i < THREADS; i++) {
+            final HeapFile table = tables[i];
+            threads[i] = new Thread(() -> {
+                try {
+                    for (int j = 0; j < COMMITS_PER_THREAD; j++) {
+                        barrier.await();
+                        Transaction t = new Transaction();
+                        t.start();
+                        Database.getBufferPool().insertTuple(t.getId(), table.getId(),
+                                Utility.getHeapTuple(new int[]{j, j}));
+                        t.commit();
+                    }
+                } catch (Throwable e) {
+                    error.compareAndSet(null, e);
+                    barrier.reset();
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread t : threads)
+            t.join();
+        assertNull(error.get());
+
+        int forces = Database.getLogFile().getTotalForces();
+        assertTrue("expected fewer fsyncs than commits, got " + forces,
+                forces < THREADS * COMMITS_PER_THREAD / 2);
+
+        // every committed row must be visible
+        Transaction t = new Transaction();
+        t.start();
+        for (HeapFile table : tables) {
+            SeqScan scan = new SeqScan(t.getId(), table.getId(), "");
+            scan.open();
+            int count = 0;
+            while (scan.hasNext()) {
+                scan.next();
+                count++;
+            }
+            scan.close();
+            assertEquals(COMMITS_PER_THREAD, count);
+        }
+        t.commit();
+    }
+
+    @Test public void testForceWaitsForFlusher() throws IOException {
+        Transaction t = new Transaction();
+        t.start();
+        Database.getLogFile().force();
+        assertTrue(Database.getLogFile().getTotalForces() >= 1);
+        t.commit();
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(GroupCommitTest.class);
+    }
+}
@@ -0,0 +1,202 @@
+package simpledb.systemtest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import simpledb.*;
+
+public class IndexScanPlanTest extends SimpleDbTestBase {
+	private static final int ROWS = 20000;
+	private static final int MAX_VALUE = 10000;
+
+	private ArrayList<ArrayList<Integer>> bTuples;
+	private ArrayList<ArrayList<Integer>> hTuples;
+	private Parser p;
+	private TransactionId tid;
+
+	@Before public void setUp() throws Exception {
+		super.setUp();
+		bTuples = new ArrayList<ArrayList<Integer>>();
+		BTreeFile bf = BTreeUtility.createRandomBTreeFile(3, ROWS, MAX_VALUE, null, bTuples, 0);
+		// the same file again, with names for its fields
+		BTreeFile b = new BTreeFile(bf.getFile(), 0, Utility.getTupleDesc(3, "c"));
+		Database.getCatalog().addTable(b, "b");
+		hTuples = new ArrayList<ArrayList<Integer>>();
+		HeapFile h = SystemTestUtil.createRandomHeapFile(2, 200, MAX_VALUE, null, hTuples, "c");
+		Database.getCatalog().addTable(h, "h");
+		TableStats.setTableStats("b", new TableStats(b.getId(), 1000));
+		TableStats.setTableStats("h", new TableStats(h.getId(), 1000));
+		p = new Parser();
+		tid = new TransactionId();
+	}
+
+	private OpIterator plan(String sql) throws Exception {
+		LogicalPlan lp = p.generateLogicalPlan(tid, sql);
+		return lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+	}
+
+	//计划中所有的扫描
+	private static void scans(OpIterator it, ArrayList<OpIterator> out) {
+		if (it instanceof Operator) {
+			for (OpIterator child : ((Operator) it).getChildren()) {
+				scans(child, out);
+			}
+		} else {
+			out.add(it);
+		}
+	}
+
+	private static OpIterator onlyScan(OpIterator plan) {
+		ArrayList<OpIterator> out = new ArrayList<OpIterator>();
+		scans(plan, out);
+		assertEquals(1, out.size());
+		return out.get(0);
+	}
+
+	private static boolean contains(OpIterator it, Class<?> c) {
+		if (c.isInstance(it)) {
+			return true;
+		}
+		if (it instanceof Operator) {
+			for (OpIterator child : ((Operator) it).getChildren()) {
+				if (contains(child, c)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private static ArrayList<Integer> column(OpIterator plan, int field) throws Exception {
+		ArrayList<Integer> values = new ArrayList<Integer>();
+		plan.open();
+		while (plan.hasNext()) {
+			values.add(((IntField) plan.next().getField(field)).getValue());
+		}
+		plan.close();
+		return values;
+	}
+
+	/** A selective filter on the key reads the table through its index */
+	@Test public void rangeTest() throws Exception {
+		OpIterator plan = plan("SELECT b.c0, b.c1 FROM b WHERE b.c0 < 50 AND b.c1 > 5000;");
+		OpIterator scan = onlyScan(plan);
+		assertTrue(scan instanceof BTreeScan);
+		assertEquals(Predicate.Op.LESS_THAN, ((BTreeScan) scan).getIndexPredicate().getOp());
+		// the filter on c1 is still applied
+		assertTrue(contains(plan, Filter.class));
+
+		ArrayList<Integer> expected = new ArrayList<Integer>();
+		for (ArrayList<Integer> tuple : bTuples) {
+			if (tuple.get(0) < 50 && tuple.get(1) > 5000) {
+				expected.add(tuple.get(0));
+			}
+		}
+		ArrayList<Integer> actual = column(plan, 0);
+		Collections.sort(expected);
+		Collections.sort(actual);
+		assertEquals(expected, actual);
+	}
+
+	@Test public void equalityTest() throws Exception {
+		int key = bTuples.get(0).get(0);
+		OpIterator plan = plan("SELECT b.c2 FROM b WHERE b.c0 = " + key + ";");
+		OpIterator scan = onlyScan(plan);
+		assertTrue(scan instanceof BTreeScan);
+		assertFalse(contains(plan, Filter.class));
+		int expected = 0;
+		for (ArrayList<Integer> tuple : bTuples) {
+			if (tuple.get(0) == key) {
+				expected++;
+			}
+		}
+		assertEquals(expected, column(plan, 0).size());
+	}
+
+	/** Filters that select most of the table, or not on its key, scan it all */
+	@Test public void fullScanTest() throws Exception {
+		assertTrue(onlyScan(plan("SELECT b.c0 FROM b WHERE b.c0 > 100;")) instanceof SeqScan);
+		assertTrue(onlyScan(plan("SELECT b.c0 FROM b WHERE b.c1 < 50;")) instanceof SeqScan);
+		assertTrue(onlyScan(plan("SELECT b.c0 FROM b WHERE b.c0 <> 50;")) instanceof SeqScan);
+	}
+
+	/** A query of one BTreeFile ordered by its key is not sorted */
+	@Test public void orderByTest() throws Exception {
+		OpIterator plan = plan("SELECT b.c0 FROM b WHERE b.c0 >= 9000 ORDER BY b.c0 DESC;");
+		OpIterator scan = onlyScan(plan);
+		assertTrue(scan instanceof BTreeReverseScan);
+		assertNotNull(((BTreeReverseScan) scan).getIndexPredicate());
+		assertFalse(contains(plan, OrderBy.class));
+
+		ArrayList<Integer> expected = new ArrayList<Integer>();
+		for (ArrayList<Integer> tuple : bTuples) {
+			if (tuple.get(0) >= 9000) {
+				expected.add(tuple.get(0));
+			}
+		}
+		Collections.sort(expected, Collections.reverseOrder());
+		assertEquals(expected, column(plan, 0));
+
+		plan = plan("SELECT b.c0 FROM b ORDER BY b.c0;");
+		assertTrue(onlyScan(plan) instanceof BTreeScan);
+		assertFalse(contains(plan, OrderBy.class));
+		expected.clear();
+		for (ArrayList<Integer> tuple : bTuples) {
+			expected.add(tuple.get(0));
+		}
+		Collections.sort(expected);
+		assertEquals(expected, column(plan, 0));
+
+		// ordered by another field, the tuples are sorted
+		assertTrue(contains(plan("SELECT b.c1 FROM b ORDER BY b.c1;"), OrderBy.class));
+	}
+
+	/** A table read through its index is joined like any other */
+	@Test public void joinTest() throws Exception {
+		OpIterator plan = plan("SELECT b.c0, h.c0 FROM b, h WHERE b.c1 = h.c1 AND b.c0 < 100;");
+		boolean index = false;
+		ArrayList<OpIterator> out = new ArrayList<OpIterator>();
+		scans(plan, out);
+		for (OpIterator scan : out) {
+			index |= scan instanceof BTreeScan;
+		}
+		assertTrue(index);
+
+		int expected = 0;
+		for (ArrayList<Integer> bt : bTuples) {
+			for (ArrayList<Integer> ht : hTuples) {
+				if (bt.get(0) < 100 && bt.get(1).equals(ht.get(1))) {
+					expected++;
+				}
+			}
+		}
+		assertEquals(expected, column(plan, 0).size());
+	}
+
+	/** Index scans of a prepared statement use the values of its parameters */
+	@Test public void preparedTest() throws Exception {
+		PreparedStatement ps = p.prepare("SELECT b.c0 FROM b WHERE b.c0 < ?;");
+		for (int v : new int[] { 10, 200, 30 }) {
+			int expected = 0;
+			for (ArrayList<Integer> tuple : bTuples) {
+				if (tuple.get(0) < v) {
+					expected++;
+				}
+			}
+			Query q = ps.bind(tid, v);
+			int n = 0;
+			q.start();
+			while (q.hasNext()) {
+				q.next();
+				n++;
+			}
+			q.close();
+			assertEquals(expected, n);
+		}
+	}
+}
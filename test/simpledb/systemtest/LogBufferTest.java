@@ -0,0 +1,86 @@
+package simpledb.systemtest;
+
+import java.io.File;
+
+import simpledb.*;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Tests LSN assignment and the write-ahead rule enforced through the log buffer.
+ */
+public class LogBufferTest extends SimpleDbTestBase {
+
+    private HeapFile createTable() throws Exception {
+        File f = File.createTempFile("logbuffer", ".dat");
+        f.deleteOnExit();
+        FreeSpaceMap.mapFile(f).deleteOnExit();
+        return Utility.createEmptyHeapFile(f.getAbsolutePath(), 2);
+    }
+
+    @Test public void testPageLSNIsDurableAfterFlush() throws Exception {
+        HeapFile table = createTable();
+        LogFile log = Database.getLogFile();
+
+        Transaction t = new Transaction();
+        t.start();
+        Database.getBufferPool().insertTuple(t.getId(), table.getId(),
+                Utility.getHeapTuple(new int[]{1, 2}));
+        HeapPageId pid = new HeapPageId(table.getId(), 0);
+        Page p = Database.getBufferPool().getPage(t.getId(), pid, Permissions.READ_ONLY);
+        assertEquals(0, p.getLSN());
+
+        long before = log.getEndLSN();
+        Database.getBufferPool().flushPages(t.getId());
+        assertTrue(p.getLSN() >= before);
+        assertTrue(p.getLSN() < log.getEndLSN());
+        // the page reached disk, so its UPDATE record must have as well
+        assertTrue(log.getDurableLSN() > p.getLSN());
+        t.commit();
+    }
+
+    @Test public void testLSNsIncreaseAcrossTruncation() throws Exception {
+        HeapFile table = createTable();
+        LogFile log = Database.getLogFile();
+
+        Transaction t1 = new Transaction();
+        t1.start();
+        Database.getBufferPool().insertTuple(t1.getId(), table.getId(),
+                Utility.getHeapTuple(new int[]{1, 1}));
+        t1.commit();
+        long lsn = log.getEndLSN();
+
+        // the checkpoint truncates everything before it
+        log.logCheckpoint();
+        assertTrue(log.getEndLSN() > lsn);
+        lsn = log.getEndLSN();
+
+        Transaction t2 = new Transaction();
+        t2.start();
+        Database.getBufferPool().insertTuple(t2.getId(), table.getId(),
+                Utility.getHeapTuple(new int[]{2, 2}));
+        Database.getBufferPool().flushPages(t2.getId());
+        HeapPageId pid = new HeapPageId(table.getId(), 0);
+        Page p = Database.getBufferPool().getPage(t2.getId(), pid, Permissions.READ_ONLY);
+        assertTrue(p.getLSN() > lsn);
+        t2.commit();
+        assertEquals(log.getEndLSN(), log.getDurableLSN());
+    }
+
+    @Test public void testFlushToAlreadyDurableReturnsImmediately() throws Exception {
+        LogFile log = Database.getLogFile();
+        Transaction t = new Transaction();
+        t.start();
+        log.force();
+        int forces = log.getTotalForces();
+        log.flushTo(log.getDurableLSN() - 1);
+        assertEquals(forces, log.getTotalForces());
+        t.commit();
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(LogBufferTest.class);
+    }
+}
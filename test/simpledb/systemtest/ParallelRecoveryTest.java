@@ -0,0 +1,73 @@
+package simpledb.systemtest;
+
+import simpledb.*;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Tests recovery with several redo partitions and several losers undone
+ * in parallel.
+ */
+public class ParallelRecoveryTest extends SimpleDbTestBase {
+    private static final int PAGES = 16;
+    private HeapFile hf;
+    private int rowsPerPage;
+
+    private void setup() throws Exception {
+        rowsPerPage = BufferPool.getPageSize() * 8 / (2 * Type.INT_TYPE.getLen() * 8 + 1);
+        hf = SystemTestUtil.createRandomHeapFile(2, PAGES * rowsPerPage, 1000, null, null);
+    }
+
+    private void delete(Transaction t, int page, int slot) throws Exception {
+        Tuple row = new Tuple(Utility.getTupleDesc(2));
+        row.setRecordId(new RecordId(new HeapPageId(hf.getId(), page), slot));
+        Database.getBufferPool().deleteTuple(t.getId(), row);
+    }
+
+    private int countOnPage(int page) {
+        HeapPage p = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), page));
+        return rowsPerPage - p.getNumEmptySlots();
+    }
+
+    private void run(int threads) throws Exception {
+        setup();
+        // committed deletes on the first half of the pages
+        for (int i = 0; i < 200; i++) {
+            Transaction t = new Transaction();
+            t.start();
+            delete(t, i % (PAGES / 2), i / (PAGES / 2));
+            t.commit();
+        }
+        // one loser per page in the second half, stolen to disk
+        for (int page = PAGES / 2; page < PAGES; page++) {
+            Transaction loser = new Transaction();
+            loser.start();
+            for (int slot = 0; slot < 10; slot++) {
+                delete(loser, page, slot);
+                Database.getBufferPool().flushPages(loser.getId());
+            }
+        }
+
+        hf = SystemTestUtil.crashAndRecover(threads, hf)[0];
+        for (int page = 0; page < PAGES / 2; page++) {
+            assertEquals(rowsPerPage - 200 / (PAGES / 2), countOnPage(page));
+        }
+        for (int page = PAGES / 2; page < PAGES; page++) {
+            assertEquals(rowsPerPage, countOnPage(page));
+        }
+    }
+
+    @Test public void testSingleThread() throws Exception {
+        run(1);
+    }
+
+    @Test public void testManyThreads() throws Exception {
+        run(4);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ParallelRecoveryTest.class);
+    }
+}
@@ -0,0 +1,194 @@
+package simpledb.systemtest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import simpledb.*;
+
+public class PreparedStatementTest extends SimpleDbTestBase {
+	private ArrayList<ArrayList<Integer>> tTuples;
+	private ArrayList<ArrayList<Integer>> uTuples;
+	private HeapFile u;
+	private Parser p;
+
+	@Before public void setUp() throws Exception {
+		super.setUp();
+		tTuples = new ArrayList<ArrayList<Integer>>();
+		HeapFile t = SystemTestUtil.createRandomHeapFile(2, 2000, 20, null, tTuples, "c");
+		Database.getCatalog().addTable(t, "t");
+		uTuples = new ArrayList<ArrayList<Integer>>();
+		u = SystemTestUtil.createRandomHeapFile(2, 500, 20, null, uTuples, "c");
+		Database.getCatalog().addTable(u, "u");
+		TableStats.setTableStats("t", new TableStats(t.getId(), 1000));
+		TableStats.setTableStats("u", new TableStats(u.getId(), 1000));
+		p = new Parser();
+	}
+
+	private static int count(Query q) throws Exception {
+		int n = 0;
+		q.start();
+		while (q.hasNext()) {
+			q.next();
+			n++;
+		}
+		q.close();
+		return n;
+	}
+
+	/** A statement is run again with other values of its parameters */
+	@Test public void parametersTest() throws Exception {
+		PreparedStatement ps = p.prepare("SELECT t.c1 FROM t WHERE t.c0 = ? AND t.c1 < ?;");
+		assertEquals(2, ps.numParameters());
+		TransactionId tid = new TransactionId();
+		for (int v = 0; v < 5; v++) {
+			int expected = 0;
+			for (ArrayList<Integer> tuple : tTuples) {
+				if (tuple.get(0) == v && tuple.get(1) < 10) {
+					expected++;
+				}
+			}
+			// a value may be given as a string too
+			assertEquals(expected, count(ps.bind(tid, v, "10")));
+		}
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	/** The joins are ordered when a statement is first bound only */
+	@Test public void joinOrderTest() throws Exception {
+		PreparedStatement ps = p.prepare("SELECT t.c0 FROM t, u WHERE t.c1 = u.c0 AND u.c1 = ?;");
+		assertTrue(ps.needsPlanning());
+		TransactionId tid = new TransactionId();
+		for (int v = 0; v < 3; v++) {
+			int expected = 0;
+			for (ArrayList<Integer> tt : tTuples) {
+				for (ArrayList<Integer> ut : uTuples) {
+					if (tt.get(1).equals(ut.get(0)) && ut.get(1) == v) {
+						expected++;
+					}
+				}
+			}
+			assertEquals(expected, count(ps.bind(tid, v)));
+			assertFalse(ps.needsPlanning());
+		}
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	/**
+	 * The joins are ordered again once the histograms of a table are rebuilt,
+	 * and the statement is parsed again once a table is replaced.
+	 */
+	@Test public void invalidationTest() throws Exception {
+		String sql = "SELECT t.c0 FROM t, u WHERE t.c1 = u.c0";
+		PreparedStatement ps = p.prepare(sql);
+		TransactionId tid = new TransactionId();
+		count(ps.bind(tid));
+		assertFalse(ps.needsPlanning());
+
+		// a few changes leave the histograms as they are
+		ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+		for (int i = 0; i < 10; i++) {
+			Tuple tup = new Tuple(u.getTupleDesc());
+			tup.setField(0, new IntField(i));
+			tup.setField(1, new IntField(i));
+			tuples.add(tup);
+		}
+		Database.getBufferPool().insertTuples(tid, u.getId(), tuples);
+		assertFalse(ps.needsPlanning());
+
+		for (int i = 0; i < 20; i++) {
+			Database.getBufferPool().insertTuples(tid, u.getId(), tuples);
+		}
+		// the statistics change when the inserts commit
+		assertFalse(ps.needsPlanning());
+		Database.getBufferPool().transactionComplete(tid);
+		tid = new TransactionId();
+		assertTrue(ps.needsPlanning());
+		int expected = 0;
+		for (ArrayList<Integer> tt : tTuples) {
+			for (ArrayList<Integer> ut : uTuples) {
+				if (tt.get(1).equals(ut.get(0))) {
+					expected++;
+				}
+			}
+			// each of the values 0 to 9 was inserted 21 times
+			if (tt.get(1) < 10) {
+				expected += 21;
+			}
+		}
+		assertEquals(expected, count(ps.bind(tid)));
+		assertFalse(ps.needsPlanning());
+		Database.getBufferPool().transactionComplete(tid);
+
+		assertSame(ps, p.prepare(sql));
+		HeapFile t2 = SystemTestUtil.createRandomHeapFile(2, 10, null, null, "c");
+		Database.getCatalog().addTable(t2, "t");
+		assertFalse(ps.isValid());
+		assertNotSame(ps, p.prepare(sql));
+	}
+
+	/** Statements are cached by their text, up to the capacity of the cache */
+	@Test public void cacheTest() throws Exception {
+		StatementCache cache = Database.getStatementCache();
+		PreparedStatement a = p.prepare("SELECT * FROM t WHERE t.c0 = ?;");
+		assertSame(a, p.prepare("  SELECT *\n\tFROM t  WHERE t.c0 = ?  "));
+		assertEquals(1, cache.size());
+
+		cache.setCapacity(2);
+		PreparedStatement b = p.prepare("SELECT * FROM u WHERE u.c0 = ?;");
+		assertSame(a, p.prepare("SELECT * FROM t WHERE t.c0 = ?;"));
+		p.prepare("SELECT * FROM u WHERE u.c1 = ?;");
+		// b was used least recently
+		assertEquals(2, cache.size());
+		assertNull(cache.get("SELECT * FROM u WHERE u.c0 = ?;"));
+		assertSame(a, cache.get("SELECT * FROM t WHERE t.c0 = ?;"));
+		assertNotSame(b, p.prepare("SELECT * FROM u WHERE u.c0 = ?;"));
+
+		// queries run by the parser are cached too
+		p.processNextStatement("SELECT * FROM t WHERE t.c1 = 3;");
+		PreparedStatement c = cache.get("SELECT * FROM t WHERE t.c1 = 3");
+		assertNotNull(c);
+		assertEquals(0, c.numParameters());
+		assertFalse(c.needsPlanning());
+
+		// the plan is printed when the query is run again from the cache
+		PrintStream out = System.out;
+		ByteArrayOutputStream printed = new ByteArrayOutputStream();
+		System.setOut(new PrintStream(printed));
+		try {
+			p.processNextStatement("SELECT * FROM t WHERE t.c1 = 3;");
+		} finally {
+			System.setOut(out);
+		}
+		assertSame(c, cache.get("SELECT * FROM t WHERE t.c1 = 3"));
+		assertTrue(printed.toString().contains("The query plan is:"));
+	}
+
+	@Test public void errorsTest() throws Exception {
+		PreparedStatement ps = p.prepare("SELECT * FROM t WHERE t.c0 = ?;");
+		TransactionId tid = new TransactionId();
+		try {
+			ps.bind(tid);
+			fail("expected ParsingException");
+		} catch (ParsingException e) {
+		}
+		try {
+			ps.bind(tid, "x");
+			fail("expected ParsingException");
+		} catch (ParsingException e) {
+		}
+		// a ? in a string constant is not a parameter
+		assertEquals(0, p.prepare("SELECT * FROM t WHERE t.c0 = '?';").numParameters());
+		try {
+			p.prepare("DELETE FROM t WHERE t.c0 = ?;");
+			fail("expected ParsingException");
+		} catch (ParsingException e) {
+		}
+		Database.getBufferPool().transactionComplete(tid);
+	}
+}
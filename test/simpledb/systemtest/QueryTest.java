@@ -8,6 +8,7 @@ import org.junit.Test;
 import simpledb.BufferPool;
 import simpledb.Database;
 import simpledb.DbException;
+import simpledb.FreeSpaceMap;
 import simpledb.HeapFile;
 import simpledb.HeapFileEncoder;
 import simpledb.Parser;
@@ -29,6 +30,7 @@ public class QueryTest {
 	public static HeapFile createDuplicateHeapFile(ArrayList<ArrayList<Integer>> tuples, int columns, String colPrefix) throws IOException {
         File temp = File.createTempFile("table", ".dat");
         temp.deleteOnExit();
+        FreeSpaceMap.mapFile(temp).deleteOnExit();
         HeapFileEncoder.convert(tuples, temp, BufferPool.getPageSize(), columns);
         return Utility.openHeapFile(columns, colPrefix, temp);
 	}
@@ -0,0 +1,83 @@
+package simpledb.systemtest;
+
+import java.util.Iterator;
+
+import simpledb.*;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Tests that commits do not force data pages, that running transactions'
+ * pages can be stolen, and that recovery redoes and undoes accordingly.
+ */
+public class StealNoForceTest extends SimpleDbTestBase {
+    private HeapFile hf;
+
+    private void setup(int rows) throws Exception {
+        hf = SystemTestUtil.createRandomHeapFile(2, rows, 1000, null, null);
+    }
+
+    private boolean onDisk(int pageNo, int value) {
+        HeapPage p = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), pageNo));
+        Iterator<Tuple> it = p.iterator();
+        while (it.hasNext()) {
+            if (((IntField) it.next().getField(0)).getValue() == value)
+                return true;
+        }
+        return false;
+    }
+
+    @Test public void testCommitDoesNotWritePages() throws Exception {
+        setup(10);
+        Transaction t = new Transaction();
+        t.start();
+        EvictionTest.insertRow(hf, t);
+        t.commit();
+
+        // NO-FORCE: the committed row is only in the log and the buffer pool
+        assertFalse(onDisk(0, -42));
+
+        hf = SystemTestUtil.crashAndRecover(hf)[0];
+        t = new Transaction();
+        t.start();
+        assertTrue(EvictionTest.findMagicTuple(hf, t));
+        t.commit();
+    }
+
+    @Test public void testStolenPageUndoneByRecovery() throws Exception {
+        setup(512 * 10);
+        Database.resetBufferPool(2);
+        Transaction t = new Transaction();
+        t.start();
+        EvictionTest.insertRow(hf, t);
+        // scanning the whole table evicts the dirty page (STEAL)
+        assertTrue(EvictionTest.findMagicTuple(hf, t));
+
+        hf = SystemTestUtil.crashAndRecover(hf)[0];
+        t = new Transaction();
+        t.start();
+        assertFalse(EvictionTest.findMagicTuple(hf, t));
+        t.commit();
+    }
+
+    @Test public void testStolenPageUndoneByAbort() throws Exception {
+        setup(512 * 10);
+        Database.resetBufferPool(2);
+        Transaction t = new Transaction();
+        t.start();
+        EvictionTest.insertRow(hf, t);
+        assertTrue(EvictionTest.findMagicTuple(hf, t));
+        t.abort();
+
+        t = new Transaction();
+        t.start();
+        assertFalse(EvictionTest.findMagicTuple(hf, t));
+        t.commit();
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(StealNoForceTest.class);
+    }
+}
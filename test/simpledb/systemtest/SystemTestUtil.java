@@ -3,6 +3,7 @@ package simpledb.systemtest;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
@@ -81,6 +82,7 @@ public class SystemTestUtil {
         // Convert the tuples list to a heap file and open it
         File temp = File.createTempFile("table", ".dat");
         temp.deleteOnExit();
+        FreeSpaceMap.mapFile(temp).deleteOnExit();
         HeapFileEncoder.convert(tuples, temp, BufferPool.getPageSize(), columns);
         return temp;
     }
@@ -146,6 +148,48 @@ public class SystemTestUtil {
         }
     }
 
+    /**
+     * Simulates a crash and restart of the database: the Database is reset,
+     * losing the contents of the buffer pool, the files of the given tables
+     * are opened again and the log is recovered.
+     *
+     * @return the reopened tables, in the order given
+     */
+    public static HeapFile[] crashAndRecover(HeapFile... tables) throws IOException {
+        return crashAndRecover(0, tables);
+    }
+
+    /**
+     * Like {@link #crashAndRecover(HeapFile...)}, recovering with the given
+     * number of threads, or the default number if it is 0.
+     */
+    public static HeapFile[] crashAndRecover(int recoveryThreads, HeapFile... tables) throws IOException {
+        Database.reset();
+        HeapFile[] reopened = new HeapFile[tables.length];
+        for (int i = 0; i < tables.length; i++) {
+            reopened[i] = Utility.openHeapFile(tables[i].getTupleDesc().numFields(), tables[i].getFile());
+        }
+        if (recoveryThreads > 0) {
+            Database.getLogFile().setRecoveryThreads(recoveryThreads);
+        }
+        Database.getLogFile().recover();
+        return reopened;
+    }
+
+    /**
+     * Inserts the tuple (value, value) into a table of two integer columns,
+     * through the Insert operator, as part of transaction t.
+     */
+    public static void insertTuple(Transaction t, HeapFile table, int value)
+            throws DbException, TransactionAbortedException {
+        Tuple tuple = Utility.getHeapTuple(new int[]{value, value});
+        Insert insert = new Insert(t.getId(),
+                new TupleIterator(Utility.getTupleDesc(2), Arrays.asList(tuple)), table.getId());
+        insert.open();
+        insert.next();
+        insert.close();
+    }
+
     /**
      * Returns number of bytes of RAM used by JVM after calling System.gc many times.
      * @return amount of RAM (in bytes) used by JVM